@@ -0,0 +1,83 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.benchmarks;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+
+/**
+ * Runs the benchmarks selected by the usual JMH command line, e.g.
+ * {@code java -jar benchmarks.jar Encode -p algorithm=Reed_Solomon -prof gc},
+ * then prints every result as MB/s of data bytes, together with the bytes
+ * allocated per operation when the gc profiler is enabled.
+ */
+public class BenchmarkMain {
+
+  private static final double MB = 1024.0 * 1024.0;
+  private static final String ALLOC_RATE_NORM = "gc.alloc.rate.norm";
+
+  public static void main(String[] args) throws Exception {
+    Collection<RunResult> results =
+        new Runner(new CommandLineOptions(args)).run();
+
+    System.out.println();
+    System.out.printf("%-60s %-70s %12s %12s%n", "Benchmark", "Params",
+        "MB/s", "B/op");
+    for (RunResult result : results) {
+      String k = result.getParams().getParam("k");
+      String blockSize = result.getParams().getParam("blockSize");
+      if (k == null || blockSize == null) {
+        continue;
+      }
+      double opsPerSecond = result.getPrimaryResult().getScore();
+      double mbPerSecond = opsPerSecond * Long.parseLong(k)
+          * Long.parseLong(blockSize) / MB;
+      System.out.printf("%-60s %-70s %12.1f %12s%n",
+          result.getParams().getBenchmark(), params(result),
+          mbPerSecond, allocation(result));
+    }
+  }
+
+  private static String params(RunResult result) {
+    StringBuilder builder = new StringBuilder();
+    for (String key : result.getParams().getParamsKeys()) {
+      if (builder.length() > 0) {
+        builder.append(' ');
+      }
+      builder.append(key).append('=')
+          .append(result.getParams().getParam(key));
+    }
+    return builder.toString();
+  }
+
+  private static String allocation(RunResult result) {
+    for (Map.Entry<String, Result> entry
+        : result.getSecondaryResults().entrySet()) {
+      // The key is prefixed with a middle dot on older JMH versions
+      if (entry.getKey().endsWith(ALLOC_RATE_NORM)) {
+        return String.format("%.1f", entry.getValue().getScore());
+      }
+    }
+    return "-";
+  }
+}
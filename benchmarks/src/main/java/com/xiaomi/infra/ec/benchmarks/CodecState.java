@@ -0,0 +1,108 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.xiaomi.infra.ec.ErasureCodec;
+import com.xiaomi.infra.ec.ErasureCodec.Algorithm;
+
+/**
+ * The codec geometry shared by the benchmarks, with one stripe of random
+ * data and its coding blocks, both as arrays and as direct buffers.
+ */
+@State(Scope.Thread)
+public class CodecState {
+
+  /** The prefix of the algorithms built with good Cauchy matrices. */
+  private static final String GOOD_PREFIX = "Good_";
+
+  /**
+   * The {@link Algorithm} name, or Good_Cauchy_Reed_Solomon for a good
+   * Cauchy matrix, so that no run measures an invalid combination.
+   */
+  @Param({"Reed_Solomon", "Cauchy_Reed_Solomon", "Good_Cauchy_Reed_Solomon",
+      "Java_Reed_Solomon"})
+  public String algorithm;
+
+  @Param({"6", "10"})
+  public int k;
+
+  @Param({"3", "4"})
+  public int m;
+
+  @Param({"8"})
+  public int wordSize;
+
+  /** Only used by Cauchy_Reed_Solomon. */
+  @Param({"8"})
+  public int packetSize;
+
+  @Param({"4096", "65536", "1048576"})
+  public int blockSize;
+
+  public ErasureCodec codec;
+  public byte[][] data;
+  public byte[][] coding;
+  public ByteBuffer[] dataBuffers;
+  public ByteBuffer[] codingBuffers;
+
+  @Setup
+  public void setUp() {
+    boolean good = algorithm.startsWith(GOOD_PREFIX);
+    codec = new ErasureCodec.Builder(Algorithm.valueOf(good
+        ? algorithm.substring(GOOD_PREFIX.length()) : algorithm))
+        .dataBlockNum(k)
+        .codingBlockNum(m)
+        .wordSize(wordSize)
+        .packetSize(packetSize)
+        .good(good)
+        .build();
+
+    Random random = new Random(0);
+    data = new byte[k][blockSize];
+    for (byte[] block : data) {
+      random.nextBytes(block);
+    }
+    coding = codec.encode(data);
+    dataBuffers = toDirect(data);
+    codingBuffers = toDirect(coding);
+  }
+
+  /**
+   * Returns the number of data bytes a single encode or decode covers.
+   */
+  public long stripeBytes() {
+    return (long) k * blockSize;
+  }
+
+  private static ByteBuffer[] toDirect(byte[][] arrays) {
+    ByteBuffer[] buffers = new ByteBuffer[arrays.length];
+    for (int i = 0; i < arrays.length; ++i) {
+      buffers[i] = ByteBuffer.allocateDirect(arrays[i].length);
+      buffers[i].put(arrays[i]).flip();
+    }
+    return buffers;
+  }
+}
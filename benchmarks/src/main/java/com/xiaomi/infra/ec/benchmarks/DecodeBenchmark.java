@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures decoding of one stripe with 1 to 3 erased data blocks, the
+ * degraded read case. Decoding rewrites the erased blocks with the same
+ * content every time, so the stripe needs no reset between invocations.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+
+  @State(Scope.Thread)
+  public static class Erasures {
+    /** Kept within the smallest m of {@link CodecState}. */
+    @Param({"1", "2", "3"})
+    public int erasureNum;
+
+    public int[] erasures;
+
+    @Setup(Level.Trial)
+    public void setUp(CodecState state) {
+      erasures = new int[erasureNum];
+      for (int i = 0; i < erasureNum; ++i) {
+        // Spread the erasures over the data blocks
+        erasures[i] = i * state.k / erasureNum;
+      }
+    }
+  }
+
+  @Benchmark
+  public void decodeArrays(CodecState state, Erasures erasures) {
+    state.codec.decode(erasures.erasures, state.data, state.coding);
+  }
+
+  @Benchmark
+  public void decodeDirectBuffers(CodecState state, Erasures erasures) {
+    state.codec.decode(erasures.erasures, state.dataBuffers,
+        state.codingBuffers);
+  }
+}
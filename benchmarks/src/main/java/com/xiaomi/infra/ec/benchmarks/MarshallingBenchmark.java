@@ -0,0 +1,83 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.jna.Pointer;
+
+import com.xiaomi.infra.ec.CodecUtils;
+
+/**
+ * Measures the cost the byte array API pays around every native call:
+ * copying the blocks into native memory and copying the results back.
+ * It does not need libJerasure.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MarshallingBenchmark {
+
+  @State(Scope.Thread)
+  public static class Blocks {
+    @Param({"6", "10"})
+    public int k;
+
+    @Param({"4096", "65536", "1048576"})
+    public int blockSize;
+
+    public byte[][] data;
+    public Pointer[] pointers;
+
+    @Setup
+    public void setUp() {
+      Random random = new Random(0);
+      data = new byte[k][blockSize];
+      for (byte[] block : data) {
+        random.nextBytes(block);
+      }
+      pointers = CodecUtils.toPointerArray(data);
+    }
+  }
+
+  @Benchmark
+  public Pointer[] toPointerArray(Blocks blocks) {
+    return CodecUtils.toPointerArray(blocks.data);
+  }
+
+  @Benchmark
+  public byte[][] toByteArray(Blocks blocks) {
+    CodecUtils.toByteArray(blocks.pointers, blocks.data);
+    return blocks.data;
+  }
+}
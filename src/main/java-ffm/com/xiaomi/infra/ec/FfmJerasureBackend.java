@@ -0,0 +1,273 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+import java.io.File;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import com.google.common.base.Throwables;
+import com.sun.jna.Pointer;
+
+/**
+ * The backend built on java.lang.foreign downcall handles. Unlike JNA, it
+ * does not convert the arguments on every call: each {@link JerasureMatrix}
+ * is copied into native memory once, the address table of a block pointer
+ * array is kept per thread and only rewritten when the array or its
+ * elements change, which the stable arrays of {@link CodecScratch} rarely
+ * do, and schedules are passed as is. The blocks themselves are already
+ * native, either direct buffers or
+ * staged in {@link CodecScratch}, as Jerasure takes arrays of pointers which
+ * cannot point into the Java heap.
+ *
+ * <p>It is compiled only by the ffm profile, and needs JDK 22 or later. Run
+ * with --enable-native-access=ALL-UNNAMED to avoid the restricted method
+ * warnings.
+ */
+public final class FfmJerasureBackend implements JerasureBackend {
+
+  /** Reads the address of a JNA pointer. */
+  private static final VarHandle PEER;
+
+  static {
+    try {
+      PEER = MethodHandles.privateLookupIn(Pointer.class,
+          MethodHandles.lookup()).findVarHandle(Pointer.class, "peer",
+              long.class);
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  /** The number of address tables kept per thread. */
+  private static final int TABLE_NUM = 8;
+
+  /**
+   * The native address table of a block pointer array.
+   */
+  private static final class AddressTable {
+    private Pointer[] pointers;
+    /** The elements of the array when the table was written. */
+    private Pointer[] written = new Pointer[0];
+    private MemorySegment table = MemorySegment.NULL;
+  }
+
+  /**
+   * The address tables of a thread, evicted round robin.
+   */
+  private static final class Scratch {
+    private final AddressTable[] tables = new AddressTable[TABLE_NUM];
+    private int next;
+  }
+
+  private static final ThreadLocal<Scratch> SCRATCH =
+      new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+          return new Scratch();
+        }
+      };
+
+  private final MethodHandle matrixEncode;
+  private final MethodHandle matrixDotprod;
+  private final MethodHandle scheduleEncode;
+
+  /**
+   * @throws IllegalArgumentException if the Jerasure library is not found
+   */
+  public FfmJerasureBackend() {
+    if (ADDRESS.byteSize() != JAVA_LONG.byteSize()) {
+      throw new IllegalStateException("Only 64-bit platforms are supported");
+    }
+    Linker linker = Linker.nativeLinker();
+    SymbolLookup lookup = lookupLibrary("Jerasure");
+    this.matrixEncode = linker.downcallHandle(
+        lookup.find("jerasure_matrix_encode").orElseThrow(),
+        FunctionDescriptor.ofVoid(JAVA_INT, JAVA_INT, JAVA_INT, ADDRESS,
+            ADDRESS, ADDRESS, JAVA_INT));
+    this.matrixDotprod = linker.downcallHandle(
+        lookup.find("jerasure_matrix_dotprod").orElseThrow(),
+        FunctionDescriptor.ofVoid(JAVA_INT, JAVA_INT, ADDRESS, ADDRESS,
+            JAVA_INT, ADDRESS, ADDRESS, JAVA_INT));
+    this.scheduleEncode = linker.downcallHandle(
+        lookup.find("jerasure_schedule_encode").orElseThrow(),
+        FunctionDescriptor.ofVoid(JAVA_INT, JAVA_INT, JAVA_INT, ADDRESS,
+            ADDRESS, ADDRESS, JAVA_INT, JAVA_INT));
+  }
+
+  /**
+   * Looks the library up in jna.library.path first, as JNA does, then in
+   * the system library path.
+   */
+  private static SymbolLookup lookupLibrary(String name) {
+    String fileName = System.mapLibraryName(name);
+    String dirs = System.getProperty("jna.library.path");
+    if (dirs != null) {
+      for (String dir : dirs.split(File.pathSeparator)) {
+        Path path = Paths.get(dir, fileName);
+        if (Files.exists(path)) {
+          return SymbolLookup.libraryLookup(path, Arena.global());
+        }
+      }
+    }
+    return SymbolLookup.libraryLookup(fileName, Arena.global());
+  }
+
+  @Override
+  public String getName() {
+    return JerasureBackends.FFM;
+  }
+
+  /**
+   * Copies the values into native memory freed once the matrix is
+   * unreachable.
+   */
+  @Override
+  public Object bindMatrix(int[] values) {
+    MemorySegment segment = Arena.ofAuto().allocate(
+        Math.max(1L, (long) values.length * JAVA_INT.byteSize()),
+        JAVA_INT.byteSize());
+    MemorySegment.copy(values, 0, segment, JAVA_INT, 0, values.length);
+    return segment;
+  }
+
+  @Override
+  public void matrixEncode(int k, int m, int w, JerasureMatrix matrix,
+      Pointer[] dataPtrs, Pointer[] codingPtrs, int size) {
+    Scratch scratch = SCRATCH.get();
+    MemorySegment matrixSeg = (MemorySegment) matrix.bind(this);
+    MemorySegment dataSeg = addresses(scratch, dataPtrs);
+    MemorySegment codingSeg = addresses(scratch, codingPtrs);
+    try {
+      matrixEncode.invokeExact(k, m, w, matrixSeg, dataSeg, codingSeg, size);
+    } catch (Throwable t) {
+      throw Throwables.propagate(t);
+    }
+  }
+
+  @Override
+  public void matrixDotprod(int k, int w, JerasureMatrix matrixRow,
+      JerasureMatrix srcIds, int destId, Pointer[] dataPtrs,
+      Pointer[] codingPtrs, int size) {
+    Scratch scratch = SCRATCH.get();
+    MemorySegment rowSeg = (MemorySegment) matrixRow.bind(this);
+    MemorySegment idsSeg = srcIds == null ? MemorySegment.NULL
+        : (MemorySegment) srcIds.bind(this);
+    MemorySegment dataSeg = addresses(scratch, dataPtrs);
+    MemorySegment codingSeg = addresses(scratch, codingPtrs);
+    try {
+      matrixDotprod.invokeExact(k, w, rowSeg, idsSeg, destId, dataSeg,
+          codingSeg, size);
+    } catch (Throwable t) {
+      throw Throwables.propagate(t);
+    }
+  }
+
+  @Override
+  public void scheduleEncode(int k, int m, int w, NativeSchedule schedule,
+      Pointer[] dataPtrs, Pointer[] codingPtrs, int size, int packetSize) {
+    Scratch scratch = SCRATCH.get();
+    MemorySegment scheduleSeg = MemorySegment.ofAddress(
+        address(schedule.getSchedule()));
+    MemorySegment dataSeg = addresses(scratch, dataPtrs);
+    MemorySegment codingSeg = addresses(scratch, codingPtrs);
+    try {
+      scheduleEncode.invokeExact(k, m, w, scheduleSeg, dataSeg, codingSeg,
+          size, packetSize);
+    } catch (Throwable t) {
+      throw Throwables.propagate(t);
+    }
+  }
+
+  private static long address(Pointer pointer) {
+    return pointer == null ? 0 : (long) PEER.get(pointer);
+  }
+
+  /**
+   * Returns a segment of at least the given size, the given one if it is
+   * large enough.
+   */
+  private static MemorySegment ensure(MemorySegment segment, long size) {
+    if (segment.byteSize() >= size) {
+      return segment;
+    }
+    return Arena.ofAuto().allocate(Math.max(size, 2 * segment.byteSize()),
+        JAVA_LONG.byteSize());
+  }
+
+  /**
+   * Returns the address table of the pointer array, rewriting it only if the
+   * array is new to the thread or one of its elements changed.
+   */
+  private static MemorySegment addresses(Scratch scratch,
+      Pointer[] pointers) {
+    AddressTable entry = null;
+    for (AddressTable table : scratch.tables) {
+      if (table != null && table.pointers == pointers) {
+        entry = table;
+        break;
+      }
+    }
+    if (entry == null) {
+      entry = scratch.tables[scratch.next];
+      if (entry == null) {
+        entry = scratch.tables[scratch.next] = new AddressTable();
+      }
+      scratch.next = (scratch.next + 1) % TABLE_NUM;
+      entry.pointers = pointers;
+      entry.written = new Pointer[pointers.length];
+    } else if (isWritten(entry, pointers)) {
+      return entry.table;
+    }
+    if (entry.written.length != pointers.length) {
+      entry.written = new Pointer[pointers.length];
+    }
+    entry.table = ensure(entry.table,
+        (long) pointers.length * JAVA_LONG.byteSize());
+    for (int i = 0; i < pointers.length; ++i) {
+      entry.table.setAtIndex(JAVA_LONG, i, address(pointers[i]));
+      entry.written[i] = pointers[i];
+    }
+    return entry.table;
+  }
+
+  private static boolean isWritten(AddressTable entry, Pointer[] pointers) {
+    if (entry.written.length != pointers.length) {
+      return false;
+    }
+    for (int i = 0; i < pointers.length; ++i) {
+      if (entry.written[i] != pointers[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.gf;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD {@link GaloisKernel} built on the Vector API. Every byte is split into
+ * two nibbles which index two 16 entry product tables with a byte shuffle,
+ * the PSHUFB technique used by ISA-L and GF-Complete. The tail which doesn't
+ * fill a whole vector falls back to the scalar code.
+ */
+public class VectorGaloisKernel implements GaloisKernel {
+
+  private static final VectorSpecies<Byte> SPECIES =
+      ByteVector.SPECIES_PREFERRED;
+
+  private final byte[][] lowTables;
+  private final byte[][] highTables;
+
+  public VectorGaloisKernel() {
+    int lanes = SPECIES.length();
+    if (lanes < 16) {
+      throw new UnsupportedOperationException(
+          "Vector species is too small for nibble tables: " + lanes);
+    }
+    lowTables = new byte[GaloisField.FIELD_SIZE][lanes];
+    highTables = new byte[GaloisField.FIELD_SIZE][lanes];
+    for (int m = 0; m < GaloisField.FIELD_SIZE; ++m) {
+      for (int i = 0; i < lanes; ++i) {
+        lowTables[m][i] = (byte) GaloisField.multiply(m, i & 0x0f);
+        highTables[m][i] = (byte) GaloisField.multiply(m, (i & 0x0f) << 4);
+      }
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void multiplyRegion(int multiplier, byte[] src, int srcOff,
+      byte[] dst, int dstOff, int len, boolean add) {
+    if (multiplier == 0) {
+      GaloisField.multiplyRegion(multiplier, src, srcOff, dst, dstOff, len,
+          add);
+      return;
+    }
+
+    int lanes = SPECIES.length();
+    int bound = SPECIES.loopBound(len);
+    if (multiplier == 1) {
+      for (int i = 0; i < bound; i += lanes) {
+        ByteVector in = ByteVector.fromArray(SPECIES, src, srcOff + i);
+        if (add) {
+          in = in.lanewise(VectorOperators.XOR,
+              ByteVector.fromArray(SPECIES, dst, dstOff + i));
+        }
+        in.intoArray(dst, dstOff + i);
+      }
+    } else {
+      ByteVector low = ByteVector.fromArray(SPECIES, lowTables[multiplier], 0);
+      ByteVector high = ByteVector.fromArray(SPECIES, highTables[multiplier],
+          0);
+      for (int i = 0; i < bound; i += lanes) {
+        ByteVector in = ByteVector.fromArray(SPECIES, src, srcOff + i);
+        ByteVector lo = in.and((byte) 0x0f);
+        ByteVector hi = in.lanewise(VectorOperators.LSHR, 4)
+            .and((byte) 0x0f);
+        ByteVector product = lo.selectFrom(low)
+            .lanewise(VectorOperators.XOR, hi.selectFrom(high));
+        if (add) {
+          product = product.lanewise(VectorOperators.XOR,
+              ByteVector.fromArray(SPECIES, dst, dstOff + i));
+        }
+        product.intoArray(dst, dstOff + i);
+      }
+    }
+    GaloisField.multiplyRegion(multiplier, src, srcOff + bound, dst,
+        dstOff + bound, len - bound, add);
+  }
+}
@@ -0,0 +1,46 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec;
+
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
+
+/**
+ * A JNA wrapper of the C library, used to free the memory Jerasure allocates
+ * with malloc, and to manage off-heap blocks without the GC finalizer.
+ */
+public interface CLibrary extends Library {
+
+  // On glibc, libc.so is a linker script which cannot be loaded
+  CLibrary INSTANCE = (CLibrary) Native.loadLibrary(
+      Platform.isWindows() ? "msvcrt" : Platform.isLinux() ? "libc.so.6" : "c",
+      CLibrary.class);
+
+  /**
+   * Allocates size bytes, returns null if out of memory.
+   */
+  Pointer malloc(NativeLong size);
+
+  /**
+   * Frees memory allocated by malloc.
+   */
+  void free(Pointer ptr);
+}
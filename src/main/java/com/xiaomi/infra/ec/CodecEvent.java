@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec;
+
+import java.util.Arrays;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A JFR event for an encode or decode call of a codec with metrics. It is
+ * only loaded by {@link CodecMetrics} if the JVM has JFR.
+ */
+@Name("com.xiaomi.infra.ec.Codec")
+@Label("Erasure Codec Call")
+@Category("Erasure Coding")
+@Description("An encode or decode call of an erasure codec")
+class CodecEvent extends Event {
+
+  private static final EventType TYPE = EventType.getEventType(
+      CodecEvent.class);
+
+  @Label("Operation")
+  String operation;
+
+  @Label("Algorithm")
+  String algorithm;
+
+  @Label("Data Blocks")
+  int dataBlockNum;
+
+  @Label("Coding Blocks")
+  int codingBlockNum;
+
+  @Label("Block Size")
+  @DataAmount
+  int blockSize;
+
+  @Label("Erasures")
+  String erasures;
+
+  @Label("Marshalling Time")
+  @Timespan
+  long marshallingTime;
+
+  /**
+   * Begins an event, or returns null if the event is not recorded.
+   */
+  static Object start() {
+    if (!TYPE.isEnabled()) {
+      return null;
+    }
+    CodecEvent event = new CodecEvent();
+    event.begin();
+    return event;
+  }
+
+  /**
+   * Ends and commits an event returned by {@link #start}.
+   */
+  static void finish(Object begun, String operation, ErasureCodec codec,
+      int blockSize, int[] erasures, long marshallingNanos) {
+    CodecEvent event = (CodecEvent) begun;
+    event.end();
+    if (event.shouldCommit()) {
+      event.operation = operation;
+      event.algorithm = codec.getAlgorithm().name();
+      event.dataBlockNum = codec.getDataBlockNum();
+      event.codingBlockNum = codec.getCodingBlockNum();
+      event.blockSize = blockSize;
+      event.erasures = erasures == null ? null : Arrays.toString(erasures);
+      event.marshallingTime = marshallingNanos;
+      event.commit();
+    }
+  }
+}
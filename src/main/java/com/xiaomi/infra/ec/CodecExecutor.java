@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * CodecExecutor runs the asynchronous calls of {@link ErasureCodec} on a
+ * fixed number of dedicated threads, so that the coding CPU is bounded and
+ * kept off the I/O threads of the callers. At most maxInFlight calls are
+ * running or queued: past that, calls are not queued but fail at once with
+ * a {@link RejectedExecutionException}, so that callers on an event loop
+ * shed load instead of blocking. This class is thread safe.
+ *
+ * <p>The futures are completed on the codec threads. Callers should chain
+ * their work with the async variants of {@link CompletableFuture} to run it
+ * on their own executor. Virtual threads can simply join the futures, as no
+ * monitor is held while waiting.
+ */
+public class CodecExecutor implements AutoCloseable {
+
+  private static final AtomicInteger EXECUTOR_ID = new AtomicInteger();
+
+  private final ExecutorService executor;
+  private final int maxInFlight;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicLong rejectedCount = new AtomicLong();
+
+  /**
+   * Creates an executor with a thread per available processor, and as many
+   * calls in flight as four times the threads.
+   */
+  public CodecExecutor() {
+    this(Runtime.getRuntime().availableProcessors(),
+        4 * Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param threadNum The number of codec threads
+   * @param maxInFlight The maximum number of calls running or queued
+   */
+  public CodecExecutor(int threadNum, int maxInFlight) {
+    Preconditions.checkArgument(threadNum > 0, "threadNum must be positive");
+    Preconditions.checkArgument(maxInFlight >= threadNum,
+        "maxInFlight must be at least threadNum");
+    this.maxInFlight = maxInFlight;
+    final String prefix = "codec-executor-" + EXECUTOR_ID.incrementAndGet()
+        + "-";
+    this.executor = new ThreadPoolExecutor(threadNum, threadNum, 0,
+        TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          private final AtomicInteger threadId = new AtomicInteger();
+
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable,
+                prefix + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+  }
+
+  /**
+   * Runs a call on a codec thread.
+   *
+   * @return The future of the result, failed with a
+   *         {@link RejectedExecutionException} if too many calls are in
+   *         flight or the executor is closed
+   */
+  public <T> CompletableFuture<T> submit(final Callable<T> call) {
+    final CompletableFuture<T> future = new CompletableFuture<T>();
+    if (inFlight.incrementAndGet() > maxInFlight) {
+      inFlight.decrementAndGet();
+      rejectedCount.incrementAndGet();
+      future.completeExceptionally(new RejectedExecutionException(
+          "Codec executor is saturated with " + maxInFlight
+          + " calls in flight"));
+      return future;
+    }
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          T result;
+          try {
+            result = call.call();
+          } catch (Throwable t) {
+            inFlight.decrementAndGet();
+            future.completeExceptionally(t);
+            return;
+          }
+          // Frees the slot first, so that the dependents can submit again
+          inFlight.decrementAndGet();
+          future.complete(result);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      inFlight.decrementAndGet();
+      rejectedCount.incrementAndGet();
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  /**
+   * Returns the maximum number of calls running or queued.
+   */
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  /**
+   * Returns the number of calls running or queued.
+   */
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * Returns the number of calls rejected so far.
+   */
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  /**
+   * Stops accepting calls. The calls in flight still complete.
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+  }
+}
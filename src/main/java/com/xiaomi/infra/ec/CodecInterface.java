@@ -17,10 +17,13 @@
  */
 package com.xiaomi.infra.ec;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+
 /**
  * CodecInterface defines the interfaces the a codec class must implement.
  */
-public interface CodecInterface {
+public interface CodecInterface extends AutoCloseable {
 
   /**
    * Encodes specified data blocks. This method is thread safe and reenterable.
@@ -30,6 +33,16 @@ public interface CodecInterface {
    */
   public byte[][] encode(byte[][] data);
 
+  /**
+   * Encodes specified data blocks into the given coding blocks, so that
+   * steady state calls reuse the caller's arrays instead of allocating. This
+   * method is thread safe and reenterable.
+   *
+   * @param data The data blocks matrix
+   * @param coding The coding blocks matrix to write
+   */
+  public void encode(byte[][] data, byte[][] coding);
+
   /**
    * Decodes specified failed data blocks. This method is thread safe and
    * reenterable.
@@ -39,4 +52,145 @@ public interface CodecInterface {
    * @param coding The coding blocks matrix
    */
   public void decode(int[] erasures, byte[][]data, byte[][] coding);
+
+  /**
+   * Encodes specified data blocks into the given coding buffers. Each block
+   * is the remaining bytes of its buffer, and the buffer positions are left
+   * unchanged. Direct buffers are handed to the native library without any
+   * copy, so their positions should be long word aligned. This method is
+   * thread safe and reenterable.
+   *
+   * @param data The data blocks
+   * @param coding The coding blocks to write
+   */
+  public void encode(ByteBuffer[] data, ByteBuffer[] coding);
+
+  /**
+   * Decodes specified failed blocks in place. Each block is the remaining
+   * bytes of its buffer, and the buffer positions are left unchanged. Direct
+   * buffers are handed to the native library without any copy. This method
+   * is thread safe and reenterable.
+   *
+   * @param erasures The failed data blocks list
+   * @param data The data blocks
+   * @param coding The coding blocks
+   */
+  public void decode(int[] erasures, ByteBuffer[] data, ByteBuffer[] coding);
+
+  /**
+   * Encodes a batch of stripes. Validation and marshalling are done once for
+   * the whole batch, and native codecs cross into native code once per
+   * distinct block size instead of once per stripe. This method is thread
+   * safe and reenterable.
+   *
+   * @param data The data blocks matrix of every stripe
+   * @return The coding blocks matrix of every stripe
+   */
+  public List<byte[][]> encodeBatch(List<byte[][]> data);
+
+  /**
+   * Encodes a batch of stripes into the given coding buffers. Each block is
+   * the remaining bytes of its buffer, and the buffer positions are left
+   * unchanged. This method is thread safe and reenterable.
+   *
+   * @param data The data blocks, indexed by stripe and then by block
+   * @param coding The coding blocks to write, indexed by stripe and then by
+   *               block
+   */
+  public void encodeBatch(ByteBuffer[][] data, ByteBuffer[][] coding);
+
+  /**
+   * Updates the coding blocks in place after the byte range [offset, offset +
+   * length) of one data block is overwritten, where length is the size of
+   * oldData. Only the delta of the written range is multiplied into the
+   * coding blocks, so the other data blocks need not be read. This method is
+   * thread safe and reenterable, but concurrent updates of the same stripe
+   * must be serialized by the caller.
+   *
+   * @param dataIndex The index of the overwritten data block
+   * @param offset The offset of the written range in the block, which must
+   *               be a multiple of the codec's coding unit
+   * @param oldData The previous content of the range
+   * @param newData The new content of the range
+   * @param coding The whole coding blocks of the stripe
+   */
+  public void updateParity(int dataIndex, int offset, byte[] oldData,
+      byte[] newData, byte[][] coding);
+
+  /**
+   * Updates the coding blocks in place after a range of one data block is
+   * overwritten. Each block is the remaining bytes of its buffer, and the
+   * buffer positions are left unchanged.
+   *
+   * @see #updateParity(int, int, byte[], byte[], byte[][])
+   */
+  public void updateParity(int dataIndex, int offset, ByteBuffer oldData,
+      ByteBuffer newData, ByteBuffer[] coding);
+
+  /**
+   * Computes the contribution of a subset of the data blocks to the coding
+   * blocks. The coding blocks of the whole stripe are the XOR of the
+   * contributions of any partition of its data blocks, see
+   * {@link ErasureCodec#combineParity}. This method is thread safe and
+   * reenterable.
+   *
+   * @param dataIndices The stripe indices of the given data blocks
+   * @param data The data blocks, data[i] being block dataIndices[i]
+   * @return The contribution, as m coding sized blocks
+   */
+  public byte[][] encodePartial(int[] dataIndices, byte[][] data);
+
+  /**
+   * XORs the contribution of a subset of the data blocks into the given
+   * coding buffers, which may be zeroed or may already hold the contribution
+   * of other data blocks. Each block is the remaining bytes of its buffer,
+   * and the buffer positions are left unchanged.
+   *
+   * @see #encodePartial(int[], byte[][])
+   */
+  public void encodePartial(int[] dataIndices, ByteBuffer[] data,
+      ByteBuffer[] coding);
+
+  /**
+   * Selects k survivors from which every block of the stripe can be decoded,
+   * preferring the candidates which come first. Any k blocks do for MDS
+   * codes. This method is thread safe.
+   *
+   * @param candidates The available block ids, in order of preference
+   * @return The selected block ids, or null if the candidates cannot decode
+   *         the stripe
+   */
+  public int[] selectSurvivors(int[] candidates);
+
+  /**
+   * Decodes the target blocks from exactly k survivors, so that neither the
+   * other blocks nor buffers for them need to be supplied. The survivors
+   * must be independent, e.g. chosen by {@link #selectSurvivors}. This
+   * method is thread safe and reenterable.
+   *
+   * @param survivors The ids of the k survivors
+   * @param survivorBlocks The survivors, survivorBlocks[i] being block
+   *                       survivors[i]
+   * @param targets The ids of the blocks to decode, none of them a survivor
+   * @return The decoded blocks, in the order of targets
+   */
+  public byte[][] decode(int[] survivors, byte[][] survivorBlocks,
+      int[] targets);
+
+  /**
+   * Decodes the target blocks from exactly k survivors into the given
+   * buffers. Each block is the remaining bytes of its buffer, and the buffer
+   * positions are left unchanged.
+   *
+   * @see #decode(int[], byte[][], int[])
+   */
+  public void decode(int[] survivors, ByteBuffer[] survivorBlocks,
+      int[] targets, ByteBuffer[] targetBlocks);
+
+  /**
+   * Releases the native matrices and schedules held by the codec. The codec
+   * must not be used once closed. Closing twice has no effect.
+   */
+  @Override
+  public void close();
 }
@@ -0,0 +1,308 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * CodecMetrics counts the encode and decode calls of the codecs built with
+ * it, the bytes they code and where their time goes: the copies of blocks
+ * between the heap and off heap in {@link CodecUtils}, and the coding
+ * itself, which includes the argument checks. A metrics may be shared by
+ * several codecs, and can be exported as an MBean with {@link #register}.
+ *
+ * <p>Calls nested in another call on the same thread, e.g. the buffer encode
+ * done by an array encode with a buffer pool, are part of the outer call.
+ * Only the copies on the calling thread count as marshalling, so those done
+ * by parallel slices count as coding time.
+ *
+ * <p>If the JVM has JFR, every call also emits a
+ * {@code com.xiaomi.infra.ec.Codec} event when the event is enabled in the
+ * recording, with the geometry, the block size and the erasures.
+ */
+public class CodecMetrics implements CodecMetricsMXBean {
+
+  /** The coding operations counted. */
+  public enum Operation {
+    ENCODE,
+    DECODE,
+  }
+
+  /** The number of buckets of the latency histograms. */
+  public static final int HISTOGRAM_BUCKETS = 32;
+
+  /** The number of elements of {@link #getDecodesByErasureNum}. */
+  public static final int MAX_ERASURE_NUM = 16;
+
+  private static final boolean JFR_AVAILABLE = isJfrAvailable();
+
+  /**
+   * Set once any metrics exist, so that the copies skip even the thread local
+   * lookup until then.
+   */
+  private static volatile boolean metricsCreated;
+
+  private static final ThreadLocal<Frame> FRAMES = new ThreadLocal<Frame>() {
+    @Override
+    protected Frame initialValue() {
+      return new Frame();
+    }
+  };
+
+  /** The outermost call in progress on a thread. */
+  private static class Frame {
+    int depth;
+    long start;
+    long marshallingNanos;
+    Object event;
+  }
+
+  /** The counters of an operation. */
+  private static class Stats {
+    final LongAdder calls = new LongAdder();
+    final LongAdder bytes = new LongAdder();
+    final LongAdder nanos = new LongAdder();
+    final LongAdder marshallingNanos = new LongAdder();
+    final AtomicLongArray latencies = new AtomicLongArray(HISTOGRAM_BUCKETS);
+
+    void record(long bytes, long nanos, long marshallingNanos) {
+      calls.increment();
+      this.bytes.add(bytes);
+      this.nanos.add(nanos);
+      this.marshallingNanos.add(marshallingNanos);
+      long micros = Math.max(nanos / 1000, 1);
+      latencies.incrementAndGet(Math.min(
+          63 - Long.numberOfLeadingZeros(micros), HISTOGRAM_BUCKETS - 1));
+    }
+
+    long[] latencies() {
+      long[] counts = new long[HISTOGRAM_BUCKETS];
+      for (int i = 0; i < counts.length; ++i) {
+        counts[i] = latencies.get(i);
+      }
+      return counts;
+    }
+
+    void reset() {
+      calls.reset();
+      bytes.reset();
+      nanos.reset();
+      marshallingNanos.reset();
+      for (int i = 0; i < HISTOGRAM_BUCKETS; ++i) {
+        latencies.set(i, 0);
+      }
+    }
+  }
+
+  private final Stats encodes = new Stats();
+  private final Stats decodes = new Stats();
+  private final AtomicLongArray decodesByErasureNum =
+      new AtomicLongArray(MAX_ERASURE_NUM + 1);
+  private volatile ObjectName objectName;
+
+  public CodecMetrics() {
+    metricsCreated = true;
+  }
+
+  /**
+   * Registers the metrics in the platform MBean server, under
+   * com.xiaomi.infra.ec:type=CodecMetrics,name=name.
+   *
+   * @return The name of the MBean
+   */
+  public synchronized ObjectName register(String name) throws JMException {
+    Preconditions.checkState(objectName == null, "Already registered");
+    ObjectName objectName = new ObjectName(
+        "com.xiaomi.infra.ec:type=CodecMetrics,name=" + ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+        objectName);
+    this.objectName = objectName;
+    return objectName;
+  }
+
+  /**
+   * Unregisters the metrics from the platform MBean server, if registered.
+   */
+  public synchronized void unregister() throws JMException {
+    if (objectName != null) {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+      objectName = null;
+    }
+  }
+
+  /**
+   * Begins a call on the current thread. Every call must be ended by
+   * {@link #end}, even if it fails.
+   */
+  void begin() {
+    Frame frame = FRAMES.get();
+    if (frame.depth++ > 0) {
+      return;
+    }
+    frame.marshallingNanos = 0;
+    frame.event = JFR_AVAILABLE ? CodecEvent.start() : null;
+    frame.start = System.nanoTime();
+  }
+
+  /**
+   * Ends the call begun on the current thread, and records it if it is the
+   * outermost one.
+   *
+   * @param erasures The erased or rebuilt block ids, null when encoding
+   */
+  void end(ErasureCodec codec, Operation operation, int blockSize,
+      int[] erasures) {
+    Frame frame = FRAMES.get();
+    if (--frame.depth > 0) {
+      return;
+    }
+    long nanos = System.nanoTime() - frame.start;
+    if (operation == Operation.ENCODE) {
+      encodes.record((long) codec.getDataBlockNum() * blockSize, nanos,
+          frame.marshallingNanos);
+    } else {
+      decodes.record((long) erasures.length * blockSize, nanos,
+          frame.marshallingNanos);
+      decodesByErasureNum.incrementAndGet(
+          Math.min(erasures.length, MAX_ERASURE_NUM));
+    }
+    if (frame.event != null) {
+      CodecEvent.finish(frame.event, operation.name(), codec, blockSize,
+          erasures, frame.marshallingNanos);
+      frame.event = null;
+    }
+  }
+
+  /**
+   * Returns the start time of a copy done by {@link CodecUtils}, or 0 if the
+   * current thread is not in a metered call, so that codecs without metrics
+   * do not read the clock.
+   */
+  static long startMarshalling() {
+    if (!metricsCreated || FRAMES.get().depth == 0) {
+      return 0;
+    }
+    return System.nanoTime();
+  }
+
+  /**
+   * Adds a copy started by {@link #startMarshalling} to the call in progress
+   * on the current thread.
+   */
+  static void stopMarshalling(long start) {
+    if (start != 0) {
+      FRAMES.get().marshallingNanos += System.nanoTime() - start;
+    }
+  }
+
+  @Override
+  public long getEncodeCalls() {
+    return encodes.calls.sum();
+  }
+
+  @Override
+  public long getEncodeBytes() {
+    return encodes.bytes.sum();
+  }
+
+  @Override
+  public long getEncodeNanos() {
+    return encodes.nanos.sum();
+  }
+
+  @Override
+  public long getEncodeMarshallingNanos() {
+    return encodes.marshallingNanos.sum();
+  }
+
+  @Override
+  public long getEncodeCodingNanos() {
+    return getEncodeNanos() - getEncodeMarshallingNanos();
+  }
+
+  @Override
+  public long[] getEncodeLatencyHistogram() {
+    return encodes.latencies();
+  }
+
+  @Override
+  public long getDecodeCalls() {
+    return decodes.calls.sum();
+  }
+
+  @Override
+  public long getDecodeBytes() {
+    return decodes.bytes.sum();
+  }
+
+  @Override
+  public long getDecodeNanos() {
+    return decodes.nanos.sum();
+  }
+
+  @Override
+  public long getDecodeMarshallingNanos() {
+    return decodes.marshallingNanos.sum();
+  }
+
+  @Override
+  public long getDecodeCodingNanos() {
+    return getDecodeNanos() - getDecodeMarshallingNanos();
+  }
+
+  @Override
+  public long[] getDecodeLatencyHistogram() {
+    return decodes.latencies();
+  }
+
+  @Override
+  public long[] getDecodesByErasureNum() {
+    long[] counts = new long[MAX_ERASURE_NUM + 1];
+    for (int i = 0; i < counts.length; ++i) {
+      counts[i] = decodesByErasureNum.get(i);
+    }
+    return counts;
+  }
+
+  @Override
+  public void reset() {
+    encodes.reset();
+    decodes.reset();
+    for (int i = 0; i <= MAX_ERASURE_NUM; ++i) {
+      decodesByErasureNum.set(i, 0);
+    }
+  }
+
+  private static boolean isJfrAvailable() {
+    try {
+      Class.forName("jdk.jfr.Event");
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
+    } catch (LinkageError e) {
+      return false;
+    }
+  }
+}
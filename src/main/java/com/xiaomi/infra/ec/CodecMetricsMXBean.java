@@ -0,0 +1,66 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec;
+
+/**
+ * The JMX view of {@link CodecMetrics}. Times are in nanoseconds, and the
+ * latency histograms count calls by powers of two of microseconds: element
+ * i counts the calls which took from 2^i to 2^(i+1) microseconds, the first
+ * one also counting shorter calls and the last one longer calls.
+ */
+public interface CodecMetricsMXBean {
+
+  long getEncodeCalls();
+
+  /** Returns the number of data bytes encoded. */
+  long getEncodeBytes();
+
+  long getEncodeNanos();
+
+  /** Returns the time spent copying blocks between the heap and off heap. */
+  long getEncodeMarshallingNanos();
+
+  /** Returns the time spent in the coding itself. */
+  long getEncodeCodingNanos();
+
+  long[] getEncodeLatencyHistogram();
+
+  long getDecodeCalls();
+
+  /** Returns the number of bytes rebuilt. */
+  long getDecodeBytes();
+
+  long getDecodeNanos();
+
+  /** Returns the time spent copying blocks between the heap and off heap. */
+  long getDecodeMarshallingNanos();
+
+  /** Returns the time spent in the coding itself. */
+  long getDecodeCodingNanos();
+
+  long[] getDecodeLatencyHistogram();
+
+  /**
+   * Returns the number of decodes by number of erasures, the last element
+   * also counting the decodes of more erasures.
+   */
+  long[] getDecodesByErasureNum();
+
+  /** Resets all the counters. */
+  void reset();
+}
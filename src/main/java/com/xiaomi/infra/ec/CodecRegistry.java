@@ -0,0 +1,200 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+import com.xiaomi.infra.ec.ErasureCodec.Algorithm;
+
+/**
+ * CodecRegistry shares the underlying codecs among the ErasureCodecs built
+ * with {@link ErasureCodec.Builder#registry}. Building a native codec
+ * generates its coding matrix and, for Cauchy, a schedule in native memory,
+ * so codecs of the same geometry are built once and reference counted: the
+ * native memory is freed when the last ErasureCodec using it is closed.
+ *
+ * <p>The coding matrices of every codec built can be saved, and loaded by
+ * another process to warm start without generating them again.
+ *
+ * <p>This class is thread safe.
+ */
+public class CodecRegistry {
+
+  /**
+   * The geometry a codec is shared by.
+   */
+  public static final class Key implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Algorithm algorithm;
+    private final int dataBlockNum;
+    private final int codingBlockNum;
+    private final int wordSize;
+    private final int packetSize;
+    private final boolean good;
+    private final int localParityNum;
+    private final boolean simd;
+
+    public Key(Algorithm algorithm, int dataBlockNum, int codingBlockNum,
+        int wordSize, int packetSize, boolean good, int localParityNum,
+        boolean simd) {
+      this.algorithm = Preconditions.checkNotNull(algorithm);
+      this.dataBlockNum = dataBlockNum;
+      this.codingBlockNum = codingBlockNum;
+      this.wordSize = wordSize;
+      this.packetSize = packetSize;
+      this.good = good;
+      this.localParityNum = localParityNum;
+      this.simd = simd;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return algorithm == other.algorithm
+          && dataBlockNum == other.dataBlockNum
+          && codingBlockNum == other.codingBlockNum
+          && wordSize == other.wordSize
+          && packetSize == other.packetSize
+          && good == other.good
+          && localParityNum == other.localParityNum
+          && simd == other.simd;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(algorithm, dataBlockNum, codingBlockNum,
+          wordSize, packetSize, good, localParityNum, simd);
+    }
+
+    @Override
+    public String toString() {
+      return Objects.toStringHelper(this)
+          .add("algorithm", algorithm)
+          .add("k", dataBlockNum)
+          .add("m", codingBlockNum)
+          .add("w", wordSize)
+          .add("packetSize", packetSize)
+          .add("good", good)
+          .add("l", localParityNum)
+          .add("simd", simd)
+          .toString();
+    }
+  }
+
+  /**
+   * A shared codec and the number of ErasureCodecs using it.
+   */
+  private static class Entry {
+    private final ErasureCodec.Instance instance;
+    private int refCount;
+
+    Entry(ErasureCodec.Instance instance) {
+      this.instance = instance;
+    }
+  }
+
+  private final Map<Key, Entry> codecs = new HashMap<Key, Entry>();
+  private final Map<Key, int[]> codingMatrices = new HashMap<Key, int[]>();
+
+  /**
+   * Returns the shared codec of the key, building it if it has no user.
+   */
+  synchronized ErasureCodec.Instance acquire(Key key,
+      ErasureCodec.Builder builder) {
+    Entry entry = codecs.get(key);
+    if (entry == null) {
+      entry = new Entry(builder.createInstance(codingMatrices.get(key)));
+      codecs.put(key, entry);
+      if (entry.instance.codingMatrix != null) {
+        codingMatrices.put(key, entry.instance.codingMatrix);
+      }
+    }
+    ++entry.refCount;
+    return entry.instance;
+  }
+
+  /**
+   * Drops a reference to the shared codec of the key, closing it if it was
+   * the last one.
+   */
+  synchronized void release(Key key) {
+    Entry entry = codecs.get(key);
+    Preconditions.checkState(entry != null, "No codec for %s", key);
+    if (--entry.refCount == 0) {
+      codecs.remove(key);
+      entry.instance.codec.close();
+    }
+  }
+
+  /**
+   * Returns the number of codecs in use.
+   */
+  public synchronized int size() {
+    return codecs.size();
+  }
+
+  /**
+   * Returns the number of open ErasureCodecs sharing the codec of the key.
+   */
+  public synchronized int getRefCount(Key key) {
+    Entry entry = codecs.get(key);
+    return entry == null ? 0 : entry.refCount;
+  }
+
+  /**
+   * Writes the coding matrices of all the codecs built or loaded so far. The
+   * stream is not closed.
+   */
+  public synchronized void saveCodingMatrices(OutputStream out)
+      throws IOException {
+    ObjectOutputStream objectOut = new ObjectOutputStream(out);
+    objectOut.writeObject(new HashMap<Key, int[]>(codingMatrices));
+    objectOut.flush();
+  }
+
+  /**
+   * Reads coding matrices written by {@link #saveCodingMatrices}. Codecs
+   * built afterwards use them instead of generating their matrices. The
+   * stream is not closed.
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized void loadCodingMatrices(InputStream in)
+      throws IOException {
+    ObjectInputStream objectIn = new ObjectInputStream(in);
+    try {
+      codingMatrices.putAll((Map<Key, int[]>) objectIn.readObject());
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Invalid coding matrices", e);
+    }
+  }
+}
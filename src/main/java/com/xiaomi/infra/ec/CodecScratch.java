@@ -0,0 +1,202 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec;
+
+import java.nio.ByteBuffer;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+
+/**
+ * CodecScratch holds the per-thread scratch of the codecs: native regions
+ * the array blocks are staged in, and the small arrays of pointers, blocks
+ * and offsets built on every call. Everything is kept for the next call of
+ * the thread and only reallocated when a larger block size or another
+ * geometry needs it, so that steady state calls do not allocate. The native
+ * regions are freed with their thread.
+ *
+ * <p>A slot is owned by one use within a call, so that the uses do not
+ * overwrite each other.
+ */
+public final class CodecScratch {
+
+  /** The slot of the data blocks. */
+  public static final int DATA = 0;
+  /** The slot of the coding blocks. */
+  public static final int CODING = 1;
+  /** The slot of the survivors of a decoding. */
+  public static final int SURVIVORS = 2;
+  /** The slot of the targets of a decoding. */
+  public static final int TARGETS = 3;
+
+  private static final int SLOT_NUM = 4;
+
+  private static final ThreadLocal<CodecScratch> SCRATCH =
+      new ThreadLocal<CodecScratch>() {
+        @Override
+        protected CodecScratch initialValue() {
+          return new CodecScratch();
+        }
+      };
+
+  private final Memory[][] regions = new Memory[SLOT_NUM][0];
+  private final Pointer[][] pointers = new Pointer[SLOT_NUM][0];
+  private final byte[][][] arrays = new byte[SLOT_NUM][0][];
+  private final int[][] ints = new int[SLOT_NUM][0];
+
+  private CodecScratch() {
+  }
+
+  /**
+   * Returns the scratch of the current thread.
+   */
+  public static CodecScratch get() {
+    return SCRATCH.get();
+  }
+
+  /**
+   * Stages array blocks in the native regions of a slot.
+   *
+   * @param slot The slot of the regions
+   * @param blocks The blocks, all of the same size
+   * @param copy Whether to copy the blocks, false for outputs
+   * @return The regions, valid until the next staging in the slot on this
+   *         thread. The array must not be modified.
+   */
+  public Pointer[] stage(int slot, byte[][] blocks, boolean copy) {
+    int size = blocks.length == 0 ? 0 : blocks[0].length;
+    Memory[] slotRegions = regions[slot];
+    if (slotRegions.length != blocks.length) {
+      Memory[] resized = new Memory[blocks.length];
+      System.arraycopy(slotRegions, 0, resized, 0,
+          Math.min(slotRegions.length, resized.length));
+      regions[slot] = slotRegions = resized;
+    }
+    long start = CodecMetrics.startMarshalling();
+    for (int i = 0; i < blocks.length; ++i) {
+      Memory region = ensure(slotRegions, i, size);
+      if (copy) {
+        region.write(0, blocks[i], 0, size);
+      }
+    }
+    CodecMetrics.stopMarshalling(start);
+    return slotRegions;
+  }
+
+  /**
+   * Stages the remaining bytes of buffers, e.g. ranges of larger blocks, in
+   * the native regions of a slot. Direct buffers are passed by address
+   * instead.
+   *
+   * @param slot The slot of the regions
+   * @param buffers The buffers
+   * @return The pointers, valid until the next use of the slot on this
+   *         thread. The array must not be modified.
+   */
+  public Pointer[] stage(int slot, ByteBuffer[] buffers) {
+    Pointer[] slotPointers = pointers(slot, buffers.length);
+    long start = CodecMetrics.startMarshalling();
+    for (int i = 0; i < buffers.length; ++i) {
+      ByteBuffer buffer = buffers[i];
+      if (buffer.isDirect()) {
+        slotPointers[i] = Native.getDirectBufferPointer(buffer)
+            .share(buffer.position());
+      } else {
+        Memory region = region(slot, i, buffer.remaining());
+        region.getByteBuffer(0, buffer.remaining()).put(buffer.duplicate());
+        slotPointers[i] = region;
+      }
+    }
+    CodecMetrics.stopMarshalling(start);
+    return slotPointers;
+  }
+
+  /**
+   * Stages the XOR of the remaining bytes of two buffers in the first
+   * native region of a slot.
+   *
+   * @return The region, valid until the next use of the slot on this thread
+   */
+  public Pointer stageDelta(int slot, ByteBuffer oldData,
+      ByteBuffer newData) {
+    int length = oldData.remaining();
+    long start = CodecMetrics.startMarshalling();
+    Memory region = region(slot, 0, length);
+    ByteBuffer delta = region.getByteBuffer(0, length);
+    delta.put(oldData.duplicate()).flip();
+    CodecUtils.xor(newData, delta);
+    CodecMetrics.stopMarshalling(start);
+    return region;
+  }
+
+  private Memory region(int slot, int index, int size) {
+    Memory[] slotRegions = regions[slot];
+    if (slotRegions.length <= index) {
+      Memory[] resized = new Memory[index + 1];
+      System.arraycopy(slotRegions, 0, resized, 0, slotRegions.length);
+      regions[slot] = slotRegions = resized;
+    }
+    return ensure(slotRegions, index, size);
+  }
+
+  private static Memory ensure(Memory[] slotRegions, int index, int size) {
+    Memory region = slotRegions[index];
+    if (region == null || region.getSize() < size) {
+      // Grow by half at least, so that slowly growing blocks do not
+      // reallocate on every call
+      long capacity = Math.max(size, region == null ? 0
+          : region.getSize() * 3 / 2);
+      slotRegions[index] = region = new Memory(Math.max(capacity, 1));
+    }
+    return region;
+  }
+
+  /**
+   * Returns a pointer array of the given length, whose elements are left
+   * from the previous use of the slot.
+   */
+  public Pointer[] pointers(int slot, int length) {
+    if (pointers[slot].length != length) {
+      pointers[slot] = new Pointer[length];
+    }
+    return pointers[slot];
+  }
+
+  /**
+   * Returns a block array of the given length, whose elements are left from
+   * the previous use of the slot.
+   */
+  public byte[][] arrays(int slot, int length) {
+    if (arrays[slot].length != length) {
+      arrays[slot] = new byte[length][];
+    }
+    return arrays[slot];
+  }
+
+  /**
+   * Returns an int array of the given length, whose elements are left from
+   * the previous use of the slot.
+   */
+  public int[] ints(int slot, int length) {
+    if (ints[slot].length != length) {
+      ints[slot] = new int[length];
+    }
+    return ints[slot];
+  }
+}
@@ -17,11 +17,19 @@
  */
 package com.xiaomi.infra.ec;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
+import com.google.common.base.Preconditions;
 import com.sun.jna.Memory;
+import com.sun.jna.Native;
 import com.sun.jna.Pointer;
 
+import com.xiaomi.infra.ec.gf.GaloisField;
+
 public class CodecUtils {
 
   /**
@@ -39,31 +47,33 @@ public class CodecUtils {
   public static void copyBackDecoded(Pointer[] dataPtrs, Pointer[] codingPtrs,
       int[] erasures, byte[][] data,
       byte[][] coding) {
+    long start = CodecMetrics.startMarshalling();
     int k = data.length;
     for (int i = 0; i < erasures.length && erasures[i] >= 0; ++i) {
       if (erasures[i] < k) {
         // Copy back decoded data
-        byte[] array = dataPtrs[erasures[i]].getByteArray(0,
-            data[erasures[i]].length);
-        System.arraycopy(array, 0, data[erasures[i]], 0, array.length);
+        byte[] array = data[erasures[i]];
+        dataPtrs[erasures[i]].read(0, array, 0, array.length);
       } else {
         // Copy back decoded coding
-        byte[] array = codingPtrs[erasures[i] - k].getByteArray(0,
-            coding[erasures[i] -k].length);
-        System.arraycopy(array, 0, coding[erasures[i] -k], 0, array.length);
+        byte[] array = coding[erasures[i] - k];
+        codingPtrs[erasures[i] - k].read(0, array, 0, array.length);
       }
     }
+    CodecMetrics.stopMarshalling(start);
   }
 
   /**
    * Converts a java byte[][] array to JNA Pointer[] array.
    */
   public static Pointer[] toPointerArray(byte[][] array) {
+    long start = CodecMetrics.startMarshalling();
     Pointer[] ptrArray = new Pointer[array.length];
     for (int i = 0; i < array.length; ++i) {
       ptrArray[i] = new Memory(array[i].length);
       ptrArray[i].write(0, array[i], 0, array[i].length);
     }
+    CodecMetrics.stopMarshalling(start);
     return ptrArray;
   }
 
@@ -71,9 +81,374 @@ public class CodecUtils {
    * Converts JNA Pointer[] array to java byte[][] array.
    */
   public static void toByteArray(Pointer[] ptrArray, byte[][] array) {
+    long start = CodecMetrics.startMarshalling();
     for (int i = 0; i < array.length; ++i) {
-      byte[] arr = ptrArray[i].getByteArray(0, array[i].length);
-      System.arraycopy(arr, 0, array[i], 0, array[i].length);
+      ptrArray[i].read(0, array[i], 0, array[i].length);
+    }
+    CodecMetrics.stopMarshalling(start);
+  }
+
+  /**
+   * Checks that the given data and coding arrays form a valid stripe, and
+   * returns the block size of the stripe. The messages are only built on
+   * failure, so that the check does not allocate.
+   */
+  public static int checkArrays(byte[][] data, byte[][] coding,
+      int dataBlockNum, int codingBlockNum) {
+    if (data.length != dataBlockNum) {
+      throw new IllegalArgumentException("data must have " + dataBlockNum
+          + " blocks");
+    }
+    if (coding.length != codingBlockNum) {
+      throw new IllegalArgumentException("coding must have " + codingBlockNum
+          + " blocks");
+    }
+    int size = data[0].length;
+    for (byte[] block : data) {
+      Preconditions.checkArgument(block.length == size,
+          "all blocks must have the same size");
+    }
+    for (byte[] block : coding) {
+      Preconditions.checkArgument(block.length == size,
+          "all blocks must have the same size");
+    }
+    return size;
+  }
+
+  /**
+   * Checks that the given data and coding buffers form a valid stripe, and
+   * returns the block size of the stripe.
+   */
+  public static int checkBuffers(ByteBuffer[] data, ByteBuffer[] coding,
+      int dataBlockNum, int codingBlockNum) {
+    Preconditions.checkArgument(data.length == dataBlockNum,
+        "data must have " + dataBlockNum + " blocks");
+    Preconditions.checkArgument(coding.length == codingBlockNum,
+        "coding must have " + codingBlockNum + " blocks");
+    int size = data[0].remaining();
+    for (ByteBuffer buffer : data) {
+      Preconditions.checkArgument(buffer.remaining() == size,
+          "all blocks must have the same size");
+    }
+    for (ByteBuffer buffer : coding) {
+      Preconditions.checkArgument(buffer.remaining() == size,
+          "all blocks must have the same size");
+    }
+    return size;
+  }
+
+  /**
+   * Checks the arguments of a parity update, and returns the length of the
+   * updated range.
+   *
+   * @param alignment The coding unit the range must be aligned to
+   */
+  public static int checkUpdate(int dataIndex, int offset, ByteBuffer oldData,
+      ByteBuffer newData, ByteBuffer[] coding, int dataBlockNum,
+      int codingBlockNum, int alignment) {
+    Preconditions.checkArgument(dataIndex >= 0 && dataIndex < dataBlockNum,
+        "invalid data index: " + dataIndex);
+    Preconditions.checkArgument(coding.length == codingBlockNum,
+        "coding must have " + codingBlockNum + " blocks");
+    int length = oldData.remaining();
+    Preconditions.checkArgument(newData.remaining() == length,
+        "oldData and newData must have the same size");
+    Preconditions.checkArgument(offset >= 0 && offset % alignment == 0
+        && length % alignment == 0,
+        "range must be aligned to " + alignment + " bytes");
+    for (ByteBuffer buffer : coding) {
+      Preconditions.checkArgument(offset + length <= buffer.remaining(),
+          "range is out of the coding blocks");
+    }
+    return length;
+  }
+
+  /**
+   * Checks the arguments of a partial encoding, and returns the block size.
+   */
+  public static int checkPartial(int[] dataIndices, ByteBuffer[] data,
+      ByteBuffer[] coding, int dataBlockNum, int codingBlockNum) {
+    Preconditions.checkArgument(dataIndices.length == data.length,
+        "dataIndices and data must have the same length");
+    Preconditions.checkArgument(coding.length == codingBlockNum,
+        "coding must have " + codingBlockNum + " blocks");
+    boolean[] seen = new boolean[dataBlockNum];
+    for (int index : dataIndices) {
+      Preconditions.checkArgument(index >= 0 && index < dataBlockNum
+          && !seen[index], "invalid or duplicate data index: " + index);
+      seen[index] = true;
+    }
+    int size = coding[0].remaining();
+    for (ByteBuffer buffer : data) {
+      Preconditions.checkArgument(buffer.remaining() == size,
+          "all blocks must have the same size");
+    }
+    for (ByteBuffer buffer : coding) {
+      Preconditions.checkArgument(buffer.remaining() == size,
+          "all blocks must have the same size");
+    }
+    return size;
+  }
+
+  /**
+   * Checks the arguments of a decoding from survivors, and returns the block
+   * size.
+   */
+  public static int checkSurvivors(int[] survivors,
+      ByteBuffer[] survivorBlocks, int[] targets, ByteBuffer[] targetBlocks,
+      int dataBlockNum, int codingBlockNum) {
+    Preconditions.checkArgument(survivors.length == dataBlockNum,
+        "survivors must have " + dataBlockNum + " blocks");
+    Preconditions.checkArgument(survivorBlocks.length == survivors.length,
+        "survivors and survivorBlocks must have the same length");
+    Preconditions.checkArgument(targetBlocks.length == targets.length,
+        "targets and targetBlocks must have the same length");
+    boolean[] seen = new boolean[dataBlockNum + codingBlockNum];
+    for (int id : survivors) {
+      Preconditions.checkArgument(id >= 0 && id < seen.length && !seen[id],
+          "invalid or duplicate survivor: " + id);
+      seen[id] = true;
+    }
+    for (int id : targets) {
+      Preconditions.checkArgument(id >= 0 && id < seen.length && !seen[id],
+          "invalid, duplicate or surviving target: " + id);
+      seen[id] = true;
+    }
+    int size = survivorBlocks[0].remaining();
+    for (ByteBuffer buffer : survivorBlocks) {
+      Preconditions.checkArgument(buffer.remaining() == size,
+          "all blocks must have the same size");
+    }
+    for (ByteBuffer buffer : targetBlocks) {
+      Preconditions.checkArgument(buffer.remaining() == size,
+          "all blocks must have the same size");
+    }
+    return size;
+  }
+
+  /**
+   * Selects the first k candidates, which is all it takes for MDS codes.
+   */
+  public static int[] selectSurvivors(int[] candidates, int dataBlockNum) {
+    if (candidates.length < dataBlockNum) {
+      return null;
+    }
+    return Arrays.copyOf(candidates, dataBlockNum);
+  }
+
+  /**
+   * Returns the ids of the blocks which are not survivors, as the erasures
+   * of a decoding from the survivors.
+   */
+  public static int[] complement(int[] survivors, int totalBlockNum) {
+    boolean[] survived = new boolean[totalBlockNum];
+    for (int id : survivors) {
+      survived[id] = true;
+    }
+    int[] erasures = new int[totalBlockNum - survivors.length];
+    for (int i = 0, j = 0; i < totalBlockNum; ++i) {
+      if (!survived[i]) {
+        erasures[j++] = i;
+      }
+    }
+    return erasures;
+  }
+
+  /**
+   * XORs the remaining bytes of src into dst, leaving both positions
+   * unchanged.
+   */
+  public static void xor(ByteBuffer src, ByteBuffer dst) {
+    int length = src.remaining();
+    Preconditions.checkArgument(dst.remaining() == length,
+        "src and dst must have the same size");
+    if (src.hasArray() && dst.hasArray()) {
+      GaloisField.xorRegion(src.array(), src.arrayOffset() + src.position(),
+          dst.array(), dst.arrayOffset() + dst.position(), length);
+      return;
+    }
+    // The same byte order on both sides, so that longs line up
+    ByteBuffer from = src.duplicate().order(ByteOrder.BIG_ENDIAN);
+    ByteBuffer to = dst.duplicate().order(ByteOrder.BIG_ENDIAN);
+    int s = src.position();
+    int d = dst.position();
+    int i = 0;
+    for (; i + 8 <= length; i += 8) {
+      to.putLong(d + i, to.getLong(d + i) ^ from.getLong(s + i));
+    }
+    for (; i < length; ++i) {
+      to.put(d + i, (byte) (to.get(d + i) ^ from.get(s + i)));
+    }
+  }
+
+  /**
+   * Returns the XOR of the old and the new content of an overwritten range,
+   * which is what the coding blocks change by, up to a coefficient.
+   */
+  public static byte[] delta(ByteBuffer oldData, ByteBuffer newData) {
+    byte[] delta = new byte[oldData.remaining()];
+    oldData.duplicate().get(delta);
+    ByteBuffer src = newData.duplicate();
+    for (int i = 0; i < delta.length; ++i) {
+      delta[i] ^= src.get();
+    }
+    return delta;
+  }
+
+  /**
+   * Returns the column slice [offset, offset + length) of every block of a
+   * stripe. The slices share content with the given buffers.
+   */
+  public static ByteBuffer[] slice(ByteBuffer[] buffers, int offset,
+      int length) {
+    ByteBuffer[] slices = new ByteBuffer[buffers.length];
+    for (int i = 0; i < buffers.length; ++i) {
+      ByteBuffer slice = buffers[i].duplicate();
+      slice.position(buffers[i].position() + offset);
+      slice.limit(buffers[i].position() + offset + length);
+      slices[i] = slice;
+    }
+    return slices;
+  }
+
+  /**
+   * Encodes a batch of java byte[][] stripes with the ByteBuffer batch API of
+   * the given codec.
+   */
+  public static List<byte[][]> encodeBatch(CodecInterface codec,
+      List<byte[][]> data, int codingBlockNum) {
+    ByteBuffer[][] dataBuffers = new ByteBuffer[data.size()][];
+    ByteBuffer[][] codingBuffers = new ByteBuffer[data.size()][];
+    List<byte[][]> coding = new ArrayList<byte[][]>(data.size());
+    for (int s = 0; s < data.size(); ++s) {
+      byte[][] stripe = data.get(s);
+      Preconditions.checkArgument(stripe.length > 0);
+      byte[][] stripeCoding = new byte[codingBlockNum][stripe[0].length];
+      dataBuffers[s] = wrap(stripe);
+      codingBuffers[s] = wrap(stripeCoding);
+      coding.add(stripeCoding);
+    }
+    codec.encodeBatch(dataBuffers, codingBuffers);
+    return coding;
+  }
+
+  /**
+   * Wraps a java byte[][] array into a java ByteBuffer[] array.
+   */
+  public static ByteBuffer[] wrap(byte[][] arrays) {
+    ByteBuffer[] buffers = new ByteBuffer[arrays.length];
+    for (int i = 0; i < arrays.length; ++i) {
+      buffers[i] = ByteBuffer.wrap(arrays[i]);
+    }
+    return buffers;
+  }
+
+  /**
+   * Converts a java ByteBuffer[] array to JNA Pointer[] array. Direct buffers
+   * are passed by address starting at their positions, while heap buffers
+   * are copied to native memory.
+   */
+  public static Pointer[] toPointerArray(ByteBuffer[] buffers) {
+    long start = CodecMetrics.startMarshalling();
+    Pointer[] ptrArray = new Pointer[buffers.length];
+    for (int i = 0; i < buffers.length; ++i) {
+      ByteBuffer buffer = buffers[i];
+      if (buffer.isDirect()) {
+        ptrArray[i] = Native.getDirectBufferPointer(buffer)
+            .share(buffer.position());
+      } else {
+        ptrArray[i] = new Memory(buffer.remaining());
+        if (buffer.hasArray()) {
+          ptrArray[i].write(0, buffer.array(),
+              buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+          byte[] array = new byte[buffer.remaining()];
+          buffer.duplicate().get(array);
+          ptrArray[i].write(0, array, 0, array.length);
+        }
+      }
+    }
+    CodecMetrics.stopMarshalling(start);
+    return ptrArray;
+  }
+
+  /**
+   * Copies JNA Pointer[] array back to the heap buffers of a java ByteBuffer[]
+   * array. Direct buffers already hold the results, so they are skipped.
+   */
+  public static void toByteBuffers(Pointer[] ptrArray, ByteBuffer[] buffers) {
+    long start = CodecMetrics.startMarshalling();
+    for (int i = 0; i < buffers.length; ++i) {
+      copyBack(ptrArray[i], buffers[i]);
+    }
+    CodecMetrics.stopMarshalling(start);
+  }
+
+  /**
+   * Copies back the decoded data and coding to the java specified buffers.
+   * Direct buffers already hold the results, so they are skipped.
+   */
+  public static void copyBackDecoded(Pointer[] dataPtrs, Pointer[] codingPtrs,
+      int[] erasures, ByteBuffer[] data, ByteBuffer[] coding) {
+    long start = CodecMetrics.startMarshalling();
+    int k = data.length;
+    for (int i = 0; i < erasures.length && erasures[i] >= 0; ++i) {
+      if (erasures[i] < k) {
+        copyBack(dataPtrs[erasures[i]], data[erasures[i]]);
+      } else {
+        copyBack(codingPtrs[erasures[i] - k], coding[erasures[i] - k]);
+      }
+    }
+    CodecMetrics.stopMarshalling(start);
+  }
+
+  /**
+   * Converts a java ByteBuffer[] array to java byte[][] array for codecs
+   * working on the java heap. Array backed buffers are used in place, with
+   * the start offsets stored into offsets, while the others are copied.
+   */
+  public static byte[][] toArrays(ByteBuffer[] buffers, int[] offsets) {
+    long start = CodecMetrics.startMarshalling();
+    byte[][] arrays = new byte[buffers.length][];
+    for (int i = 0; i < buffers.length; ++i) {
+      ByteBuffer buffer = buffers[i];
+      if (buffer.hasArray()) {
+        arrays[i] = buffer.array();
+        offsets[i] = buffer.arrayOffset() + buffer.position();
+      } else {
+        arrays[i] = new byte[buffer.remaining()];
+        buffer.duplicate().get(arrays[i]);
+        offsets[i] = 0;
+      }
+    }
+    CodecMetrics.stopMarshalling(start);
+    return arrays;
+  }
+
+  /**
+   * Copies the arrays returned by {@link #toArrays} back to the buffers which
+   * are not array backed. Read only buffers, which can only be inputs, are
+   * skipped.
+   */
+  public static void copyBackArrays(byte[][] arrays, ByteBuffer[] buffers) {
+    long start = CodecMetrics.startMarshalling();
+    for (int i = 0; i < buffers.length; ++i) {
+      if (!buffers[i].hasArray() && !buffers[i].isReadOnly()) {
+        buffers[i].duplicate().put(arrays[i]);
+      }
+    }
+    CodecMetrics.stopMarshalling(start);
+  }
+
+  private static void copyBack(Pointer ptr, ByteBuffer buffer) {
+    if (buffer.isDirect()) {
+      return;
+    }
+    if (buffer.hasArray()) {
+      ptr.read(0, buffer.array(), buffer.arrayOffset() + buffer.position(),
+          buffer.remaining());
+    } else {
+      buffer.duplicate().put(ptr.getByteArray(0, buffer.remaining()));
     }
   }
 
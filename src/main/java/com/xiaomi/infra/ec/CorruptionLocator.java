@@ -0,0 +1,221 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.xiaomi.infra.ec.gf.GaloisField;
+
+/**
+ * CorruptionLocator finds the single corrupt block of an inconsistent stripe
+ * from its syndromes, the XOR of the stored and the recomputed coding blocks.
+ * A corrupt coding block j only shows in syndrome j, while a corrupt data
+ * block x with error word e shows as c[j][x] * e in every syndrome j, so
+ * that the ratios of the syndromes at any mismatching word tell x, as long
+ * as there are at least two coding blocks. Only one mismatching word of a
+ * slice is examined, the rest of the slice only tells which coding blocks
+ * differ.
+ *
+ * <p>For bit-matrix codes, word i of the w packets of a coding unit is made
+ * of bit i of each packet, packet r holding bit r of the word.
+ */
+class CorruptionLocator {
+
+  private final int dataBlockNum;
+  private final int codingBlockNum;
+  private final int wordSize;
+  /** The packet size of bit-matrix codes, 0 for codes over words. */
+  private final int packetSize;
+  /** The m x k coding matrix over GF(2^w). */
+  private final int[] matrix;
+
+  private CorruptionLocator(int dataBlockNum, int codingBlockNum,
+      int wordSize, int packetSize, int[] matrix) {
+    this.dataBlockNum = dataBlockNum;
+    this.codingBlockNum = codingBlockNum;
+    this.wordSize = wordSize;
+    this.packetSize = packetSize;
+    this.matrix = matrix;
+  }
+
+  /**
+   * Creates the locator of a code over words of w bits.
+   */
+  static CorruptionLocator forMatrix(int dataBlockNum, int codingBlockNum,
+      int wordSize, int[] matrix) {
+    return new CorruptionLocator(dataBlockNum, codingBlockNum, wordSize, 0,
+        matrix);
+  }
+
+  /**
+   * Creates the locator of a bit-matrix code over packets. The element of
+   * every block of the bit-matrix is read back from its first column, which
+   * holds the bits of the element times 1.
+   */
+  static CorruptionLocator forBitMatrix(int dataBlockNum, int codingBlockNum,
+      int wordSize, int packetSize, int[] bitMatrix) {
+    int kw = dataBlockNum * wordSize;
+    int[] matrix = new int[codingBlockNum * dataBlockNum];
+    for (int j = 0; j < codingBlockNum; ++j) {
+      for (int x = 0; x < dataBlockNum; ++x) {
+        int element = 0;
+        for (int r = 0; r < wordSize; ++r) {
+          element |= bitMatrix[(j * wordSize + r) * kw + x * wordSize] << r;
+        }
+        matrix[j * dataBlockNum + x] = element;
+      }
+    }
+    return new CorruptionLocator(dataBlockNum, codingBlockNum, wordSize,
+        packetSize, matrix);
+  }
+
+  /**
+   * Returns the syndrome words at a mismatching position of a column slice.
+   *
+   * @param syndromes The syndromes of the slice, which must be aligned to
+   *                  the coding unit
+   * @return The m syndrome words, or null if the syndromes are all zero
+   */
+  int[] findMismatch(ByteBuffer[] syndromes) {
+    int first = -1;
+    int block = -1;
+    for (int j = 0; j < syndromes.length; ++j) {
+      int index = firstNonZero(syndromes[j]);
+      if (index >= 0 && (first < 0 || index < first)) {
+        first = index;
+        block = j;
+      }
+    }
+    if (first < 0) {
+      return null;
+    }
+
+    int[] words = new int[codingBlockNum];
+    if (packetSize == 0) {
+      int bytes = wordSize / 8;
+      int offset = first / bytes * bytes;
+      for (int j = 0; j < codingBlockNum; ++j) {
+        ByteBuffer syndrome = syndromes[j].duplicate()
+            .order(ByteOrder.nativeOrder());
+        int pos = syndrome.position() + offset;
+        switch (wordSize) {
+          case 8:
+            words[j] = syndrome.get(pos) & 0xff;
+            break;
+          case 16:
+            words[j] = syndrome.getShort(pos) & 0xffff;
+            break;
+          default:
+            words[j] = syndrome.getInt(pos);
+            break;
+        }
+      }
+    } else {
+      int unit = wordSize * packetSize;
+      int base = first / unit * unit + first % packetSize;
+      int bit = Integer.numberOfTrailingZeros(
+          syndromes[block].get(syndromes[block].position() + first));
+      for (int j = 0; j < codingBlockNum; ++j) {
+        int pos = syndromes[j].position() + base;
+        for (int r = 0; r < wordSize; ++r) {
+          int b = syndromes[j].get(pos + r * packetSize) >>> bit & 1;
+          words[j] |= b << r;
+        }
+      }
+    }
+    return words;
+  }
+
+  /**
+   * Returns the only block which explains the syndrome words at a
+   * mismatching position and the set of mismatching coding blocks.
+   *
+   * @param words The m syndrome words, not all zero
+   * @param mismatched Whether every coding block mismatches anywhere in the
+   *                   slice of the words
+   * @return The block id, or -1 if no block or more than one does
+   */
+  int locate(int[] words, boolean[] mismatched) {
+    int nonZero = -1;
+    int nonZeroNum = 0;
+    int mismatchedNum = 0;
+    for (int j = 0; j < codingBlockNum; ++j) {
+      if (words[j] != 0) {
+        nonZero = j;
+        ++nonZeroNum;
+      }
+      if (mismatched[j]) {
+        ++mismatchedNum;
+      }
+    }
+
+    int found = -1;
+    int foundNum = 0;
+    if (nonZeroNum == 1 && mismatchedNum == 1 && mismatched[nonZero]) {
+      found = dataBlockNum + nonZero;
+      ++foundNum;
+    }
+    for (int x = 0; x < dataBlockNum; ++x) {
+      int c0 = matrix[nonZero * dataBlockNum + x];
+      if (c0 == 0) {
+        continue;
+      }
+      // words[j] == c[j][x] * e for all j, with e = words[nonZero] / c0
+      boolean consistent = true;
+      for (int j = 0; j < codingBlockNum && consistent; ++j) {
+        int c = matrix[j * dataBlockNum + x];
+        consistent = multiply(c, words[nonZero]) == multiply(c0, words[j])
+            && (c != 0 || !mismatched[j]);
+      }
+      if (consistent) {
+        found = x;
+        ++foundNum;
+      }
+    }
+    return foundNum == 1 ? found : -1;
+  }
+
+  /**
+   * Returns the index of the first non zero byte of the remaining bytes of
+   * a buffer, or -1 if they are all zero.
+   */
+  static int firstNonZero(ByteBuffer buffer) {
+    int pos = buffer.position();
+    int end = buffer.limit();
+    int i = pos;
+    for (; i + 8 <= end; i += 8) {
+      if (buffer.getLong(i) != 0) {
+        break;
+      }
+    }
+    for (; i < end; ++i) {
+      if (buffer.get(i) != 0) {
+        return i - pos;
+      }
+    }
+    return -1;
+  }
+
+  private int multiply(int a, int b) {
+    if (wordSize == 8) {
+      return GaloisField.multiply(a, b);
+    }
+    return JerasureLibrary.INSTANCE.galois_single_multiply(a, b, wordSize);
+  }
+}
@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec;
+
+import java.util.Arrays;
+
+/**
+ * DecodePlan tells which k survivors a degraded read has to fetch to decode
+ * the wanted blocks, as returned by {@link ErasureCodec#planDecode}. Only
+ * the survivors are then passed to
+ * {@link ErasureCodec#decode(DecodePlan, byte[][])}, which returns the
+ * targets alone.
+ */
+public class DecodePlan {
+
+  private final int[] survivors;
+  private final int[] targets;
+  private final double cost;
+
+  DecodePlan(int[] survivors, int[] targets, double cost) {
+    this.survivors = survivors;
+    this.targets = targets;
+    this.cost = cost;
+  }
+
+  /**
+   * Returns the sorted ids of the blocks to fetch.
+   */
+  public int[] getSurvivors() {
+    return survivors.clone();
+  }
+
+  /**
+   * Returns the ids of the blocks to decode, in the order decode returns
+   * them.
+   */
+  public int[] getTargets() {
+    return targets.clone();
+  }
+
+  /**
+   * Returns the total cost of fetching the survivors.
+   */
+  public double getCost() {
+    return cost;
+  }
+
+  int[] survivors() {
+    return survivors;
+  }
+
+  int[] targets() {
+    return targets;
+  }
+
+  @Override
+  public String toString() {
+    return "DecodePlan(survivors=" + Arrays.toString(survivors)
+        + ", targets=" + Arrays.toString(targets) + ", cost=" + cost + ")";
+  }
+}
@@ -0,0 +1,224 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec;
+
+import java.util.BitSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * DecodingMatrixCache is a bounded, concurrent LRU cache of the decoding
+ * matrices (or schedules) of a codec, keyed by the set of erased blocks. A
+ * degraded disk makes every read hit the same erasure set, so decoding only
+ * has to do the multiplication instead of re-inverting the matrix. Each
+ * thread also remembers the last pattern it looked up, so that repeating it
+ * neither allocates nor touches the shared LRU state.
+ *
+ * @param <V> The type of the cached decoding matrices
+ */
+public class DecodingMatrixCache<V> {
+
+  /** The default maximum number of cached erasure patterns. */
+  public static final int DEFAULT_CAPACITY = 64;
+
+  /**
+   * Loader which builds the decoding matrix of an erasure set on cache miss.
+   */
+  public interface Loader<V> {
+
+    /**
+     * Builds the decoding matrix.
+     *
+     * @param erased The erased block ids, which must not be modified
+     */
+    public V load(BitSet erased);
+  }
+
+  /**
+   * Releaser which frees the native resources of a decoding matrix once it
+   * is evicted or cleared from the cache.
+   */
+  public interface Releaser<V> {
+
+    /**
+     * Releases the decoding matrix. Callers which are still using it must
+     * hold their own reference.
+     */
+    public void release(V value);
+  }
+
+  /** The last lookup of a thread. */
+  private static class Memo<V> {
+    final BitSet erased;
+    BitSet key;
+    V value;
+    int generation;
+
+    Memo(int totalBlockNum) {
+      this.erased = new BitSet(totalBlockNum);
+    }
+  }
+
+  private final int totalBlockNum;
+  private final int maxErasureNum;
+  private final Cache<BitSet, V> cache;
+  private final ThreadLocal<Memo<V>> memos;
+  private final LongAdder memoHitCount = new LongAdder();
+  /** Bumped on every removal, which invalidates the memos. */
+  private final AtomicInteger generation = new AtomicInteger();
+
+  /**
+   * Creates a cache.
+   *
+   * @param capacity The maximum number of cached erasure patterns
+   * @param totalBlockNum The number of data and coding blocks
+   * @param maxErasureNum The maximum number of erasures which can be decoded
+   */
+  public DecodingMatrixCache(int capacity, int totalBlockNum,
+      int maxErasureNum) {
+    this(capacity, totalBlockNum, maxErasureNum, null);
+  }
+
+  /**
+   * Creates a cache which releases the decoding matrices it drops.
+   *
+   * @param capacity The maximum number of cached erasure patterns
+   * @param totalBlockNum The number of data and coding blocks
+   * @param maxErasureNum The maximum number of erasures which can be decoded
+   * @param releaser The releaser of dropped decoding matrices, may be null
+   */
+  public DecodingMatrixCache(int capacity, int totalBlockNum,
+      int maxErasureNum, final Releaser<V> releaser) {
+    Preconditions.checkArgument(capacity >= 0);
+    this.totalBlockNum = totalBlockNum;
+    this.maxErasureNum = maxErasureNum;
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(capacity)
+        .recordStats()
+        .removalListener(new RemovalListener<BitSet, V>() {
+          @Override
+          public void onRemoval(RemovalNotification<BitSet, V> notification) {
+            generation.incrementAndGet();
+            if (releaser != null) {
+              releaser.release(notification.getValue());
+            }
+          }
+        }).build();
+    this.memos = new ThreadLocal<Memo<V>>() {
+      @Override
+      protected Memo<V> initialValue() {
+        return new Memo<V>(DecodingMatrixCache.this.totalBlockNum);
+      }
+    };
+  }
+
+  /**
+   * Returns the decoding matrix of the given erasures, building it with the
+   * loader on cache miss.
+   *
+   * @param erasures The failed blocks list, may be unsorted and may contain
+   *                 duplicates
+   * @param loader The loader to build the decoding matrix
+   * @return The decoding matrix
+   */
+  public V get(int[] erasures, final Loader<V> loader) {
+    Memo<V> memo = memos.get();
+    toErasedSet(erasures, memo.erased);
+    if (memo.value != null && memo.generation == generation.get()
+        && memo.erased.equals(memo.key)) {
+      memoHitCount.increment();
+      return memo.value;
+    }
+    // Read before the lookup, so that a removal racing with it invalidates
+    // the memo
+    int lookupGeneration = generation.get();
+    final BitSet erased = (BitSet) memo.erased.clone();
+    try {
+      V value = cache.get(erased, new Callable<V>() {
+        @Override
+        public V call() {
+          return loader.load(erased);
+        }
+      });
+      memo.key = erased;
+      memo.value = value;
+      memo.generation = lookupGeneration;
+      return value;
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    } catch (UncheckedExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  /**
+   * Returns the number of lookups served from the cache.
+   */
+  public long getHitCount() {
+    return cache.stats().hitCount() + memoHitCount.sum();
+  }
+
+  /**
+   * Returns the number of lookups which had to build the decoding matrix.
+   */
+  public long getMissCount() {
+    return cache.stats().missCount();
+  }
+
+  /**
+   * Returns the number of cached erasure patterns.
+   */
+  public long size() {
+    return cache.size();
+  }
+
+  /**
+   * Removes all the cached decoding matrices, releasing them.
+   */
+  public void clear() {
+    cache.invalidateAll();
+  }
+
+  /**
+   * Fills erased with the given erasures. The messages are only built on
+   * failure, so that lookups do not allocate.
+   */
+  private void toErasedSet(int[] erasures, BitSet erased) {
+    erased.clear();
+    for (int erasure : erasures) {
+      if (erasure < 0 || erasure >= totalBlockNum) {
+        throw new IllegalArgumentException("invalid erasure: " + erasure);
+      }
+      erased.set(erasure);
+    }
+    if (erased.cardinality() > maxErasureNum) {
+      throw new RuntimeException("Decode fail, too many erasures: "
+          + erased.cardinality());
+    }
+  }
+}
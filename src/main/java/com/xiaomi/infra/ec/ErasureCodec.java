@@ -17,7 +17,31 @@
  */
 package com.xiaomi.infra.ec;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.base.Preconditions;
+import com.google.common.math.IntMath;
+import com.google.common.primitives.Ints;
+
+import com.xiaomi.infra.ec.checksum.ChecksumException;
+import com.xiaomi.infra.ec.checksum.StripeChecksums;
+import com.xiaomi.infra.ec.engine.CodecEngines;
+import com.xiaomi.infra.ec.engine.CodecProfile;
+import com.xiaomi.infra.ec.gf.GaloisKernels;
+import com.xiaomi.infra.ec.lrc.LocallyRepairableCodec;
+import com.xiaomi.infra.ec.raid.MinimumDensityCodec;
+import com.xiaomi.infra.ec.raid.XorParityCodec;
 import com.xiaomi.infra.ec.rs.CauchyReedSolomonCodec;
+import com.xiaomi.infra.ec.rs.JavaReedSolomonCodec;
 import com.xiaomi.infra.ec.rs.ReedSolomonCodec;
 
 /**
@@ -31,8 +55,41 @@ public class ErasureCodec implements CodecInterface {
    * Currently supported coding algorithms.
    */
   public enum Algorithm {
-    Reed_Solomon,
-    Cauchy_Reed_Solomon;
+    Reed_Solomon(true),
+    Cauchy_Reed_Solomon(true),
+    Java_Reed_Solomon(false),
+    LRC(false),
+    /** Liberation RAID-6 code, m = 2, w a prime larger than 2, k <= w. */
+    Liberation(true),
+    /** Blaum-Roth RAID-6 code, m = 2, w + 1 a prime, k <= w. */
+    Blaum_Roth(true),
+    /** Liber8tion RAID-6 code, m = 2, w = 8, k <= 8. */
+    Liber8tion(true),
+    /** RAID-5 XOR parity, m = 1. */
+    XOR_Parity(false);
+
+    private final boolean nativeCodec;
+
+    private Algorithm(boolean nativeCodec) {
+      this.nativeCodec = nativeCodec;
+    }
+
+    /**
+     * Returns whether the algorithm is implemented in native code, so that
+     * direct buffers are cheaper to pass than heap ones.
+     */
+    public boolean isNative() {
+      return nativeCodec;
+    }
+
+    /**
+     * Returns whether the algorithm codes packets with a bit-matrix, so that
+     * it uses the packet size.
+     */
+    public boolean isBitMatrix() {
+      return this == Cauchy_Reed_Solomon || this == Liberation
+          || this == Blaum_Roth || this == Liber8tion;
+    }
   }
 
   /**
@@ -45,26 +102,147 @@ public class ErasureCodec implements CodecInterface {
     private int wordSize;
     private int packetSize;
     private boolean good;
+    private int localParityNum;
+    private boolean simd;
+    private int decodingCacheSize = DecodingMatrixCache.DEFAULT_CAPACITY;
+    private StripeBufferPool bufferPool;
+    private ForkJoinPool forkJoinPool;
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    private CodecRegistry registry;
+    private CodecMetrics metrics;
+    private CodecExecutor executor;
+    private String engine;
+    private Path profileDir;
 
     public Builder(Algorithm algorithm) {
       this.algorithm = algorithm;
     }
 
+    /**
+     * Creates a builder which takes the engine, algorithm and parameters from
+     * the profile saved by
+     * {@link com.xiaomi.infra.ec.engine.CodecTuner} for the geometry, in the
+     * directory set by {@link #profileDir} or else named by the
+     * {@link CodecProfile#PROFILE_DIR_PROPERTY} system property. Without a
+     * saved profile, {@link CodecProfile#DEFAULT} is used.
+     */
+    public Builder() {
+    }
+
     public ErasureCodec build() {
-      CodecInterface codec = null;
+      if (algorithm == null) {
+        profile(loadProfile());
+      }
+      Preconditions.checkArgument(
+          algorithm == Algorithm.LRC || localParityNum == 0,
+          "localParityNum only applies to LRC");
+      if (engine != null && !CodecEngines.isBuiltIn(engine)) {
+        // Codecs of other engines are neither shared nor introspected
+        CodecProfile profile = new CodecProfile(engine, algorithm, wordSize,
+            packetSize, good, simd);
+        CodecInterface codec = CodecEngines.get(engine).create(profile,
+            dataBlockNum, codingBlockNum);
+        return new ErasureCodec(this, new Instance(codec, null, null,
+            profile.getAlignment(), null), null);
+      }
+      if (registry != null) {
+        CodecRegistry.Key key = key();
+        return new ErasureCodec(this, registry.acquire(key, this), key);
+      }
+      return new ErasureCodec(this, createInstance(null), null);
+    }
+
+    private CodecProfile loadProfile() {
+      Path dir = profileDir != null ? profileDir : CodecProfile.defaultDir();
+      if (dir == null) {
+        return CodecProfile.DEFAULT;
+      }
+      try {
+        CodecProfile profile = CodecProfile.load(dir, dataBlockNum,
+            codingBlockNum);
+        return profile != null ? profile : CodecProfile.DEFAULT;
+      } catch (IOException e) {
+        // Falling back could code with different parity than the stored one
+        throw new IllegalStateException("Failed to load the codec profile",
+            e);
+      }
+    }
+
+    /**
+     * Returns the registry key of the codec. Fields which the algorithm does
+     * not use are left out, so that they do not split the shared instances.
+     */
+    CodecRegistry.Key key() {
+      boolean cauchy = algorithm == Algorithm.Cauchy_Reed_Solomon;
+      return new CodecRegistry.Key(algorithm, dataBlockNum, codingBlockNum,
+          wordSize, algorithm.isBitMatrix() ? packetSize : 0, cauchy && good,
+          algorithm == Algorithm.LRC ? localParityNum : 0,
+          !algorithm.isNative() && simd);
+    }
+
+    /**
+     * Creates the underlying codec.
+     *
+     * @param codingMatrix The precomputed coding matrix, null to generate it
+     */
+    Instance createInstance(int[] codingMatrix) {
       switch (algorithm) {
         case Reed_Solomon:
-          codec = new ReedSolomonCodec(dataBlockNum, codingBlockNum, wordSize);
-          break;
+          ReedSolomonCodec rs = new ReedSolomonCodec(dataBlockNum,
+              codingBlockNum, wordSize, codingMatrix, decodingCacheSize);
+          return new Instance(rs, rs.getDecodingCache(),
+              rs.getCodingMatrix(), 8, CorruptionLocator.forMatrix(
+                  dataBlockNum, codingBlockNum, wordSize,
+                  rs.getCodingMatrix()));
         case Cauchy_Reed_Solomon:
-          codec = new CauchyReedSolomonCodec(dataBlockNum, codingBlockNum,
-              wordSize, packetSize, good);
-          break;
+          CauchyReedSolomonCodec crs = new CauchyReedSolomonCodec(
+              dataBlockNum, codingBlockNum, wordSize, packetSize, good,
+              codingMatrix, decodingCacheSize);
+          return new Instance(crs, crs.getDecodingCache(),
+              crs.getCodingBitMatrix(), wordSize * packetSize,
+              CorruptionLocator.forBitMatrix(dataBlockNum, codingBlockNum,
+                  wordSize, packetSize, crs.getCodingBitMatrix()));
+        case Java_Reed_Solomon:
+          // The matrix is cheap to build in Java, it is not worth storing
+          JavaReedSolomonCodec jrs = new JavaReedSolomonCodec(dataBlockNum,
+              codingBlockNum, wordSize, simd ? GaloisKernels.vectorized()
+                  : GaloisKernels.scalar(), decodingCacheSize);
+          return new Instance(jrs, jrs.getDecodingCache(), null, 8,
+              CorruptionLocator.forMatrix(dataBlockNum, codingBlockNum, 8,
+                  jrs.getCodingMatrix()));
+        case LRC:
+          Preconditions.checkArgument(wordSize == 8, "wordSize must be 8");
+          Preconditions.checkArgument(codingBlockNum > localParityNum,
+              "codingBlockNum must be larger than localParityNum");
+          LocallyRepairableCodec lrc = new LocallyRepairableCodec(
+              dataBlockNum, localParityNum, codingBlockNum - localParityNum,
+              simd ? GaloisKernels.vectorized() : GaloisKernels.scalar(),
+              decodingCacheSize);
+          return new Instance(lrc, lrc.getDecodingCache(), null, 8,
+              CorruptionLocator.forMatrix(dataBlockNum, codingBlockNum, 8,
+                  lrc.getCodingMatrix()));
+        case Liberation:
+        case Blaum_Roth:
+        case Liber8tion:
+          Preconditions.checkArgument(codingBlockNum == 2,
+              "codingBlockNum must be 2");
+          MinimumDensityCodec mdc = new MinimumDensityCodec(
+              MinimumDensityCodec.Code.valueOf(algorithm.name().toUpperCase()),
+              dataBlockNum, wordSize, packetSize, codingMatrix,
+              decodingCacheSize);
+          // The bit-matrix blocks are not GF(2^w) elements, nothing to locate
+          // corruption with
+          return new Instance(mdc, mdc.getDecodingCache(),
+              mdc.getCodingBitMatrix(), wordSize * packetSize, null);
+        case XOR_Parity:
+          Preconditions.checkArgument(codingBlockNum == 1,
+              "codingBlockNum must be 1");
+          return new Instance(new XorParityCodec(dataBlockNum), null, null, 8,
+              null);
         default:
           throw new IllegalArgumentException("Algorithm is not supported: "
               + algorithm);
       }
-      return new ErasureCodec(codec);
     }
 
     public Builder dataBlockNum(int dataBlockNum) {
@@ -91,23 +269,1040 @@ public class ErasureCodec implements CodecInterface {
       this.good = good;
       return this;
     }
+
+    /**
+     * Sets the engine, algorithm, wordSize, packetSize, good and simd of a
+     * profile, e.g. one picked by
+     * {@link com.xiaomi.infra.ec.engine.CodecTuner}.
+     */
+    public Builder profile(CodecProfile profile) {
+      this.engine = profile.getEngine();
+      this.algorithm = profile.getAlgorithm();
+      this.wordSize = profile.getWordSize();
+      this.packetSize = profile.getPacketSize();
+      this.good = profile.isGood();
+      this.simd = profile.isSimd();
+      return this;
+    }
+
+    /**
+     * Sets the directory of the saved profiles, which a builder created
+     * without an algorithm looks up.
+     */
+    public Builder profileDir(Path profileDir) {
+      this.profileDir = profileDir;
+      return this;
+    }
+
+    /**
+     * Sets the number of local groups of LRC, each with its own local parity.
+     * The other codingBlockNum - localParityNum coding blocks are global
+     * parities.
+     */
+    public Builder localParityNum(int localParityNum) {
+      this.localParityNum = localParityNum;
+      return this;
+    }
+
+    /**
+     * Makes Java codecs use the SIMD kernel built on the Vector API. It falls
+     * back to the scalar kernel if jdk.incubator.vector is not available.
+     */
+    public Builder simd(boolean simd) {
+      this.simd = simd;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of erasure patterns whose decoding matrices are
+     * cached, 0 to disable the cache.
+     */
+    public Builder decodingCacheSize(int decodingCacheSize) {
+      this.decodingCacheSize = decodingCacheSize;
+      return this;
+    }
+
+    /**
+     * Makes the codec stage blocks in pooled off-heap buffers instead of
+     * allocating native memory on every call, and enables
+     * {@link ErasureCodec#encodeToPool}.
+     */
+    public Builder bufferPool(StripeBufferPool bufferPool) {
+      this.bufferPool = bufferPool;
+      return this;
+    }
+
+    /**
+     * Makes the codec split large blocks into column slices, and encode or
+     * decode the slices concurrently on the given pool.
+     */
+    public Builder forkJoinPool(ForkJoinPool forkJoinPool) {
+      this.forkJoinPool = forkJoinPool;
+      return this;
+    }
+
+    /**
+     * Sets the block size below which the work stays on the calling thread
+     * even if a fork join pool is set.
+     */
+    public Builder parallelThreshold(int parallelThreshold) {
+      this.parallelThreshold = parallelThreshold;
+      return this;
+    }
+
+    /**
+     * Makes the codec share its matrices and schedules with every other codec
+     * of the same geometry built from the registry. The decoding cache size
+     * of the first one built is used.
+     */
+    public Builder registry(CodecRegistry registry) {
+      this.registry = registry;
+      return this;
+    }
+
+    /**
+     * Makes the codec count its encode and decode calls into the given
+     * metrics, which may be shared by several codecs.
+     */
+    public Builder metrics(CodecMetrics metrics) {
+      this.metrics = metrics;
+      return this;
+    }
+
+    /**
+     * Sets the executor running the asynchronous calls, and enables
+     * {@link ErasureCodec#encodeAsync} and {@link ErasureCodec#decodeAsync}.
+     * The executor may be shared by several codecs, and is not closed with
+     * them.
+     */
+    public Builder executor(CodecExecutor executor) {
+      this.executor = executor;
+      return this;
+    }
+  }
+
+  /**
+   * The underlying codec built for a geometry, with what ErasureCodec needs
+   * to know about it.
+   */
+  static class Instance {
+    final CodecInterface codec;
+    final DecodingMatrixCache<?> decodingCache;
+    /** The precomputed coding matrix, null if not worth storing. */
+    final int[] codingMatrix;
+    /**
+     * Slices must not split a coding unit, and must keep long word alignment
+     * for Jerasure.
+     */
+    final int sliceAlignment;
+    final CorruptionLocator locator;
+
+    Instance(CodecInterface codec, DecodingMatrixCache<?> decodingCache,
+        int[] codingMatrix, int sliceAlignment, CorruptionLocator locator) {
+      this.codec = codec;
+      this.decodingCache = decodingCache;
+      this.codingMatrix = codingMatrix;
+      this.sliceAlignment = sliceAlignment;
+      this.locator = locator;
+    }
   }
 
+  /** The default block size from which stripes are coded in parallel. */
+  public static final int DEFAULT_PARALLEL_THRESHOLD = 1 << 20;
+
+  /**
+   * The size of the column slices checksummed, verified and coded together,
+   * whose k + m blocks stay in the CPU cache.
+   */
+  public static final int CHECKSUM_SLICE_SIZE = 16 << 10;
+
   private CodecInterface wrappedCodec;
+  private Algorithm algorithm;
+  private int dataBlockNum;
+  private int codingBlockNum;
+  private StripeBufferPool bufferPool;
+  private DecodingMatrixCache<?> decodingCache;
+  private int sliceAlignment;
+  private CorruptionLocator locator;
+  private ParallelCodec parallelCodec;
+  private CodecRegistry registry;
+  private CodecRegistry.Key registryKey;
+  private CodecMetrics metrics;
+  private CodecExecutor executor;
+  private AtomicBoolean closed = new AtomicBoolean();
+
+  private ErasureCodec(Builder builder, Instance instance,
+      CodecRegistry.Key registryKey) {
+    this.wrappedCodec = instance.codec;
+    this.algorithm = builder.algorithm;
+    this.dataBlockNum = builder.dataBlockNum;
+    this.codingBlockNum = builder.codingBlockNum;
+    this.bufferPool = builder.bufferPool;
+    this.decodingCache = instance.decodingCache;
+    this.sliceAlignment = instance.sliceAlignment;
+    this.locator = instance.locator;
+    this.registry = builder.registry;
+    this.registryKey = registryKey;
+    this.metrics = builder.metrics;
+    this.executor = builder.executor;
+    if (builder.forkJoinPool != null) {
+      this.parallelCodec = new ParallelCodec(instance.codec,
+          builder.forkJoinPool, builder.parallelThreshold,
+          instance.sliceAlignment);
+    }
+  }
+
+  /**
+   * Returns the coding algorithm.
+   */
+  public Algorithm getAlgorithm() {
+    return algorithm;
+  }
+
+  /**
+   * Returns the number of data blocks of a stripe.
+   */
+  public int getDataBlockNum() {
+    return dataBlockNum;
+  }
+
+  /**
+   * Returns the number of coding blocks of a stripe.
+   */
+  public int getCodingBlockNum() {
+    return codingBlockNum;
+  }
+
+  /**
+   * Returns the cache of decoding matrices, which exposes the hit and miss
+   * counters, or null if the algorithm needs no decoding matrix.
+   */
+  public DecodingMatrixCache<?> getDecodingCache() {
+    return decodingCache;
+  }
 
-  private ErasureCodec(CodecInterface codec) {
-    wrappedCodec = codec;
+  /**
+   * Returns the metrics of the codec, null if it has none.
+   */
+  public CodecMetrics getMetrics() {
+    return metrics;
   }
 
   /** {@inheritDoc} */
   @Override
   public byte[][] encode(byte[][] data) {
-    return wrappedCodec.encode(data);
+    byte[][] coding = new byte[codingBlockNum][data[0].length];
+    encode(data, coding);
+    return coding;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Without a buffer pool or a fork join pool, the native codecs stage
+   * the blocks in per-thread native scratch, so that steady state calls only
+   * allocate the small argument arrays of JNA, and the Java codec does not
+   * allocate at all.
+   */
+  @Override
+  public void encode(byte[][] data, byte[][] coding) {
+    beginCall();
+    try {
+      if (bufferPool == null) {
+        if (isParallel(data[0].length)) {
+          parallelCodec.encode(CodecUtils.wrap(data),
+              CodecUtils.wrap(coding));
+        } else {
+          wrappedCodec.encode(data, coding);
+        }
+        return;
+      }
+      PooledStripe stripe = encodeToPool(data);
+      try {
+        for (int i = 0; i < codingBlockNum; ++i) {
+          stripe.copyCoding(i, coding[i], 0);
+        }
+      } finally {
+        stripe.close();
+      }
+    } finally {
+      endCall(CodecMetrics.Operation.ENCODE, data[0].length, null);
+    }
   }
 
   /** {@inheritDoc} */
   @Override
   public void decode(int[] erasures, byte[][] data, byte[][] coding) {
-    wrappedCodec.decode(erasures, data, coding);
+    beginCall();
+    try {
+      if (bufferPool == null) {
+        if (isParallel(data[0].length)) {
+          parallelCodec.decode(erasures, CodecUtils.wrap(data),
+              CodecUtils.wrap(coding));
+        } else {
+          wrappedCodec.decode(erasures, data, coding);
+        }
+        return;
+      }
+      StripeBufferPool.Block[] dataBlocks = borrowCopies(data);
+      try {
+        StripeBufferPool.Block[] codingBlocks = borrowCopies(coding);
+        try {
+          decode(erasures, buffersOf(dataBlocks), buffersOf(codingBlocks));
+          for (int erasure : erasures) {
+            if (erasure < dataBlockNum) {
+              dataBlocks[erasure].buffer().duplicate().get(data[erasure]);
+            } else {
+              codingBlocks[erasure - dataBlockNum].buffer().duplicate()
+                  .get(coding[erasure - dataBlockNum]);
+            }
+          }
+        } finally {
+          release(codingBlocks);
+        }
+      } finally {
+        release(dataBlocks);
+      }
+    } finally {
+      endCall(CodecMetrics.Operation.DECODE, data[0].length, erasures);
+    }
+  }
+
+  /**
+   * Encodes specified data blocks into pooled buffers. The caller must close
+   * the returned stripe to return the buffers to the pool.
+   *
+   * @param data The data blocks matrix
+   * @return The stripe holding the coding blocks
+   */
+  public PooledStripe encodeToPool(byte[][] data) {
+    checkPoolEnabled();
+    StripeBufferPool.Block[] dataBlocks = borrowCopies(data);
+    try {
+      return encodeToPool(buffersOf(dataBlocks));
+    } finally {
+      release(dataBlocks);
+    }
+  }
+
+  /**
+   * Encodes specified data blocks into pooled buffers. The caller must close
+   * the returned stripe to return the buffers to the pool. Direct data
+   * buffers are encoded without any copy.
+   *
+   * @param data The data blocks
+   * @return The stripe holding the coding blocks
+   */
+  public PooledStripe encodeToPool(ByteBuffer[] data) {
+    checkPoolEnabled();
+    int size = data[0].remaining();
+    StripeBufferPool.Block[] codingBlocks =
+        new StripeBufferPool.Block[codingBlockNum];
+    boolean encoded = false;
+    try {
+      for (int i = 0; i < codingBlockNum; ++i) {
+        codingBlocks[i] = bufferPool.borrow(size);
+      }
+      encode(data, buffersOf(codingBlocks));
+      encoded = true;
+    } finally {
+      if (!encoded) {
+        release(codingBlocks);
+      }
+    }
+    return new PooledStripe(bufferPool, codingBlocks);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void encode(ByteBuffer[] data, ByteBuffer[] coding) {
+    beginCall();
+    try {
+      if (isParallel(data[0].remaining())) {
+        parallelCodec.encode(data, coding);
+      } else {
+        wrappedCodec.encode(data, coding);
+      }
+    } finally {
+      endCall(CodecMetrics.Operation.ENCODE, data[0].remaining(), null);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void decode(int[] erasures, ByteBuffer[] data, ByteBuffer[] coding) {
+    beginCall();
+    try {
+      if (isParallel(data[0].remaining())) {
+        parallelCodec.decode(erasures, data, coding);
+      } else {
+        wrappedCodec.decode(erasures, data, coding);
+      }
+    } finally {
+      endCall(CodecMetrics.Operation.DECODE, data[0].remaining(), erasures);
+    }
+  }
+
+  /**
+   * Encodes specified data blocks on the executor of the codec. The data
+   * must not be modified until the future completes.
+   *
+   * @param data The data blocks matrix
+   * @return The future of the coding blocks matrix, failed with a
+   *         RejectedExecutionException if the executor is saturated
+   */
+  public CompletableFuture<byte[][]> encodeAsync(final byte[][] data) {
+    checkExecutorEnabled();
+    return executor.submit(new Callable<byte[][]>() {
+      @Override
+      public byte[][] call() {
+        return encode(data);
+      }
+    });
+  }
+
+  /**
+   * Encodes specified data buffers into the coding buffers on the executor
+   * of the codec. The buffers must not be touched until the future
+   * completes.
+   *
+   * @see #encodeAsync(byte[][])
+   */
+  public CompletableFuture<Void> encodeAsync(final ByteBuffer[] data,
+      final ByteBuffer[] coding) {
+    checkExecutorEnabled();
+    return executor.submit(new Callable<Void>() {
+      @Override
+      public Void call() {
+        encode(data, coding);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Decodes the erased blocks in place on the executor of the codec. The
+   * blocks must not be touched until the future completes.
+   *
+   * @param erasures The erased block ids
+   * @param data The data blocks matrix
+   * @param coding The coding blocks matrix
+   * @return The future of the decoding, failed with a
+   *         RejectedExecutionException if the executor is saturated
+   */
+  public CompletableFuture<Void> decodeAsync(final int[] erasures,
+      final byte[][] data, final byte[][] coding) {
+    checkExecutorEnabled();
+    return executor.submit(new Callable<Void>() {
+      @Override
+      public Void call() {
+        decode(erasures, data, coding);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Decodes the erased buffers in place on the executor of the codec.
+   *
+   * @see #decodeAsync(int[], byte[][], byte[][])
+   */
+  public CompletableFuture<Void> decodeAsync(final int[] erasures,
+      final ByteBuffer[] data, final ByteBuffer[] coding) {
+    checkExecutorEnabled();
+    return executor.submit(new Callable<Void>() {
+      @Override
+      public Void call() {
+        decode(erasures, data, coding);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Decodes the targets of a plan from its survivors on the executor of the
+   * codec.
+   *
+   * @see #decode(DecodePlan, byte[][])
+   */
+  public CompletableFuture<byte[][]> decodeAsync(final DecodePlan plan,
+      final byte[][] survivorBlocks) {
+    checkExecutorEnabled();
+    return executor.submit(new Callable<byte[][]>() {
+      @Override
+      public byte[][] call() {
+        return decode(plan, survivorBlocks);
+      }
+    });
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<byte[][]> encodeBatch(List<byte[][]> data) {
+    return wrappedCodec.encodeBatch(data);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void encodeBatch(ByteBuffer[][] data, ByteBuffer[][] coding) {
+    wrappedCodec.encodeBatch(data, coding);
+  }
+
+  /**
+   * Updates the coding blocks in place after a whole data block is
+   * overwritten, without reading the other data blocks.
+   *
+   * @param dataIndex The index of the overwritten data block
+   * @param oldData The previous content of the block
+   * @param newData The new content of the block
+   * @param coding The coding blocks of the stripe
+   */
+  public void updateParity(int dataIndex, byte[] oldData, byte[] newData,
+      byte[][] coding) {
+    wrappedCodec.updateParity(dataIndex, 0, oldData, newData, coding);
+  }
+
+  /**
+   * Updates the coding blocks in place after a whole data block is
+   * overwritten, without reading the other data blocks.
+   *
+   * @see #updateParity(int, byte[], byte[], byte[][])
+   */
+  public void updateParity(int dataIndex, ByteBuffer oldData,
+      ByteBuffer newData, ByteBuffer[] coding) {
+    wrappedCodec.updateParity(dataIndex, 0, oldData, newData, coding);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void updateParity(int dataIndex, int offset, byte[] oldData,
+      byte[] newData, byte[][] coding) {
+    wrappedCodec.updateParity(dataIndex, offset, oldData, newData, coding);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void updateParity(int dataIndex, int offset, ByteBuffer oldData,
+      ByteBuffer newData, ByteBuffer[] coding) {
+    wrappedCodec.updateParity(dataIndex, offset, oldData, newData, coding);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public byte[][] encodePartial(int[] dataIndices, byte[][] data) {
+    return wrappedCodec.encodePartial(dataIndices, data);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void encodePartial(int[] dataIndices, ByteBuffer[] data,
+      ByteBuffer[] coding) {
+    wrappedCodec.encodePartial(dataIndices, data, coding);
+  }
+
+  /**
+   * Encodes specified data blocks, and computes the CRC32C checksums of the
+   * data and coding blocks in the same pass. Column slices of
+   * {@link #CHECKSUM_SLICE_SIZE} bytes are coded one at a time and
+   * checksummed while they are still in the CPU cache, instead of reading
+   * the whole stripe again for the checksums.
+   *
+   * @param data The data blocks matrix
+   * @param checksums The checksums to compute, of k + m blocks of the data
+   *                  block size
+   * @return The coding blocks matrix
+   */
+  public byte[][] encode(byte[][] data, StripeChecksums checksums) {
+    Preconditions.checkArgument(data.length > 0);
+    byte[][] coding = new byte[codingBlockNum][data[0].length];
+    encode(CodecUtils.wrap(data), CodecUtils.wrap(coding), checksums);
+    return coding;
+  }
+
+  /**
+   * Encodes specified data blocks into the given coding buffers, and
+   * computes the CRC32C checksums of the data and coding blocks in the same
+   * pass.
+   *
+   * @see #encode(byte[][], StripeChecksums)
+   */
+  public void encode(ByteBuffer[] data, ByteBuffer[] coding,
+      StripeChecksums checksums) {
+    int size = CodecUtils.checkBuffers(data, coding, dataBlockNum,
+        codingBlockNum);
+    int sliceSize = checksumSliceSize(checksums, size);
+    for (int offset = 0; offset < size; offset += sliceSize) {
+      int length = Math.min(sliceSize, size - offset);
+      ByteBuffer[] dataSlices = CodecUtils.slice(data, offset, length);
+      ByteBuffer[] codingSlices = CodecUtils.slice(coding, offset, length);
+      wrappedCodec.encode(dataSlices, codingSlices);
+      for (int i = 0; i < dataBlockNum; ++i) {
+        checksums.update(i, offset, dataSlices[i]);
+      }
+      for (int i = 0; i < codingBlockNum; ++i) {
+        checksums.update(dataBlockNum + i, offset, codingSlices[i]);
+      }
+    }
+  }
+
+  /**
+   * Decodes specified failed blocks, verifying the checksums of the
+   * surviving blocks as they are read. The stripe is decoded a column slice
+   * at a time, each slice being verified right before it is decoded.
+   *
+   * @param erasures The failed blocks list
+   * @param data The data blocks matrix
+   * @param coding The coding blocks matrix
+   * @param checksums The stored checksums of the stripe
+   * @throws ChecksumException if a survivor is corrupt, in which case the
+   *         erased blocks are only partially decoded
+   */
+  public void decode(int[] erasures, byte[][] data, byte[][] coding,
+      StripeChecksums checksums) {
+    decode(erasures, CodecUtils.wrap(data), CodecUtils.wrap(coding),
+        checksums);
+  }
+
+  /**
+   * Decodes specified failed blocks in place, verifying the checksums of the
+   * surviving blocks as they are read.
+   *
+   * @see #decode(int[], byte[][], byte[][], StripeChecksums)
+   */
+  public void decode(int[] erasures, ByteBuffer[] data, ByteBuffer[] coding,
+      StripeChecksums checksums) {
+    int size = CodecUtils.checkBuffers(data, coding, dataBlockNum,
+        codingBlockNum);
+    int sliceSize = checksumSliceSize(checksums, size);
+    boolean[] erased = new boolean[dataBlockNum + codingBlockNum];
+    for (int erasure : erasures) {
+      Preconditions.checkArgument(erasure >= 0 && erasure < erased.length,
+          "invalid erasure: " + erasure);
+      erased[erasure] = true;
+    }
+    for (int offset = 0; offset < size; offset += sliceSize) {
+      int length = Math.min(sliceSize, size - offset);
+      ByteBuffer[] dataSlices = CodecUtils.slice(data, offset, length);
+      ByteBuffer[] codingSlices = CodecUtils.slice(coding, offset, length);
+      for (int i = 0; i < erased.length; ++i) {
+        if (!erased[i]) {
+          checksums.verify(i, offset, i < dataBlockNum ? dataSlices[i]
+              : codingSlices[i - dataBlockNum]);
+        }
+      }
+      wrappedCodec.decode(erasures, dataSlices, codingSlices);
+    }
+  }
+
+  /**
+   * Decodes the targets of a plan from its survivors, verifying the
+   * checksums of the survivors as they are read.
+   *
+   * @param plan The plan
+   * @param survivorBlocks The survivors, in the order of
+   *                       {@link DecodePlan#getSurvivors}
+   * @param checksums The stored checksums of the stripe
+   * @return The targets, in the order of {@link DecodePlan#getTargets}
+   * @throws ChecksumException if a survivor is corrupt
+   */
+  public byte[][] decode(DecodePlan plan, byte[][] survivorBlocks,
+      StripeChecksums checksums) {
+    Preconditions.checkArgument(survivorBlocks.length > 0);
+    byte[][] targetBlocks =
+        new byte[plan.targets().length][survivorBlocks[0].length];
+    decode(plan, CodecUtils.wrap(survivorBlocks),
+        CodecUtils.wrap(targetBlocks), checksums);
+    return targetBlocks;
+  }
+
+  /**
+   * Decodes the targets of a plan from its survivors into the given buffers,
+   * verifying the checksums of the survivors as they are read.
+   *
+   * @see #decode(DecodePlan, byte[][], StripeChecksums)
+   */
+  public void decode(DecodePlan plan, ByteBuffer[] survivorBlocks,
+      ByteBuffer[] targetBlocks, StripeChecksums checksums) {
+    int[] survivors = plan.survivors();
+    int size = CodecUtils.checkSurvivors(survivors, survivorBlocks,
+        plan.targets(), targetBlocks, dataBlockNum, codingBlockNum);
+    int sliceSize = checksumSliceSize(checksums, size);
+    for (int offset = 0; offset < size; offset += sliceSize) {
+      int length = Math.min(sliceSize, size - offset);
+      ByteBuffer[] survivorSlices = CodecUtils.slice(survivorBlocks, offset,
+          length);
+      for (int i = 0; i < survivors.length; ++i) {
+        checksums.verify(survivors[i], offset, survivorSlices[i]);
+      }
+      wrappedCodec.decode(survivors, survivorSlices, plan.targets(),
+          CodecUtils.slice(targetBlocks, offset, length));
+    }
+  }
+
+  /**
+   * Checks that the coding blocks match the data blocks, e.g. to scrub a
+   * stripe. The stripe is re-encoded a column slice at a time into a slice
+   * sized scratch buffer, so that no coding blocks are allocated, and the
+   * check stops at the first mismatching slice.
+   *
+   * @param data The data blocks matrix
+   * @param coding The stored coding blocks matrix
+   * @return Whether the stripe is consistent
+   */
+  public boolean verify(byte[][] data, byte[][] coding) {
+    return verify(CodecUtils.wrap(data), CodecUtils.wrap(coding));
+  }
+
+  /**
+   * Checks that the coding blocks match the data blocks.
+   *
+   * @see #verify(byte[][], byte[][])
+   */
+  public boolean verify(ByteBuffer[] data, ByteBuffer[] coding) {
+    int size = CodecUtils.checkBuffers(data, coding, dataBlockNum,
+        codingBlockNum);
+    int sliceSize = sliceSize(1);
+    ByteBuffer[] scratch = allocateScratch(Math.min(sliceSize, size));
+    for (int offset = 0; offset < size; offset += sliceSize) {
+      int length = Math.min(sliceSize, size - offset);
+      ByteBuffer[] recomputed = CodecUtils.slice(scratch, 0, length);
+      wrappedCodec.encode(CodecUtils.slice(data, offset, length), recomputed);
+      ByteBuffer[] codingSlices = CodecUtils.slice(coding, offset, length);
+      for (int i = 0; i < codingBlockNum; ++i) {
+        if (!recomputed[i].equals(codingSlices[i])) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Locates the single silently corrupted block, data or coding, of an
+   * inconsistent stripe, so that it can be repaired in place by decoding it
+   * as an erasure. The syndromes of the stripe, the XOR of the stored and
+   * the recomputed coding blocks, are computed a column slice at a time, and
+   * the corrupt block is told by the syndromes of one mismatching word
+   * instead of trial decodes. One word of every mismatching slice is
+   * examined, and all of them must blame the same block. Locating needs at
+   * least two coding blocks.
+   *
+   * @param data The data blocks matrix
+   * @param coding The stored coding blocks matrix
+   * @return The id of the corrupt block, or -1 if the stripe is consistent
+   * @throws CorruptStripeException if the mismatch is not explained by a
+   *         single corrupt block
+   * @throws UnsupportedOperationException for the minimum density and the
+   *         XOR parity algorithms
+   */
+  public int locateCorruption(byte[][] data, byte[][] coding) {
+    return locateCorruption(CodecUtils.wrap(data), CodecUtils.wrap(coding));
+  }
+
+  /**
+   * Locates the single silently corrupted block of an inconsistent stripe.
+   *
+   * @see #locateCorruption(byte[][], byte[][])
+   */
+  public int locateCorruption(ByteBuffer[] data, ByteBuffer[] coding) {
+    if (locator == null) {
+      throw new UnsupportedOperationException(
+          "Locating corruption is not supported by " + algorithm);
+    }
+    int size = CodecUtils.checkBuffers(data, coding, dataBlockNum,
+        codingBlockNum);
+    int sliceSize = sliceSize(1);
+    ByteBuffer[] scratch = allocateScratch(Math.min(sliceSize, size));
+    boolean[] mismatched = new boolean[codingBlockNum];
+    int block = -1;
+    for (int offset = 0; offset < size; offset += sliceSize) {
+      int length = Math.min(sliceSize, size - offset);
+      ByteBuffer[] syndromes = CodecUtils.slice(scratch, 0, length);
+      wrappedCodec.encode(CodecUtils.slice(data, offset, length), syndromes);
+      ByteBuffer[] codingSlices = CodecUtils.slice(coding, offset, length);
+      for (int i = 0; i < codingBlockNum; ++i) {
+        CodecUtils.xor(codingSlices[i], syndromes[i]);
+        mismatched[i] = CorruptionLocator.firstNonZero(syndromes[i]) >= 0;
+      }
+      int[] words = locator.findMismatch(syndromes);
+      if (words == null) {
+        continue;
+      }
+      // Every mismatching slice must blame the same block
+      int sliceBlock = locator.locate(words, mismatched);
+      if (sliceBlock < 0 || (block >= 0 && sliceBlock != block)) {
+        throw new CorruptStripeException("Corruption at offset " + offset
+            + " is not located to a single block, mismatching coding "
+            + "blocks: " + Arrays.toString(mismatched));
+      }
+      block = sliceBlock;
+    }
+    return block;
+  }
+
+  /**
+   * Plans a degraded read where all blocks cost the same to fetch.
+   *
+   * @see #planDecode(int[], double[], int[])
+   */
+  public DecodePlan planDecode(int[] available, int[] targets) {
+    return planDecode(available, null, targets);
+  }
+
+  /**
+   * Plans a degraded read: selects the cheapest k available blocks which
+   * can decode the targets. Fetching and marshalling only them, instead of
+   * the whole stripe, is what {@link #decode(DecodePlan, byte[][])} needs.
+   * As the independent sets of blocks form a matroid, picking the cheapest
+   * independent blocks greedily gives the cheapest survivors.
+   *
+   * @param available The ids of the blocks which can be fetched
+   * @param costs The cost of fetching every block, indexed by block id, e.g.
+   *              lower for local or cached blocks. Null if all blocks cost
+   *              the same, in which case the lower ids are preferred
+   * @param targets The ids of the missing blocks to decode
+   * @return The plan
+   */
+  public DecodePlan planDecode(int[] available, final double[] costs,
+      int[] targets) {
+    int totalBlockNum = dataBlockNum + codingBlockNum;
+    Preconditions.checkArgument(costs == null || costs.length == totalBlockNum,
+        "costs must have " + totalBlockNum + " elements");
+    boolean[] seen = new boolean[totalBlockNum];
+    Integer[] candidates = new Integer[available.length];
+    for (int i = 0; i < available.length; ++i) {
+      int id = available[i];
+      Preconditions.checkArgument(id >= 0 && id < totalBlockNum && !seen[id],
+          "invalid or duplicate available block: " + id);
+      seen[id] = true;
+      candidates[i] = id;
+    }
+    for (int id : targets) {
+      Preconditions.checkArgument(id >= 0 && id < totalBlockNum && !seen[id],
+          "invalid, duplicate or available target: " + id);
+      seen[id] = true;
+    }
+
+    Arrays.sort(candidates, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        int byCost = costs == null ? 0 : Double.compare(costs[a], costs[b]);
+        return byCost != 0 ? byCost : a.compareTo(b);
+      }
+    });
+    int[] survivors = wrappedCodec.selectSurvivors(Ints.toArray(
+        Arrays.asList(candidates)));
+    if (survivors == null) {
+      throw new RuntimeException("Decode fail, unrecoverable erasures with "
+          + "available blocks: " + Arrays.toString(available));
+    }
+    Arrays.sort(survivors);
+    double cost = 0;
+    for (int id : survivors) {
+      cost += costs == null ? 1 : costs[id];
+    }
+    return new DecodePlan(survivors, targets.clone(), cost);
+  }
+
+  /**
+   * Decodes the targets of a plan from its survivors.
+   *
+   * @param plan The plan
+   * @param survivorBlocks The survivors, in the order of
+   *                       {@link DecodePlan#getSurvivors}
+   * @return The targets, in the order of {@link DecodePlan#getTargets}
+   */
+  public byte[][] decode(DecodePlan plan, byte[][] survivorBlocks) {
+    return decode(plan.survivors(), survivorBlocks, plan.targets());
+  }
+
+  /**
+   * Decodes the targets of a plan from its survivors into the given buffers.
+   *
+   * @see #decode(DecodePlan, byte[][])
+   */
+  public void decode(DecodePlan plan, ByteBuffer[] survivorBlocks,
+      ByteBuffer[] targetBlocks) {
+    decode(plan.survivors(), survivorBlocks, plan.targets(), targetBlocks);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int[] selectSurvivors(int[] candidates) {
+    return wrappedCodec.selectSurvivors(candidates);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public byte[][] decode(int[] survivors, byte[][] survivorBlocks,
+      int[] targets) {
+    beginCall();
+    try {
+      return wrappedCodec.decode(survivors, survivorBlocks, targets);
+    } finally {
+      endCall(CodecMetrics.Operation.DECODE, survivorBlocks[0].length,
+          targets);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void decode(int[] survivors, ByteBuffer[] survivorBlocks,
+      int[] targets, ByteBuffer[] targetBlocks) {
+    beginCall();
+    try {
+      wrappedCodec.decode(survivors, survivorBlocks, targets, targetBlocks);
+    } finally {
+      endCall(CodecMetrics.Operation.DECODE, survivorBlocks[0].remaining(),
+          targets);
+    }
+  }
+
+  /**
+   * XORs a contribution returned by {@link #encodePartial} into parity. Once
+   * the contributions of all the data blocks are combined, parity holds the
+   * coding blocks of the stripe.
+   *
+   * @param parity The parity to accumulate into, initially zeroed or the
+   *               first contribution
+   * @param partial The contribution to add
+   */
+  public static void combineParity(byte[][] parity, byte[][] partial) {
+    combineParity(CodecUtils.wrap(parity), CodecUtils.wrap(partial));
+  }
+
+  /**
+   * XORs a contribution into parity. Each block is the remaining bytes of its
+   * buffer, and the buffer positions are left unchanged.
+   *
+   * @see #combineParity(byte[][], byte[][])
+   */
+  public static void combineParity(ByteBuffer[] parity, ByteBuffer[] partial) {
+    Preconditions.checkArgument(parity.length == partial.length,
+        "parity and partial must have the same number of blocks");
+    for (int i = 0; i < parity.length; ++i) {
+      CodecUtils.xor(partial[i], parity[i]);
+    }
+  }
+
+  /**
+   * Closes the codec. A codec built from a registry only drops its reference,
+   * the shared matrices and schedules are released with the last one.
+   */
+  @Override
+  public void close() {
+    if (!closed.compareAndSet(false, true)) {
+      return;
+    }
+    if (registry != null) {
+      registry.release(registryKey);
+    } else {
+      wrappedCodec.close();
+    }
+  }
+
+  /**
+   * Checks the checksums match the stripe, and returns the size of the
+   * column slices, a multiple of both the chunk size and the coding unit.
+   */
+  private int checksumSliceSize(StripeChecksums checksums, int size) {
+    Preconditions.checkArgument(
+        checksums.getBlockNum() == dataBlockNum + codingBlockNum,
+        "checksums must have " + (dataBlockNum + codingBlockNum) + " blocks");
+    Preconditions.checkArgument(checksums.getBlockSize() == size,
+        "checksums must have the block size " + size);
+    return sliceSize(Math.max(checksums.getChunkSize(), 1));
+  }
+
+  /**
+   * Returns the size of the column slices coded one at a time, a multiple
+   * of both the given unit and the coding unit.
+   */
+  private int sliceSize(int unit) {
+    unit = IntMath.checkedMultiply(unit / IntMath.gcd(unit, sliceAlignment),
+        sliceAlignment);
+    return Math.max(unit, CHECKSUM_SLICE_SIZE / unit * unit);
+  }
+
+  /**
+   * Allocates m scratch coding slices, off heap for native codecs so that
+   * they are not copied.
+   */
+  private ByteBuffer[] allocateScratch(int size) {
+    ByteBuffer[] scratch = new ByteBuffer[codingBlockNum];
+    for (int i = 0; i < codingBlockNum; ++i) {
+      scratch[i] = algorithm.isNative() ? ByteBuffer.allocateDirect(size)
+          : ByteBuffer.allocate(size);
+    }
+    return scratch;
+  }
+
+  private void beginCall() {
+    if (metrics != null) {
+      metrics.begin();
+    }
+  }
+
+  private void endCall(CodecMetrics.Operation operation, int blockSize,
+      int[] erasures) {
+    if (metrics != null) {
+      metrics.end(this, operation, blockSize, erasures);
+    }
+  }
+
+  private boolean isParallel(int size) {
+    return parallelCodec != null && parallelCodec.isParallel(size);
+  }
+
+  private void checkExecutorEnabled() {
+    if (executor == null) {
+      throw new IllegalStateException("Executor is not configured");
+    }
+  }
+
+  private void checkPoolEnabled() {
+    if (bufferPool == null) {
+      throw new IllegalStateException("Buffer pool is not configured");
+    }
+  }
+
+  /**
+   * Borrows a block holding a copy of every array. On failure, the blocks
+   * already borrowed are released.
+   */
+  private StripeBufferPool.Block[] borrowCopies(byte[][] arrays) {
+    StripeBufferPool.Block[] blocks = new StripeBufferPool.Block[arrays.length];
+    boolean borrowed = false;
+    try {
+      for (int i = 0; i < arrays.length; ++i) {
+        blocks[i] = bufferPool.borrow(arrays[i].length);
+        blocks[i].buffer().duplicate().put(arrays[i]);
+      }
+      borrowed = true;
+    } finally {
+      if (!borrowed) {
+        release(blocks);
+      }
+    }
+    return blocks;
+  }
+
+  private static ByteBuffer[] buffersOf(StripeBufferPool.Block[] blocks) {
+    ByteBuffer[] buffers = new ByteBuffer[blocks.length];
+    for (int i = 0; i < blocks.length; ++i) {
+      buffers[i] = blocks[i].buffer();
+    }
+    return buffers;
+  }
+
+  /**
+   * Releases the given blocks, skipping the ones never borrowed.
+   */
+  private void release(StripeBufferPool.Block[] blocks) {
+    for (StripeBufferPool.Block block : blocks) {
+      if (block != null) {
+        bufferPool.release(block);
+      }
+    }
   }
 }
@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec;
+
+import com.sun.jna.Pointer;
+
+/**
+ * JerasureBackend binds the Jerasure calls made on every encode and decode.
+ * The matrices and schedules are still built with {@link JerasureLibrary},
+ * as that happens once per codec or erasure pattern. Implementations are
+ * thread safe.
+ *
+ * @see JerasureBackends
+ */
+public interface JerasureBackend {
+
+  /**
+   * Returns the name the backend is selected by.
+   */
+  public String getName();
+
+  /**
+   * Converts the elements of a {@link JerasureMatrix} into the form passed to
+   * the calls. It is called once per matrix.
+   */
+  public Object bindMatrix(int[] values);
+
+  /**
+   * Calls jerasure_matrix_encode.
+   *
+   * @see JerasureLibrary#jerasure_matrix_encode
+   */
+  public void matrixEncode(int k, int m, int w, JerasureMatrix matrix,
+      Pointer[] dataPtrs, Pointer[] codingPtrs, int size);
+
+  /**
+   * Calls jerasure_matrix_dotprod.
+   *
+   * @param srcIds The source device ids, null for the data devices
+   * @see JerasureLibrary#jerasure_matrix_dotprod
+   */
+  public void matrixDotprod(int k, int w, JerasureMatrix matrixRow,
+      JerasureMatrix srcIds, int destId, Pointer[] dataPtrs,
+      Pointer[] codingPtrs, int size);
+
+  /**
+   * Calls jerasure_schedule_encode. The caller must hold a reference of the
+   * schedule.
+   *
+   * @see JerasureLibrary#jerasure_schedule_encode
+   */
+  public void scheduleEncode(int k, int m, int w, NativeSchedule schedule,
+      Pointer[] dataPtrs, Pointer[] codingPtrs, int size, int packetSize);
+}
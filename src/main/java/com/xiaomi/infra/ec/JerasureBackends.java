@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec;
+
+/**
+ * Selects the {@link JerasureBackend} the native codecs call through. The
+ * FFM backend, built on java.lang.foreign, is compiled only by the ffm
+ * profile and needs JDK 22 or later, so it is loaded by reflection. The JNA
+ * backend is the fallback.
+ *
+ * <p>The FFM backend is picked at startup when available, unless the
+ * {@link #BACKEND_PROPERTY} system property is "jna". It can be switched at
+ * runtime with {@link #select}.
+ */
+public class JerasureBackends {
+
+  /** The system property naming the backend. */
+  public static final String BACKEND_PROPERTY = "com.xiaomi.infra.ec.backend";
+
+  public static final String JNA = "jna";
+  public static final String FFM = "ffm";
+
+  /**
+   * The class name of the FFM backend, compiled only by the ffm profile.
+   */
+  static final String FFM_BACKEND_CLASS =
+      "com.xiaomi.infra.ec.FfmJerasureBackend";
+
+  private static final JerasureBackend JNA_BACKEND = new JnaJerasureBackend();
+
+  private static final JerasureBackend FFM_BACKEND = loadFfmBackend();
+
+  private static volatile JerasureBackend current = initialBackend();
+
+  private JerasureBackends() {
+  }
+
+  /**
+   * Returns the selected backend.
+   */
+  public static JerasureBackend get() {
+    return current;
+  }
+
+  /**
+   * Returns whether the FFM backend is available, which requires JDK 22 or
+   * later, the ffm build profile and the Jerasure library on the library
+   * path.
+   */
+  public static boolean isFfmAvailable() {
+    return FFM_BACKEND != null;
+  }
+
+  /**
+   * Selects the backend used by the following native calls.
+   *
+   * @param name "jna" or "ffm"
+   * @throws IllegalArgumentException if the backend is unknown or not
+   *                                  available
+   */
+  public static void select(String name) {
+    current = forName(name);
+  }
+
+  private static JerasureBackend forName(String name) {
+    if (JNA.equals(name)) {
+      return JNA_BACKEND;
+    }
+    if (FFM.equals(name)) {
+      if (FFM_BACKEND == null) {
+        throw new IllegalArgumentException("FFM backend is not available");
+      }
+      return FFM_BACKEND;
+    }
+    throw new IllegalArgumentException("Unknown backend: " + name);
+  }
+
+  private static JerasureBackend initialBackend() {
+    // Falling back rather than failing, so that one setting fits all JDKs
+    if (JNA.equals(System.getProperty(BACKEND_PROPERTY))) {
+      return JNA_BACKEND;
+    }
+    return FFM_BACKEND != null ? FFM_BACKEND : JNA_BACKEND;
+  }
+
+  private static JerasureBackend loadFfmBackend() {
+    try {
+      return (JerasureBackend) Class.forName(FFM_BACKEND_CLASS)
+          .getConstructor().newInstance();
+    } catch (Exception e) {
+      // Not built, or the library is not found
+      return null;
+    } catch (LinkageError e) {
+      // An older JDK than the class file version
+      return null;
+    }
+  }
+}
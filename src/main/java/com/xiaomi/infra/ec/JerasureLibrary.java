@@ -44,6 +44,50 @@ public interface JerasureLibrary extends Library {
    */
   Pointer cauchy_good_general_coding_matrix(int k, int m, int w);
 
+  /**
+   * Allocates and returns the k*w x 2*w bit-matrix of the Liberation code,
+   * for a prime w > 2 and k <= w, or null if the parameters are invalid.
+   */
+  Pointer liberation_coding_bitmatrix(int k, int w);
+
+  /**
+   * Allocates and returns the k*w x 2*w bit-matrix of the Blaum-Roth code,
+   * for w + 1 prime and k <= w, or null if the parameters are invalid.
+   */
+  Pointer blaum_roth_coding_bitmatrix(int k, int w);
+
+  /**
+   * Allocates and returns the k*8 x 2*8 bit-matrix of the Liber8tion code,
+   * for k <= 8, or null if the parameters are invalid.
+   */
+  Pointer liber8tion_coding_bitmatrix(int k);
+
+  /**
+   * Multiplies a and b in GF(2^w).
+   */
+  int galois_single_multiply(int a, int b, int w);
+
+  /**
+   * Multiplies nbytes of region by multby in GF(2^8), and stores the product
+   * into r2, or XORs it into r2 if add is 1.
+   */
+  void galois_w08_region_multiply(Pointer region, int multby, int nbytes,
+      Pointer r2, int add);
+
+  /**
+   * Multiplies nbytes of region by multby in GF(2^16), and stores the product
+   * into r2, or XORs it into r2 if add is 1.
+   */
+  void galois_w16_region_multiply(Pointer region, int multby, int nbytes,
+      Pointer r2, int add);
+
+  /**
+   * Multiplies nbytes of region by multby in GF(2^32), and stores the product
+   * into r2, or XORs it into r2 if add is 1.
+   */
+  void galois_w32_region_multiply(Pointer region, int multby, int nbytes,
+      Pointer r2, int add);
+
   /**
    * Converts a m × k matrix in GF(2^w) to a wm × wk bit-matrix.
    */
@@ -137,11 +181,17 @@ public interface JerasureLibrary extends Library {
    * @param m The number of coding devices
    * @param w The word size of the code
    * @param bitmatrix The bit matrix to convert
-   * @return The converted schedule matrix
+   * @return The int** schedule, whose last operation starts with -1. It must
+   *         be freed with {@link #jerasure_free_schedule}
    */
-  Pointer[] jerasure_smart_bitmatrix_to_schedule(int k, int m,
+  Pointer jerasure_smart_bitmatrix_to_schedule(int k, int m,
       int w, int[] bitmatrix);
 
+  /**
+   * Frees a schedule returned by jerasure_smart_bitmatrix_to_schedule.
+   */
+  void jerasure_free_schedule(Pointer schedule);
+
   /**
    * Encodes with a schedule.
    *
@@ -182,4 +232,53 @@ public interface JerasureLibrary extends Library {
   int jerasure_schedule_decode_lazy(int k, int m, int w, int[] bitmatrix,
       int[] erasures, Pointer[] data_ptrs, Pointer[] coding_ptrs, int size,
       int packetsize, int smart);
+
+  /**
+   * Creates the k × k decoding matrix which recovers the data devices from
+   * the first k surviving devices.
+   *
+   * @param k The number of data devices
+   * @param m The number of coding devices
+   * @param w The word size of the code
+   * @param matrix An array with k*m elements that representing the coding matrix
+   * @param erased An array of k+m elements, 1 for erased devices, 0 otherwise
+   * @param decoding_matrix An output array of k*k elements
+   * @param dm_ids An output array of the k surviving device ids used
+   * @return 0 on success, -1 on failure
+   */
+  int jerasure_make_decoding_matrix(int k, int m, int w, int[] matrix,
+      int[] erased, int[] decoding_matrix, int[] dm_ids);
+
+  /**
+   * Creates the kw × kw decoding bit-matrix which recovers the data devices
+   * from the first k surviving devices.
+   *
+   * @param k The number of data devices
+   * @param m The number of coding devices
+   * @param w The word size of the code
+   * @param matrix An array with w*k*w*m elements that representing the coding
+   *               bit-matrix
+   * @param erased An array of k+m elements, 1 for erased devices, 0 otherwise
+   * @param decoding_matrix An output array of k*w*k*w elements
+   * @param dm_ids An output array of the k surviving device ids used
+   * @return 0 on success, -1 on failure
+   */
+  int jerasure_make_decoding_bitmatrix(int k, int m, int w, int[] matrix,
+      int[] erased, int[] decoding_matrix, int[] dm_ids);
+
+  /**
+   * Computes the dot product of a matrix row in GF(2^w) and the source
+   * devices, and stores it into the destination device.
+   *
+   * @param k The number of data devices
+   * @param w The word size of the code
+   * @param matrix_row An array of k elements
+   * @param src_ids The k source device ids, null for the data devices
+   * @param dest_id The destination device id
+   * @param data_ptrs An array of k pointers to size bytes worth of data
+   * @param coding_ptrs An array of m pointers to size bytes worth of coding
+   * @param size The total number of bytes per device
+   */
+  void jerasure_matrix_dotprod(int k, int w, int[] matrix_row, int[] src_ids,
+      int dest_id, Pointer[] data_ptrs, Pointer[] coding_ptrs, int size);
 }
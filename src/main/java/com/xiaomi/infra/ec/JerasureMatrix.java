@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec;
+
+/**
+ * JerasureMatrix is a matrix, or matrix row or id list, passed unchanged to
+ * many native calls, e.g. the coding matrix of a codec or the rows of a
+ * cached decoding matrix. A backend converts it once into the form it passes
+ * to the calls, instead of converting the int array on every call. This
+ * class is thread safe.
+ */
+public final class JerasureMatrix {
+
+  /** The form of the matrix bound by a backend. */
+  private static final class Binding {
+    private final JerasureBackend backend;
+    private final Object matrix;
+
+    private Binding(JerasureBackend backend, Object matrix) {
+      this.backend = backend;
+      this.matrix = matrix;
+    }
+  }
+
+  private final int[] values;
+  private volatile Binding binding;
+
+  /**
+   * @param values The elements, which must not be modified afterwards
+   */
+  public JerasureMatrix(int[] values) {
+    this.values = values;
+  }
+
+  /**
+   * Returns the elements, which must not be modified.
+   */
+  public int[] getValues() {
+    return values;
+  }
+
+  /**
+   * Returns the form of the matrix bound by the given backend, binding it on
+   * first use. Only the last backend's form is kept, as the backend is
+   * rarely switched.
+   */
+  public Object bind(JerasureBackend backend) {
+    Binding current = binding;
+    if (current == null || current.backend != backend) {
+      current = new Binding(backend, backend.bindMatrix(values));
+      binding = current;
+    }
+    return current.matrix;
+  }
+}
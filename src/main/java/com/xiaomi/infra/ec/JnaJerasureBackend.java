@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec;
+
+import com.sun.jna.Pointer;
+
+/**
+ * The JNA backend, which converts the pointer and int arrays on every call.
+ * It works on every JDK.
+ */
+final class JnaJerasureBackend implements JerasureBackend {
+
+  @Override
+  public String getName() {
+    return JerasureBackends.JNA;
+  }
+
+  /**
+   * Returns the values as is, JNA copies them on every call.
+   */
+  @Override
+  public Object bindMatrix(int[] values) {
+    return values;
+  }
+
+  @Override
+  public void matrixEncode(int k, int m, int w, JerasureMatrix matrix,
+      Pointer[] dataPtrs, Pointer[] codingPtrs, int size) {
+    JerasureLibrary.INSTANCE.jerasure_matrix_encode(k, m, w,
+        matrix.getValues(), dataPtrs, codingPtrs, size);
+  }
+
+  @Override
+  public void matrixDotprod(int k, int w, JerasureMatrix matrixRow,
+      JerasureMatrix srcIds, int destId, Pointer[] dataPtrs,
+      Pointer[] codingPtrs, int size) {
+    JerasureLibrary.INSTANCE.jerasure_matrix_dotprod(k, w,
+        matrixRow.getValues(), srcIds == null ? null : srcIds.getValues(),
+        destId, dataPtrs, codingPtrs, size);
+  }
+
+  @Override
+  public void scheduleEncode(int k, int m, int w, NativeSchedule schedule,
+      Pointer[] dataPtrs, Pointer[] codingPtrs, int size, int packetSize) {
+    JerasureLibrary.INSTANCE.jerasure_schedule_encode(k, m, w,
+        schedule.getOperations(), dataPtrs, codingPtrs, size, packetSize);
+  }
+}
@@ -0,0 +1,108 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.jna.Pointer;
+
+/**
+ * NativeSchedule owns a Jerasure schedule, the list of XOR operations a
+ * bit-matrix is converted to. It is reference counted: the creator holds one
+ * reference, every user retains another one around a native call, and the
+ * native memory is freed as soon as the last reference is released.
+ */
+public class NativeSchedule {
+
+  private final Pointer schedule;
+  private final Pointer[] operations;
+  private final AtomicInteger refCount = new AtomicInteger(1);
+
+  private NativeSchedule(Pointer schedule) {
+    this.schedule = schedule;
+    // The schedule ends with an operation whose first element is -1
+    int num = 0;
+    while (schedule.getPointer((long) num * Pointer.SIZE).getInt(0) >= 0) {
+      ++num;
+    }
+    this.operations = schedule.getPointerArray(0, num + 1);
+  }
+
+  /**
+   * Converts a bit-matrix into a smart schedule.
+   *
+   * @param k The number of data devices
+   * @param m The number of coding devices
+   * @param w The word size of the code
+   * @param bitMatrix The m*w x k*w bit-matrix
+   * @return The schedule, holding one reference for the caller
+   */
+  public static NativeSchedule create(int k, int m, int w, int[] bitMatrix) {
+    Pointer schedule = JerasureLibrary.INSTANCE
+        .jerasure_smart_bitmatrix_to_schedule(k, m, w, bitMatrix);
+    if (schedule == null) {
+      throw new OutOfMemoryError("Failed to create schedule");
+    }
+    return new NativeSchedule(schedule);
+  }
+
+  /**
+   * Returns the operations to pass to jerasure_schedule_encode. They are
+   * only valid while a reference is held.
+   */
+  public Pointer[] getOperations() {
+    return operations;
+  }
+
+  /**
+   * Returns the native array of operations, for backends which pass it as
+   * is. It is only valid while a reference is held.
+   */
+  Pointer getSchedule() {
+    return schedule;
+  }
+
+  /**
+   * Takes a reference.
+   *
+   * @return false if the schedule is already freed
+   */
+  public boolean retain() {
+    while (true) {
+      int count = refCount.get();
+      if (count == 0) {
+        return false;
+      }
+      if (refCount.compareAndSet(count, count + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Releases a reference, freeing the schedule when it is the last one.
+   */
+  public void release() {
+    int count = refCount.decrementAndGet();
+    if (count == 0) {
+      JerasureLibrary.INSTANCE.jerasure_free_schedule(schedule);
+    } else if (count < 0) {
+      throw new IllegalStateException("NativeSchedule released too many times");
+    }
+  }
+}
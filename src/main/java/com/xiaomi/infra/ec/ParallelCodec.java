@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * ParallelCodec splits the blocks of a stripe into column slices and
+ * encodes or decodes the slices concurrently on a ForkJoinPool. Every
+ * slice boundary is aligned to the coding unit of the wrapped codec, so the
+ * results are identical to the ones of the serial path.
+ */
+class ParallelCodec {
+
+  /** The smallest slice worth a task of its own. */
+  static final int MIN_SLICE_SIZE = 64 * 1024;
+
+  private final CodecInterface codec;
+  private final ForkJoinPool pool;
+  private final int threshold;
+  private final int alignment;
+
+  /**
+   * @param codec The wrapped codec
+   * @param pool The pool to run the slices on
+   * @param threshold Stripes with smaller blocks stay on the calling thread
+   * @param alignment The coding unit of the codec, all the slice boundaries
+   *                  are multiple of it
+   */
+  ParallelCodec(CodecInterface codec, ForkJoinPool pool, int threshold,
+      int alignment) {
+    Preconditions.checkArgument(threshold >= 0);
+    Preconditions.checkArgument(alignment > 0);
+    this.codec = codec;
+    this.pool = pool;
+    this.threshold = threshold;
+    this.alignment = alignment;
+  }
+
+  /**
+   * Returns whether blocks of the given size are split into slices.
+   */
+  boolean isParallel(int size) {
+    return size >= threshold && size >= 2 * alignment;
+  }
+
+  void encode(final ByteBuffer[] data, final ByteBuffer[] coding) {
+    run(data[0].remaining(), new SliceOperation() {
+      @Override
+      public void run(int offset, int length) {
+        codec.encode(CodecUtils.slice(data, offset, length),
+            CodecUtils.slice(coding, offset, length));
+      }
+    });
+  }
+
+  void decode(final int[] erasures, final ByteBuffer[] data,
+      final ByteBuffer[] coding) {
+    run(data[0].remaining(), new SliceOperation() {
+      @Override
+      public void run(int offset, int length) {
+        codec.decode(erasures, CodecUtils.slice(data, offset, length),
+            CodecUtils.slice(coding, offset, length));
+      }
+    });
+  }
+
+  private interface SliceOperation {
+    void run(int offset, int length);
+  }
+
+  private void run(int size, SliceOperation operation) {
+    int sliceSize = Math.max(MIN_SLICE_SIZE,
+        (size + pool.getParallelism() - 1) / pool.getParallelism());
+    sliceSize = roundUp(sliceSize);
+    pool.invoke(new SliceTask(operation, 0, size, sliceSize));
+  }
+
+  private int roundUp(int size) {
+    return (size + alignment - 1) / alignment * alignment;
+  }
+
+  private class SliceTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final SliceOperation operation;
+    private final int start;
+    private final int end;
+    private final int sliceSize;
+
+    SliceTask(SliceOperation operation, int start, int end, int sliceSize) {
+      this.operation = operation;
+      this.start = start;
+      this.end = end;
+      this.sliceSize = sliceSize;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - start <= sliceSize) {
+        operation.run(start, end - start);
+        return;
+      }
+      int mid = start + roundUp((end - start) / 2);
+      invokeAll(new SliceTask(operation, start, mid, sliceSize),
+          new SliceTask(operation, mid, end, sliceSize));
+    }
+  }
+}
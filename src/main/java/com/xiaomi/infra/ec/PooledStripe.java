@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+/**
+ * PooledStripe holds the coding blocks of a stripe encoded into pooled
+ * buffers. The buffers are only valid until the stripe is closed, after which
+ * they are returned to the pool.
+ */
+public class PooledStripe implements Closeable {
+
+  private final StripeBufferPool pool;
+  private final StripeBufferPool.Block[] codingBlocks;
+  private final ByteBuffer[] coding;
+  private boolean closed;
+
+  PooledStripe(StripeBufferPool pool, StripeBufferPool.Block[] codingBlocks) {
+    this.pool = pool;
+    this.codingBlocks = codingBlocks;
+    this.coding = new ByteBuffer[codingBlocks.length];
+    for (int i = 0; i < codingBlocks.length; ++i) {
+      coding[i] = codingBlocks[i].buffer();
+    }
+  }
+
+  /**
+   * Returns the number of coding blocks.
+   */
+  public int getCodingBlockNum() {
+    return coding.length;
+  }
+
+  /**
+   * Returns the size of each coding block.
+   */
+  public int getBlockSize() {
+    return coding[0].remaining();
+  }
+
+  /**
+   * Returns a read only view of the specified coding block.
+   *
+   * @param index The coding block index, starting from 0
+   */
+  public ByteBuffer getCoding(int index) {
+    checkOpen();
+    return coding[index].asReadOnlyBuffer();
+  }
+
+  /**
+   * Copies the specified coding block to a java array.
+   *
+   * @param index The coding block index, starting from 0
+   * @param dst The destination array
+   * @param offset The offset in dst to copy to
+   */
+  public void copyCoding(int index, byte[] dst, int offset) {
+    checkOpen();
+    coding[index].duplicate().get(dst, offset, coding[index].remaining());
+  }
+
+  /**
+   * Returns the coding buffers to the pool. Closing a stripe twice has no
+   * effect.
+   */
+  @Override
+  public synchronized void close() {
+    if (!closed) {
+      closed = true;
+      for (StripeBufferPool.Block block : codingBlocks) {
+        pool.release(block);
+      }
+    }
+  }
+
+  private synchronized void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("Stripe is already closed");
+    }
+  }
+}
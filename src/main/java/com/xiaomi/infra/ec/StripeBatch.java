@@ -0,0 +1,170 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+
+/**
+ * StripeBatch lays a group of stripes with the same block size out column by
+ * column in native memory: block j of every stripe is packed into one
+ * contiguous region. As the codes work column by column, encoding the packed
+ * regions once is the same as encoding every stripe, but it costs a single
+ * native call and k + m native allocations for the whole group.
+ */
+public class StripeBatch {
+
+  /**
+   * The maximum size of a packed block. Larger groups are split, so that the
+   * size stays an int and the k + m regions a bounded allocation.
+   */
+  public static final int MAX_BATCH_SIZE = 64 << 20;
+
+  private final ByteBuffer[][] data;
+  private final ByteBuffer[][] coding;
+  private final List<Integer> stripes;
+  private final int blockSize;
+  private final Pointer[] dataPtrs;
+  private final Pointer[] codingPtrs;
+  private final Memory[] codingMemories;
+
+  private StripeBatch(ByteBuffer[][] data, ByteBuffer[][] coding,
+      List<Integer> stripes, int blockSize) {
+    this.data = data;
+    this.coding = coding;
+    this.stripes = stripes;
+    this.blockSize = blockSize;
+
+    int size = getSize();
+    int dataBlockNum = data[stripes.get(0)].length;
+    int codingBlockNum = coding[stripes.get(0)].length;
+    this.dataPtrs = new Pointer[dataBlockNum];
+    for (int j = 0; j < dataBlockNum; ++j) {
+      Memory memory = new Memory(size);
+      ByteBuffer view = memory.getByteBuffer(0, size);
+      for (int s : stripes) {
+        view.put(data[s][j].duplicate());
+      }
+      dataPtrs[j] = memory;
+    }
+    this.codingMemories = new Memory[codingBlockNum];
+    this.codingPtrs = new Pointer[codingBlockNum];
+    for (int j = 0; j < codingBlockNum; ++j) {
+      codingMemories[j] = new Memory(size);
+      codingPtrs[j] = codingMemories[j];
+    }
+  }
+
+  /**
+   * Validates a batch of stripes and groups them by block size.
+   *
+   * @param data The data blocks, indexed by stripe and then by block
+   * @param coding The coding blocks to write, indexed by stripe and then by
+   *               block
+   * @param dataBlockNum The number of data blocks of a stripe
+   * @param codingBlockNum The number of coding blocks of a stripe
+   * @param sizeUnit Block sizes must be multiple of it
+   * @return The batches, at least one per distinct block size, each packing
+   *         at most {@link #MAX_BATCH_SIZE} bytes per block unless a single
+   *         block is larger
+   */
+  public static List<StripeBatch> create(ByteBuffer[][] data,
+      ByteBuffer[][] coding, int dataBlockNum, int codingBlockNum,
+      int sizeUnit) {
+    return create(data, coding, dataBlockNum, codingBlockNum, sizeUnit,
+        MAX_BATCH_SIZE);
+  }
+
+  static List<StripeBatch> create(ByteBuffer[][] data, ByteBuffer[][] coding,
+      int dataBlockNum, int codingBlockNum, int sizeUnit, int maxBatchSize) {
+    Preconditions.checkArgument(data.length == coding.length,
+        "data and coding must have the same number of stripes");
+    Map<Integer, List<Integer>> groups =
+        new LinkedHashMap<Integer, List<Integer>>();
+    for (int s = 0; s < data.length; ++s) {
+      int size = CodecUtils.checkBuffers(data[s], coding[s], dataBlockNum,
+          codingBlockNum);
+      Preconditions.checkArgument(size % sizeUnit == 0,
+          "data length must be multiple of " + sizeUnit);
+      List<Integer> group = groups.get(size);
+      if (group == null) {
+        group = new ArrayList<Integer>();
+        groups.put(size, group);
+      }
+      group.add(s);
+    }
+
+    List<StripeBatch> batches = new ArrayList<StripeBatch>(groups.size());
+    for (Map.Entry<Integer, List<Integer>> entry : groups.entrySet()) {
+      int blockSize = entry.getKey();
+      if (blockSize == 0) {
+        continue;
+      }
+      List<Integer> group = entry.getValue();
+      int stripesPerBatch = Math.max(1, maxBatchSize / blockSize);
+      for (int from = 0; from < group.size(); from += stripesPerBatch) {
+        batches.add(new StripeBatch(data, coding, group.subList(from,
+            Math.min(group.size(), from + stripesPerBatch)), blockSize));
+      }
+    }
+    return batches;
+  }
+
+  /**
+   * Returns the packed data blocks.
+   */
+  public Pointer[] getDataPtrs() {
+    return dataPtrs;
+  }
+
+  /**
+   * Returns the packed coding blocks.
+   */
+  public Pointer[] getCodingPtrs() {
+    return codingPtrs;
+  }
+
+  /**
+   * Returns the size of the packed blocks, which is the number of stripes
+   * times the block size.
+   */
+  public int getSize() {
+    return stripes.size() * blockSize;
+  }
+
+  /**
+   * Copies the packed coding blocks back to the coding buffers of the
+   * stripes.
+   */
+  public void copyBackCoding() {
+    for (int j = 0; j < codingPtrs.length; ++j) {
+      ByteBuffer view = codingMemories[j].getByteBuffer(0, getSize());
+      for (int s : stripes) {
+        view.limit(view.position() + blockSize);
+        coding[s][j].duplicate().put(view);
+      }
+    }
+  }
+}
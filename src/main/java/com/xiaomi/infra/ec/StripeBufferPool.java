@@ -0,0 +1,258 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+
+/**
+ * StripeBufferPool is a size-classed pool of aligned off-heap blocks. Blocks
+ * are borrowed for the lifetime of a stripe and returned afterwards, so the
+ * native memory is reused instead of being released by the GC finalizer.
+ * Blocks are allocated with malloc, and freed explicitly when they are
+ * dropped or when the pool is closed, so native memory in use is bounded by
+ * the borrowed blocks plus maxPooledBytes. This class is thread safe.
+ */
+public class StripeBufferPool implements Closeable {
+
+  /** The default alignment of the pooled blocks, in bytes. */
+  public static final int DEFAULT_ALIGNMENT = 64;
+
+  /** The smallest size class, in bytes. */
+  public static final int MIN_BLOCK_SIZE = 4096;
+
+  /**
+   * An aligned off-heap memory region, pooled between borrows.
+   */
+  private static class Chunk {
+    private final Pointer base;
+    private final Pointer pointer;
+    private final ByteBuffer view;
+    private final int sizeClass;
+
+    private Chunk(int capacity, int alignment, int sizeClass) {
+      this.base = CLibrary.INSTANCE.malloc(
+          new NativeLong(capacity + alignment));
+      if (base == null) {
+        throw new OutOfMemoryError("Failed to allocate "
+            + (capacity + alignment) + " native bytes");
+      }
+      this.pointer = base.share(-address(base) & (alignment - 1));
+      this.view = pointer.getByteBuffer(0, capacity);
+      this.sizeClass = sizeClass;
+    }
+
+    private int capacity() {
+      return view.capacity();
+    }
+
+    private void free() {
+      CLibrary.INSTANCE.free(base);
+    }
+  }
+
+  /**
+   * An aligned off-heap block borrowed from the pool. Every borrow returns a
+   * new handle, so that a stale handle cannot release the memory once it is
+   * lent again.
+   */
+  public static class Block {
+    private final Chunk chunk;
+    private final AtomicBoolean released = new AtomicBoolean();
+    private volatile ByteBuffer buffer;
+
+    private Block(Chunk chunk, int size) {
+      this.chunk = chunk;
+      ByteBuffer dup = chunk.view.duplicate();
+      dup.limit(size);
+      this.buffer = dup.slice();
+    }
+
+    /**
+     * Returns the direct buffer of this block, positioned at 0 and limited to
+     * the borrowed size, or null once the block is released.
+     */
+    public ByteBuffer buffer() {
+      return buffer;
+    }
+
+    /**
+     * Returns the native address of this block.
+     */
+    public Pointer pointer() {
+      return chunk.pointer;
+    }
+
+    /**
+     * Returns the capacity of this block, which is its size class.
+     */
+    public int capacity() {
+      return chunk.capacity();
+    }
+  }
+
+  private final int alignment;
+  private final long maxPooledBytes;
+  private final List<Queue<Chunk>> freeChunks;
+  private final AtomicLong pooledBytes = new AtomicLong();
+  private final AtomicLong allocatedBytes = new AtomicLong();
+  private volatile boolean closed;
+
+  /**
+   * Creates a pool with the default alignment.
+   *
+   * @param maxPooledBytes The maximum bytes of idle blocks kept by the pool
+   */
+  public StripeBufferPool(long maxPooledBytes) {
+    this(maxPooledBytes, DEFAULT_ALIGNMENT);
+  }
+
+  /**
+   * Creates a pool.
+   *
+   * @param maxPooledBytes The maximum bytes of idle blocks kept by the pool
+   * @param alignment The alignment of the blocks, must be a power of 2 and
+   *                  a multiple of 8
+   */
+  public StripeBufferPool(long maxPooledBytes, int alignment) {
+    Preconditions.checkArgument(maxPooledBytes >= 0);
+    Preconditions.checkArgument(alignment >= 8 && Integer.bitCount(alignment) == 1,
+        "alignment must be a power of 2 and a multiple of 8");
+
+    this.alignment = alignment;
+    this.maxPooledBytes = maxPooledBytes;
+    this.freeChunks = new ArrayList<Queue<Chunk>>(Integer.SIZE);
+    for (int i = 0; i < Integer.SIZE; ++i) {
+      freeChunks.add(new ConcurrentLinkedQueue<Chunk>());
+    }
+  }
+
+  /**
+   * Borrows a block which can hold at least size bytes.
+   *
+   * @param size The wanted size in bytes
+   * @return The borrowed block, whose buffer is limited to size
+   * @throws IllegalStateException if the pool is closed
+   */
+  public Block borrow(int size) {
+    Preconditions.checkArgument(size > 0 && size <= (1 << 30),
+        "size is out of range: " + size);
+    Preconditions.checkState(!closed, "The pool is closed");
+    int sizeClass = sizeClassOf(size);
+    Chunk chunk = freeChunks.get(sizeClass).poll();
+    if (chunk != null) {
+      pooledBytes.addAndGet(-chunk.capacity());
+    } else {
+      chunk = new Chunk(1 << sizeClass, alignment, sizeClass);
+      allocatedBytes.addAndGet(chunk.capacity());
+    }
+    return new Block(chunk, size);
+  }
+
+  /**
+   * Returns a block to the pool. The block is freed if the pool already
+   * holds maxPooledBytes of idle blocks, or is closed.
+   *
+   * @param block The block to return
+   * @throws IllegalStateException if the block is already released
+   */
+  public void release(Block block) {
+    if (!block.released.compareAndSet(false, true)) {
+      throw new IllegalStateException("Block is already released");
+    }
+    block.buffer = null;
+    Chunk chunk = block.chunk;
+    if (closed) {
+      free(chunk);
+    } else if (pooledBytes.addAndGet(chunk.capacity()) <= maxPooledBytes) {
+      freeChunks.get(chunk.sizeClass).offer(chunk);
+      if (closed) {
+        // Raced with close, which may have drained the queues already
+        freeIdleChunks();
+      }
+    } else {
+      pooledBytes.addAndGet(-chunk.capacity());
+      free(chunk);
+    }
+  }
+
+  /**
+   * Frees the idle blocks. The borrowed blocks are freed when they are
+   * released.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    freeIdleChunks();
+  }
+
+  /**
+   * Returns the bytes of the idle blocks kept by the pool.
+   */
+  public long getPooledBytes() {
+    return pooledBytes.get();
+  }
+
+  /**
+   * Returns the bytes of all the live blocks, borrowed or idle.
+   */
+  public long getAllocatedBytes() {
+    return allocatedBytes.get();
+  }
+
+  private void freeIdleChunks() {
+    for (Queue<Chunk> queue : freeChunks) {
+      Chunk chunk;
+      while ((chunk = queue.poll()) != null) {
+        pooledBytes.addAndGet(-chunk.capacity());
+        free(chunk);
+      }
+    }
+  }
+
+  private void free(Chunk chunk) {
+    allocatedBytes.addAndGet(-chunk.capacity());
+    chunk.free();
+  }
+
+  /**
+   * Returns the address of a pointer, read back from the memory it points
+   * to, which must hold at least a pointer.
+   */
+  private static long address(Pointer pointer) {
+    pointer.setPointer(0, pointer);
+    return Pointer.SIZE == 8 ? pointer.getLong(0)
+        : pointer.getInt(0) & 0xffffffffL;
+  }
+
+  private static int sizeClassOf(int size) {
+    int sizeClass = Integer.SIZE - Integer.numberOfLeadingZeros(size - 1);
+    return Math.max(sizeClass,
+        Integer.numberOfTrailingZeros(MIN_BLOCK_SIZE));
+  }
+}
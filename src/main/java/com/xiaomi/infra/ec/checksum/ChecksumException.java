@@ -0,0 +1,57 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.checksum;
+
+/**
+ * ChecksumException is thrown when a block does not match its stored
+ * CRC32C checksum.
+ */
+public class ChecksumException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final int blockIndex;
+  private final int chunkIndex;
+
+  /**
+   * @param blockIndex The id of the corrupt block in the stripe
+   * @param chunkIndex The index of the corrupt chunk, -1 if only the
+   *                   checksum of the whole block mismatched
+   */
+  public ChecksumException(int blockIndex, int chunkIndex) {
+    super("Checksum mismatch of block " + blockIndex
+        + (chunkIndex < 0 ? "" : " chunk " + chunkIndex));
+    this.blockIndex = blockIndex;
+    this.chunkIndex = chunkIndex;
+  }
+
+  /**
+   * Returns the id of the corrupt block in the stripe.
+   */
+  public int getBlockIndex() {
+    return blockIndex;
+  }
+
+  /**
+   * Returns the index of the corrupt chunk, or -1 if only the checksum of
+   * the whole block mismatched.
+   */
+  public int getChunkIndex() {
+    return chunkIndex;
+  }
+}
@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.checksum;
+
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Checksum;
+
+/**
+ * CRC32C (Castagnoli) checksum, computed 8 bytes at a time with the
+ * slicing-by-8 tables. {@link #newChecksum} returns the intrinsic
+ * java.util.zip.CRC32C of JDK 9+ instead when it is available, which uses
+ * the CRC32 instructions of the CPU.
+ */
+public class Crc32c implements Checksum {
+
+  /** The reversed Castagnoli polynomial. */
+  private static final int POLY = 0x82f63b78;
+  private static final int[][] TABLES = createTables();
+  /** The constructor of the JDK CRC32C, null if there is none. */
+  private static final Constructor<?> JDK_CRC32C = findJdkCrc32c();
+
+  private int crc = 0xffffffff;
+
+  /**
+   * Returns a new CRC32C checksum, the one of the JDK if there is one.
+   */
+  public static Checksum newChecksum() {
+    if (JDK_CRC32C != null) {
+      try {
+        return (Checksum) JDK_CRC32C.newInstance();
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    return new Crc32c();
+  }
+
+  /**
+   * Updates a checksum returned by {@link #newChecksum} with the remaining
+   * bytes of a buffer, leaving its position unchanged.
+   */
+  public static void update(Checksum checksum, ByteBuffer buffer) {
+    if (checksum instanceof Crc32c) {
+      ((Crc32c) checksum).update(buffer.duplicate());
+    } else {
+      // Only reached on JDK 9+, which has Checksum.update(ByteBuffer)
+      checksum.update(buffer.duplicate());
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void update(int b) {
+    crc = (crc >>> 8) ^ TABLES[0][(crc ^ b) & 0xff];
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void update(byte[] b, int off, int len) {
+    update(ByteBuffer.wrap(b, off, len));
+  }
+
+  /**
+   * Updates the checksum with the remaining bytes of a buffer, and moves its
+   * position to its limit like Checksum.update(ByteBuffer) of JDK 9+.
+   */
+  public void update(ByteBuffer buffer) {
+    ByteBuffer src = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    int pos = src.position();
+    int end = src.limit();
+    int c = crc;
+    for (; pos + 8 <= end; pos += 8) {
+      long word = src.getLong(pos);
+      int lo = c ^ (int) word;
+      int hi = (int) (word >>> 32);
+      c = TABLES[7][lo & 0xff] ^ TABLES[6][(lo >>> 8) & 0xff]
+          ^ TABLES[5][(lo >>> 16) & 0xff] ^ TABLES[4][lo >>> 24]
+          ^ TABLES[3][hi & 0xff] ^ TABLES[2][(hi >>> 8) & 0xff]
+          ^ TABLES[1][(hi >>> 16) & 0xff] ^ TABLES[0][hi >>> 24];
+    }
+    for (; pos < end; ++pos) {
+      c = (c >>> 8) ^ TABLES[0][(c ^ src.get(pos)) & 0xff];
+    }
+    crc = c;
+    buffer.position(end);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public long getValue() {
+    return ~crc & 0xffffffffL;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void reset() {
+    crc = 0xffffffff;
+  }
+
+  private static int[][] createTables() {
+    int[][] tables = new int[8][256];
+    for (int i = 0; i < 256; ++i) {
+      int c = i;
+      for (int j = 0; j < 8; ++j) {
+        c = (c & 1) != 0 ? (c >>> 1) ^ POLY : c >>> 1;
+      }
+      tables[0][i] = c;
+    }
+    for (int i = 0; i < 256; ++i) {
+      for (int t = 1; t < 8; ++t) {
+        int prev = tables[t - 1][i];
+        tables[t][i] = (prev >>> 8) ^ tables[0][prev & 0xff];
+      }
+    }
+    return tables;
+  }
+
+  private static Constructor<?> findJdkCrc32c() {
+    try {
+      return Class.forName("java.util.zip.CRC32C").getConstructor();
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+}
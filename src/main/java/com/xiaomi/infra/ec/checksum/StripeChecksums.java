@@ -0,0 +1,193 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.checksum;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * StripeChecksums holds the CRC32C of every block (cell) of a stripe, and
+ * optionally of every chunk of chunkSize bytes of the blocks, the last chunk
+ * being shorter if the block size is not a multiple of chunkSize.
+ *
+ * <p>The checksums are computed or verified a slice at a time, so that
+ * {@link com.xiaomi.infra.ec.ErasureCodec} does it in the same cache
+ * blocked pass as the coding. The slices of a block must be given in order,
+ * starting at offset 0, and at offsets which are multiples of chunkSize.
+ * This class is not thread safe.
+ */
+public class StripeChecksums {
+
+  private final int blockNum;
+  private final int blockSize;
+  private final int chunkSize;
+  private final int[] blockChecksums;
+  private final int[][] chunkChecksums;
+  /** The running checksum of every block while it is being scanned. */
+  private final Checksum[] running;
+
+  /**
+   * Creates empty checksums, to be computed by the encoding or set from
+   * stored ones.
+   *
+   * @param blockNum The number of data and coding blocks
+   * @param blockSize The size of each block
+   * @param chunkSize The size of the chunks, 0 to only checksum the whole
+   *                  blocks
+   */
+  public StripeChecksums(int blockNum, int blockSize, int chunkSize) {
+    Preconditions.checkArgument(blockNum > 0);
+    Preconditions.checkArgument(blockSize >= 0);
+    Preconditions.checkArgument(chunkSize >= 0);
+    this.blockNum = blockNum;
+    this.blockSize = blockSize;
+    this.chunkSize = chunkSize;
+    this.blockChecksums = new int[blockNum];
+    this.chunkChecksums = new int[blockNum][getChunkNum()];
+    this.running = new Checksum[blockNum];
+  }
+
+  /**
+   * Returns the number of data and coding blocks.
+   */
+  public int getBlockNum() {
+    return blockNum;
+  }
+
+  /**
+   * Returns the size of each block.
+   */
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  /**
+   * Returns the chunk size, 0 if only the whole blocks are checksummed.
+   */
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * Returns the number of chunks of every block.
+   */
+  public int getChunkNum() {
+    return chunkSize == 0 ? 0 : (blockSize + chunkSize - 1) / chunkSize;
+  }
+
+  /**
+   * Returns the CRC32C of a whole block.
+   */
+  public int getBlockChecksum(int blockIndex) {
+    return blockChecksums[blockIndex];
+  }
+
+  /**
+   * Sets the stored CRC32C of a whole block, to be verified.
+   */
+  public void setBlockChecksum(int blockIndex, int checksum) {
+    blockChecksums[blockIndex] = checksum;
+  }
+
+  /**
+   * Returns the CRC32C of a chunk of a block.
+   */
+  public int getChunkChecksum(int blockIndex, int chunkIndex) {
+    return chunkChecksums[blockIndex][chunkIndex];
+  }
+
+  /**
+   * Sets the stored CRC32C of a chunk of a block, to be verified.
+   */
+  public void setChunkChecksum(int blockIndex, int chunkIndex, int checksum) {
+    chunkChecksums[blockIndex][chunkIndex] = checksum;
+  }
+
+  /**
+   * Computes the checksums of the chunks of a slice of a block, and of the
+   * whole block once its last slice is given.
+   *
+   * @param blockIndex The id of the block in the stripe
+   * @param offset The offset of the slice in the block
+   * @param slice The slice, as the remaining bytes of the buffer
+   */
+  public void update(int blockIndex, int offset, ByteBuffer slice) {
+    scan(blockIndex, offset, slice, false);
+  }
+
+  /**
+   * Verifies the checksums of the chunks of a slice of a block, and of the
+   * whole block once its last slice is given.
+   *
+   * @throws ChecksumException if a checksum mismatches
+   * @see #update(int, int, ByteBuffer)
+   */
+  public void verify(int blockIndex, int offset, ByteBuffer slice) {
+    scan(blockIndex, offset, slice, true);
+  }
+
+  private void scan(int blockIndex, int offset, ByteBuffer slice,
+      boolean verify) {
+    int length = slice.remaining();
+    Preconditions.checkArgument(offset >= 0 && offset + length <= blockSize,
+        "slice is out of the block");
+    Preconditions.checkArgument(chunkSize == 0 || offset % chunkSize == 0,
+        "slice must start at a chunk boundary");
+    if (offset == 0) {
+      running[blockIndex] = Crc32c.newChecksum();
+    }
+    Checksum block = running[blockIndex];
+    Preconditions.checkState(block != null,
+        "slices of a block must be given in order");
+
+    if (chunkSize == 0) {
+      Crc32c.update(block, slice);
+    } else {
+      Checksum chunk = Crc32c.newChecksum();
+      int pos = slice.position();
+      for (int off = 0; off < length; off += chunkSize) {
+        ByteBuffer chunkSlice = slice.duplicate();
+        chunkSlice.position(pos + off);
+        chunkSlice.limit(pos + Math.min(off + chunkSize, length));
+        chunk.reset();
+        Crc32c.update(chunk, chunkSlice);
+        Crc32c.update(block, chunkSlice);
+        int chunkIndex = (offset + off) / chunkSize;
+        int value = (int) chunk.getValue();
+        if (!verify) {
+          chunkChecksums[blockIndex][chunkIndex] = value;
+        } else if (chunkChecksums[blockIndex][chunkIndex] != value) {
+          running[blockIndex] = null;
+          throw new ChecksumException(blockIndex, chunkIndex);
+        }
+      }
+    }
+
+    if (offset + length == blockSize) {
+      running[blockIndex] = null;
+      int value = (int) block.getValue();
+      if (!verify) {
+        blockChecksums[blockIndex] = value;
+      } else if (blockChecksums[blockIndex] != value) {
+        throw new ChecksumException(blockIndex, -1);
+      }
+    }
+  }
+}
@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.engine;
+
+import java.util.List;
+
+import com.xiaomi.infra.ec.CodecInterface;
+
+/**
+ * CodecEngine is the service provider interface of the implementations
+ * behind {@link CodecInterface}. Engines are found with
+ * {@link java.util.ServiceLoader}, from the
+ * META-INF/services/com.xiaomi.infra.ec.engine.CodecEngine files on the
+ * class path, so that the Jerasure, Java and any third party engines are
+ * interchangeable. An engine building a profile of an algorithm must compute
+ * the same parity as the built-in codec of that algorithm.
+ */
+public interface CodecEngine {
+
+  /**
+   * Returns the unique name of the engine, which profiles refer to it by.
+   */
+  public String getName();
+
+  /**
+   * Returns whether the engine can run on this host, e.g. whether its native
+   * library loads.
+   */
+  public boolean isAvailable();
+
+  /**
+   * Returns the profiles of this engine worth tuning for a geometry.
+   */
+  public List<CodecProfile> getCandidates(int dataBlockNum,
+      int codingBlockNum);
+
+  /**
+   * Creates a codec of a profile of this engine.
+   *
+   * @param profile The profile, whose engine is this one
+   * @param dataBlockNum The number of data blocks
+   * @param codingBlockNum The number of coding blocks
+   */
+  public CodecInterface create(CodecProfile profile, int dataBlockNum,
+      int codingBlockNum);
+}
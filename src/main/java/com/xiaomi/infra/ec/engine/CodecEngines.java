@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Lookup of the {@link CodecEngine} providers on the class path.
+ */
+public class CodecEngines {
+
+  private CodecEngines() {
+  }
+
+  /**
+   * Returns whether the named engine is built in, so that
+   * {@link com.xiaomi.infra.ec.ErasureCodec.Builder} builds its codecs
+   * itself.
+   */
+  public static boolean isBuiltIn(String name) {
+    return JerasureEngine.NAME.equals(name) || JavaEngine.NAME.equals(name);
+  }
+
+  /**
+   * Returns every engine on the class path, available or not.
+   */
+  public static List<CodecEngine> all() {
+    List<CodecEngine> engines = new ArrayList<CodecEngine>();
+    for (CodecEngine engine : ServiceLoader.load(CodecEngine.class,
+        CodecEngines.class.getClassLoader())) {
+      engines.add(engine);
+    }
+    return engines;
+  }
+
+  /**
+   * Returns the engines which can run on this host.
+   */
+  public static List<CodecEngine> available() {
+    List<CodecEngine> engines = new ArrayList<CodecEngine>();
+    for (CodecEngine engine : all()) {
+      if (engine.isAvailable()) {
+        engines.add(engine);
+      }
+    }
+    return engines;
+  }
+
+  /**
+   * Returns the named engine.
+   *
+   * @throws IllegalArgumentException if no engine has the name
+   */
+  public static CodecEngine get(String name) {
+    try {
+      for (CodecEngine engine : all()) {
+        if (engine.getName().equals(name)) {
+          return engine;
+        }
+      }
+    } catch (ServiceConfigurationError e) {
+      throw new IllegalArgumentException("Failed to load engine: " + name, e);
+    }
+    throw new IllegalArgumentException("Engine is not found: " + name);
+  }
+}
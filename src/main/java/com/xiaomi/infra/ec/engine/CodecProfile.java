@@ -0,0 +1,203 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.engine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.xiaomi.infra.ec.ErasureCodec.Algorithm;
+
+/**
+ * CodecProfile is the engine, algorithm and parameters a codec is built
+ * with, as picked by {@link CodecTuner}. Profiles are saved as properties
+ * files named after the geometry, from which
+ * {@link com.xiaomi.infra.ec.ErasureCodec.Builder#Builder()} picks them up.
+ * This class is immutable.
+ */
+public final class CodecProfile {
+
+  /**
+   * The system property naming the directory of the saved profiles.
+   */
+  public static final String PROFILE_DIR_PROPERTY =
+      "com.xiaomi.infra.ec.profile.dir";
+
+  /**
+   * The profile used without a saved one: pure Java Reed-Solomon, whose
+   * parity is the same as the one of native Reed-Solomon with wordSize 8.
+   */
+  public static final CodecProfile DEFAULT = new CodecProfile(
+      JavaEngine.NAME, Algorithm.Java_Reed_Solomon, 8, 0, false, false);
+
+  private final String engine;
+  private final Algorithm algorithm;
+  private final int wordSize;
+  private final int packetSize;
+  private final boolean good;
+  private final boolean simd;
+
+  /**
+   * @param engine The name of the {@link CodecEngine}
+   * @param algorithm The algorithm whose parity the engine computes
+   * @param wordSize The word size
+   * @param packetSize The packet size of bit-matrix algorithms, 0 otherwise
+   * @param good Whether Cauchy Reed-Solomon uses the optimized matrix
+   * @param simd Whether Java codecs use the SIMD kernel
+   */
+  public CodecProfile(String engine, Algorithm algorithm, int wordSize,
+      int packetSize, boolean good, boolean simd) {
+    Preconditions.checkNotNull(engine, "engine");
+    Preconditions.checkNotNull(algorithm, "algorithm");
+    Preconditions.checkArgument(!algorithm.isBitMatrix() || packetSize > 0,
+        "packetSize must be positive for " + algorithm);
+    this.engine = engine;
+    this.algorithm = algorithm;
+    this.wordSize = wordSize;
+    this.packetSize = algorithm.isBitMatrix() ? packetSize : 0;
+    this.good = algorithm == Algorithm.Cauchy_Reed_Solomon && good;
+    this.simd = !algorithm.isNative() && simd;
+  }
+
+  public String getEngine() {
+    return engine;
+  }
+
+  public Algorithm getAlgorithm() {
+    return algorithm;
+  }
+
+  public int getWordSize() {
+    return wordSize;
+  }
+
+  public int getPacketSize() {
+    return packetSize;
+  }
+
+  public boolean isGood() {
+    return good;
+  }
+
+  public boolean isSimd() {
+    return simd;
+  }
+
+  /**
+   * Returns the size blocks must be a multiple of.
+   */
+  public int getAlignment() {
+    return algorithm.isBitMatrix() ? wordSize * packetSize : 8;
+  }
+
+  /**
+   * Returns the path of the profile of a geometry in the given directory.
+   */
+  public static Path path(Path dir, int dataBlockNum, int codingBlockNum) {
+    return dir.resolve("codec-k" + dataBlockNum + "-m" + codingBlockNum
+        + ".properties");
+  }
+
+  /**
+   * Returns the directory named by {@link #PROFILE_DIR_PROPERTY}, or null if
+   * the property is not set.
+   */
+  public static Path defaultDir() {
+    String dir = System.getProperty(PROFILE_DIR_PROPERTY);
+    return dir == null ? null : Paths.get(dir);
+  }
+
+  /**
+   * Saves the profile of a geometry into the given directory.
+   */
+  public void save(Path dir, int dataBlockNum, int codingBlockNum)
+      throws IOException {
+    Properties properties = new Properties();
+    properties.setProperty("engine", engine);
+    properties.setProperty("algorithm", algorithm.name());
+    properties.setProperty("wordSize", Integer.toString(wordSize));
+    properties.setProperty("packetSize", Integer.toString(packetSize));
+    properties.setProperty("good", Boolean.toString(good));
+    properties.setProperty("simd", Boolean.toString(simd));
+    Files.createDirectories(dir);
+    Path path = path(dir, dataBlockNum, codingBlockNum);
+    Path tmp = dir.resolve(path.getFileName() + ".tmp");
+    try (OutputStream out = Files.newOutputStream(tmp)) {
+      properties.store(out, "k=" + dataBlockNum + ", m=" + codingBlockNum);
+    }
+    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Loads the profile of a geometry from the given directory.
+   *
+   * @return The profile, or null if none was saved
+   */
+  public static CodecProfile load(Path dir, int dataBlockNum,
+      int codingBlockNum) throws IOException {
+    Path path = path(dir, dataBlockNum, codingBlockNum);
+    if (!Files.exists(path)) {
+      return null;
+    }
+    Properties properties = new Properties();
+    try (InputStream in = Files.newInputStream(path)) {
+      properties.load(in);
+    }
+    try {
+      return new CodecProfile(properties.getProperty("engine"),
+          Algorithm.valueOf(properties.getProperty("algorithm")),
+          Integer.parseInt(properties.getProperty("wordSize")),
+          Integer.parseInt(properties.getProperty("packetSize")),
+          Boolean.parseBoolean(properties.getProperty("good")),
+          Boolean.parseBoolean(properties.getProperty("simd")));
+    } catch (RuntimeException e) {
+      throw new IOException("Invalid codec profile " + path, e);
+    }
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof CodecProfile)) {
+      return false;
+    }
+    CodecProfile other = (CodecProfile) obj;
+    return engine.equals(other.engine) && algorithm == other.algorithm
+        && wordSize == other.wordSize && packetSize == other.packetSize
+        && good == other.good && simd == other.simd;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(engine, algorithm, wordSize, packetSize, good,
+        simd);
+  }
+
+  @Override
+  public String toString() {
+    return engine + ":" + algorithm + "(w=" + wordSize + ", packetSize="
+        + packetSize + ", good=" + good + ", simd=" + simd + ")";
+  }
+}
@@ -0,0 +1,258 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.engine;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.base.Preconditions;
+import com.xiaomi.infra.ec.CodecInterface;
+
+/**
+ * CodecTuner micro-benchmarks the candidate profiles of the available
+ * engines for a geometry and a block size, and picks the fastest one, so
+ * that the best algorithm, wordSize and packetSize for the CPU caches of the
+ * host are found at startup or offline instead of guessed.
+ *
+ * <p>Every candidate is checked before it is timed: it must rebuild erased
+ * blocks, and when tuning against a reference profile, it must compute the
+ * same parity as the reference, so that it can take over stripes coded
+ * before. {@link #tuneAndSave} uses the profile already saved as the
+ * reference, or {@link CodecProfile#DEFAULT} which builders use without a
+ * saved profile, so tuning never changes the parity of stored stripes.
+ */
+public class CodecTuner {
+
+  /** The default number of timed iterations of every candidate. */
+  public static final int DEFAULT_ITERATIONS = 20;
+
+  /**
+   * The benchmark result of a candidate profile.
+   */
+  public static final class Result {
+    private final CodecProfile profile;
+    private final double throughput;
+
+    Result(CodecProfile profile, double throughput) {
+      this.profile = profile;
+      this.throughput = throughput;
+    }
+
+    public CodecProfile getProfile() {
+      return profile;
+    }
+
+    /**
+     * Returns the MB of data blocks encoded, and decoded with an erased data
+     * block, per second.
+     */
+    public double getThroughput() {
+      return throughput;
+    }
+
+    @Override
+    public String toString() {
+      return profile + ": " + String.format("%.1f", throughput) + " MB/s";
+    }
+  }
+
+  private final int dataBlockNum;
+  private final int codingBlockNum;
+  private final int blockSize;
+  private final int iterations;
+  private final List<CodecEngine> engines;
+
+  /**
+   * Creates a tuner of the available engines on the class path.
+   */
+  public CodecTuner(int dataBlockNum, int codingBlockNum, int blockSize) {
+    this(dataBlockNum, codingBlockNum, blockSize, DEFAULT_ITERATIONS,
+        CodecEngines.available());
+  }
+
+  /**
+   * @param dataBlockNum The number of data blocks
+   * @param codingBlockNum The number of coding blocks
+   * @param blockSize The block size to benchmark with
+   * @param iterations The number of timed iterations of every candidate,
+   *                   after as many warm-up ones
+   * @param engines The engines whose candidates are benchmarked
+   */
+  public CodecTuner(int dataBlockNum, int codingBlockNum, int blockSize,
+      int iterations, List<CodecEngine> engines) {
+    Preconditions.checkArgument(dataBlockNum > 0,
+        "dataBlockNum must be positive");
+    Preconditions.checkArgument(codingBlockNum > 0,
+        "codingBlockNum must be positive");
+    Preconditions.checkArgument(blockSize > 0, "blockSize must be positive");
+    Preconditions.checkArgument(iterations > 0,
+        "iterations must be positive");
+    this.dataBlockNum = dataBlockNum;
+    this.codingBlockNum = codingBlockNum;
+    this.blockSize = blockSize;
+    this.iterations = iterations;
+    this.engines = new ArrayList<CodecEngine>(engines);
+  }
+
+  /**
+   * Benchmarks the candidates which pass the checks.
+   *
+   * @param reference The profile whose parity the candidates must compute,
+   *                  null if there are no stored stripes to stay compatible
+   *                  with
+   * @return The results, fastest first
+   */
+  public List<Result> benchmark(CodecProfile reference) {
+    byte[][] data = new byte[dataBlockNum][blockSize];
+    Random random = new Random(0);
+    for (byte[] block : data) {
+      random.nextBytes(block);
+    }
+    byte[][] expectedCoding = null;
+    if (reference != null) {
+      try (CodecInterface codec = create(reference)) {
+        expectedCoding = codec.encode(data);
+      }
+    }
+
+    List<Result> results = new ArrayList<Result>();
+    for (CodecEngine engine : engines) {
+      for (CodecProfile profile : engine.getCandidates(dataBlockNum,
+          codingBlockNum)) {
+        if (blockSize % profile.getAlignment() != 0) {
+          continue;
+        }
+        CodecInterface codec;
+        try {
+          codec = engine.create(profile, dataBlockNum, codingBlockNum);
+        } catch (RuntimeException e) {
+          continue;
+        } catch (LinkageError e) {
+          continue;
+        }
+        try {
+          if (check(codec, data, expectedCoding)) {
+            results.add(new Result(profile, time(codec, data)));
+          }
+        } finally {
+          codec.close();
+        }
+      }
+    }
+    Collections.sort(results, new Comparator<Result>() {
+      @Override
+      public int compare(Result r1, Result r2) {
+        return Double.compare(r2.throughput, r1.throughput);
+      }
+    });
+    return results;
+  }
+
+  /**
+   * Returns the fastest candidate which passes the checks.
+   *
+   * @param reference The profile whose parity the candidates must compute,
+   *                  null if there are no stored stripes to stay compatible
+   *                  with
+   * @throws IllegalStateException if no candidate passes the checks
+   */
+  public CodecProfile tune(CodecProfile reference) {
+    List<Result> results = benchmark(reference);
+    if (results.isEmpty()) {
+      throw new IllegalStateException("No candidate is compatible with "
+          + reference);
+    }
+    return results.get(0).getProfile();
+  }
+
+  /**
+   * Tunes against the profile saved in the given directory, or the default
+   * one if none is saved yet, and saves the fastest candidate there for the
+   * builders to pick up.
+   */
+  public CodecProfile tuneAndSave(Path dir) throws IOException {
+    CodecProfile reference = CodecProfile.load(dir, dataBlockNum,
+        codingBlockNum);
+    // Without a saved profile, builders have coded stripes with the default
+    CodecProfile profile = tune(reference != null ? reference
+        : CodecProfile.DEFAULT);
+    profile.save(dir, dataBlockNum, codingBlockNum);
+    return profile;
+  }
+
+  private CodecInterface create(CodecProfile profile) {
+    return CodecEngines.get(profile.getEngine()).create(profile,
+        dataBlockNum, codingBlockNum);
+  }
+
+  /**
+   * Checks that the codec computes the expected parity if any, and rebuilds
+   * as many erased data blocks as it has coding blocks.
+   */
+  private boolean check(CodecInterface codec, byte[][] data,
+      byte[][] expectedCoding) {
+    byte[][] coding;
+    try {
+      coding = codec.encode(data);
+      if (expectedCoding != null && !Arrays.deepEquals(expectedCoding,
+          coding)) {
+        return false;
+      }
+      int erasedNum = Math.min(dataBlockNum, codingBlockNum);
+      int[] erasures = new int[erasedNum];
+      byte[][] decoded = new byte[dataBlockNum][];
+      for (int i = 0; i < dataBlockNum; ++i) {
+        decoded[i] = i < erasedNum ? new byte[blockSize] : data[i];
+        if (i < erasedNum) {
+          erasures[i] = i;
+        }
+      }
+      codec.decode(erasures, decoded, coding);
+      return Arrays.deepEquals(data, decoded);
+    } catch (RuntimeException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the MB/s of encoding the data and decoding an erased data block.
+   */
+  private double time(CodecInterface codec, byte[][] data) {
+    byte[][] coding = new byte[codingBlockNum][blockSize];
+    byte[][] decoded = data.clone();
+    decoded[0] = new byte[blockSize];
+    int[] erasures = {0};
+    for (int i = 0; i < iterations; ++i) {
+      codec.encode(data, coding);
+      codec.decode(erasures, decoded, coding);
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; ++i) {
+      codec.encode(data, coding);
+      codec.decode(erasures, decoded, coding);
+    }
+    long nanos = Math.max(1, System.nanoTime() - start);
+    return (double) iterations * dataBlockNum * blockSize * 1000 / nanos;
+  }
+}
@@ -0,0 +1,73 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.xiaomi.infra.ec.CodecInterface;
+import com.xiaomi.infra.ec.ErasureCodec;
+import com.xiaomi.infra.ec.ErasureCodec.Algorithm;
+import com.xiaomi.infra.ec.gf.GaloisKernels;
+
+/**
+ * The built-in engine of the algorithms implemented in pure Java.
+ */
+public class JavaEngine implements CodecEngine {
+
+  public static final String NAME = "java";
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public boolean isAvailable() {
+    return true;
+  }
+
+  @Override
+  public List<CodecProfile> getCandidates(int dataBlockNum,
+      int codingBlockNum) {
+    List<CodecProfile> candidates = new ArrayList<CodecProfile>();
+    if (dataBlockNum + codingBlockNum <= 256) {
+      candidates.add(new CodecProfile(NAME, Algorithm.Java_Reed_Solomon, 8,
+          0, false, false));
+      if (GaloisKernels.isVectorAvailable()) {
+        candidates.add(new CodecProfile(NAME, Algorithm.Java_Reed_Solomon,
+            8, 0, false, true));
+      }
+    }
+    if (codingBlockNum == 1) {
+      candidates.add(new CodecProfile(NAME, Algorithm.XOR_Parity, 8, 0,
+          false, false));
+    }
+    return candidates;
+  }
+
+  @Override
+  public CodecInterface create(CodecProfile profile, int dataBlockNum,
+      int codingBlockNum) {
+    return new ErasureCodec.Builder()
+        .profile(profile)
+        .dataBlockNum(dataBlockNum)
+        .codingBlockNum(codingBlockNum)
+        .build();
+  }
+}
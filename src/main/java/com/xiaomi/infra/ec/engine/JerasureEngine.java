@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.xiaomi.infra.ec.CodecInterface;
+import com.xiaomi.infra.ec.ErasureCodec;
+import com.xiaomi.infra.ec.ErasureCodec.Algorithm;
+import com.xiaomi.infra.ec.JerasureLibrary;
+
+/**
+ * The built-in engine of the algorithms implemented by Jerasure.
+ */
+public class JerasureEngine implements CodecEngine {
+
+  public static final String NAME = "jerasure";
+
+  /** The packet sizes tried for the bit-matrix algorithms. */
+  private static final int[] PACKET_SIZES = {64, 256, 1024, 4096};
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public boolean isAvailable() {
+    try {
+      return JerasureLibrary.INSTANCE != null;
+    } catch (LinkageError e) {
+      // The library is not installed
+      return false;
+    }
+  }
+
+  @Override
+  public List<CodecProfile> getCandidates(int dataBlockNum,
+      int codingBlockNum) {
+    List<CodecProfile> candidates = new ArrayList<CodecProfile>();
+    int n = dataBlockNum + codingBlockNum;
+    for (int w : new int[] {8, 16}) {
+      if (n <= 1 << w) {
+        candidates.add(new CodecProfile(NAME, Algorithm.Reed_Solomon, w, 0,
+            false, false));
+      }
+    }
+    for (int w : new int[] {4, 8}) {
+      if (n > 1 << w) {
+        continue;
+      }
+      for (int packetSize : PACKET_SIZES) {
+        for (boolean good : new boolean[] {false, true}) {
+          candidates.add(new CodecProfile(NAME,
+              Algorithm.Cauchy_Reed_Solomon, w, packetSize, good, false));
+        }
+      }
+    }
+    if (codingBlockNum == 2 && dataBlockNum <= 8) {
+      for (int packetSize : PACKET_SIZES) {
+        candidates.add(new CodecProfile(NAME, Algorithm.Liber8tion, 8,
+            packetSize, false, false));
+      }
+    }
+    return candidates;
+  }
+
+  @Override
+  public CodecInterface create(CodecProfile profile, int dataBlockNum,
+      int codingBlockNum) {
+    return new ErasureCodec.Builder()
+        .profile(profile)
+        .dataBlockNum(dataBlockNum)
+        .codingBlockNum(codingBlockNum)
+        .build();
+  }
+}
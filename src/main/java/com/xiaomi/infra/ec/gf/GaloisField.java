@@ -0,0 +1,180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.gf;
+
+import java.util.Arrays;
+
+/**
+ * Table driven arithmetic over GF(2^8), using the same primitive polynomial
+ * (x^8 + x^4 + x^3 + x^2 + 1) as gf-complete, so results are identical to the
+ * ones of Jerasure with w = 8.
+ */
+public class GaloisField {
+
+  /** The primitive polynomial of GF(2^8). */
+  public static final int PRIMITIVE_POLYNOMIAL = 0x11d;
+
+  /** The number of elements of GF(2^8). */
+  public static final int FIELD_SIZE = 256;
+
+  private static final int[] LOG_TABLE = new int[FIELD_SIZE];
+  private static final int[] EXP_TABLE = new int[FIELD_SIZE * 2];
+
+  /**
+   * The full 64KB multiplication table, MUL_TABLE[(a << 8) | b] = a * b.
+   */
+  private static final byte[] MUL_TABLE = new byte[FIELD_SIZE * FIELD_SIZE];
+
+  static {
+    int x = 1;
+    for (int i = 0; i < FIELD_SIZE - 1; ++i) {
+      EXP_TABLE[i] = x;
+      EXP_TABLE[i + FIELD_SIZE - 1] = x;
+      LOG_TABLE[x] = i;
+      x <<= 1;
+      if (x >= FIELD_SIZE) {
+        x ^= PRIMITIVE_POLYNOMIAL;
+      }
+    }
+    for (int a = 0; a < FIELD_SIZE; ++a) {
+      for (int b = 0; b < FIELD_SIZE; ++b) {
+        MUL_TABLE[(a << 8) | b] = (byte)multiply(a, b);
+      }
+    }
+  }
+
+  private GaloisField() {
+  }
+
+  /**
+   * Multiplies two elements.
+   */
+  public static int multiply(int a, int b) {
+    if (a == 0 || b == 0) {
+      return 0;
+    }
+    return EXP_TABLE[LOG_TABLE[a] + LOG_TABLE[b]];
+  }
+
+  /**
+   * Divides a by b, b must not be 0.
+   */
+  public static int divide(int a, int b) {
+    if (b == 0) {
+      throw new ArithmeticException("Divide by zero in GF(2^8)");
+    }
+    if (a == 0) {
+      return 0;
+    }
+    return EXP_TABLE[LOG_TABLE[a] + FIELD_SIZE - 1 - LOG_TABLE[b]];
+  }
+
+  /**
+   * Returns the multiplicative inverse of a, a must not be 0.
+   */
+  public static int inverse(int a) {
+    return divide(1, a);
+  }
+
+  /**
+   * Returns a ^ n.
+   */
+  public static int power(int a, int n) {
+    int result = 1;
+    for (int i = 0; i < n; ++i) {
+      result = multiply(result, a);
+    }
+    return result;
+  }
+
+  /**
+   * XORs len bytes of src into dst.
+   */
+  public static void xorRegion(byte[] src, int srcOff, byte[] dst, int dstOff,
+      int len) {
+    int i = 0;
+    for (; i + 8 <= len; i += 8) {
+      dst[dstOff + i] ^= src[srcOff + i];
+      dst[dstOff + i + 1] ^= src[srcOff + i + 1];
+      dst[dstOff + i + 2] ^= src[srcOff + i + 2];
+      dst[dstOff + i + 3] ^= src[srcOff + i + 3];
+      dst[dstOff + i + 4] ^= src[srcOff + i + 4];
+      dst[dstOff + i + 5] ^= src[srcOff + i + 5];
+      dst[dstOff + i + 6] ^= src[srcOff + i + 6];
+      dst[dstOff + i + 7] ^= src[srcOff + i + 7];
+    }
+    for (; i < len; ++i) {
+      dst[dstOff + i] ^= src[srcOff + i];
+    }
+  }
+
+  /**
+   * Multiplies len bytes of src by multiplier, and stores the products into
+   * dst, or XORs them into dst if add is true.
+   */
+  public static void multiplyRegion(int multiplier, byte[] src, int srcOff,
+      byte[] dst, int dstOff, int len, boolean add) {
+    if (multiplier == 0) {
+      if (!add) {
+        Arrays.fill(dst, dstOff, dstOff + len, (byte)0);
+      }
+      return;
+    }
+    if (multiplier == 1) {
+      if (add) {
+        xorRegion(src, srcOff, dst, dstOff, len);
+      } else {
+        System.arraycopy(src, srcOff, dst, dstOff, len);
+      }
+      return;
+    }
+
+    final byte[] table = MUL_TABLE;
+    final int base = multiplier << 8;
+    int i = 0;
+    if (add) {
+      for (; i + 8 <= len; i += 8) {
+        dst[dstOff + i] ^= table[base | (src[srcOff + i] & 0xff)];
+        dst[dstOff + i + 1] ^= table[base | (src[srcOff + i + 1] & 0xff)];
+        dst[dstOff + i + 2] ^= table[base | (src[srcOff + i + 2] & 0xff)];
+        dst[dstOff + i + 3] ^= table[base | (src[srcOff + i + 3] & 0xff)];
+        dst[dstOff + i + 4] ^= table[base | (src[srcOff + i + 4] & 0xff)];
+        dst[dstOff + i + 5] ^= table[base | (src[srcOff + i + 5] & 0xff)];
+        dst[dstOff + i + 6] ^= table[base | (src[srcOff + i + 6] & 0xff)];
+        dst[dstOff + i + 7] ^= table[base | (src[srcOff + i + 7] & 0xff)];
+      }
+      for (; i < len; ++i) {
+        dst[dstOff + i] ^= table[base | (src[srcOff + i] & 0xff)];
+      }
+    } else {
+      for (; i + 8 <= len; i += 8) {
+        dst[dstOff + i] = table[base | (src[srcOff + i] & 0xff)];
+        dst[dstOff + i + 1] = table[base | (src[srcOff + i + 1] & 0xff)];
+        dst[dstOff + i + 2] = table[base | (src[srcOff + i + 2] & 0xff)];
+        dst[dstOff + i + 3] = table[base | (src[srcOff + i + 3] & 0xff)];
+        dst[dstOff + i + 4] = table[base | (src[srcOff + i + 4] & 0xff)];
+        dst[dstOff + i + 5] = table[base | (src[srcOff + i + 5] & 0xff)];
+        dst[dstOff + i + 6] = table[base | (src[srcOff + i + 6] & 0xff)];
+        dst[dstOff + i + 7] = table[base | (src[srcOff + i + 7] & 0xff)];
+      }
+      for (; i < len; ++i) {
+        dst[dstOff + i] = table[base | (src[srcOff + i] & 0xff)];
+      }
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.gf;
+
+/**
+ * Factory of the available {@link GaloisKernel} implementations.
+ */
+public class GaloisKernels {
+
+  /**
+   * The class name of the SIMD kernel. It is built on jdk.incubator.vector
+   * and compiled only by the vector profile, so it is loaded by reflection.
+   */
+  static final String VECTOR_KERNEL_CLASS =
+      "com.xiaomi.infra.ec.gf.VectorGaloisKernel";
+
+  private static final GaloisKernel SCALAR = new GaloisKernel() {
+    @Override
+    public void multiplyRegion(int multiplier, byte[] src, int srcOff,
+        byte[] dst, int dstOff, int len, boolean add) {
+      GaloisField.multiplyRegion(multiplier, src, srcOff, dst, dstOff, len,
+          add);
+    }
+  };
+
+  private static final GaloisKernel VECTOR = loadVectorKernel();
+
+  private GaloisKernels() {
+  }
+
+  /**
+   * Returns the table driven scalar kernel.
+   */
+  public static GaloisKernel scalar() {
+    return SCALAR;
+  }
+
+  /**
+   * Returns the SIMD kernel if the Vector API is available, which requires
+   * running with --add-modules jdk.incubator.vector, or the scalar kernel
+   * otherwise.
+   */
+  public static GaloisKernel vectorized() {
+    return VECTOR != null ? VECTOR : SCALAR;
+  }
+
+  /**
+   * Returns whether the SIMD kernel is available.
+   */
+  public static boolean isVectorAvailable() {
+    return VECTOR != null;
+  }
+
+  private static GaloisKernel loadVectorKernel() {
+    try {
+      return (GaloisKernel) Class.forName(VECTOR_KERNEL_CLASS)
+          .getConstructor().newInstance();
+    } catch (Exception e) {
+      return null;
+    } catch (LinkageError e) {
+      // Missing jdk.incubator.vector module or an older class file version
+      return null;
+    }
+  }
+}
@@ -0,0 +1,286 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.gf;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Matrix operations over GF(2^8). Matrices are stored row by row in int[]
+ * arrays, the same layout Jerasure uses.
+ */
+public class GaloisMatrix {
+
+  private GaloisMatrix() {
+  }
+
+  /**
+   * Creates the m x k Vandermonde coding matrix, which is identical to the
+   * one returned by Jerasure's reed_sol_vandermonde_coding_matrix with w = 8.
+   *
+   * @param k The column number
+   * @param m The row number
+   * @return The generated Vandermonde matrix
+   */
+  public static int[] createVandermondeMatrix(int k, int m) {
+    Preconditions.checkArgument(k > 0 && m > 0);
+    Preconditions.checkArgument(k + m <= GaloisField.FIELD_SIZE,
+        "dataBlocksNum + codingBlocksNum is larger than 2^8");
+    int[] dist = createDistributionMatrix(k + m, k);
+    int[] matrix = new int[m * k];
+    System.arraycopy(dist, k * k, matrix, 0, m * k);
+    return matrix;
+  }
+
+  /**
+   * Creates the extended Vandermonde matrix of rows x cols, whose first row
+   * is (1, 0, ..., 0), last row is (0, ..., 0, 1), and row i in between is
+   * (1, i, i^2, ..., i^(cols-1)).
+   */
+  static int[] createExtendedVandermondeMatrix(int rows, int cols) {
+    int[] vdm = new int[rows * cols];
+    vdm[0] = 1;
+    if (rows == 1) {
+      return vdm;
+    }
+    vdm[rows * cols - 1] = 1;
+    for (int i = 1; i < rows - 1; ++i) {
+      int k = 1;
+      for (int j = 0; j < cols; ++j) {
+        vdm[i * cols + j] = k;
+        k = GaloisField.multiply(k, i);
+      }
+    }
+    return vdm;
+  }
+
+  /**
+   * Converts the extended Vandermonde matrix with elementary column
+   * operations so that its first cols rows are the identity matrix, row cols
+   * is all ones, and the first column is all ones. This follows Jerasure's
+   * reed_sol_big_vandermonde_distribution_matrix step by step.
+   */
+  static int[] createDistributionMatrix(int rows, int cols) {
+    int[] dist = createExtendedVandermondeMatrix(rows, cols);
+
+    for (int i = 1; i < cols; ++i) {
+      int sindex = i * cols;
+
+      // Find an appropriate row, where element i,i != 0
+      int j = i;
+      while (j < rows && dist[j * cols + i] == 0) {
+        ++j;
+      }
+      if (j >= rows) {
+        throw new IllegalStateException("Couldn't make distribution matrix ("
+            + rows + ", " + cols + ")");
+      }
+      // If necessary, swap rows
+      if (j != i) {
+        for (int c = 0; c < cols; ++c) {
+          int tmp = dist[j * cols + c];
+          dist[j * cols + c] = dist[sindex + c];
+          dist[sindex + c] = tmp;
+        }
+      }
+
+      // If element i,i is not 1, multiply the column by 1/dist[i,i]
+      if (dist[sindex + i] != 1) {
+        int tmp = GaloisField.inverse(dist[sindex + i]);
+        for (int r = 0; r < rows; ++r) {
+          dist[r * cols + i] = GaloisField.multiply(tmp, dist[r * cols + i]);
+        }
+      }
+
+      // Make the other elements of row i zero, replacing column c with
+      // column c + e * column i
+      for (int c = 0; c < cols; ++c) {
+        int tmp = dist[sindex + c];
+        if (c != i && tmp != 0) {
+          for (int r = 0; r < rows; ++r) {
+            dist[r * cols + c] ^= GaloisField.multiply(tmp,
+                dist[r * cols + i]);
+          }
+        }
+      }
+    }
+
+    // Make row cols all ones by scaling the columns of the coding rows
+    int sindex = cols * cols;
+    for (int j = 0; j < cols; ++j) {
+      int tmp = dist[sindex + j];
+      if (tmp != 1) {
+        tmp = GaloisField.inverse(tmp);
+        for (int r = cols; r < rows; ++r) {
+          dist[r * cols + j] = GaloisField.multiply(tmp, dist[r * cols + j]);
+        }
+      }
+    }
+
+    // Make the first column of each coding row one by scaling the rows
+    for (int r = cols + 1; r < rows; ++r) {
+      int tmp = dist[r * cols];
+      if (tmp != 1) {
+        tmp = GaloisField.inverse(tmp);
+        for (int c = 0; c < cols; ++c) {
+          dist[r * cols + c] = GaloisField.multiply(dist[r * cols + c], tmp);
+        }
+      }
+    }
+    return dist;
+  }
+
+  /**
+   * Inverts a n x n matrix.
+   *
+   * @param matrix The matrix to invert, which is left unchanged
+   * @param n The row and column number
+   * @return The inverted matrix
+   * @throws IllegalArgumentException if the matrix is singular
+   */
+  public static int[] invert(int[] matrix, int n) {
+    int[] mat = matrix.clone();
+    int[] inv = new int[n * n];
+    for (int i = 0; i < n; ++i) {
+      inv[i * n + i] = 1;
+    }
+
+    for (int i = 0; i < n; ++i) {
+      // Find a row with a non-zero element in column i and swap it up
+      int pivot = i;
+      while (pivot < n && mat[pivot * n + i] == 0) {
+        ++pivot;
+      }
+      if (pivot == n) {
+        throw new IllegalArgumentException("Matrix is singular");
+      }
+      if (pivot != i) {
+        swapRows(mat, n, pivot, i);
+        swapRows(inv, n, pivot, i);
+      }
+
+      // Scale row i so that element i,i is 1
+      int tmp = mat[i * n + i];
+      if (tmp != 1) {
+        tmp = GaloisField.inverse(tmp);
+        for (int c = 0; c < n; ++c) {
+          mat[i * n + c] = GaloisField.multiply(mat[i * n + c], tmp);
+          inv[i * n + c] = GaloisField.multiply(inv[i * n + c], tmp);
+        }
+      }
+
+      // Eliminate column i from every other row
+      for (int r = 0; r < n; ++r) {
+        tmp = mat[r * n + i];
+        if (r != i && tmp != 0) {
+          for (int c = 0; c < n; ++c) {
+            mat[r * n + c] ^= GaloisField.multiply(tmp, mat[i * n + c]);
+            inv[r * n + c] ^= GaloisField.multiply(tmp, inv[i * n + c]);
+          }
+        }
+      }
+    }
+    return inv;
+  }
+
+  /**
+   * Creates the k x k decoding matrix which recovers the data blocks from the
+   * given k surviving blocks.
+   *
+   * @param k The number of data blocks
+   * @param codingMatrix The m x k coding matrix
+   * @param survivors The ids of k surviving blocks, ids of data blocks are in
+   *                  [0, k) and ids of coding blocks are in [k, k + m)
+   * @return The decoding matrix, row i of which recovers data block i
+   */
+  public static int[] createDecodingMatrix(int k, int[] codingMatrix,
+      int[] survivors) {
+    Preconditions.checkArgument(survivors.length == k,
+        "exactly k survivors are required");
+    int[] matrix = new int[k * k];
+    for (int i = 0; i < k; ++i) {
+      if (survivors[i] < k) {
+        matrix[i * k + survivors[i]] = 1;
+      } else {
+        System.arraycopy(codingMatrix, (survivors[i] - k) * k, matrix, i * k, k);
+      }
+    }
+    return invert(matrix, k);
+  }
+
+  /**
+   * Selects the first k candidate blocks, in the given order, whose rows in
+   * the generator matrix [I; codingMatrix] are linearly independent, so that
+   * they can be passed to {@link #createDecodingMatrix}.
+   *
+   * @param k The number of data blocks
+   * @param codingMatrix The m x k coding matrix
+   * @param candidates The candidate block ids, data blocks being 0..k-1
+   * @return The selected block ids, or null if the candidates have rank less
+   *         than k
+   */
+  public static int[] selectIndependentRows(int k, int[] codingMatrix,
+      int[] candidates) {
+    // Basis rows in echelon form, each normalized to 1 at its pivot column
+    int[][] basis = new int[k][];
+    int[] pivots = new int[k];
+    int[] selected = new int[k];
+    int rank = 0;
+    for (int id : candidates) {
+      if (rank == k) {
+        break;
+      }
+      int[] row = new int[k];
+      if (id < k) {
+        row[id] = 1;
+      } else {
+        System.arraycopy(codingMatrix, (id - k) * k, row, 0, k);
+      }
+      for (int b = 0; b < rank; ++b) {
+        int factor = row[pivots[b]];
+        if (factor != 0) {
+          for (int c = 0; c < k; ++c) {
+            row[c] ^= GaloisField.multiply(factor, basis[b][c]);
+          }
+        }
+      }
+      int pivot = 0;
+      while (pivot < k && row[pivot] == 0) {
+        ++pivot;
+      }
+      if (pivot == k) {
+        continue;
+      }
+      int inverse = GaloisField.inverse(row[pivot]);
+      for (int c = 0; c < k; ++c) {
+        row[c] = GaloisField.multiply(row[c], inverse);
+      }
+      basis[rank] = row;
+      pivots[rank] = pivot;
+      selected[rank++] = id;
+    }
+    return rank == k ? selected : null;
+  }
+
+  private static void swapRows(int[] matrix, int n, int r1, int r2) {
+    for (int c = 0; c < n; ++c) {
+      int tmp = matrix[r1 * n + c];
+      matrix[r1 * n + c] = matrix[r2 * n + c];
+      matrix[r2 * n + c] = tmp;
+    }
+  }
+}
@@ -0,0 +1,320 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.google.common.base.Preconditions;
+
+import com.xiaomi.infra.ec.ErasureCodec;
+
+/**
+ * MappedFileCodec protects a file with m coding files, in the layout of
+ * {@link StripeEncoderStream}: the file is cut into stripes of k cells, data
+ * block i being cell i of every stripe, and coding file j holds the coding
+ * cell j of every stripe. The data stays where it is in the source file.
+ *
+ * <p>The source and the coding files are mapped a region of mapSize bytes at
+ * a time, and every stripe is coded on cells of the mapped regions, which
+ * native codecs pass to Jerasure as they are, so the data is never copied
+ * onto the Java heap. The Java codecs still copy the cells into arrays. Only
+ * the cells of the zero padded last stripe are read into direct scratch
+ * buffers, as a file can not be mapped past its end for reading.
+ */
+public class MappedFileCodec {
+
+  /** The default size of the mapped regions of the source file. */
+  public static final long DEFAULT_MAP_SIZE = 256L << 20;
+
+  private final ErasureCodec codec;
+  private final int cellSize;
+  private final long mapSize;
+
+  public MappedFileCodec(ErasureCodec codec, int cellSize) {
+    this(codec, cellSize, DEFAULT_MAP_SIZE);
+  }
+
+  /**
+   * @param codec The codec to code with
+   * @param cellSize The size of a cell, a multiple of 8 which must satisfy
+   *                 the alignment requirements of the codec
+   * @param mapSize The size of the mapped regions of the source file, which
+   *                is rounded down to whole stripes
+   */
+  public MappedFileCodec(ErasureCodec codec, int cellSize, long mapSize) {
+    Preconditions.checkArgument(cellSize > 0 && cellSize % 8 == 0,
+        "cellSize must be a positive multiple of 8");
+    Preconditions.checkArgument((long) codec.getDataBlockNum() * cellSize
+        <= Integer.MAX_VALUE, "a stripe must be smaller than 2GB");
+    Preconditions.checkArgument(mapSize > 0);
+    this.codec = codec;
+    this.cellSize = cellSize;
+    this.mapSize = mapSize;
+  }
+
+  /**
+   * Encodes a file into coding files, which are created or overwritten.
+   *
+   * @param source The file to protect
+   * @param codingFiles The m coding files
+   * @return The layout of the stripes
+   */
+  public StripeLayout encode(Path source, Path[] codingFiles)
+      throws IOException {
+    Preconditions.checkArgument(
+        codingFiles.length == codec.getCodingBlockNum(),
+        "codingFiles must have m files");
+    FileChannel sourceChannel = null;
+    FileChannel[] codingChannels = new FileChannel[codingFiles.length];
+    try {
+      sourceChannel = FileChannel.open(source, StandardOpenOption.READ);
+      for (int j = 0; j < codingFiles.length; ++j) {
+        codingChannels[j] = FileChannel.open(codingFiles[j],
+            StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+      }
+      StripeLayout layout = new StripeLayout(codec.getDataBlockNum(),
+          cellSize, sourceChannel.size());
+      code(layout, sourceChannel, codingChannels, null);
+      return layout;
+    } finally {
+      closeAll(sourceChannel, codingChannels);
+    }
+  }
+
+  /**
+   * Rebuilds the erased blocks in place: erased coding files are recreated,
+   * and the cells of erased data blocks are rewritten in the source file.
+   *
+   * @param layout The layout returned by the encoding
+   * @param source The protected file
+   * @param codingFiles The m coding files
+   * @param erasures The erased block ids, at most m of them
+   */
+  public void decode(StripeLayout layout, Path source, Path[] codingFiles,
+      int[] erasures) throws IOException {
+    int k = codec.getDataBlockNum();
+    int m = codec.getCodingBlockNum();
+    Preconditions.checkArgument(layout.getDataBlockNum() == k
+        && layout.getCellSize() == cellSize,
+        "layout does not match the codec and the cell size");
+    Preconditions.checkArgument(codingFiles.length == m,
+        "codingFiles must have m files");
+    boolean dataErased = false;
+    boolean[] erased = new boolean[k + m];
+    for (int erasure : erasures) {
+      Preconditions.checkArgument(erasure >= 0 && erasure < k + m,
+          "Invalid erasure: %s", erasure);
+      erased[erasure] = true;
+      dataErased |= erasure < k;
+    }
+
+    FileChannel sourceChannel = null;
+    FileChannel[] codingChannels = new FileChannel[m];
+    try {
+      sourceChannel = dataErased
+          ? FileChannel.open(source, StandardOpenOption.READ,
+              StandardOpenOption.WRITE)
+          : FileChannel.open(source, StandardOpenOption.READ);
+      for (int j = 0; j < m; ++j) {
+        if (erased[k + j]) {
+          codingChannels[j] = FileChannel.open(codingFiles[j],
+              StandardOpenOption.CREATE, StandardOpenOption.READ,
+              StandardOpenOption.WRITE);
+          codingChannels[j].truncate(layout.getBlockLength());
+        } else {
+          codingChannels[j] = FileChannel.open(codingFiles[j],
+              StandardOpenOption.READ);
+        }
+      }
+      code(layout, sourceChannel, codingChannels, erased);
+      if (dataErased) {
+        sourceChannel.force(false);
+      }
+    } finally {
+      closeAll(sourceChannel, codingChannels);
+    }
+  }
+
+  /**
+   * Walks the stripes a mapped region at a time, encoding them if erased is
+   * null, or decoding the erased blocks otherwise.
+   */
+  private void code(StripeLayout layout, FileChannel source,
+      FileChannel[] coding, boolean[] erased) throws IOException {
+    int k = codec.getDataBlockNum();
+    int m = codec.getCodingBlockNum();
+    int[] erasures = erased == null ? null : toErasures(erased);
+    boolean dataErased = erasures != null && erasures.length > 0
+        && erasures[0] < k;
+    long stripeSize = layout.getStripeSize();
+    long stripeNum = layout.getStripeNum();
+    long fullStripeNum = layout.getLength() / stripeSize;
+    long regionStripes = Math.max(1, Math.min(mapSize,
+        Integer.MAX_VALUE) / stripeSize);
+
+    for (long first = 0; first < stripeNum; first += regionStripes) {
+      int count = (int) Math.min(regionStripes, stripeNum - first);
+      int full = (int) Math.max(0, Math.min(count, fullStripeNum - first));
+      MappedByteBuffer sourceMap = null;
+      if (full > 0) {
+        sourceMap = source.map(dataErased ? MapMode.READ_WRITE
+            : MapMode.READ_ONLY, first * stripeSize, full * stripeSize);
+      }
+      MappedByteBuffer[] codingMaps = new MappedByteBuffer[m];
+      for (int j = 0; j < m; ++j) {
+        boolean write = erased == null || erased[k + j];
+        codingMaps[j] = coding[j].map(write ? MapMode.READ_WRITE
+            : MapMode.READ_ONLY, first * cellSize, (long) count * cellSize);
+      }
+
+      for (int s = 0; s < count; ++s) {
+        ByteBuffer[] data;
+        long tailOffset = (first + s) * stripeSize;
+        if (s < full) {
+          data = cells(sourceMap, k, (long) s * stripeSize);
+        } else {
+          data = readTail(source, tailOffset, layout.getLength());
+        }
+        ByteBuffer[] codingCells = new ByteBuffer[m];
+        for (int j = 0; j < m; ++j) {
+          codingCells[j] = cells(codingMaps[j], 1, (long) s * cellSize)[0];
+        }
+        if (erasures == null) {
+          codec.encode(data, codingCells);
+        } else if (erasures.length > 0) {
+          codec.decode(erasures, data, codingCells);
+          if (s >= full && dataErased) {
+            writeTail(source, tailOffset, layout.getLength(), data, erased);
+          }
+        }
+      }
+
+      if (sourceMap != null && dataErased) {
+        sourceMap.force();
+      }
+      for (int j = 0; j < m; ++j) {
+        if (erased == null || erased[k + j]) {
+          codingMaps[j].force();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns num consecutive cells of a mapped region, the first one at
+   * offset.
+   */
+  private ByteBuffer[] cells(MappedByteBuffer map, int num, long offset) {
+    ByteBuffer[] cells = new ByteBuffer[num];
+    for (int i = 0; i < num; ++i) {
+      ByteBuffer cell = map.duplicate();
+      int position = (int) (offset + (long) i * cellSize);
+      cell.limit(position + cellSize);
+      cell.position(position);
+      cells[i] = cell;
+    }
+    return cells;
+  }
+
+  /**
+   * Reads the cells of the last stripe, which is past the end of the file,
+   * into zero padded direct buffers.
+   */
+  private ByteBuffer[] readTail(FileChannel source, long offset, long length)
+      throws IOException {
+    ByteBuffer[] cells = new ByteBuffer[codec.getDataBlockNum()];
+    for (int i = 0; i < cells.length; ++i) {
+      cells[i] = ByteBuffer.allocateDirect(cellSize);
+      long cellOffset = offset + (long) i * cellSize;
+      int n = (int) Math.max(0, Math.min(cellSize, length - cellOffset));
+      ByteBuffer dst = cells[i].duplicate();
+      dst.limit(n);
+      while (dst.hasRemaining()) {
+        if (source.read(dst, cellOffset + dst.position()) < 0) {
+          break;
+        }
+      }
+    }
+    return cells;
+  }
+
+  /**
+   * Writes the original bytes of the erased data cells of the last stripe
+   * back to the file.
+   */
+  private void writeTail(FileChannel source, long offset, long length,
+      ByteBuffer[] cells, boolean[] erased) throws IOException {
+    for (int i = 0; i < cells.length; ++i) {
+      long cellOffset = offset + (long) i * cellSize;
+      int n = (int) Math.max(0, Math.min(cellSize, length - cellOffset));
+      if (!erased[i] || n == 0) {
+        continue;
+      }
+      ByteBuffer src = cells[i].duplicate();
+      src.limit(n);
+      while (src.hasRemaining()) {
+        source.write(src, cellOffset + src.position());
+      }
+    }
+  }
+
+  private static int[] toErasures(boolean[] erased) {
+    int num = 0;
+    for (boolean e : erased) {
+      num += e ? 1 : 0;
+    }
+    int[] erasures = new int[num];
+    for (int i = 0, j = 0; i < erased.length; ++i) {
+      if (erased[i]) {
+        erasures[j++] = i;
+      }
+    }
+    return erasures;
+  }
+
+  private static void closeAll(Closeable source, Closeable[] coding)
+      throws IOException {
+    IOException failure = null;
+    Closeable[] all = new Closeable[coding.length + 1];
+    all[0] = source;
+    System.arraycopy(coding, 0, all, 1, coding.length);
+    for (Closeable closeable : all) {
+      if (closeable == null) {
+        continue;
+      }
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        if (failure == null) {
+          failure = e;
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+}
@@ -0,0 +1,355 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.xiaomi.infra.ec.DecodePlan;
+import com.xiaomi.infra.ec.ErasureCodec;
+
+/**
+ * StripeDecoderStream is the mirror of {@link StripeEncoderStream}: it reads
+ * the cells of every stripe from the surviving block channels, reconstructs
+ * the erased data cells and exposes the original data as a channel, with the
+ * zero padding of the last stripe trimmed.
+ *
+ * <p>A background thread reads and decodes at most window stripes ahead of
+ * the consumer, so memory is bounded by window * (k + m) * cellSize bytes
+ * whatever the length of the blocks. When no data block is erased the coding
+ * channels are not read and no decoding is done. Otherwise only the k
+ * survivors chosen by {@link ErasureCodec#planDecode} are read, and only the
+ * erased data cells are decoded.
+ *
+ * <p>The block channels are not closed by this class.
+ */
+public class StripeDecoderStream implements ReadableByteChannel {
+
+  /** The default number of stripes read ahead. */
+  public static final int DEFAULT_WINDOW = 3;
+
+  private final ErasureCodec codec;
+  private final StripeLayout layout;
+  private final ReadableByteChannel[] inputs;
+  /** The plan decoding the erased data blocks, null if none is erased. */
+  private final DecodePlan plan;
+  private final int[] survivors;
+  private final BlockingQueue<Stripe> free;
+  private final BlockingQueue<Stripe> ready;
+
+  private volatile boolean closed;
+  private volatile Throwable failure;
+  private Thread fetcher;
+  private Stripe current;
+
+  /** Marks the end of the stripes in the ready queue. */
+  private static final Stripe END = new Stripe(0, 0, 0, false);
+
+  /**
+   * A stripe buffer shared by the fetcher and the consumer.
+   */
+  private static class Stripe {
+    private final ByteBuffer[] data;
+    private final ByteBuffer[] coding;
+    /** The cells of the plan survivors and targets. */
+    private ByteBuffer[] survivors;
+    private ByteBuffer[] targets;
+    /** The number of original data bytes held by the stripe. */
+    private int length;
+    /** The number of bytes already consumed. */
+    private int position;
+
+    Stripe(int dataBlockNum, int codingBlockNum, int cellSize,
+        boolean direct) {
+      data = allocate(dataBlockNum, cellSize, direct);
+      coding = allocate(codingBlockNum, cellSize, direct);
+    }
+
+    private static ByteBuffer[] allocate(int num, int size, boolean direct) {
+      ByteBuffer[] buffers = new ByteBuffer[num];
+      for (int i = 0; i < num; ++i) {
+        buffers[i] = direct ? ByteBuffer.allocateDirect(size)
+            : ByteBuffer.allocate(size);
+      }
+      return buffers;
+    }
+  }
+
+  public StripeDecoderStream(ErasureCodec codec, StripeLayout layout,
+      ReadableByteChannel[] inputs, int[] erasures) {
+    this(codec, layout, inputs, erasures, DEFAULT_WINDOW);
+  }
+
+  /**
+   * @param codec The codec the blocks were encoded with
+   * @param layout The layout returned when the blocks were encoded
+   * @param inputs The k + m block channels, null for the erased ones. The
+   *               coding channels may be null when no data block is erased
+   * @param erasures The erased block ids, at most m of them
+   * @param window The number of stripes read ahead
+   */
+  public StripeDecoderStream(ErasureCodec codec, StripeLayout layout,
+      ReadableByteChannel[] inputs, int[] erasures, int window) {
+    int k = codec.getDataBlockNum();
+    int m = codec.getCodingBlockNum();
+    Preconditions.checkArgument(layout.getDataBlockNum() == k,
+        "layout and codec have different data block numbers");
+    Preconditions.checkArgument(inputs.length == k + m,
+        "inputs must have k + m channels");
+    Preconditions.checkArgument(erasures.length <= m,
+        "Decode fail, too many erasures");
+    Preconditions.checkArgument(window > 0);
+    boolean[] erased = new boolean[k + m];
+    for (int erasure : erasures) {
+      Preconditions.checkArgument(erasure >= 0 && erasure < k + m,
+          "Invalid erasure: %s", erasure);
+      erased[erasure] = true;
+    }
+    boolean dataErased = false;
+    for (int i = 0; i < k; ++i) {
+      dataErased |= erased[i];
+    }
+    // The coding channels are only needed to reconstruct data
+    for (int i = 0; i < (dataErased ? k + m : k); ++i) {
+      Preconditions.checkArgument(erased[i] || inputs[i] != null,
+          "Block %s is neither given nor erased", i);
+    }
+    this.codec = codec;
+    this.layout = layout;
+    this.inputs = inputs;
+    this.plan = dataErased ? planDecode(codec, erased) : null;
+    this.survivors = plan == null ? null : plan.getSurvivors();
+    this.free = new ArrayBlockingQueue<Stripe>(window);
+    this.ready = new ArrayBlockingQueue<Stripe>(window + 1);
+    for (int i = 0; i < window; ++i) {
+      Stripe stripe = new Stripe(k, dataErased ? m : 0, layout.getCellSize(),
+          codec.getAlgorithm().isNative());
+      if (plan != null) {
+        stripe.survivors = cells(stripe, survivors);
+        stripe.targets = cells(stripe, plan.getTargets());
+      }
+      free.add(stripe);
+    }
+  }
+
+  /**
+   * Plans the decoding of the erased data blocks from the first k
+   * independent blocks, so that no more than k channels are read.
+   */
+  private static DecodePlan planDecode(ErasureCodec codec, boolean[] erased) {
+    int k = codec.getDataBlockNum();
+    List<Integer> available = new ArrayList<Integer>();
+    List<Integer> targets = new ArrayList<Integer>();
+    for (int i = 0; i < erased.length; ++i) {
+      if (!erased[i]) {
+        available.add(i);
+      } else if (i < k) {
+        targets.add(i);
+      }
+    }
+    return codec.planDecode(Ints.toArray(available), Ints.toArray(targets));
+  }
+
+  private static ByteBuffer[] cells(Stripe stripe, int[] ids) {
+    int k = stripe.data.length;
+    ByteBuffer[] cells = new ByteBuffer[ids.length];
+    for (int i = 0; i < ids.length; ++i) {
+      cells[i] = ids[i] < k ? stripe.data[ids[i]] : stripe.coding[ids[i] - k];
+    }
+    return cells;
+  }
+
+  /**
+   * Returns an input stream reading the decoded data.
+   */
+  public InputStream getInputStream() {
+    return Channels.newInputStream(this);
+  }
+
+  @Override
+  public synchronized int read(ByteBuffer dst) throws IOException {
+    if (closed) {
+      throw new ClosedChannelException();
+    }
+    if (fetcher == null) {
+      fetcher = newFetcher();
+      fetcher.start();
+    }
+    int total = 0;
+    while (dst.hasRemaining()) {
+      if (current == null || current.position == current.length) {
+        if (current != null) {
+          free.add(current);
+          current = null;
+        }
+        // Only block for a stripe when nothing has been read yet
+        Stripe next = total == 0 ? takeReady() : ready.poll();
+        if (next == null) {
+          break;
+        }
+        if (next == END) {
+          // Keep the marker so that later reads see the end too
+          ready.add(END);
+          Throwable t = failure;
+          if (t != null) {
+            Throwables.propagateIfPossible(t, IOException.class);
+            throw new IOException(t);
+          }
+          return total == 0 ? -1 : total;
+        }
+        current = next;
+      }
+      total += copy(current, dst);
+    }
+    return total;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return !closed;
+  }
+
+  /**
+   * Stops reading ahead and releases the buffers. The fetcher may finish
+   * the stripe it is reading before it stops.
+   */
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    // Hand all stripes back so that a blocked fetcher wakes up and sees the
+    // closed flag
+    if (current != null && current != END) {
+      free.offer(current);
+      current = null;
+    }
+    List<Stripe> stripes = new ArrayList<Stripe>();
+    ready.drainTo(stripes);
+    for (Stripe stripe : stripes) {
+      if (stripe != END) {
+        free.offer(stripe);
+      }
+    }
+  }
+
+  private Stripe takeReady() throws IOException {
+    try {
+      return ready.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while decoding");
+    }
+  }
+
+  /**
+   * Copies the unconsumed data of a stripe into the destination buffer.
+   *
+   * @return The number of bytes copied
+   */
+  private int copy(Stripe stripe, ByteBuffer dst) {
+    int cellSize = layout.getCellSize();
+    int copied = 0;
+    while (dst.hasRemaining() && stripe.position < stripe.length) {
+      int cell = stripe.position / cellSize;
+      int offset = stripe.position % cellSize;
+      int n = Math.min(dst.remaining(),
+          Math.min(cellSize - offset, stripe.length - stripe.position));
+      ByteBuffer src = stripe.data[cell].duplicate();
+      src.limit(offset + n).position(offset);
+      dst.put(src);
+      stripe.position += n;
+      copied += n;
+    }
+    return copied;
+  }
+
+  private Thread newFetcher() {
+    Runnable fetch = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          long stripeNum = layout.getStripeNum();
+          for (long s = 0; s < stripeNum && !closed; ++s) {
+            Stripe stripe = free.take();
+            if (closed) {
+              break;
+            }
+            fetch(stripe);
+            stripe.length = (int) (s == stripeNum - 1 ? layout.getTailLength()
+                : layout.getStripeSize());
+            stripe.position = 0;
+            ready.put(stripe);
+          }
+        } catch (Throwable t) {
+          failure = t;
+        } finally {
+          ready.offer(END);
+        }
+      }
+    };
+    return new ThreadFactoryBuilder()
+        .setNameFormat("stripe-decoder-fetcher-%d")
+        .setDaemon(true)
+        .build()
+        .newThread(fetch);
+  }
+
+  /**
+   * Reads the next cell of every needed block and reconstructs the erased
+   * data cells.
+   */
+  private void fetch(Stripe stripe) throws IOException {
+    if (plan == null) {
+      for (int i = 0; i < stripe.data.length; ++i) {
+        readFully(i, stripe.data[i]);
+      }
+      return;
+    }
+    for (int i = 0; i < survivors.length; ++i) {
+      readFully(survivors[i], stripe.survivors[i]);
+    }
+    codec.decode(plan, stripe.survivors, stripe.targets);
+  }
+
+  private void readFully(int id, ByteBuffer cell) throws IOException {
+    ByteBuffer dup = cell.duplicate();
+    dup.clear();
+    while (dup.hasRemaining()) {
+      if (inputs[id].read(dup) < 0) {
+        throw new EOFException("Unexpected end of block " + id);
+      }
+    }
+  }
+}
@@ -0,0 +1,283 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.xiaomi.infra.ec.ErasureCodec;
+
+/**
+ * StripeEncoderStream cuts an input stream into stripes of k cells, encodes
+ * every stripe and writes cell j of every stripe to output channel j, the
+ * first k channels getting data and the last m ones getting coding. The last
+ * stripe is zero padded, and the returned {@link StripeLayout} records the
+ * original length.
+ *
+ * <p>Reading, encoding and writing run on three threads connected by queues,
+ * so that I/O and compute overlap. Memory is bounded by the number of stripes
+ * in flight: depth * (k + m) * cellSize bytes.
+ */
+public class StripeEncoderStream {
+
+  /** The default number of stripes in flight. */
+  public static final int DEFAULT_DEPTH = 3;
+
+  private final ErasureCodec codec;
+  private final int cellSize;
+  private final int depth;
+  private final WritableByteChannel[] outputs;
+
+  /**
+   * A stripe buffer flowing through the pipeline.
+   */
+  private static class Stripe {
+    private final ByteBuffer[] data;
+    private final ByteBuffer[] coding;
+    private boolean last;
+
+    Stripe(int dataBlockNum, int codingBlockNum, int cellSize,
+        boolean direct) {
+      data = allocate(dataBlockNum, cellSize, direct);
+      coding = allocate(codingBlockNum, cellSize, direct);
+    }
+
+    private static ByteBuffer[] allocate(int num, int size, boolean direct) {
+      ByteBuffer[] buffers = new ByteBuffer[num];
+      for (int i = 0; i < num; ++i) {
+        buffers[i] = direct ? ByteBuffer.allocateDirect(size)
+            : ByteBuffer.allocate(size);
+      }
+      return buffers;
+    }
+  }
+
+  public StripeEncoderStream(ErasureCodec codec, int cellSize,
+      WritableByteChannel[] outputs) {
+    this(codec, cellSize, outputs, DEFAULT_DEPTH);
+  }
+
+  /**
+   * @param codec The codec to encode with
+   * @param cellSize The size of a cell, it must satisfy the alignment
+   *                 requirements of the codec
+   * @param outputs The k + m output channels
+   * @param depth The number of stripes in flight
+   */
+  public StripeEncoderStream(ErasureCodec codec, int cellSize,
+      WritableByteChannel[] outputs, int depth) {
+    Preconditions.checkArgument(cellSize > 0);
+    Preconditions.checkArgument(depth > 0);
+    Preconditions.checkArgument(outputs.length
+        == codec.getDataBlockNum() + codec.getCodingBlockNum(),
+        "outputs must have k + m channels");
+    this.codec = codec;
+    this.cellSize = cellSize;
+    this.depth = depth;
+    this.outputs = outputs;
+  }
+
+  /**
+   * Encodes the whole input stream.
+   *
+   * @return The layout of the written stripes
+   */
+  public StripeLayout encode(InputStream input) throws IOException {
+    return encode(Channels.newChannel(input));
+  }
+
+  /**
+   * Encodes the whole input channel.
+   *
+   * @return The layout of the written stripes
+   */
+  public StripeLayout encode(ReadableByteChannel input) throws IOException {
+    final int k = codec.getDataBlockNum();
+    final int m = codec.getCodingBlockNum();
+    final BlockingQueue<Stripe> free = new ArrayBlockingQueue<Stripe>(depth);
+    final BlockingQueue<Stripe> toEncode =
+        new ArrayBlockingQueue<Stripe>(depth + 1);
+    final BlockingQueue<Stripe> toWrite =
+        new ArrayBlockingQueue<Stripe>(depth + 1);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    for (int i = 0; i < depth; ++i) {
+      free.add(new Stripe(k, m, cellSize, codec.getAlgorithm().isNative()));
+    }
+
+    Thread encoder = newThread("encoder", new Runnable() {
+      @Override
+      public void run() {
+        boolean last;
+        do {
+          Stripe stripe = take(toEncode);
+          // Read the flag before handing the stripe on, it is recycled after
+          last = stripe.last;
+          if (stripe.data[0].hasRemaining() && failure.get() == null) {
+            try {
+              codec.encode(stripe.data, stripe.coding);
+            } catch (Throwable t) {
+              failure.compareAndSet(null, t);
+            }
+          }
+          put(toWrite, stripe);
+        } while (!last);
+      }
+    });
+    Thread writer = newThread("writer", new Runnable() {
+      @Override
+      public void run() {
+        boolean last;
+        do {
+          Stripe stripe = take(toWrite);
+          last = stripe.last;
+          if (stripe.data[0].hasRemaining() && failure.get() == null) {
+            try {
+              for (int i = 0; i < k; ++i) {
+                writeFully(outputs[i], stripe.data[i]);
+              }
+              for (int i = 0; i < m; ++i) {
+                writeFully(outputs[k + i], stripe.coding[i]);
+              }
+            } catch (Throwable t) {
+              failure.compareAndSet(null, t);
+            }
+          }
+          // Recycle the stripe even on failure, so the reader never blocks
+          put(free, stripe);
+        } while (!last);
+      }
+    });
+    encoder.start();
+    writer.start();
+
+    long length = 0;
+    try {
+      boolean eof = false;
+      while (!eof) {
+        Stripe stripe = free.take();
+        int n = 0;
+        if (failure.get() == null) {
+          try {
+            n = readStripe(input, stripe.data);
+          } catch (IOException e) {
+            failure.compareAndSet(null, e);
+            stripe.data[0].limit(0);
+          }
+        } else {
+          stripe.data[0].limit(0);
+        }
+        length += n;
+        eof = n < k * cellSize;
+        stripe.last = eof;
+        put(toEncode, stripe);
+      }
+      encoder.join();
+      writer.join();
+    } catch (InterruptedException e) {
+      encoder.interrupt();
+      writer.interrupt();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while encoding");
+    }
+
+    Throwable t = failure.get();
+    if (t != null) {
+      Throwables.propagateIfPossible(t, IOException.class);
+      throw new IOException(t);
+    }
+    return new StripeLayout(k, cellSize, length);
+  }
+
+  /**
+   * Reads a stripe, zero padding the cells after the end of the input. The
+   * data buffers are left flipped for encoding, or empty if nothing is read.
+   *
+   * @return The number of bytes read
+   */
+  private int readStripe(ReadableByteChannel input, ByteBuffer[] data)
+      throws IOException {
+    int total = 0;
+    boolean eof = false;
+    for (ByteBuffer buffer : data) {
+      buffer.clear();
+      while (!eof && buffer.hasRemaining()) {
+        int n = input.read(buffer);
+        if (n < 0) {
+          eof = true;
+        } else {
+          total += n;
+        }
+      }
+    }
+    for (ByteBuffer buffer : data) {
+      if (total == 0) {
+        buffer.limit(0);
+        continue;
+      }
+      while (buffer.hasRemaining()) {
+        buffer.put((byte) 0);
+      }
+      buffer.flip();
+    }
+    return total;
+  }
+
+  private static void writeFully(WritableByteChannel output, ByteBuffer buffer)
+      throws IOException {
+    ByteBuffer dup = buffer.duplicate();
+    while (dup.hasRemaining()) {
+      output.write(dup);
+    }
+  }
+
+  private static Thread newThread(String stage, Runnable runnable) {
+    return new ThreadFactoryBuilder()
+        .setNameFormat("stripe-encoder-" + stage + "-%d")
+        .setDaemon(true)
+        .build()
+        .newThread(runnable);
+  }
+
+  private static <T> T take(BlockingQueue<T> queue) {
+    try {
+      return queue.take();
+    } catch (InterruptedException e) {
+      throw Throwables.propagate(e);
+    }
+  }
+
+  private static <T> void put(BlockingQueue<T> queue, T item) {
+    try {
+      queue.put(item);
+    } catch (InterruptedException e) {
+      throw Throwables.propagate(e);
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.io;
+
+import java.io.Serializable;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * StripeLayout records how a stream was cut into stripes: the cell size, the
+ * number of stripes and the original length, from which the length of the
+ * zero padded tail is known.
+ */
+public class StripeLayout implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final int dataBlockNum;
+  private final int cellSize;
+  private final long length;
+
+  public StripeLayout(int dataBlockNum, int cellSize, long length) {
+    Preconditions.checkArgument(dataBlockNum > 0);
+    Preconditions.checkArgument(cellSize > 0);
+    Preconditions.checkArgument(length >= 0);
+    this.dataBlockNum = dataBlockNum;
+    this.cellSize = cellSize;
+    this.length = length;
+  }
+
+  /**
+   * Returns the number of data cells of a stripe.
+   */
+  public int getDataBlockNum() {
+    return dataBlockNum;
+  }
+
+  /**
+   * Returns the size of a cell, which is the block size of a stripe.
+   */
+  public int getCellSize() {
+    return cellSize;
+  }
+
+  /**
+   * Returns the length of the original data.
+   */
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * Returns the number of data bytes of a whole stripe.
+   */
+  public long getStripeSize() {
+    return (long) dataBlockNum * cellSize;
+  }
+
+  /**
+   * Returns the number of stripes.
+   */
+  public long getStripeNum() {
+    return (length + getStripeSize() - 1) / getStripeSize();
+  }
+
+  /**
+   * Returns the number of original data bytes in the last stripe, the rest
+   * of which is zero padding.
+   */
+  public long getTailLength() {
+    if (length == 0) {
+      return 0;
+    }
+    return length - (getStripeNum() - 1) * getStripeSize();
+  }
+
+  /**
+   * Returns the length of every block file, which holds one cell per stripe.
+   */
+  public long getBlockLength() {
+    return getStripeNum() * cellSize;
+  }
+
+  @Override
+  public String toString() {
+    return "StripeLayout(dataBlockNum=" + dataBlockNum + ", cellSize="
+        + cellSize + ", length=" + length + ")";
+  }
+}
@@ -0,0 +1,190 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.lrc;
+
+import java.util.BitSet;
+import java.util.TreeSet;
+
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Ints;
+
+import com.xiaomi.infra.ec.DecodingMatrixCache;
+import com.xiaomi.infra.ec.gf.GaloisField;
+import com.xiaomi.infra.ec.gf.GaloisKernel;
+import com.xiaomi.infra.ec.gf.GaloisKernels;
+import com.xiaomi.infra.ec.gf.GaloisMatrix;
+import com.xiaomi.infra.ec.rs.JavaReedSolomonCodec;
+
+/**
+ * Locally Repairable Code over GF(2^8), as used by Azure storage. The k data
+ * blocks are split into l local groups of consecutive blocks, each protected
+ * by a local parity which is the XOR of the group, and r global parities are
+ * computed over all the data blocks. Coding blocks 0..l-1 are the local
+ * parities and l..l+r-1 the global ones.
+ *
+ * <p>A single failure is repaired from its local group only, reading about
+ * k/l blocks instead of k. Global parity j of data block i has coefficient
+ * a_i^(j+1), a_i = 2^i, so that any r+1 failures are recoverable. More
+ * failures are decoded from the global parities when the pattern is
+ * recoverable at all.
+ */
+public class LocallyRepairableCodec extends JavaReedSolomonCodec {
+
+  private final int dataBlockNum;
+  private final int localParityNum;
+  private final int globalParityNum;
+  private final int[] codingMatrix;
+
+  public LocallyRepairableCodec(int dataBlockNum, int localParityNum,
+      int globalParityNum) {
+    this(dataBlockNum, localParityNum, globalParityNum,
+        GaloisKernels.scalar(), DecodingMatrixCache.DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param dataBlockNum The number of data blocks k
+   * @param localParityNum The number of local groups l
+   * @param globalParityNum The number of global parities r
+   * @param kernel The GF(2^8) region kernel
+   * @param decodingCacheSize The number of cached erasure patterns
+   */
+  public LocallyRepairableCodec(int dataBlockNum, int localParityNum,
+      int globalParityNum, GaloisKernel kernel, int decodingCacheSize) {
+    super(dataBlockNum, localParityNum + globalParityNum,
+        createCodingMatrix(dataBlockNum, localParityNum, globalParityNum),
+        kernel, decodingCacheSize);
+    this.dataBlockNum = dataBlockNum;
+    this.localParityNum = localParityNum;
+    this.globalParityNum = globalParityNum;
+    this.codingMatrix = getCodingMatrix();
+  }
+
+  /**
+   * Returns the number of local groups.
+   */
+  public int getLocalParityNum() {
+    return localParityNum;
+  }
+
+  /**
+   * Returns the number of global parities.
+   */
+  public int getGlobalParityNum() {
+    return globalParityNum;
+  }
+
+  /**
+   * Returns the local group of a data block.
+   */
+  public int getLocalGroup(int dataIndex) {
+    Preconditions.checkArgument(dataIndex >= 0 && dataIndex < dataBlockNum);
+    return localGroupOf(dataIndex, dataBlockNum, localParityNum);
+  }
+
+  /**
+   * Returns the blocks decode reads to recover the given erasures, which is
+   * the local group for a single failure.
+   *
+   * @param erasures The failed blocks list
+   * @return The sorted ids of the blocks to read
+   */
+  public int[] getRepairBlocks(int[] erasures) {
+    int totalBlockNum = dataBlockNum + localParityNum + globalParityNum;
+    BitSet erased = new BitSet(totalBlockNum);
+    for (int erasure : erasures) {
+      Preconditions.checkArgument(erasure >= 0 && erasure < totalBlockNum,
+          "invalid erasure: " + erasure);
+      erased.set(erasure);
+    }
+    TreeSet<Integer> blocks = new TreeSet<Integer>();
+    int firstErased = erased.nextSetBit(0);
+    if (firstErased >= 0 && firstErased < dataBlockNum) {
+      int[] survivors = selectSurvivors(erased);
+      if (survivors == null) {
+        throw new RuntimeException("Decode fail, unrecoverable erasures: "
+            + erased);
+      }
+      int[] decodingMatrix = GaloisMatrix.createDecodingMatrix(dataBlockNum,
+          codingMatrix, survivors);
+      for (int i = erased.nextSetBit(0); i >= 0 && i < dataBlockNum;
+          i = erased.nextSetBit(i + 1)) {
+        for (int j = 0; j < dataBlockNum; ++j) {
+          if (decodingMatrix[i * dataBlockNum + j] != 0) {
+            blocks.add(survivors[j]);
+          }
+        }
+      }
+    }
+    // Erased parities are re-encoded from their data blocks
+    for (int i = erased.nextSetBit(dataBlockNum); i >= 0;
+        i = erased.nextSetBit(i + 1)) {
+      int row = (i - dataBlockNum) * dataBlockNum;
+      for (int j = 0; j < dataBlockNum; ++j) {
+        if (codingMatrix[row + j] != 0 && !erased.get(j)) {
+          blocks.add(j);
+        }
+      }
+    }
+    return Ints.toArray(blocks);
+  }
+
+  /**
+   * Selects the first candidates which are independent. Decoding passes the
+   * survivors in block id order, preferring the data blocks, then the local
+   * parities and last the global ones. With all the other data blocks
+   * selected, a single erased data block is recovered from its local parity,
+   * and the decoding row only touches its group.
+   */
+  @Override
+  public int[] selectSurvivors(int[] candidates) {
+    return GaloisMatrix.selectIndependentRows(dataBlockNum, codingMatrix,
+        candidates);
+  }
+
+  private static int localGroupOf(int dataIndex, int dataBlockNum,
+      int localParityNum) {
+    // Group g holds data blocks [g*k/l, (g+1)*k/l)
+    return ((dataIndex + 1) * localParityNum - 1) / dataBlockNum;
+  }
+
+  private static int[] createCodingMatrix(int dataBlockNum,
+      int localParityNum, int globalParityNum) {
+    Preconditions.checkArgument(dataBlockNum > 0);
+    Preconditions.checkArgument(localParityNum > 0
+        && localParityNum <= dataBlockNum,
+        "localParityNum must be in [1, dataBlockNum]");
+    Preconditions.checkArgument(globalParityNum >= 0,
+        "globalParityNum must not be negative");
+    Preconditions.checkArgument(
+        dataBlockNum + localParityNum + globalParityNum < GaloisField.FIELD_SIZE,
+        "dataBlocksNum + codingBlocksNum is larger than 2^wordSize");
+
+    int k = dataBlockNum;
+    int[] matrix = new int[(localParityNum + globalParityNum) * k];
+    for (int i = 0; i < k; ++i) {
+      matrix[localGroupOf(i, k, localParityNum) * k + i] = 1;
+    }
+    for (int j = 0; j < globalParityNum; ++j) {
+      for (int i = 0; i < k; ++i) {
+        matrix[(localParityNum + j) * k + i] =
+            GaloisField.power(GaloisField.power(2, i), j + 1);
+      }
+    }
+    return matrix;
+  }
+}
@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.raid;
+
+import com.google.common.base.Preconditions;
+import com.sun.jna.Pointer;
+
+import com.xiaomi.infra.ec.CLibrary;
+import com.xiaomi.infra.ec.JerasureLibrary;
+import com.xiaomi.infra.ec.rs.CauchyReedSolomonCodec;
+
+/**
+ * Minimum density RAID-6 codes of Jerasure: Liberation, Blaum-Roth and
+ * Liber8tion. They tolerate any two failures, like Reed-Solomon with two
+ * coding blocks, but their bit-matrices have close to the minimum number of
+ * ones, so that encoding and updates need fewer XORs than Cauchy
+ * Reed-Solomon. They are coded with the same schedules as
+ * {@link CauchyReedSolomonCodec}, and only differ by their bit-matrix.
+ */
+public class MinimumDensityCodec extends CauchyReedSolomonCodec {
+
+  /** The minimum density codes. */
+  public enum Code {
+    /** For a prime w > 2, and k <= w. */
+    LIBERATION,
+    /** For w + 1 prime, and k <= w. */
+    BLAUM_ROTH,
+    /** For w = 8, and k <= 8. */
+    LIBER8TION,
+  }
+
+  private final Code code;
+
+  /**
+   * @param code The code
+   * @param dataBlockNum The number of data blocks k
+   * @param wordSize The word size w, which the code constrains
+   * @param packetSize The packet size, a multiple of 8
+   * @param codingBitMatrix The precomputed coding bit-matrix, null to
+   *                        generate it
+   * @param decodingCacheSize The number of cached erasure patterns
+   */
+  public MinimumDensityCodec(Code code, int dataBlockNum, int wordSize,
+      int packetSize, int[] codingBitMatrix, int decodingCacheSize) {
+    super(dataBlockNum, 2, wordSize, packetSize, false,
+        codingBitMatrix != null ? codingBitMatrix
+            : createCodingBitMatrix(code, dataBlockNum, wordSize),
+        decodingCacheSize);
+    this.code = code;
+  }
+
+  /**
+   * Returns the code.
+   */
+  public Code getCode() {
+    return code;
+  }
+
+  /**
+   * Creates the k*w x 2*w coding bit-matrix of a code.
+   */
+  public static int[] createCodingBitMatrix(Code code, int dataBlockNum,
+      int wordSize) {
+    Preconditions.checkArgument(dataBlockNum > 0);
+    Preconditions.checkArgument(dataBlockNum <= wordSize,
+        "dataBlockNum must not be larger than wordSize");
+    Pointer bitMatrix;
+    switch (code) {
+      case LIBERATION:
+        Preconditions.checkArgument(wordSize > 2 && isPrime(wordSize),
+            "wordSize must be a prime larger than 2");
+        bitMatrix = JerasureLibrary.INSTANCE.liberation_coding_bitmatrix(
+            dataBlockNum, wordSize);
+        break;
+      case BLAUM_ROTH:
+        Preconditions.checkArgument(isPrime(wordSize + 1),
+            "wordSize + 1 must be a prime");
+        bitMatrix = JerasureLibrary.INSTANCE.blaum_roth_coding_bitmatrix(
+            dataBlockNum, wordSize);
+        break;
+      case LIBER8TION:
+        Preconditions.checkArgument(wordSize == 8, "wordSize must be 8");
+        bitMatrix = JerasureLibrary.INSTANCE.liber8tion_coding_bitmatrix(
+            dataBlockNum);
+        break;
+      default:
+        throw new IllegalArgumentException("Code is not supported: " + code);
+    }
+    if (bitMatrix == null) {
+      throw new IllegalArgumentException("Invalid " + code + " geometry: k="
+          + dataBlockNum + ", w=" + wordSize);
+    }
+    try {
+      return bitMatrix.getIntArray(0, dataBlockNum * wordSize * 2 * wordSize);
+    } finally {
+      CLibrary.INSTANCE.free(bitMatrix);
+    }
+  }
+
+  private static boolean isPrime(int n) {
+    if (n < 2) {
+      return false;
+    }
+    for (int d = 2; d * d <= n; ++d) {
+      if (n % d == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
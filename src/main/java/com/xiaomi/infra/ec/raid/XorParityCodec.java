@@ -0,0 +1,211 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.raid;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+
+import com.xiaomi.infra.ec.CodecInterface;
+import com.xiaomi.infra.ec.CodecUtils;
+
+/**
+ * RAID-5 style single parity: the only coding block is the XOR of the data
+ * blocks, so that any single failure is the XOR of the k other blocks. No
+ * GF arithmetic nor matrix is involved, and buffers of any kind are XORed in
+ * place without being copied.
+ */
+public class XorParityCodec implements CodecInterface {
+
+  private final int dataBlockNum;
+
+  public XorParityCodec(int dataBlockNum) {
+    Preconditions.checkArgument(dataBlockNum > 0);
+    this.dataBlockNum = dataBlockNum;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public byte[][] encode(byte[][] data) {
+    Preconditions.checkArgument(data.length > 0);
+    byte[][] coding = new byte[1][data[0].length];
+    encode(data, coding);
+    return coding;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void encode(byte[][] data, byte[][] coding) {
+    encode(CodecUtils.wrap(data), CodecUtils.wrap(coding));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void decode(int[] erasures, byte[][] data, byte[][] coding) {
+    decode(erasures, CodecUtils.wrap(data), CodecUtils.wrap(coding));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void encode(ByteBuffer[] data, ByteBuffer[] coding) {
+    CodecUtils.checkBuffers(data, coding, dataBlockNum, 1);
+    xor(data, coding[0]);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void decode(int[] erasures, ByteBuffer[] data, ByteBuffer[] coding) {
+    CodecUtils.checkBuffers(data, coding, dataBlockNum, 1);
+    int erased = -1;
+    for (int erasure : erasures) {
+      Preconditions.checkArgument(erasure >= 0 && erasure <= dataBlockNum,
+          "invalid erasure: " + erasure);
+      if (erased >= 0 && erasure != erased) {
+        throw new RuntimeException("Decode fail, too many erasures for a "
+            + "single parity");
+      }
+      erased = erasure;
+    }
+    if (erased < 0) {
+      return;
+    }
+    if (erased == dataBlockNum) {
+      xor(data, coding[0]);
+      return;
+    }
+    // The erased data block is the XOR of the other blocks
+    ByteBuffer[] others = new ByteBuffer[dataBlockNum];
+    for (int i = 0, j = 0; i < dataBlockNum; ++i) {
+      if (i != erased) {
+        others[j++] = data[i];
+      }
+    }
+    others[dataBlockNum - 1] = coding[0];
+    xor(others, data[erased]);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<byte[][]> encodeBatch(List<byte[][]> data) {
+    return CodecUtils.encodeBatch(this, data, 1);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void encodeBatch(ByteBuffer[][] data, ByteBuffer[][] coding) {
+    Preconditions.checkArgument(data.length == coding.length,
+        "data and coding must have the same number of stripes");
+    for (int s = 0; s < data.length; ++s) {
+      encode(data[s], coding[s]);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void updateParity(int dataIndex, int offset, byte[] oldData,
+      byte[] newData, byte[][] coding) {
+    updateParity(dataIndex, offset, ByteBuffer.wrap(oldData),
+        ByteBuffer.wrap(newData), CodecUtils.wrap(coding));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void updateParity(int dataIndex, int offset, ByteBuffer oldData,
+      ByteBuffer newData, ByteBuffer[] coding) {
+    int length = CodecUtils.checkUpdate(dataIndex, offset, oldData, newData,
+        coding, dataBlockNum, 1, 1);
+    ByteBuffer range = coding[0].duplicate();
+    range.position(range.position() + offset);
+    range.limit(range.position() + length);
+    CodecUtils.xor(oldData, range);
+    CodecUtils.xor(newData, range);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public byte[][] encodePartial(int[] dataIndices, byte[][] data) {
+    Preconditions.checkArgument(data.length > 0);
+    byte[][] coding = new byte[1][data[0].length];
+    encodePartial(dataIndices, CodecUtils.wrap(data),
+        CodecUtils.wrap(coding));
+    return coding;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void encodePartial(int[] dataIndices, ByteBuffer[] data,
+      ByteBuffer[] coding) {
+    CodecUtils.checkPartial(dataIndices, data, coding, dataBlockNum, 1);
+    for (ByteBuffer block : data) {
+      CodecUtils.xor(block, coding[0]);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Any k candidates do, as the code is MDS.
+   */
+  @Override
+  public int[] selectSurvivors(int[] candidates) {
+    return CodecUtils.selectSurvivors(candidates, dataBlockNum);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public byte[][] decode(int[] survivors, byte[][] survivorBlocks,
+      int[] targets) {
+    Preconditions.checkArgument(survivorBlocks.length > 0);
+    byte[][] targetBlocks = new byte[targets.length][survivorBlocks[0].length];
+    decode(survivors, CodecUtils.wrap(survivorBlocks), targets,
+        CodecUtils.wrap(targetBlocks));
+    return targetBlocks;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The only block which is not a survivor is their XOR.
+   */
+  @Override
+  public void decode(int[] survivors, ByteBuffer[] survivorBlocks,
+      int[] targets, ByteBuffer[] targetBlocks) {
+    CodecUtils.checkSurvivors(survivors, survivorBlocks, targets,
+        targetBlocks, dataBlockNum, 1);
+    for (ByteBuffer target : targetBlocks) {
+      xor(survivorBlocks, target);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void close() {
+    // Nothing is held
+  }
+
+  /**
+   * Stores the XOR of the sources into dst.
+   */
+  private static void xor(ByteBuffer[] srcs, ByteBuffer dst) {
+    dst.duplicate().put(srcs[0].duplicate());
+    for (int i = 1; i < srcs.length; ++i) {
+      CodecUtils.xor(srcs[i], dst);
+    }
+  }
+}
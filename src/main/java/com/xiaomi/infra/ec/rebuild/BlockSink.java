@@ -0,0 +1,39 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.rebuild;
+
+import java.io.IOException;
+
+/**
+ * BlockSink stores the blocks rebuilt by {@link StripeRebuilder}, e.g. on a
+ * replacement device. Implementations must be thread safe, as blocks are
+ * written by several rebuild threads.
+ */
+public interface BlockSink {
+
+  /**
+   * Writes a rebuilt block of a stripe.
+   *
+   * @param stripeId The stripe id
+   * @param blockId The block id in the stripe, data blocks first
+   * @param block The block content
+   * @throws IOException if the block cannot be written
+   */
+  public void writeBlock(long stripeId, int blockId, byte[] block)
+      throws IOException;
+}
@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.rebuild;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * LocalBlockStore keeps every block in a file of a local directory, named
+ * after its stripe and block ids. It is meant for tests and tools rather
+ * than production storage. This class is thread safe.
+ */
+public class LocalBlockStore implements BlockSource, BlockSink {
+
+  private final Path dir;
+
+  public LocalBlockStore(Path dir) throws IOException {
+    Preconditions.checkNotNull(dir, "dir");
+    this.dir = Files.createDirectories(dir);
+  }
+
+  /**
+   * Returns the file of a block.
+   */
+  public Path getPath(long stripeId, int blockId) {
+    return dir.resolve(stripeId + "." + blockId);
+  }
+
+  /**
+   * Returns whether a block is stored.
+   */
+  public boolean hasBlock(long stripeId, int blockId) {
+    return Files.exists(getPath(stripeId, blockId));
+  }
+
+  /**
+   * Deletes a block, e.g. to simulate a lost device.
+   */
+  public void deleteBlock(long stripeId, int blockId) throws IOException {
+    Files.deleteIfExists(getPath(stripeId, blockId));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public byte[] readBlock(long stripeId, int blockId) throws IOException {
+    return Files.readAllBytes(getPath(stripeId, blockId));
+  }
+
+  /**
+   * Writes a block. The block is written to a temporary file first, so that
+   * readers never see it partially written.
+   */
+  @Override
+  public void writeBlock(long stripeId, int blockId, byte[] block)
+      throws IOException {
+    Path path = getPath(stripeId, blockId);
+    Path tmp = dir.resolve(path.getFileName() + ".tmp");
+    Files.write(tmp, block);
+    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+}
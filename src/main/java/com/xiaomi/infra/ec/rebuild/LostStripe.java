@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.rebuild;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * LostStripe names a stripe to rebuild and its lost blocks. The other blocks
+ * of the stripe are expected to be readable from the {@link BlockSource}.
+ */
+public class LostStripe {
+
+  private final long stripeId;
+  private final int[] lostBlocks;
+
+  /**
+   * @param stripeId The stripe id
+   * @param lostBlocks The ids of the lost blocks, data blocks first
+   */
+  public LostStripe(long stripeId, int... lostBlocks) {
+    Preconditions.checkArgument(lostBlocks.length > 0,
+        "lostBlocks must not be empty");
+    this.stripeId = stripeId;
+    this.lostBlocks = lostBlocks.clone();
+    Arrays.sort(this.lostBlocks);
+  }
+
+  public long getStripeId() {
+    return stripeId;
+  }
+
+  /**
+   * Returns the sorted ids of the lost blocks.
+   */
+  public int[] getLostBlocks() {
+    return lostBlocks.clone();
+  }
+
+  int[] lostBlocks() {
+    return lostBlocks;
+  }
+
+  @Override
+  public String toString() {
+    return "LostStripe(" + stripeId + ", " + Arrays.toString(lostBlocks)
+        + ")";
+  }
+}
@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.rebuild;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RebuildProgress reports how far a rebuild of {@link StripeRebuilder} is,
+ * and how fast it goes, so that repair windows can be sized. It is updated
+ * live by the rebuild threads, and may be polled from any thread.
+ */
+public class RebuildProgress {
+
+  private final long totalStripeNum;
+  private final long startNanos = System.nanoTime();
+  private final AtomicLong rebuiltStripeNum = new AtomicLong();
+  private final AtomicLong bytesRead = new AtomicLong();
+  private final AtomicLong bytesWritten = new AtomicLong();
+  private final ConcurrentLinkedQueue<Long> failedStripes =
+      new ConcurrentLinkedQueue<Long>();
+  private final Map<Long, Throwable> failureCauses =
+      new ConcurrentHashMap<Long, Throwable>();
+  private volatile long endNanos;
+
+  RebuildProgress(long totalStripeNum) {
+    this.totalStripeNum = totalStripeNum;
+  }
+
+  /**
+   * Returns the number of stripes to rebuild.
+   */
+  public long getTotalStripeNum() {
+    return totalStripeNum;
+  }
+
+  /**
+   * Returns the number of stripes rebuilt so far.
+   */
+  public long getRebuiltStripeNum() {
+    return rebuiltStripeNum.get();
+  }
+
+  /**
+   * Returns the ids of the stripes which failed to rebuild so far, because
+   * a block could not be read or written, or too many blocks are lost.
+   */
+  public List<Long> getFailedStripes() {
+    List<Long> failed = new ArrayList<Long>(failedStripes);
+    Collections.sort(failed);
+    return failed;
+  }
+
+  /**
+   * Returns why a stripe failed to rebuild, or null if it did not fail.
+   */
+  public Throwable getFailureCause(long stripeId) {
+    return failureCauses.get(stripeId);
+  }
+
+  /**
+   * Returns the number of bytes of surviving blocks read so far.
+   */
+  public long getBytesRead() {
+    return bytesRead.get();
+  }
+
+  /**
+   * Returns the number of bytes of rebuilt blocks written so far.
+   */
+  public long getBytesWritten() {
+    return bytesWritten.get();
+  }
+
+  /**
+   * Returns whether the rebuild is over, successful or not.
+   */
+  public boolean isDone() {
+    return endNanos != 0;
+  }
+
+  /**
+   * Returns the time spent rebuilding, up to now or to the end.
+   */
+  public long getElapsedNanos() {
+    long end = endNanos;
+    return (end != 0 ? end : System.nanoTime()) - startNanos;
+  }
+
+  /**
+   * Returns the bytes of rebuilt blocks written per second.
+   */
+  public double getThroughput() {
+    long nanos = Math.max(1, getElapsedNanos());
+    return (double) getBytesWritten() * TimeUnit.SECONDS.toNanos(1) / nanos;
+  }
+
+  /**
+   * Returns the time left at the stripe rate so far, or -1 if no stripe is
+   * done yet.
+   */
+  public long getEstimatedRemainingNanos() {
+    long done = getRebuiltStripeNum() + failedStripes.size();
+    if (done == 0) {
+      return -1;
+    }
+    return (long) ((double) getElapsedNanos() * (totalStripeNum - done)
+        / done);
+  }
+
+  void addBytesRead(long bytes) {
+    bytesRead.addAndGet(bytes);
+  }
+
+  void addBytesWritten(long bytes) {
+    bytesWritten.addAndGet(bytes);
+  }
+
+  void stripeRebuilt() {
+    rebuiltStripeNum.incrementAndGet();
+  }
+
+  void stripeFailed(long stripeId, Throwable cause) {
+    failureCauses.put(stripeId, cause);
+    failedStripes.add(stripeId);
+  }
+
+  void finish() {
+    endNanos = Math.max(1, System.nanoTime());
+  }
+
+  @Override
+  public String toString() {
+    return "RebuildProgress(" + getRebuiltStripeNum() + "/" + totalStripeNum
+        + " stripes, " + failedStripes.size() + " failed, "
+        + String.format("%.1f", getThroughput() / (1 << 20)) + " MB/s)";
+  }
+}
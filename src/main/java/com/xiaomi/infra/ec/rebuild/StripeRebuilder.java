@@ -0,0 +1,225 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.rebuild;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.RateLimiter;
+import com.xiaomi.infra.ec.DecodePlan;
+import com.xiaomi.infra.ec.ErasureCodec;
+
+/**
+ * StripeRebuilder reconstructs the lost blocks of many stripes, e.g. all the
+ * stripes of a dead device, from a {@link BlockSource} into a
+ * {@link BlockSink}.
+ *
+ * <p>Stripes are grouped by their lost blocks, and the decode plan of every
+ * group is computed once: only its k survivors are read, and the decoding
+ * matrix is built once and then hit in the decoding cache. The reads, the
+ * decoding and the writes of up to parallelism stripes run at once on as
+ * many threads, so that the I/O of some stripes overlaps the decoding of
+ * others. The bytes read from the source can be throttled, so that repair
+ * traffic leaves room for the clients: the bytes a stripe is expected to
+ * read, k times the size of the last blocks read, are acquired before
+ * reading it.
+ */
+public class StripeRebuilder {
+
+  private static final AtomicInteger REBUILDER_ID = new AtomicInteger();
+
+  private final ErasureCodec codec;
+  private final BlockSource source;
+  private final BlockSink sink;
+  private final int parallelism;
+  private final RateLimiter rateLimiter;
+  /** The size of the last blocks read, the expected size of the next. */
+  private final AtomicLong blockSize = new AtomicLong();
+  private volatile RebuildProgress progress;
+
+  /**
+   * @param codec The codec of the stripes
+   * @param source The source of the surviving blocks
+   * @param sink The sink of the rebuilt blocks
+   * @param parallelism The number of stripes rebuilt at once
+   * @param bytesPerSecond The maximum bytes read per second, 0 for no limit
+   */
+  public StripeRebuilder(ErasureCodec codec, BlockSource source,
+      BlockSink sink, int parallelism, long bytesPerSecond) {
+    Preconditions.checkNotNull(codec, "codec");
+    Preconditions.checkNotNull(source, "source");
+    Preconditions.checkNotNull(sink, "sink");
+    Preconditions.checkArgument(parallelism > 0,
+        "parallelism must be positive");
+    Preconditions.checkArgument(bytesPerSecond >= 0,
+        "bytesPerSecond must not be negative");
+    this.codec = codec;
+    this.source = source;
+    this.sink = sink;
+    this.parallelism = parallelism;
+    this.rateLimiter = bytesPerSecond > 0
+        ? RateLimiter.create(bytesPerSecond) : null;
+  }
+
+  /**
+   * Returns the progress of the running or last rebuild, null before the
+   * first one.
+   */
+  public RebuildProgress getProgress() {
+    return progress;
+  }
+
+  /**
+   * Rebuilds the lost blocks of the given stripes, and returns once all are
+   * done. A stripe which fails to rebuild does not stop the others, it is
+   * reported by {@link RebuildProgress#getFailedStripes}.
+   *
+   * @param stripes The stripes to rebuild
+   * @return The final progress
+   * @throws InterruptedException if interrupted, in which case the stripes
+   *                              being rebuilt are interrupted too
+   */
+  public RebuildProgress rebuild(Collection<LostStripe> stripes)
+      throws InterruptedException {
+    Map<List<Integer>, List<LostStripe>> groups =
+        new LinkedHashMap<List<Integer>, List<LostStripe>>();
+    for (LostStripe stripe : stripes) {
+      List<Integer> key = Ints.asList(stripe.lostBlocks());
+      List<LostStripe> group = groups.get(key);
+      if (group == null) {
+        group = new ArrayList<LostStripe>();
+        groups.put(key, group);
+      }
+      group.add(stripe);
+    }
+
+    final RebuildProgress progress = new RebuildProgress(stripes.size());
+    this.progress = progress;
+    final String prefix = "stripe-rebuilder-"
+        + REBUILDER_ID.incrementAndGet() + "-";
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism,
+        new ThreadFactory() {
+          private final AtomicInteger threadId = new AtomicInteger();
+
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix
+                + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    // Bounds the stripes held in memory, while keeping every thread busy
+    final Semaphore inFlight = new Semaphore(2 * parallelism);
+    try {
+      for (List<LostStripe> group : groups.values()) {
+        int[] lostBlocks = group.get(0).lostBlocks();
+        final DecodePlan plan;
+        try {
+          plan = codec.planDecode(available(lostBlocks), lostBlocks);
+        } catch (RuntimeException e) {
+          // Too many lost blocks, or invalid ids
+          for (LostStripe stripe : group) {
+            progress.stripeFailed(stripe.getStripeId(), e);
+          }
+          continue;
+        }
+        for (final LostStripe stripe : group) {
+          inFlight.acquire();
+          executor.execute(new Runnable() {
+            @Override
+            public void run() {
+              try {
+                rebuildStripe(stripe.getStripeId(), plan, progress);
+              } finally {
+                inFlight.release();
+              }
+            }
+          });
+        }
+      }
+      inFlight.acquire(2 * parallelism);
+    } finally {
+      executor.shutdownNow();
+      progress.finish();
+    }
+    return progress;
+  }
+
+  private int[] available(int[] lostBlocks) {
+    int totalBlockNum = codec.getDataBlockNum() + codec.getCodingBlockNum();
+    List<Integer> available = new ArrayList<Integer>(totalBlockNum);
+    for (int id = 0; id < totalBlockNum; ++id) {
+      if (Ints.indexOf(lostBlocks, id) < 0) {
+        available.add(id);
+      }
+    }
+    return Ints.toArray(available);
+  }
+
+  private void rebuildStripe(long stripeId, DecodePlan plan,
+      RebuildProgress progress) {
+    try {
+      int[] survivors = plan.getSurvivors();
+      byte[][] survivorBlocks = new byte[survivors.length][];
+      // Throttle before reading, then settle the difference once the
+      // actual size is known
+      long expected = survivors.length * blockSize.get();
+      throttle(expected);
+      long bytesRead = 0;
+      for (int i = 0; i < survivors.length; ++i) {
+        survivorBlocks[i] = source.readBlock(stripeId, survivors[i]);
+        bytesRead += survivorBlocks[i].length;
+      }
+      progress.addBytesRead(bytesRead);
+      throttle(bytesRead - expected);
+      blockSize.set(bytesRead / survivors.length);
+
+      byte[][] targetBlocks = codec.decode(plan, survivorBlocks);
+      int[] targets = plan.getTargets();
+      for (int i = 0; i < targets.length; ++i) {
+        sink.writeBlock(stripeId, targets[i], targetBlocks[i]);
+        progress.addBytesWritten(targetBlocks[i].length);
+      }
+      progress.stripeRebuilt();
+    } catch (IOException e) {
+      progress.stripeFailed(stripeId, e);
+    } catch (RuntimeException e) {
+      // e.g. survivors of different sizes
+      progress.stripeFailed(stripeId, e);
+    }
+  }
+
+  private void throttle(long bytes) {
+    if (rateLimiter != null && bytes > 0) {
+      rateLimiter.acquire(Ints.saturatedCast(bytes));
+    }
+  }
+}
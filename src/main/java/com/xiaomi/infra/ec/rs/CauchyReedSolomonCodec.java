@@ -17,12 +17,23 @@
  */
 package com.xiaomi.infra.ec.rs;
 
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.List;
+
 import com.google.common.base.Preconditions;
 import com.sun.jna.Pointer;
 
+import com.xiaomi.infra.ec.CLibrary;
 import com.xiaomi.infra.ec.CodecInterface;
+import com.xiaomi.infra.ec.CodecScratch;
 import com.xiaomi.infra.ec.CodecUtils;
+import com.xiaomi.infra.ec.DecodingMatrixCache;
+import com.xiaomi.infra.ec.JerasureBackends;
 import com.xiaomi.infra.ec.JerasureLibrary;
+import com.xiaomi.infra.ec.NativeSchedule;
+import com.xiaomi.infra.ec.StripeBatch;
+import com.xiaomi.infra.ec.gf.GaloisField;
 
 /**
  * Reed Solomon erasure codec, implemented with Cauchy matrix.
@@ -35,10 +46,63 @@ public class CauchyReedSolomonCodec implements CodecInterface {
   private int packetSize;
   private int[] cauchyBitMatrix;
   private boolean good;
-  private Pointer[] schedulePtrs;
+  private volatile NativeSchedule schedule;
+  private DecodingMatrixCache<DecodingSchedule> decodingCache;
+  /**
+   * Schedules of decodings from survivors, keyed by the non-survivors i and
+   * the targets as k + m + i, so that only the targets are computed.
+   */
+  private DecodingMatrixCache<DecodingSchedule> survivorCache;
+  private final DecodingMatrixCache.Loader<DecodingSchedule> decodingLoader =
+      new DecodingMatrixCache.Loader<DecodingSchedule>() {
+        @Override
+        public DecodingSchedule load(BitSet erased) {
+          return createDecodingSchedule(erased);
+        }
+      };
+
+  /**
+   * The decoding schedule of an erasure set, which computes the erased
+   * blocks as "coding" devices from the first k survivors as "data" devices.
+   * The schedule is null if nothing is erased.
+   */
+  private static class DecodingSchedule {
+    private int[] survivors;
+    private int[] targets;
+    private NativeSchedule schedule;
+
+    private boolean retain() {
+      return schedule == null || schedule.retain();
+    }
+
+    private void release() {
+      if (schedule != null) {
+        schedule.release();
+      }
+    }
+  }
 
   public CauchyReedSolomonCodec(int dataBlockNum, int codingBlockNum,
       int wordSize, int packetSize, boolean good) {
+    this(dataBlockNum, codingBlockNum, wordSize, packetSize, good,
+        DecodingMatrixCache.DEFAULT_CAPACITY);
+  }
+
+  public CauchyReedSolomonCodec(int dataBlockNum, int codingBlockNum,
+      int wordSize, int packetSize, boolean good, int decodingCacheSize) {
+    this(dataBlockNum, codingBlockNum, wordSize, packetSize, good, null,
+        decodingCacheSize);
+  }
+
+  /**
+   * Creates a codec from a precomputed coding bit-matrix, as returned by
+   * {@link #getCodingBitMatrix}, so that no matrix is generated.
+   *
+   * @param codingBitMatrix The coding bit-matrix, null to generate it
+   */
+  public CauchyReedSolomonCodec(int dataBlockNum, int codingBlockNum,
+      int wordSize, int packetSize, boolean good, int[] codingBitMatrix,
+      int decodingCacheSize) {
     Preconditions.checkArgument(dataBlockNum > 0);
     Preconditions.checkArgument(codingBlockNum > 0);
     Preconditions.checkArgument(packetSize > 0);
@@ -53,58 +117,469 @@ public class CauchyReedSolomonCodec implements CodecInterface {
     this.packetSize = packetSize;
     this.good = good;
 
-    int[] matrix;
-    if (good) {
-      matrix = createGoodCauchyMatrix(dataBlockNum,
-          codingBlockNum, wordSize);
+    if (codingBitMatrix != null) {
+      Preconditions.checkArgument(codingBitMatrix.length
+          == dataBlockNum * wordSize * codingBlockNum * wordSize,
+          "codingBitMatrix must have k*w*m*w elements");
+      this.cauchyBitMatrix = codingBitMatrix.clone();
     } else {
-      matrix = createCauchyMatrix(dataBlockNum,
-          codingBlockNum, wordSize);
+      int[] matrix;
+      if (good) {
+        matrix = createGoodCauchyMatrix(dataBlockNum,
+            codingBlockNum, wordSize);
+      } else {
+        matrix = createCauchyMatrix(dataBlockNum,
+            codingBlockNum, wordSize);
+      }
+      this.cauchyBitMatrix = convertToBitMatrix(dataBlockNum,
+          codingBlockNum, wordSize, matrix);
     }
-    this.cauchyBitMatrix = convertToBitMatrix(dataBlockNum,
-        codingBlockNum, wordSize, matrix);
-    this.schedulePtrs = JerasureLibrary.INSTANCE
-        .jerasure_smart_bitmatrix_to_schedule(this.dataBlockNum,
-            this.codingBlockNum, this.wordSize, this.cauchyBitMatrix);
+    this.schedule = NativeSchedule.create(this.dataBlockNum,
+        this.codingBlockNum, this.wordSize, this.cauchyBitMatrix);
+    DecodingMatrixCache.Releaser<DecodingSchedule> releaser =
+        new DecodingMatrixCache.Releaser<DecodingSchedule>() {
+          @Override
+          public void release(DecodingSchedule value) {
+            value.release();
+          }
+        };
+    int totalBlockNum = dataBlockNum + codingBlockNum;
+    this.decodingCache = new DecodingMatrixCache<DecodingSchedule>(
+        decodingCacheSize, totalBlockNum, codingBlockNum, releaser);
+    this.survivorCache = new DecodingMatrixCache<DecodingSchedule>(
+        decodingCacheSize, 2 * totalBlockNum, 2 * codingBlockNum, releaser);
   }
 
   /** {@inheritDoc} */
   @Override
   public byte[][] encode(byte[][] data) {
     Preconditions.checkArgument(data.length > 0);
-    Preconditions.checkArgument(data[0].length % (wordSize * packetSize) == 0,
+    byte[][] coding = new byte[codingBlockNum][data[0].length];
+    encode(data, coding);
+    return coding;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The blocks are staged in the native scratch of the thread.
+   */
+  @Override
+  public void encode(byte[][] data, byte[][] coding) {
+    int size = CodecUtils.checkArrays(data, coding, dataBlockNum,
+        codingBlockNum);
+    Preconditions.checkArgument(size % (wordSize * packetSize) == 0,
+        "data length must be multiple of wordSize * packetSize");
+
+    CodecScratch scratch = CodecScratch.get();
+    Pointer[] dataPtrs = scratch.stage(CodecScratch.DATA, data, true);
+    Pointer[] codingPtrs = scratch.stage(CodecScratch.CODING, coding, false);
+
+    scheduleEncode(dataPtrs, codingPtrs, size);
+    CodecUtils.toByteArray(codingPtrs, coding);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The blocks are staged in the native scratch of the thread.
+   */
+  @Override
+  public void decode(int[] erasures, byte[][]data, byte[][] coding) {
+    int size = CodecUtils.checkArrays(data, coding, dataBlockNum,
+        codingBlockNum);
+
+    CodecScratch scratch = CodecScratch.get();
+    Pointer[] dataPtrs = scratch.stage(CodecScratch.DATA, data, true);
+    Pointer[] codingPtrs = scratch.stage(CodecScratch.CODING, coding, true);
+
+    decode(erasures, dataPtrs, codingPtrs, size);
+    CodecUtils.copyBackDecoded(dataPtrs, codingPtrs, erasures, data, coding);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void encode(ByteBuffer[] data, ByteBuffer[] coding) {
+    int size = CodecUtils.checkBuffers(data, coding, dataBlockNum,
+        codingBlockNum);
+    Preconditions.checkArgument(size % (wordSize * packetSize) == 0,
         "data length must be multiple of wordSize * packetSize");
 
     Pointer[] dataPtrs = CodecUtils.toPointerArray(data);
-    int size = data[0].length;
-    byte[][] coding = new byte[codingBlockNum][size];
     Pointer[] codingPtrs = CodecUtils.toPointerArray(coding);
 
-    JerasureLibrary.INSTANCE.jerasure_schedule_encode(dataBlockNum,
-        codingBlockNum, wordSize, schedulePtrs, dataPtrs, codingPtrs,
-        size, packetSize);
-    CodecUtils.toByteArray(codingPtrs, coding);
-    return coding;
+    scheduleEncode(dataPtrs, codingPtrs, size);
+    CodecUtils.toByteBuffers(codingPtrs, coding);
   }
 
   /** {@inheritDoc} */
   @Override
-  public void decode(int[] erasures, byte[][]data, byte[][] coding) {
-    Preconditions.checkArgument(data.length > 0);
+  public void decode(int[] erasures, ByteBuffer[] data, ByteBuffer[] coding) {
+    int size = CodecUtils.checkBuffers(data, coding, dataBlockNum,
+        codingBlockNum);
 
     Pointer[] dataPtrs = CodecUtils.toPointerArray(data);
     Pointer[] codingPtrs = CodecUtils.toPointerArray(coding);
-    erasures = CodecUtils.adjustErasures(erasures);
-    int size = data[0].length;
-
-    int ret = JerasureLibrary.INSTANCE.jerasure_schedule_decode_lazy(
-        dataBlockNum, codingBlockNum, wordSize, cauchyBitMatrix, erasures,
-        dataPtrs, codingPtrs, size, packetSize, 1);
-    if (ret == 0) {
-      CodecUtils.copyBackDecoded(dataPtrs, codingPtrs, erasures, data, coding);
+
+    decode(erasures, dataPtrs, codingPtrs, size);
+    CodecUtils.copyBackDecoded(dataPtrs, codingPtrs, erasures, data, coding);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<byte[][]> encodeBatch(List<byte[][]> data) {
+    return CodecUtils.encodeBatch(this, data, codingBlockNum);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void encodeBatch(ByteBuffer[][] data, ByteBuffer[][] coding) {
+    for (StripeBatch batch : StripeBatch.create(data, coding, dataBlockNum,
+        codingBlockNum, wordSize * packetSize)) {
+      scheduleEncode(batch.getDataPtrs(), batch.getCodingPtrs(),
+          batch.getSize());
+      batch.copyBackCoding();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void updateParity(int dataIndex, int offset, byte[] oldData,
+      byte[] newData, byte[][] coding) {
+    updateParity(dataIndex, offset, ByteBuffer.wrap(oldData),
+        ByteBuffer.wrap(newData), CodecUtils.wrap(coding));
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The delta is applied packet by packet with the columns of the data
+   * block in the coding bit-matrix, so the range must be aligned to
+   * wordSize * packetSize. Only XORs are needed, which are done in Java.
+   */
+  @Override
+  public void updateParity(int dataIndex, int offset, ByteBuffer oldData,
+      ByteBuffer newData, ByteBuffer[] coding) {
+    int unit = wordSize * packetSize;
+    int length = CodecUtils.checkUpdate(dataIndex, offset, oldData, newData,
+        coding, dataBlockNum, codingBlockNum, unit);
+    byte[] delta = CodecUtils.delta(oldData, newData);
+    int[] codingOffs = new int[codingBlockNum];
+    byte[][] codingArrays = CodecUtils.toArrays(coding, codingOffs);
+    xorColumn(dataIndex, delta, 0, codingArrays, codingOffs, offset, length);
+    CodecUtils.copyBackArrays(codingArrays, coding);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public byte[][] encodePartial(int[] dataIndices, byte[][] data) {
+    Preconditions.checkArgument(data.length > 0);
+    byte[][] coding = new byte[codingBlockNum][data[0].length];
+    encodePartial(dataIndices, CodecUtils.wrap(data),
+        CodecUtils.wrap(coding));
+    return coding;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The block size must be a multiple of wordSize * packetSize.
+   */
+  @Override
+  public void encodePartial(int[] dataIndices, ByteBuffer[] data,
+      ByteBuffer[] coding) {
+    int size = CodecUtils.checkPartial(dataIndices, data, coding,
+        dataBlockNum, codingBlockNum);
+    Preconditions.checkArgument(size % (wordSize * packetSize) == 0,
+        "data length must be multiple of wordSize * packetSize");
+    int[] dataOffs = new int[data.length];
+    byte[][] dataArrays = CodecUtils.toArrays(data, dataOffs);
+    int[] codingOffs = new int[codingBlockNum];
+    byte[][] codingArrays = CodecUtils.toArrays(coding, codingOffs);
+    for (int j = 0; j < dataIndices.length; ++j) {
+      xorColumn(dataIndices[j], dataArrays[j], dataOffs[j], codingArrays,
+          codingOffs, 0, size);
+    }
+    CodecUtils.copyBackArrays(codingArrays, coding);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Any k candidates do, as the code is MDS.
+   */
+  @Override
+  public int[] selectSurvivors(int[] candidates) {
+    return CodecUtils.selectSurvivors(candidates, dataBlockNum);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public byte[][] decode(int[] survivors, byte[][] survivorBlocks,
+      int[] targets) {
+    Preconditions.checkArgument(survivorBlocks.length > 0);
+    byte[][] targetBlocks = new byte[targets.length][survivorBlocks[0].length];
+    decode(survivors, CodecUtils.wrap(survivorBlocks), targets,
+        CodecUtils.wrap(targetBlocks));
+    return targetBlocks;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Only the survivors and the targets are marshalled, and the cached
+   * schedule computes the targets alone.
+   */
+  @Override
+  public void decode(int[] survivors, ByteBuffer[] survivorBlocks,
+      int[] targets, ByteBuffer[] targetBlocks) {
+    int size = CodecUtils.checkSurvivors(survivors, survivorBlocks, targets,
+        targetBlocks, dataBlockNum, codingBlockNum);
+    Preconditions.checkArgument(size % (wordSize * packetSize) == 0,
+        "data length must be multiple of wordSize * packetSize");
+    Preconditions.checkState(this.schedule != null, "Codec is closed");
+    if (targets.length == 0) {
+      return;
+    }
+    int totalBlockNum = dataBlockNum + codingBlockNum;
+    int[] nonSurvivors = CodecUtils.complement(survivors, totalBlockNum);
+    int[] key = new int[nonSurvivors.length + targets.length];
+    System.arraycopy(nonSurvivors, 0, key, 0, nonSurvivors.length);
+    for (int i = 0; i < targets.length; ++i) {
+      key[nonSurvivors.length + i] = totalBlockNum + targets[i];
+    }
+    DecodingSchedule schedule = survivorCache.get(key,
+        new DecodingMatrixCache.Loader<DecodingSchedule>() {
+          @Override
+          public DecodingSchedule load(BitSet erased) {
+            return createSurvivorSchedule(erased);
+          }
+        });
+    if (!schedule.retain()) {
+      schedule = createSurvivorSchedule(toErasedSet(key));
+    }
+
+    Pointer[] survivorPtrs = CodecUtils.toPointerArray(survivorBlocks);
+    Pointer[] targetPtrs = CodecUtils.toPointerArray(targetBlocks);
+    // Devices which are neither survivors nor targets are left null
+    Pointer[] dataPtrs = new Pointer[dataBlockNum];
+    Pointer[] codingPtrs = new Pointer[codingBlockNum];
+    for (int i = 0; i < survivors.length; ++i) {
+      setPointer(survivors[i], survivorPtrs[i], dataPtrs, codingPtrs);
+    }
+    for (int i = 0; i < targets.length; ++i) {
+      setPointer(targets[i], targetPtrs[i], dataPtrs, codingPtrs);
+    }
+    try {
+      decode(schedule, dataPtrs, codingPtrs, size);
+    } finally {
+      schedule.release();
+    }
+    CodecUtils.toByteBuffers(targetPtrs, targetBlocks);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public synchronized void close() {
+    if (schedule != null) {
+      schedule.release();
+      schedule = null;
+      decodingCache.clear();
+      survivorCache.clear();
+    }
+  }
+
+  /**
+   * Returns a copy of the coding bit-matrix, which can be passed back to the
+   * constructor to skip generating it.
+   */
+  public int[] getCodingBitMatrix() {
+    return cauchyBitMatrix.clone();
+  }
+
+  /**
+   * Returns the cache of decoding schedules.
+   */
+  public DecodingMatrixCache<?> getDecodingCache() {
+    return decodingCache;
+  }
+
+  /**
+   * Decodes with the cached decoding schedule of the erasure set, so that
+   * only the scheduled XORs are done in native code.
+   */
+  private void decode(int[] erasures, Pointer[] dataPtrs, Pointer[] codingPtrs,
+      int size) {
+    Preconditions.checkArgument(size % (wordSize * packetSize) == 0,
+        "data length must be multiple of wordSize * packetSize");
+    Preconditions.checkState(this.schedule != null, "Codec is closed");
+    DecodingSchedule schedule = decodingCache.get(erasures, decodingLoader);
+    if (schedule.targets.length == 0) {
+      return;
+    }
+    if (!schedule.retain()) {
+      // Evicted and freed since it was looked up, build a private one
+      schedule = createDecodingSchedule(toErasedSet(erasures));
+    }
+    try {
+      decode(schedule, dataPtrs, codingPtrs, size);
+    } finally {
+      schedule.release();
+    }
+  }
+
+  private void decode(DecodingSchedule schedule, Pointer[] dataPtrs,
+      Pointer[] codingPtrs, int size) {
+    CodecScratch scratch = CodecScratch.get();
+    Pointer[] survivorPtrs = scratch.pointers(CodecScratch.SURVIVORS,
+        dataBlockNum);
+    for (int i = 0; i < dataBlockNum; ++i) {
+      survivorPtrs[i] = pointerOf(schedule.survivors[i], dataPtrs, codingPtrs);
+    }
+    Pointer[] targetPtrs = scratch.pointers(CodecScratch.TARGETS,
+        schedule.targets.length);
+    for (int i = 0; i < targetPtrs.length; ++i) {
+      targetPtrs[i] = pointerOf(schedule.targets[i], dataPtrs, codingPtrs);
+    }
+    JerasureBackends.get().scheduleEncode(dataBlockNum, targetPtrs.length,
+        wordSize, schedule.schedule, survivorPtrs, targetPtrs, size,
+        packetSize);
+  }
+
+  /**
+   * Encodes with the coding schedule, holding a reference so that a
+   * concurrent close does not free it during the native call.
+   */
+  private void scheduleEncode(Pointer[] dataPtrs, Pointer[] codingPtrs,
+      int size) {
+    NativeSchedule current = schedule;
+    Preconditions.checkState(current != null && current.retain(),
+        "Codec is closed");
+    try {
+      JerasureBackends.get().scheduleEncode(dataBlockNum, codingBlockNum,
+          wordSize, current, dataPtrs, codingPtrs, size, packetSize);
+    } finally {
+      current.release();
+    }
+  }
+
+  private BitSet toErasedSet(int[] erasures) {
+    BitSet erased = new BitSet(dataBlockNum + codingBlockNum);
+    for (int erasure : erasures) {
+      erased.set(erasure);
+    }
+    return erased;
+  }
+
+  /**
+   * XORs len bytes of src, multiplied by the columns of data block dataIndex
+   * in the coding bit-matrix, into the coding blocks starting at offset.
+   */
+  private void xorColumn(int dataIndex, byte[] src, int srcOff,
+      byte[][] coding, int[] codingOffs, int offset, int len) {
+    int unit = wordSize * packetSize;
+    int kw = dataBlockNum * wordSize;
+    for (int i = 0; i < codingBlockNum; ++i) {
+      for (int r = 0; r < wordSize; ++r) {
+        int row = (i * wordSize + r) * kw + dataIndex * wordSize;
+        for (int c = 0; c < wordSize; ++c) {
+          if (cauchyBitMatrix[row + c] == 0) {
+            continue;
+          }
+          // Packet r of every coding group gets packet c of the source group
+          for (int base = 0; base < len; base += unit) {
+            GaloisField.xorRegion(src, srcOff + base + c * packetSize,
+                coding[i], codingOffs[i] + offset + base + r * packetSize,
+                packetSize);
+          }
+        }
+      }
+    }
+  }
+
+  private void setPointer(int id, Pointer ptr, Pointer[] dataPtrs,
+      Pointer[] codingPtrs) {
+    if (id < dataBlockNum) {
+      dataPtrs[id] = ptr;
     } else {
+      codingPtrs[id - dataBlockNum] = ptr;
+    }
+  }
+
+  private Pointer pointerOf(int id, Pointer[] dataPtrs, Pointer[] codingPtrs) {
+    return id < dataBlockNum ? dataPtrs[id] : codingPtrs[id - dataBlockNum];
+  }
+
+  /**
+   * Creates the schedule which computes all the erased blocks from the first
+   * k survivors.
+   */
+  private DecodingSchedule createDecodingSchedule(BitSet erased) {
+    return createDecodingSchedule(erased, erased);
+  }
+
+  /**
+   * Creates the schedule of a decoding from survivors, whose key holds the
+   * non-survivors and the targets offset by k + m.
+   */
+  private DecodingSchedule createSurvivorSchedule(BitSet key) {
+    int totalBlockNum = dataBlockNum + codingBlockNum;
+    return createDecodingSchedule(key.get(0, totalBlockNum),
+        key.get(totalBlockNum, 2 * totalBlockNum));
+  }
+
+  /**
+   * Creates the schedule which computes the targets, a subset of the erased
+   * blocks, from the first k survivors. Rows of data targets are taken from
+   * the decoding bit-matrix, and rows of coding targets are their coding
+   * rows multiplied by the decoding bit-matrix over GF(2).
+   */
+  private DecodingSchedule createDecodingSchedule(BitSet erased,
+      BitSet targets) {
+    int kw = dataBlockNum * wordSize;
+    int[] erasedFlags = new int[dataBlockNum + codingBlockNum];
+    for (int i = erased.nextSetBit(0); i >= 0; i = erased.nextSetBit(i + 1)) {
+      erasedFlags[i] = 1;
+    }
+    int[] decodingBitMatrix = new int[kw * kw];
+    DecodingSchedule schedule = new DecodingSchedule();
+    schedule.survivors = new int[dataBlockNum];
+    int ret = JerasureLibrary.INSTANCE.jerasure_make_decoding_bitmatrix(
+        dataBlockNum, codingBlockNum, wordSize, cauchyBitMatrix, erasedFlags,
+        decodingBitMatrix, schedule.survivors);
+    if (ret != 0) {
       throw new RuntimeException("Decode fail, return_code=" + ret);
     }
+
+    schedule.targets = new int[targets.cardinality()];
+    int[] targetBitMatrix = new int[schedule.targets.length * wordSize * kw];
+    int t = 0;
+    for (int i = targets.nextSetBit(0); i >= 0; i = targets.nextSetBit(i + 1)) {
+      schedule.targets[t] = i;
+      int targetOff = t * wordSize * kw;
+      if (i < dataBlockNum) {
+        System.arraycopy(decodingBitMatrix, i * wordSize * kw,
+            targetBitMatrix, targetOff, wordSize * kw);
+      } else {
+        int codingOff = (i - dataBlockNum) * wordSize * kw;
+        for (int r = 0; r < wordSize; ++r) {
+          for (int x = 0; x < kw; ++x) {
+            if (cauchyBitMatrix[codingOff + r * kw + x] != 0) {
+              for (int c = 0; c < kw; ++c) {
+                targetBitMatrix[targetOff + r * kw + c] ^=
+                    decodingBitMatrix[x * kw + c];
+              }
+            }
+          }
+        }
+      }
+      ++t;
+    }
+    if (t > 0) {
+      schedule.schedule = NativeSchedule.create(dataBlockNum, t, wordSize,
+          targetBitMatrix);
+    }
+    return schedule;
   }
 
   /**
@@ -118,7 +593,11 @@ public class CauchyReedSolomonCodec implements CodecInterface {
   int[] createCauchyMatrix(int k, int m , int w) {
     Pointer matrix = JerasureLibrary.INSTANCE
         .cauchy_original_coding_matrix(k, m, w);
-    return matrix.getIntArray(0, k * m);
+    try {
+      return matrix.getIntArray(0, k * m);
+    } finally {
+      CLibrary.INSTANCE.free(matrix);
+    }
   }
 
   /**
@@ -132,7 +611,11 @@ public class CauchyReedSolomonCodec implements CodecInterface {
   int[] createGoodCauchyMatrix(int k, int m , int w) {
     Pointer matrix = JerasureLibrary.INSTANCE
         .cauchy_good_general_coding_matrix(k, m, w);
-    return matrix.getIntArray(0, k * m);
+    try {
+      return matrix.getIntArray(0, k * m);
+    } finally {
+      CLibrary.INSTANCE.free(matrix);
+    }
   }
 
   /**
@@ -147,6 +630,10 @@ public class CauchyReedSolomonCodec implements CodecInterface {
   int[] convertToBitMatrix(int k, int m, int w, int[] matrix) {
     Pointer bit_matrix = JerasureLibrary.INSTANCE.jerasure_matrix_to_bitmatrix(
         k, m, w, matrix);
-    return bit_matrix.getIntArray(0, k * w * m * w);
+    try {
+      return bit_matrix.getIntArray(0, k * w * m * w);
+    } finally {
+      CLibrary.INSTANCE.free(bit_matrix);
+    }
   }
 }
@@ -0,0 +1,469 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.rs;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+
+import com.xiaomi.infra.ec.CodecInterface;
+import com.xiaomi.infra.ec.CodecScratch;
+import com.xiaomi.infra.ec.CodecUtils;
+import com.xiaomi.infra.ec.DecodingMatrixCache;
+import com.xiaomi.infra.ec.gf.GaloisField;
+import com.xiaomi.infra.ec.gf.GaloisKernel;
+import com.xiaomi.infra.ec.gf.GaloisKernels;
+import com.xiaomi.infra.ec.gf.GaloisMatrix;
+
+/**
+ * Reed Solomon erasure codec over GF(2^8) implemented in pure Java. It uses
+ * the same Vandermonde matrix as {@link ReedSolomonCodec} with wordSize 8, so
+ * the coding blocks of the two codecs are byte identical, but it needs no
+ * native library and pays no JNA marshalling cost. The region arithmetic is
+ * done by a {@link GaloisKernel}, either table driven scalar code or SIMD.
+ */
+public class JavaReedSolomonCodec implements CodecInterface {
+
+  private int dataBlockNum;
+  private int codingBlockNum;
+  /** The m x k coding matrix, Vandermonde unless given by a subclass. */
+  private int[] codingMatrix;
+  private GaloisKernel kernel;
+  private DecodingMatrixCache<DecodingMatrix> decodingCache;
+  private final DecodingMatrixCache.Loader<DecodingMatrix> decodingLoader =
+      new DecodingMatrixCache.Loader<DecodingMatrix>() {
+        @Override
+        public DecodingMatrix load(BitSet erased) {
+          return createDecodingMatrix(erased);
+        }
+      };
+  /** The offsets of array blocks, which are never written. */
+  private int[] zeroDataOffs;
+  private int[] zeroCodingOffs;
+
+  /**
+   * The decoding matrix of an erasure set, which recovers the erased data
+   * blocks from the first k survivors.
+   */
+  private static class DecodingMatrix {
+    private int[] survivors;
+    private int[] matrix;
+  }
+
+  public JavaReedSolomonCodec(int dataBlockNum, int codingBlockNum,
+      int wordSize) {
+    this(dataBlockNum, codingBlockNum, wordSize, GaloisKernels.scalar(),
+        DecodingMatrixCache.DEFAULT_CAPACITY);
+  }
+
+  public JavaReedSolomonCodec(int dataBlockNum, int codingBlockNum,
+      int wordSize, GaloisKernel kernel, int decodingCacheSize) {
+    this(dataBlockNum, codingBlockNum, createVandermondeMatrix(dataBlockNum,
+        codingBlockNum, wordSize), kernel, decodingCacheSize);
+  }
+
+  /**
+   * Creates a codec over GF(2^8) with another m x k coding matrix, for codes
+   * which only differ from Reed Solomon by their matrix.
+   */
+  protected JavaReedSolomonCodec(int dataBlockNum, int codingBlockNum,
+      int[] codingMatrix, GaloisKernel kernel, int decodingCacheSize) {
+    Preconditions.checkArgument(
+        codingMatrix.length == dataBlockNum * codingBlockNum,
+        "codingMatrix must have k*m elements");
+    this.dataBlockNum = dataBlockNum;
+    this.codingBlockNum = codingBlockNum;
+    this.kernel = kernel;
+    this.decodingCache = new DecodingMatrixCache<DecodingMatrix>(
+        decodingCacheSize, dataBlockNum + codingBlockNum, codingBlockNum);
+    this.codingMatrix = codingMatrix;
+    this.zeroDataOffs = new int[dataBlockNum];
+    this.zeroCodingOffs = new int[codingBlockNum];
+  }
+
+  /**
+   * Checks the geometry, and creates the Vandermonde matrix.
+   */
+  private static int[] createVandermondeMatrix(int dataBlockNum,
+      int codingBlockNum, int wordSize) {
+    Preconditions.checkArgument(dataBlockNum > 0);
+    Preconditions.checkArgument(codingBlockNum > 0);
+    Preconditions.checkArgument(wordSize == 8, "wordSize must be 8");
+    Preconditions.checkArgument((dataBlockNum + codingBlockNum) < (1<<wordSize),
+        "dataBlocksNum + codingBlocksNum is larger than 2^wordSize");
+    return GaloisMatrix.createVandermondeMatrix(dataBlockNum, codingBlockNum);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public byte[][] encode(byte[][] data) {
+    Preconditions.checkArgument(data.length == dataBlockNum,
+        "data must have " + dataBlockNum + " blocks");
+
+    byte[][] coding = new byte[codingBlockNum][data[0].length];
+    encode(data, coding);
+    return coding;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void encode(byte[][] data, byte[][] coding) {
+    int size = CodecUtils.checkArrays(data, coding, dataBlockNum,
+        codingBlockNum);
+    encode(data, zeroDataOffs, coding, zeroCodingOffs, size);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void decode(int[] erasures, byte[][] data, byte[][] coding) {
+    int size = CodecUtils.checkArrays(data, coding, dataBlockNum,
+        codingBlockNum);
+    decode(erasures, data, zeroDataOffs, coding, zeroCodingOffs, size);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void encode(ByteBuffer[] data, ByteBuffer[] coding) {
+    int size = CodecUtils.checkBuffers(data, coding, dataBlockNum,
+        codingBlockNum);
+
+    int[] dataOffs = new int[dataBlockNum];
+    int[] codingOffs = new int[codingBlockNum];
+    byte[][] dataArrays = CodecUtils.toArrays(data, dataOffs);
+    byte[][] codingArrays = CodecUtils.toArrays(coding, codingOffs);
+    encode(dataArrays, dataOffs, codingArrays, codingOffs, size);
+    CodecUtils.copyBackArrays(codingArrays, coding);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void decode(int[] erasures, ByteBuffer[] data, ByteBuffer[] coding) {
+    int size = CodecUtils.checkBuffers(data, coding, dataBlockNum,
+        codingBlockNum);
+
+    int[] dataOffs = new int[dataBlockNum];
+    int[] codingOffs = new int[codingBlockNum];
+    byte[][] dataArrays = CodecUtils.toArrays(data, dataOffs);
+    byte[][] codingArrays = CodecUtils.toArrays(coding, codingOffs);
+    decode(erasures, dataArrays, dataOffs, codingArrays, codingOffs, size);
+    CodecUtils.copyBackArrays(dataArrays, data);
+    CodecUtils.copyBackArrays(codingArrays, coding);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<byte[][]> encodeBatch(List<byte[][]> data) {
+    return CodecUtils.encodeBatch(this, data, codingBlockNum);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void encodeBatch(ByteBuffer[][] data, ByteBuffer[][] coding) {
+    // There is no native call to amortize, so every stripe is encoded in
+    // place
+    Preconditions.checkArgument(data.length == coding.length,
+        "data and coding must have the same number of stripes");
+    for (int s = 0; s < data.length; ++s) {
+      encode(data[s], coding[s]);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void updateParity(int dataIndex, int offset, byte[] oldData,
+      byte[] newData, byte[][] coding) {
+    updateParity(dataIndex, offset, ByteBuffer.wrap(oldData),
+        ByteBuffer.wrap(newData), CodecUtils.wrap(coding));
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The delta is multiplied by column dataIndex of the coding matrix.
+   */
+  @Override
+  public void updateParity(int dataIndex, int offset, ByteBuffer oldData,
+      ByteBuffer newData, ByteBuffer[] coding) {
+    int length = CodecUtils.checkUpdate(dataIndex, offset, oldData, newData,
+        coding, dataBlockNum, codingBlockNum, 1);
+    byte[] delta = CodecUtils.delta(oldData, newData);
+    int[] codingOffs = new int[codingBlockNum];
+    byte[][] codingArrays = CodecUtils.toArrays(coding, codingOffs);
+    multiplyColumn(dataIndex, delta, 0, codingArrays, codingOffs, offset,
+        length);
+    CodecUtils.copyBackArrays(codingArrays, coding);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public byte[][] encodePartial(int[] dataIndices, byte[][] data) {
+    Preconditions.checkArgument(data.length > 0);
+    byte[][] coding = new byte[codingBlockNum][data[0].length];
+    encodePartial(dataIndices, CodecUtils.wrap(data),
+        CodecUtils.wrap(coding));
+    return coding;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void encodePartial(int[] dataIndices, ByteBuffer[] data,
+      ByteBuffer[] coding) {
+    int size = CodecUtils.checkPartial(dataIndices, data, coding,
+        dataBlockNum, codingBlockNum);
+    int[] dataOffs = new int[data.length];
+    byte[][] dataArrays = CodecUtils.toArrays(data, dataOffs);
+    int[] codingOffs = new int[codingBlockNum];
+    byte[][] codingArrays = CodecUtils.toArrays(coding, codingOffs);
+    for (int j = 0; j < dataIndices.length; ++j) {
+      multiplyColumn(dataIndices[j], dataArrays[j], dataOffs[j],
+          codingArrays, codingOffs, 0, size);
+    }
+    CodecUtils.copyBackArrays(codingArrays, coding);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Any k candidates do, as the code is MDS.
+   */
+  @Override
+  public int[] selectSurvivors(int[] candidates) {
+    return CodecUtils.selectSurvivors(candidates, dataBlockNum);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public byte[][] decode(int[] survivors, byte[][] survivorBlocks,
+      int[] targets) {
+    Preconditions.checkArgument(survivorBlocks.length > 0);
+    byte[][] targetBlocks = new byte[targets.length][survivorBlocks[0].length];
+    decode(survivors, CodecUtils.wrap(survivorBlocks), targets,
+        CodecUtils.wrap(targetBlocks));
+    return targetBlocks;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Every target is a single dot product over the survivors, the rows of
+   * coding targets being their coding rows multiplied by the decoding
+   * matrix.
+   */
+  @Override
+  public void decode(int[] survivors, ByteBuffer[] survivorBlocks,
+      int[] targets, ByteBuffer[] targetBlocks) {
+    int size = CodecUtils.checkSurvivors(survivors, survivorBlocks, targets,
+        targetBlocks, dataBlockNum, codingBlockNum);
+    DecodingMatrix decodingMatrix = getDecodingMatrix(
+        CodecUtils.complement(survivors, dataBlockNum + codingBlockNum));
+
+    int[] survivorOffs = new int[dataBlockNum];
+    byte[][] survivorArrays = CodecUtils.toArrays(survivorBlocks,
+        survivorOffs);
+    int[] positions = new int[dataBlockNum + codingBlockNum];
+    for (int i = 0; i < dataBlockNum; ++i) {
+      positions[survivors[i]] = i;
+    }
+    // Order the survivors as the columns of the decoding matrix, which are
+    // the data blocks when none of them is erased
+    byte[][] srcs = new byte[dataBlockNum][];
+    int[] srcOffs = new int[dataBlockNum];
+    for (int j = 0; j < dataBlockNum; ++j) {
+      int id = decodingMatrix.matrix == null ? j
+          : decodingMatrix.survivors[j];
+      srcs[j] = survivorArrays[positions[id]];
+      srcOffs[j] = survivorOffs[positions[id]];
+    }
+
+    int[] targetOffs = new int[targets.length];
+    byte[][] targetArrays = CodecUtils.toArrays(targetBlocks, targetOffs);
+    for (int t = 0; t < targets.length; ++t) {
+      if (targets[t] < dataBlockNum) {
+        dotProduct(decodingMatrix.matrix, targets[t] * dataBlockNum, srcs,
+            srcOffs, targetArrays[t], targetOffs[t], size);
+      } else {
+        int[] row = recoveryRow(targets[t] - dataBlockNum,
+            decodingMatrix.matrix);
+        dotProduct(row, 0, srcs, srcOffs, targetArrays[t], targetOffs[t],
+            size);
+      }
+    }
+    CodecUtils.copyBackArrays(targetArrays, targetBlocks);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void close() {
+    // Nothing is held in native memory, only the cache is dropped
+    decodingCache.clear();
+  }
+
+  /**
+   * Returns the cache of decoding matrices.
+   */
+  public DecodingMatrixCache<?> getDecodingCache() {
+    return decodingCache;
+  }
+
+  /**
+   * Returns the m x k coding matrix.
+   */
+  public int[] getCodingMatrix() {
+    return codingMatrix.clone();
+  }
+
+  /**
+   * XORs the product of len bytes of src and column dataIndex of the coding
+   * matrix into the coding blocks, starting at offset.
+   */
+  private void multiplyColumn(int dataIndex, byte[] src, int srcOff,
+      byte[][] coding, int[] codingOffs, int offset, int len) {
+    for (int i = 0; i < codingBlockNum; ++i) {
+      kernel.multiplyRegion(codingMatrix[i * dataBlockNum + dataIndex],
+          src, srcOff, coding[i], codingOffs[i] + offset, len, true);
+    }
+  }
+
+  /**
+   * Returns the row of coding block i over the survivors of a decoding
+   * matrix, or its coding row if no data block is erased.
+   */
+  private int[] recoveryRow(int i, int[] decodingMatrix) {
+    int[] row = new int[dataBlockNum];
+    for (int x = 0; x < dataBlockNum; ++x) {
+      int coefficient = codingMatrix[i * dataBlockNum + x];
+      if (coefficient == 0) {
+        continue;
+      }
+      if (decodingMatrix == null) {
+        row[x] = coefficient;
+        continue;
+      }
+      for (int j = 0; j < dataBlockNum; ++j) {
+        row[j] ^= GaloisField.multiply(coefficient,
+            decodingMatrix[x * dataBlockNum + j]);
+      }
+    }
+    return row;
+  }
+
+  private void encode(byte[][] data, int[] dataOffs, byte[][] coding,
+      int[] codingOffs, int size) {
+    for (int i = 0; i < codingBlockNum; ++i) {
+      dotProduct(codingMatrix, i * dataBlockNum, data, dataOffs,
+          coding[i], codingOffs[i], size);
+    }
+  }
+
+  private void decode(int[] erasures, byte[][] data, int[] dataOffs,
+      byte[][] coding, int[] codingOffs, int size) {
+    DecodingMatrix decodingMatrix = getDecodingMatrix(erasures);
+    if (decodingMatrix.matrix != null) {
+      // Recover the data blocks from the first k survivors
+      CodecScratch scratch = CodecScratch.get();
+      byte[][] srcs = scratch.arrays(CodecScratch.SURVIVORS, dataBlockNum);
+      int[] srcOffs = scratch.ints(CodecScratch.SURVIVORS, dataBlockNum);
+      for (int j = 0; j < dataBlockNum; ++j) {
+        int id = decodingMatrix.survivors[j];
+        if (id < dataBlockNum) {
+          srcs[j] = data[id];
+          srcOffs[j] = dataOffs[id];
+        } else {
+          srcs[j] = coding[id - dataBlockNum];
+          srcOffs[j] = codingOffs[id - dataBlockNum];
+        }
+      }
+      for (int erasure : erasures) {
+        if (erasure < dataBlockNum) {
+          dotProduct(decodingMatrix.matrix, erasure * dataBlockNum, srcs,
+              srcOffs, data[erasure], dataOffs[erasure], size);
+        }
+      }
+      // Do not keep the caller's blocks reachable from the scratch
+      Arrays.fill(srcs, null);
+    }
+
+    // Re-encode the erased coding blocks
+    for (int erasure : erasures) {
+      if (erasure >= dataBlockNum) {
+        int i = erasure - dataBlockNum;
+        dotProduct(codingMatrix, i * dataBlockNum, data, dataOffs,
+            coding[i], codingOffs[i], size);
+      }
+    }
+  }
+
+  private DecodingMatrix getDecodingMatrix(int[] erasures) {
+    return decodingCache.get(erasures, decodingLoader);
+  }
+
+  private DecodingMatrix createDecodingMatrix(BitSet erased) {
+    DecodingMatrix decodingMatrix = new DecodingMatrix();
+    int firstErased = erased.nextSetBit(0);
+    if (firstErased >= 0 && firstErased < dataBlockNum) {
+      decodingMatrix.survivors = selectSurvivors(erased);
+      if (decodingMatrix.survivors == null) {
+        throw new RuntimeException("Decode fail, unrecoverable erasures: "
+            + erased);
+      }
+      decodingMatrix.matrix = GaloisMatrix.createDecodingMatrix(dataBlockNum,
+          codingMatrix, decodingMatrix.survivors);
+    }
+    return decodingMatrix;
+  }
+
+  /**
+   * Selects the k surviving blocks the erased data blocks are recovered
+   * from, preferring the lower block ids.
+   *
+   * @param erased The erased block ids, which must not be modified
+   * @return The survivor ids, or null if the erasures are unrecoverable
+   */
+  protected int[] selectSurvivors(BitSet erased) {
+    int totalBlockNum = dataBlockNum + codingBlockNum;
+    int[] candidates = new int[totalBlockNum - erased.cardinality()];
+    for (int i = 0, j = 0; i < totalBlockNum; ++i) {
+      if (!erased.get(i)) {
+        candidates[j++] = i;
+      }
+    }
+    return selectSurvivors(candidates);
+  }
+
+  /**
+   * Computes the dot product of a matrix row and the source blocks into dst.
+   */
+  private void dotProduct(int[] matrix, int rowOff, byte[][] srcs,
+      int[] srcOffs, byte[] dst, int dstOff, int size) {
+    boolean init = false;
+    for (int j = 0; j < dataBlockNum; ++j) {
+      int multiplier = matrix[rowOff + j];
+      if (multiplier != 0) {
+        kernel.multiplyRegion(multiplier, srcs[j], srcOffs[j], dst, dstOff,
+            size, init);
+        init = true;
+      }
+    }
+    if (!init) {
+      kernel.multiplyRegion(0, dst, dstOff, dst, dstOff, size, false);
+    }
+  }
+}
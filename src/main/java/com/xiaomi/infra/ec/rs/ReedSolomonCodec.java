@@ -17,12 +17,24 @@
  */
 package com.xiaomi.infra.ec.rs;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
 import com.google.common.base.Preconditions;
+import com.google.common.primitives.Ints;
 import com.sun.jna.Pointer;
 
+import com.xiaomi.infra.ec.CLibrary;
 import com.xiaomi.infra.ec.CodecInterface;
+import com.xiaomi.infra.ec.CodecScratch;
 import com.xiaomi.infra.ec.CodecUtils;
+import com.xiaomi.infra.ec.DecodingMatrixCache;
+import com.xiaomi.infra.ec.JerasureBackends;
 import com.xiaomi.infra.ec.JerasureLibrary;
+import com.xiaomi.infra.ec.JerasureMatrix;
+import com.xiaomi.infra.ec.StripeBatch;
 
 /**
  * Normal Reed Solomon erasure codec, implemented with Vandermonde matrix.
@@ -33,8 +45,53 @@ public class ReedSolomonCodec implements CodecInterface {
   private int codingBlockNum;
   private int wordSize;
   private int[] vandermondeMatrix;
+  /** The Vandermonde matrix, bound once by the native backend. */
+  private JerasureMatrix nativeMatrix;
+  private DecodingMatrixCache<DecodingMatrix> decodingCache;
+  private final DecodingMatrixCache.Loader<DecodingMatrix> decodingLoader =
+      new DecodingMatrixCache.Loader<DecodingMatrix>() {
+        @Override
+        public DecodingMatrix load(BitSet erased) {
+          return createDecodingMatrix(erased);
+        }
+      };
+
+  /**
+   * The decoding matrix of an erasure set. Row i recovers block i, from the
+   * surviving blocks if i is a data block, or from the data blocks if i is a
+   * coding block. Rows of blocks which are not erased are null.
+   */
+  private static class DecodingMatrix {
+    private int[] survivors;
+    private int[][] rows;
+    /** The survivors and rows, bound once by the native backend. */
+    private JerasureMatrix nativeSurvivors;
+    private JerasureMatrix[] nativeRows;
+    /**
+     * Rows of the erased coding blocks over the survivors, built by the
+     * first decoding from survivors which needs them.
+     */
+    private volatile JerasureMatrix[] recoveryRows;
+  }
 
   public ReedSolomonCodec(int dataBlockNum, int codingBlockNum, int wordSize) {
+    this(dataBlockNum, codingBlockNum, wordSize,
+        DecodingMatrixCache.DEFAULT_CAPACITY);
+  }
+
+  public ReedSolomonCodec(int dataBlockNum, int codingBlockNum, int wordSize,
+      int decodingCacheSize) {
+    this(dataBlockNum, codingBlockNum, wordSize, null, decodingCacheSize);
+  }
+
+  /**
+   * Creates a codec from a precomputed coding matrix, as returned by
+   * {@link #getCodingMatrix}, so that no matrix is generated.
+   *
+   * @param codingMatrix The m x k coding matrix, null to generate it
+   */
+  public ReedSolomonCodec(int dataBlockNum, int codingBlockNum, int wordSize,
+      int[] codingMatrix, int decodingCacheSize) {
     Preconditions.checkArgument(dataBlockNum > 0);
     Preconditions.checkArgument(codingBlockNum > 0);
     Preconditions.checkArgument(wordSize == 8 || wordSize == 16 ||
@@ -45,44 +102,398 @@ public class ReedSolomonCodec implements CodecInterface {
     this.dataBlockNum = dataBlockNum;
     this.codingBlockNum = codingBlockNum;
     this.wordSize = wordSize;
-    this.vandermondeMatrix = createVandermondeMatrix(this.dataBlockNum,
-        this.codingBlockNum, this.wordSize);
+    if (codingMatrix != null) {
+      Preconditions.checkArgument(
+          codingMatrix.length == dataBlockNum * codingBlockNum,
+          "codingMatrix must have k*m elements");
+      this.vandermondeMatrix = codingMatrix.clone();
+    } else {
+      this.vandermondeMatrix = createVandermondeMatrix(this.dataBlockNum,
+          this.codingBlockNum, this.wordSize);
+    }
+    this.nativeMatrix = new JerasureMatrix(vandermondeMatrix);
+    this.decodingCache = new DecodingMatrixCache<DecodingMatrix>(
+        decodingCacheSize, dataBlockNum + codingBlockNum, codingBlockNum);
   }
 
   /** {@inheritDoc} */
   @Override
   public byte[][] encode(byte[][] data) {
     Preconditions.checkArgument(data.length > 0);
+    byte[][] coding = new byte[codingBlockNum][data[0].length];
+    encode(data, coding);
+    return coding;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The blocks are staged in the native scratch of the thread.
+   */
+  @Override
+  public void encode(byte[][] data, byte[][] coding) {
+    int size = CodecUtils.checkArrays(data, coding, dataBlockNum,
+        codingBlockNum);
+
+    CodecScratch scratch = CodecScratch.get();
+    Pointer[] dataPtrs = scratch.stage(CodecScratch.DATA, data, true);
+    Pointer[] codingPtrs = scratch.stage(CodecScratch.CODING, coding, false);
+
+    JerasureBackends.get().matrixEncode(dataBlockNum,
+        codingBlockNum, wordSize, nativeMatrix, dataPtrs, codingPtrs, size);
+    CodecUtils.toByteArray(codingPtrs, coding);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The blocks are staged in the native scratch of the thread.
+   */
+  @Override
+  public void decode(int[] erasures, byte[][]data, byte[][] coding) {
+    int size = CodecUtils.checkArrays(data, coding, dataBlockNum,
+        codingBlockNum);
+
+    CodecScratch scratch = CodecScratch.get();
+    Pointer[] dataPtrs = scratch.stage(CodecScratch.DATA, data, true);
+    Pointer[] codingPtrs = scratch.stage(CodecScratch.CODING, coding, true);
+
+    decode(erasures, dataPtrs, codingPtrs, size);
+    CodecUtils.copyBackDecoded(dataPtrs, codingPtrs, erasures, data, coding);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void encode(ByteBuffer[] data, ByteBuffer[] coding) {
+    int size = CodecUtils.checkBuffers(data, coding, dataBlockNum,
+        codingBlockNum);
 
     Pointer[] dataPtrs = CodecUtils.toPointerArray(data);
-    int size = data[0].length;
-    byte[][] coding = new byte[codingBlockNum][size];
     Pointer[] codingPtrs = CodecUtils.toPointerArray(coding);
 
-    JerasureLibrary.INSTANCE.jerasure_matrix_encode(dataBlockNum,
-        codingBlockNum, wordSize, vandermondeMatrix, dataPtrs, codingPtrs, size);
-    CodecUtils.toByteArray(codingPtrs, coding);
-    return coding;
+    JerasureBackends.get().matrixEncode(dataBlockNum,
+        codingBlockNum, wordSize, nativeMatrix, dataPtrs, codingPtrs, size);
+    CodecUtils.toByteBuffers(codingPtrs, coding);
   }
 
   /** {@inheritDoc} */
   @Override
-  public void decode(int[] erasures, byte[][]data, byte[][] coding) {
+  public void decode(int[] erasures, ByteBuffer[] data, ByteBuffer[] coding) {
+    int size = CodecUtils.checkBuffers(data, coding, dataBlockNum,
+        codingBlockNum);
+
+    Pointer[] dataPtrs = CodecUtils.toPointerArray(data);
+    Pointer[] codingPtrs = CodecUtils.toPointerArray(coding);
+
+    decode(erasures, dataPtrs, codingPtrs, size);
+    CodecUtils.copyBackDecoded(dataPtrs, codingPtrs, erasures, data, coding);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<byte[][]> encodeBatch(List<byte[][]> data) {
+    return CodecUtils.encodeBatch(this, data, codingBlockNum);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void encodeBatch(ByteBuffer[][] data, ByteBuffer[][] coding) {
+    for (StripeBatch batch : StripeBatch.create(data, coding, dataBlockNum,
+        codingBlockNum, 1)) {
+      JerasureBackends.get().matrixEncode(dataBlockNum,
+          codingBlockNum, wordSize, nativeMatrix, batch.getDataPtrs(),
+          batch.getCodingPtrs(), batch.getSize());
+      batch.copyBackCoding();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void updateParity(int dataIndex, int offset, byte[] oldData,
+      byte[] newData, byte[][] coding) {
+    updateParity(dataIndex, offset, ByteBuffer.wrap(oldData),
+        ByteBuffer.wrap(newData), CodecUtils.wrap(coding));
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The delta is multiplied by column dataIndex of the Vandermonde matrix
+   * with the region multiply of Jerasure's galois library. Only the updated
+   * range of the heap coding blocks is staged, in the scratch of the thread
+   * together with the delta.
+   */
+  @Override
+  public void updateParity(int dataIndex, int offset, ByteBuffer oldData,
+      ByteBuffer newData, ByteBuffer[] coding) {
+    int length = CodecUtils.checkUpdate(dataIndex, offset, oldData, newData,
+        coding, dataBlockNum, codingBlockNum, wordSize / 8);
+    if (length == 0) {
+      return;
+    }
+    CodecScratch scratch = CodecScratch.get();
+    Pointer delta = scratch.stageDelta(CodecScratch.DATA, oldData, newData);
+    ByteBuffer[] ranges = CodecUtils.slice(coding, offset, length);
+    Pointer[] codingPtrs = scratch.stage(CodecScratch.CODING, ranges);
+    multiplyColumn(dataIndex, delta, length, codingPtrs, 0);
+    CodecUtils.toByteBuffers(codingPtrs, ranges);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public byte[][] encodePartial(int[] dataIndices, byte[][] data) {
     Preconditions.checkArgument(data.length > 0);
+    byte[][] coding = new byte[codingBlockNum][data[0].length];
+    encodePartial(dataIndices, CodecUtils.wrap(data),
+        CodecUtils.wrap(coding));
+    return coding;
+  }
 
+  /** {@inheritDoc} */
+  @Override
+  public void encodePartial(int[] dataIndices, ByteBuffer[] data,
+      ByteBuffer[] coding) {
+    int size = CodecUtils.checkPartial(dataIndices, data, coding,
+        dataBlockNum, codingBlockNum);
+    if (size == 0) {
+      return;
+    }
     Pointer[] dataPtrs = CodecUtils.toPointerArray(data);
     Pointer[] codingPtrs = CodecUtils.toPointerArray(coding);
-    erasures = CodecUtils.adjustErasures(erasures);
-    int size = data[0].length;
-
-    int ret = JerasureLibrary.INSTANCE.jerasure_matrix_decode(dataBlockNum,
-        codingBlockNum, wordSize, vandermondeMatrix, 1, erasures,
-        dataPtrs, codingPtrs, size);
-    if (ret == 0) {
-      CodecUtils.copyBackDecoded(dataPtrs, codingPtrs, erasures, data, coding);
+    for (int j = 0; j < dataIndices.length; ++j) {
+      multiplyColumn(dataIndices[j], dataPtrs[j], size, codingPtrs, 0);
+    }
+    CodecUtils.toByteBuffers(codingPtrs, coding);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Any k candidates do, as the code is MDS.
+   */
+  @Override
+  public int[] selectSurvivors(int[] candidates) {
+    return CodecUtils.selectSurvivors(candidates, dataBlockNum);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public byte[][] decode(int[] survivors, byte[][] survivorBlocks,
+      int[] targets) {
+    Preconditions.checkArgument(survivorBlocks.length > 0);
+    byte[][] targetBlocks = new byte[targets.length][survivorBlocks[0].length];
+    decode(survivors, CodecUtils.wrap(survivorBlocks), targets,
+        CodecUtils.wrap(targetBlocks));
+    return targetBlocks;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Only the survivors and the targets are marshalled, and every target
+   * is a single dot product over the survivors in native code.
+   */
+  @Override
+  public void decode(int[] survivors, ByteBuffer[] survivorBlocks,
+      int[] targets, ByteBuffer[] targetBlocks) {
+    int size = CodecUtils.checkSurvivors(survivors, survivorBlocks, targets,
+        targetBlocks, dataBlockNum, codingBlockNum);
+    DecodingMatrix decodingMatrix = getDecodingMatrix(
+        CodecUtils.complement(survivors, dataBlockNum + codingBlockNum));
+
+    Pointer[] survivorPtrs = CodecUtils.toPointerArray(survivorBlocks);
+    Pointer[] targetPtrs = CodecUtils.toPointerArray(targetBlocks);
+    // Devices which are neither survivors nor targets are left null
+    Pointer[] dataPtrs = new Pointer[dataBlockNum];
+    Pointer[] codingPtrs = new Pointer[codingBlockNum];
+    for (int i = 0; i < survivors.length; ++i) {
+      setPointer(survivors[i], survivorPtrs[i], dataPtrs, codingPtrs);
+    }
+    for (int i = 0; i < targets.length; ++i) {
+      setPointer(targets[i], targetPtrs[i], dataPtrs, codingPtrs);
+    }
+
+    for (int target : targets) {
+      JerasureMatrix row = decodingMatrix.nativeRows[target];
+      if (target >= dataBlockNum && decodingMatrix.survivors != null) {
+        row = getRecoveryRows(decodingMatrix)[target - dataBlockNum];
+      }
+      JerasureBackends.get().matrixDotprod(dataBlockNum,
+          wordSize, row, decodingMatrix.nativeSurvivors, target, dataPtrs,
+          codingPtrs, size);
+    }
+    CodecUtils.toByteBuffers(targetPtrs, targetBlocks);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void close() {
+    // The matrices live on the Java heap, only the cache is dropped
+    decodingCache.clear();
+  }
+
+  /**
+   * Returns a copy of the m x k coding matrix, which can be passed back to
+   * the constructor to skip generating it.
+   */
+  public int[] getCodingMatrix() {
+    return vandermondeMatrix.clone();
+  }
+
+  /**
+   * Returns the cache of decoding matrices.
+   */
+  public DecodingMatrixCache<?> getDecodingCache() {
+    return decodingCache;
+  }
+
+  /**
+   * Decodes with the cached decoding matrix of the erasure set, so that only
+   * the dot products are computed in native code.
+   */
+  private void decode(int[] erasures, Pointer[] dataPtrs, Pointer[] codingPtrs,
+      int size) {
+    DecodingMatrix decodingMatrix = getDecodingMatrix(erasures);
+
+    // Data blocks must be recovered first, as coding blocks are re-encoded
+    // from them
+    for (int i = 0; i < dataBlockNum + codingBlockNum; ++i) {
+      if (decodingMatrix.rows[i] != null) {
+        JerasureBackends.get().matrixDotprod(dataBlockNum,
+            wordSize, decodingMatrix.nativeRows[i],
+            i < dataBlockNum ? decodingMatrix.nativeSurvivors : null, i,
+            dataPtrs, codingPtrs, size);
+      }
+    }
+  }
+
+  private DecodingMatrix getDecodingMatrix(int[] erasures) {
+    return decodingCache.get(erasures, decodingLoader);
+  }
+
+  /**
+   * Returns the rows of the erased coding blocks over the survivors, which
+   * are their coding rows multiplied by the rows recovering the data blocks.
+   */
+  private JerasureMatrix[] getRecoveryRows(DecodingMatrix decodingMatrix) {
+    JerasureMatrix[] recoveryRows = decodingMatrix.recoveryRows;
+    if (recoveryRows != null) {
+      return recoveryRows;
+    }
+    recoveryRows = new JerasureMatrix[codingBlockNum];
+    for (int i = 0; i < codingBlockNum; ++i) {
+      if (decodingMatrix.rows[dataBlockNum + i] == null) {
+        continue;
+      }
+      int[] row = new int[dataBlockNum];
+      for (int x = 0; x < dataBlockNum; ++x) {
+        int coefficient = vandermondeMatrix[i * dataBlockNum + x];
+        int[] dataRow = decodingMatrix.rows[x];
+        if (dataRow == null) {
+          // A surviving data block is one of the survivors
+          row[Ints.indexOf(decodingMatrix.survivors, x)] ^= coefficient;
+          continue;
+        }
+        for (int j = 0; j < dataBlockNum; ++j) {
+          row[j] ^= JerasureLibrary.INSTANCE.galois_single_multiply(
+              coefficient, dataRow[j], wordSize);
+        }
+      }
+      recoveryRows[i] = new JerasureMatrix(row);
+    }
+    decodingMatrix.recoveryRows = recoveryRows;
+    return recoveryRows;
+  }
+
+  private void setPointer(int id, Pointer ptr, Pointer[] dataPtrs,
+      Pointer[] codingPtrs) {
+    if (id < dataBlockNum) {
+      dataPtrs[id] = ptr;
     } else {
+      codingPtrs[id - dataBlockNum] = ptr;
+    }
+  }
+
+  private DecodingMatrix createDecodingMatrix(BitSet erased) {
+    DecodingMatrix decodingMatrix = new DecodingMatrix();
+    decodingMatrix.rows = new int[dataBlockNum + codingBlockNum][];
+    for (int i = erased.nextSetBit(dataBlockNum); i >= 0;
+        i = erased.nextSetBit(i + 1)) {
+      decodingMatrix.rows[i] = Arrays.copyOfRange(vandermondeMatrix,
+          (i - dataBlockNum) * dataBlockNum,
+          (i - dataBlockNum + 1) * dataBlockNum);
+    }
+    int firstErased = erased.nextSetBit(0);
+    if (firstErased < 0 || firstErased >= dataBlockNum) {
+      return bind(decodingMatrix);
+    }
+
+    int[] erasedFlags = new int[dataBlockNum + codingBlockNum];
+    for (int i = firstErased; i >= 0; i = erased.nextSetBit(i + 1)) {
+      erasedFlags[i] = 1;
+    }
+    int[] matrix = new int[dataBlockNum * dataBlockNum];
+    decodingMatrix.survivors = new int[dataBlockNum];
+    int ret = JerasureLibrary.INSTANCE.jerasure_make_decoding_matrix(
+        dataBlockNum, codingBlockNum, wordSize, vandermondeMatrix,
+        erasedFlags, matrix, decodingMatrix.survivors);
+    if (ret != 0) {
       throw new RuntimeException("Decode fail, return_code=" + ret);
     }
+    for (int i = firstErased; i >= 0 && i < dataBlockNum;
+        i = erased.nextSetBit(i + 1)) {
+      decodingMatrix.rows[i] = Arrays.copyOfRange(matrix, i * dataBlockNum,
+          (i + 1) * dataBlockNum);
+    }
+    return bind(decodingMatrix);
+  }
+
+  private DecodingMatrix bind(DecodingMatrix decodingMatrix) {
+    if (decodingMatrix.survivors != null) {
+      decodingMatrix.nativeSurvivors = new JerasureMatrix(
+          decodingMatrix.survivors);
+    }
+    decodingMatrix.nativeRows = new JerasureMatrix[decodingMatrix.rows.length];
+    for (int i = 0; i < decodingMatrix.rows.length; ++i) {
+      if (decodingMatrix.rows[i] != null) {
+        decodingMatrix.nativeRows[i] = new JerasureMatrix(
+            decodingMatrix.rows[i]);
+      }
+    }
+    return decodingMatrix;
+  }
+
+  /**
+   * XORs the product of len bytes of src and column dataIndex of the
+   * Vandermonde matrix into the coding blocks, starting at offset.
+   */
+  private void multiplyColumn(int dataIndex, Pointer src, int len,
+      Pointer[] codingPtrs, int offset) {
+    for (int i = 0; i < codingBlockNum; ++i) {
+      regionMultiply(src, vandermondeMatrix[i * dataBlockNum + dataIndex],
+          len, codingPtrs[i].share(offset));
+    }
+  }
+
+  /**
+   * XORs the product of len bytes of src and multiplier in GF(2^w) into dst.
+   */
+  private void regionMultiply(Pointer src, int multiplier, int len,
+      Pointer dst) {
+    switch (wordSize) {
+      case 8:
+        JerasureLibrary.INSTANCE.galois_w08_region_multiply(src, multiplier,
+            len, dst, 1);
+        break;
+      case 16:
+        JerasureLibrary.INSTANCE.galois_w16_region_multiply(src, multiplier,
+            len, dst, 1);
+        break;
+      default:
+        JerasureLibrary.INSTANCE.galois_w32_region_multiply(src, multiplier,
+            len, dst, 1);
+        break;
+    }
   }
 
   /**
@@ -96,6 +507,10 @@ public class ReedSolomonCodec implements CodecInterface {
   int[] createVandermondeMatrix(int k, int m, int w) {
     Pointer matrix = JerasureLibrary.INSTANCE
         .reed_sol_vandermonde_coding_matrix(k, m, w);
-    return matrix.getIntArray(0, k * m);
+    try {
+      return matrix.getIntArray(0, k * m);
+    } finally {
+      CLibrary.INSTANCE.free(matrix);
+    }
   }
 }
@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec;
+
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xiaomi.infra.ec.ErasureCodec.Algorithm;
+import com.xiaomi.infra.ec.ErasureCodec.Builder;
+
+public class TestCodecExecutor {
+
+  @Test
+  public void testAsyncCodec() throws Exception {
+    CodecExecutor executor = new CodecExecutor(2, 8);
+    try {
+      ErasureCodec codec = new Builder(Algorithm.Java_Reed_Solomon)
+          .dataBlockNum(6)
+          .codingBlockNum(3)
+          .wordSize(8)
+          .executor(executor)
+          .build();
+      byte[][] data = new byte[6][1024];
+      Random random = new Random();
+      for (byte[] block : data) {
+        random.nextBytes(block);
+      }
+      byte[][] coding = codec.encodeAsync(data).get();
+      Assert.assertArrayEquals(codec.encode(data), coding);
+
+      byte[][] copy = new byte[6][];
+      for (int i = 0; i < 6; ++i) {
+        copy[i] = data[i].clone();
+      }
+      copy[1] = new byte[1024];
+      coding[2] = new byte[1024];
+      codec.decodeAsync(new int[] {1, 8}, copy, coding).get();
+      Assert.assertArrayEquals(data[1], copy[1]);
+      Assert.assertArrayEquals(codec.encode(data)[2], coding[2]);
+      Assert.assertEquals(0, executor.getInFlight());
+    } finally {
+      executor.close();
+    }
+  }
+
+  @Test
+  public void testSaturation() throws Exception {
+    CodecExecutor executor = new CodecExecutor(1, 2);
+    final CountDownLatch release = new CountDownLatch(1);
+    Callable<Integer> blocked = new Callable<Integer>() {
+      @Override
+      public Integer call() throws Exception {
+        release.await();
+        return 1;
+      }
+    };
+    try {
+      CompletableFuture<Integer> running = executor.submit(blocked);
+      CompletableFuture<Integer> queued = executor.submit(blocked);
+      CompletableFuture<Integer> rejected = executor.submit(blocked);
+      Assert.assertEquals(2, executor.getInFlight());
+      Assert.assertEquals(1, executor.getRejectedCount());
+      try {
+        rejected.get();
+        Assert.fail("The call should be rejected");
+      } catch (ExecutionException e) {
+        Assert.assertTrue(
+            e.getCause() instanceof RejectedExecutionException);
+      }
+
+      release.countDown();
+      Assert.assertEquals(2, running.get() + queued.get());
+      Assert.assertEquals(1, (int) executor.submit(blocked).get());
+    } finally {
+      executor.close();
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testExecutorNotConfigured() {
+    new Builder(Algorithm.Java_Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(8)
+        .build()
+        .encodeAsync(new byte[6][1024]);
+  }
+}
@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xiaomi.infra.ec.ErasureCodec.Algorithm;
+import com.xiaomi.infra.ec.ErasureCodec.Builder;
+
+public class TestCodecMetrics {
+
+  private static long sum(long[] counts) {
+    long sum = 0;
+    for (long count : counts) {
+      sum += count;
+    }
+    return sum;
+  }
+
+  private static ErasureCodec build(CodecMetrics metrics) {
+    return new Builder(Algorithm.Java_Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(8)
+        .metrics(metrics)
+        .build();
+  }
+
+  private static byte[][] randomData(int k, int size) {
+    byte[][] data = new byte[k][size];
+    Random random = new Random();
+    for (byte[] block : data) {
+      random.nextBytes(block);
+    }
+    return data;
+  }
+
+  @Test
+  public void testCounters() {
+    CodecMetrics metrics = new CodecMetrics();
+    ErasureCodec codec = build(metrics);
+    int size = 4096;
+    byte[][] data = randomData(6, size);
+    byte[][] coding = codec.encode(data);
+    codec.decode(new int[] {0}, data, coding);
+    codec.decode(new int[] {1, 7}, data, coding);
+
+    ByteBuffer[] dataBuffers = new ByteBuffer[6];
+    for (int i = 0; i < 6; ++i) {
+      dataBuffers[i] = ByteBuffer.allocateDirect(size);
+      dataBuffers[i].put(data[i]).flip();
+    }
+    ByteBuffer[] codingBuffers = new ByteBuffer[3];
+    for (int i = 0; i < 3; ++i) {
+      codingBuffers[i] = ByteBuffer.allocateDirect(size);
+    }
+    codec.encode(dataBuffers, codingBuffers);
+    DecodePlan plan = codec.planDecode(new int[] {1, 2, 3, 4, 5, 6, 7, 8},
+        new int[] {0});
+    codec.decode(plan, new byte[][] {data[1], data[2], data[3], data[4],
+        data[5], coding[0]});
+
+    Assert.assertEquals(2, metrics.getEncodeCalls());
+    Assert.assertEquals(2 * 6 * size, metrics.getEncodeBytes());
+    Assert.assertEquals(3, metrics.getDecodeCalls());
+    Assert.assertEquals(4 * size, metrics.getDecodeBytes());
+    Assert.assertEquals(2, sum(metrics.getEncodeLatencyHistogram()));
+    Assert.assertEquals(3, sum(metrics.getDecodeLatencyHistogram()));
+    long[] byErasureNum = metrics.getDecodesByErasureNum();
+    Assert.assertEquals(2, byErasureNum[1]);
+    Assert.assertEquals(1, byErasureNum[2]);
+
+    // The Java codec copies the direct buffers to the heap
+    Assert.assertTrue(metrics.getEncodeMarshallingNanos() > 0);
+    Assert.assertTrue(metrics.getEncodeCodingNanos() >= 0);
+    Assert.assertEquals(metrics.getEncodeNanos(),
+        metrics.getEncodeMarshallingNanos() + metrics.getEncodeCodingNanos());
+
+    metrics.reset();
+    Assert.assertEquals(0, metrics.getEncodeCalls());
+    Assert.assertEquals(0, sum(metrics.getDecodesByErasureNum()));
+  }
+
+  @Test
+  public void testMBean() throws Exception {
+    CodecMetrics metrics = new CodecMetrics();
+    ErasureCodec codec = build(metrics);
+    codec.encode(randomData(6, 1024));
+
+    ObjectName name = metrics.register("test");
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      Assert.assertEquals(1L, server.getAttribute(name, "EncodeCalls"));
+      Assert.assertEquals(6 * 1024L, server.getAttribute(name, "EncodeBytes"));
+    } finally {
+      metrics.unregister();
+    }
+    Assert.assertFalse(
+        ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+  }
+
+  @Test
+  public void testJfrEvents() throws Exception {
+    CodecMetrics metrics = new CodecMetrics();
+    ErasureCodec codec = build(metrics);
+    byte[][] data = randomData(6, 1024);
+    File file = File.createTempFile("codec", ".jfr");
+    Recording recording = new Recording();
+    try {
+      recording.enable("com.xiaomi.infra.ec.Codec");
+      recording.start();
+      byte[][] coding = codec.encode(data);
+      codec.decode(new int[] {2, 6}, data, coding);
+      recording.stop();
+      recording.dump(file.toPath());
+
+      List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+      Assert.assertEquals(2, events.size());
+      RecordedEvent decode = events.get(0).getString("operation")
+          .equals("DECODE") ? events.get(0) : events.get(1);
+      Assert.assertEquals("Java_Reed_Solomon", decode.getString("algorithm"));
+      Assert.assertEquals(6, decode.getInt("dataBlockNum"));
+      Assert.assertEquals(3, decode.getInt("codingBlockNum"));
+      Assert.assertEquals(1024, decode.getInt("blockSize"));
+      Assert.assertEquals("[2, 6]", decode.getString("erasures"));
+    } finally {
+      recording.close();
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,90 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xiaomi.infra.ec.ErasureCodec.Algorithm;
+import com.xiaomi.infra.ec.ErasureCodec.Builder;
+
+public class TestCodecRegistry {
+
+  @Test
+  public void testSharedCodec() {
+    CodecRegistry registry = new CodecRegistry();
+    Builder builder = new Builder(Algorithm.Java_Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(8)
+        .registry(registry);
+    ErasureCodec codec1 = builder.build();
+    // The packet size is not used by the algorithm, so it is still shared
+    ErasureCodec codec2 = builder.packetSize(16).build();
+    CodecRegistry.Key key = builder.key();
+    Assert.assertEquals(1, registry.size());
+    Assert.assertEquals(2, registry.getRefCount(key));
+    Assert.assertSame(codec1.getDecodingCache(), codec2.getDecodingCache());
+
+    codec1.close();
+    codec1.close();
+    Assert.assertEquals(1, registry.getRefCount(key));
+    runCodec(codec2);
+
+    codec2.close();
+    Assert.assertEquals(0, registry.size());
+  }
+
+  @Test
+  public void testWarmStart() throws Exception {
+    CodecRegistry registry = new CodecRegistry();
+    Builder builder = new Builder(Algorithm.Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(8)
+        .registry(registry);
+    ErasureCodec codec = builder.build();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    registry.saveCodingMatrices(out);
+    codec.close();
+
+    CodecRegistry warmRegistry = new CodecRegistry();
+    warmRegistry.loadCodingMatrices(
+        new ByteArrayInputStream(out.toByteArray()));
+    ErasureCodec warmCodec = builder.registry(warmRegistry).build();
+    runCodec(warmCodec);
+    warmCodec.close();
+  }
+
+  private void runCodec(ErasureCodec codec) {
+    byte[][] data = new byte[codec.getDataBlockNum()][1024];
+    Random random = new Random();
+    for (byte[] block : data) {
+      random.nextBytes(block);
+    }
+    byte[][] coding = codec.encode(data);
+    byte[] lost = data[1].clone();
+    data[1] = new byte[lost.length];
+    codec.decode(new int[]{1}, data, coding);
+    Assert.assertArrayEquals(lost, data[1]);
+  }
+}
@@ -17,14 +17,25 @@
  */
 package com.xiaomi.infra.ec;
 
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 
+import com.sun.management.ThreadMXBean;
+
 import com.xiaomi.infra.ec.ErasureCodec.Algorithm;
 import com.xiaomi.infra.ec.ErasureCodec.Builder;
+import com.xiaomi.infra.ec.checksum.ChecksumException;
+import com.xiaomi.infra.ec.checksum.Crc32c;
+import com.xiaomi.infra.ec.checksum.StripeChecksums;
 
 public class TestErasureCodec {
 
@@ -61,6 +72,450 @@ public class TestErasureCodec {
     runTest(codec, 6, 3, 32, true);
   }
 
+  @Test
+  public void TestJavaReedSolomonCodec() {
+    ErasureCodec codec = new Builder(Algorithm.Java_Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(8)
+        .build();
+    runTest(codec, 6, 3, 32, true);
+
+    codec = new Builder(Algorithm.Java_Reed_Solomon)
+        .dataBlockNum(10)
+        .codingBlockNum(4)
+        .wordSize(8)
+        .build();
+    runTest(codec, 10, 4, 1021, false);
+  }
+
+  @Test
+  public void TestSimdJavaReedSolomonCodec() {
+    ErasureCodec codec = new Builder(Algorithm.Java_Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(8)
+        .simd(true)
+        .build();
+    runTest(codec, 6, 3, 4099, false);
+  }
+
+  @Test
+  public void testMinimumDensityCodecs() {
+    ErasureCodec codec = new Builder(Algorithm.Liberation)
+        .dataBlockNum(5)
+        .codingBlockNum(2)
+        .wordSize(7)
+        .packetSize(8)
+        .build();
+    runTest(codec, 5, 2, 7 * 8 * 4, false);
+
+    codec = new Builder(Algorithm.Blaum_Roth)
+        .dataBlockNum(6)
+        .codingBlockNum(2)
+        .wordSize(6)
+        .packetSize(8)
+        .build();
+    runTest(codec, 6, 2, 6 * 8 * 4, false);
+
+    codec = new Builder(Algorithm.Liber8tion)
+        .dataBlockNum(8)
+        .codingBlockNum(2)
+        .wordSize(8)
+        .packetSize(16)
+        .build();
+    runTest(codec, 8, 2, 8 * 16 * 4, false);
+    runPlanDecodeTest(codec, 8, 2, 8 * 16 * 4);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidLiberationCodec() {
+    // w must be a prime
+    new Builder(Algorithm.Liberation)
+        .dataBlockNum(6)
+        .codingBlockNum(2)
+        .wordSize(8)
+        .packetSize(8)
+        .build();
+  }
+
+  @Test
+  public void testXorParityCodec() {
+    ErasureCodec codec = new Builder(Algorithm.XOR_Parity)
+        .dataBlockNum(6)
+        .codingBlockNum(1)
+        .build();
+    runTest(codec, 6, 1, 1021, false);
+    runUpdateParityTest(codec, 6, 1024, 8, 100);
+    runPartialTest(codec, 6, 1021);
+  }
+
+  @Test
+  public void testDecodingCache() {
+    ErasureCodec codec = new Builder(Algorithm.Java_Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(8)
+        .decodingCacheSize(2)
+        .build();
+    byte[][] data = new byte[6][64];
+    for (int r = 0; r < data.length; ++r) {
+      new Random().nextBytes(data[r]);
+    }
+    byte[][] coding = codec.encode(data);
+    byte[] lost = data[1].clone();
+
+    int[][] patterns = {{1, 7}, {7, 1}, {1, 7, 7}, {1, 6}, {1, 8}, {1, 7}};
+    for (int[] erasures : patterns) {
+      Arrays.fill(data[1], (byte)0);
+      codec.decode(erasures, data, coding);
+      Assert.assertArrayEquals(lost, data[1]);
+    }
+    DecodingMatrixCache<?> cache = codec.getDecodingCache();
+    Assert.assertEquals(2, cache.getHitCount());
+    Assert.assertEquals(4, cache.getMissCount());
+    Assert.assertEquals(2, cache.size());
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void testTooManyErasures() {
+    ErasureCodec codec = new Builder(Algorithm.Java_Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(8)
+        .build();
+    byte[][] data = new byte[6][64];
+    byte[][] coding = codec.encode(data);
+    codec.decode(new int[]{0, 1, 2, 3}, data, coding);
+  }
+
+  @Test
+  public void testParallelJavaReedSolomonCodec() {
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      ErasureCodec serial = new Builder(Algorithm.Java_Reed_Solomon)
+          .dataBlockNum(6)
+          .codingBlockNum(3)
+          .wordSize(8)
+          .build();
+      ErasureCodec parallel = new Builder(Algorithm.Java_Reed_Solomon)
+          .dataBlockNum(6)
+          .codingBlockNum(3)
+          .wordSize(8)
+          .forkJoinPool(pool)
+          .parallelThreshold(1024)
+          .build();
+      byte[][] data = new byte[6][300 * 1024 + 5];
+      for (int r = 0; r < data.length; ++r) {
+        new Random().nextBytes(data[r]);
+      }
+      Assert.assertArrayEquals(serial.encode(data), parallel.encode(data));
+      runTest(parallel, 6, 3, 300 * 1024 + 5, false);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testAllocationFreeJavaReedSolomonCodec() {
+    Assume.assumeTrue(
+        ManagementFactory.getThreadMXBean() instanceof ThreadMXBean);
+    ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(threads.isThreadAllocatedMemorySupported()
+        && threads.isThreadAllocatedMemoryEnabled());
+
+    ErasureCodec codec = new Builder(Algorithm.Java_Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(8)
+        .build();
+    byte[][] data = new byte[6][1024];
+    for (byte[] block : data) {
+      new Random().nextBytes(block);
+    }
+    byte[][] coding = new byte[3][1024];
+    byte[][] expected = codec.encode(data);
+    int[] erasures = new int[] {1, 7};
+    // Warm up until compiled, and load the decoding matrix of the erasures
+    for (int i = 0; i < 20000; ++i) {
+      codec.encode(data, coding);
+      codec.decode(erasures, data, coding);
+    }
+
+    long threadId = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < 1000; ++i) {
+      codec.encode(data, coding);
+      codec.decode(erasures, data, coding);
+    }
+    long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+    // Less than a byte per call, only the measurement itself may allocate
+    Assert.assertTrue("allocated " + allocated + " bytes", allocated < 1000);
+    for (int i = 0; i < 3; ++i) {
+      Assert.assertArrayEquals(expected[i], coding[i]);
+    }
+  }
+
+  @Test
+  public void testByteBufferJavaReedSolomonCodec() {
+    ErasureCodec codec = new Builder(Algorithm.Java_Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(8)
+        .build();
+    runByteBufferTest(codec, 6, 3, 64, true);
+    runByteBufferTest(codec, 6, 3, 64, false);
+  }
+
+  @Test
+  public void testByteBufferReedSolomonCodec() {
+    ErasureCodec codec = new Builder(Algorithm.Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(8)
+        .build();
+    runByteBufferTest(codec, 6, 3, 64, true);
+    runByteBufferTest(codec, 6, 3, 64, false);
+  }
+
+  @Test
+  public void testByteBufferCauchyReedSolomonCodec() {
+    ErasureCodec codec = new Builder(Algorithm.Cauchy_Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(4)
+        .packetSize(8)
+        .good(true)
+        .build();
+    runByteBufferTest(codec, 6, 3, 64, true);
+    runByteBufferTest(codec, 6, 3, 64, false);
+  }
+
+  @Test
+  public void testPooledReedSolomonCodec() {
+    StripeBufferPool pool = new StripeBufferPool(1 << 20);
+    ErasureCodec codec = new Builder(Algorithm.Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(8)
+        .bufferPool(pool)
+        .build();
+    runTest(codec, 6, 3, 32, true);
+
+    byte[][] data = new byte[6][64];
+    new Random().nextBytes(data[0]);
+    byte[][] coding = codec.encode(data);
+    PooledStripe stripe = codec.encodeToPool(data);
+    try {
+      for (int i = 0; i < 3; ++i) {
+        byte[] pooled = new byte[64];
+        stripe.copyCoding(i, pooled, 0);
+        Assert.assertArrayEquals(coding[i], pooled);
+      }
+    } finally {
+      stripe.close();
+    }
+    Assert.assertEquals(pool.getAllocatedBytes(), pool.getPooledBytes());
+  }
+
+  @Test
+  public void testPooledBlocksReleasedOnFailure() {
+    StripeBufferPool pool = new StripeBufferPool(1 << 20);
+    ErasureCodec codec = new Builder(Algorithm.Java_Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(8)
+        .bufferPool(pool)
+        .build();
+    byte[][] data = new byte[6][64];
+    // An empty coding block cannot be borrowed, after the data blocks and
+    // the first coding block are
+    byte[][] coding = {new byte[64], new byte[0], new byte[64]};
+    try {
+      codec.decode(new int[] {0}, data, coding);
+      Assert.fail("An empty block must be rejected");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    Assert.assertEquals(pool.getAllocatedBytes(), pool.getPooledBytes());
+
+    data[5] = new byte[0];
+    try {
+      codec.encodeToPool(data);
+      Assert.fail("An empty block must be rejected");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    Assert.assertEquals(pool.getAllocatedBytes(), pool.getPooledBytes());
+  }
+
+  @Test
+  public void testEncodeBatchReedSolomonCodec() {
+    ErasureCodec codec = new Builder(Algorithm.Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(8)
+        .build();
+    runBatchTest(codec, 6, new int[]{64, 128, 64, 8, 128});
+  }
+
+  @Test
+  public void testEncodeBatchCauchyReedSolomonCodec() {
+    ErasureCodec codec = new Builder(Algorithm.Cauchy_Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(4)
+        .packetSize(8)
+        .build();
+    runBatchTest(codec, 6, new int[]{64, 128, 64, 32, 128});
+  }
+
+  @Test
+  public void testEncodeBatchJavaReedSolomonCodec() {
+    ErasureCodec codec = new Builder(Algorithm.Java_Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(8)
+        .build();
+    runBatchTest(codec, 6, new int[]{64, 128, 64, 7, 128});
+  }
+
+  @Test
+  public void testUpdateParityReedSolomonCodec() {
+    ErasureCodec codec = new Builder(Algorithm.Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(8)
+        .build();
+    runUpdateParityTest(codec, 6, 1024, 100, 300);
+  }
+
+  @Test
+  public void testUpdateParityCauchyReedSolomonCodec() {
+    ErasureCodec codec = new Builder(Algorithm.Cauchy_Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(8)
+        .packetSize(8)
+        .build();
+    runUpdateParityTest(codec, 6, 1024, 128, 256);
+  }
+
+  @Test
+  public void testUpdateParityJavaReedSolomonCodec() {
+    ErasureCodec codec = new Builder(Algorithm.Java_Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(8)
+        .build();
+    runUpdateParityTest(codec, 6, 1000, 123, 456);
+  }
+
+  @Test
+  public void testEncodePartialCauchyReedSolomonCodec() {
+    ErasureCodec codec = new Builder(Algorithm.Cauchy_Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(8)
+        .packetSize(8)
+        .build();
+    runPartialTest(codec, 6, 1024);
+  }
+
+  @Test
+  public void testEncodePartialJavaReedSolomonCodec() {
+    ErasureCodec codec = new Builder(Algorithm.Java_Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(8)
+        .build();
+    runPartialTest(codec, 6, 1000);
+  }
+
+  @Test
+  public void testPlanDecodeReedSolomonCodec() {
+    ErasureCodec codec = new Builder(Algorithm.Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(16)
+        .build();
+    runPlanDecodeTest(codec, 6, 3, 1024);
+  }
+
+  @Test
+  public void testPlanDecodeCauchyReedSolomonCodec() {
+    ErasureCodec codec = new Builder(Algorithm.Cauchy_Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(8)
+        .packetSize(8)
+        .build();
+    runPlanDecodeTest(codec, 6, 3, 1024);
+  }
+
+  @Test
+  public void testPlanDecodeJavaReedSolomonCodec() {
+    ErasureCodec codec = new Builder(Algorithm.Java_Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(8)
+        .build();
+    runPlanDecodeTest(codec, 6, 3, 1000);
+  }
+
+  @Test
+  public void testChecksumsCauchyReedSolomonCodec() {
+    ErasureCodec codec = new Builder(Algorithm.Cauchy_Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(8)
+        .packetSize(8)
+        .build();
+    runChecksumTest(codec, 6, 3, 64 * 1024, 512);
+  }
+
+  @Test
+  public void testChecksumsJavaReedSolomonCodec() {
+    ErasureCodec codec = new Builder(Algorithm.Java_Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(8)
+        .build();
+    runChecksumTest(codec, 6, 3, 50000, 512);
+    runChecksumTest(codec, 6, 3, 50000, 0);
+  }
+
+  @Test
+  public void testScrubReedSolomonCodec() {
+    ErasureCodec codec = new Builder(Algorithm.Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(16)
+        .build();
+    runScrubTest(codec, 6, 3, 40000);
+  }
+
+  @Test
+  public void testScrubCauchyReedSolomonCodec() {
+    ErasureCodec codec = new Builder(Algorithm.Cauchy_Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(8)
+        .packetSize(8)
+        .build();
+    runScrubTest(codec, 6, 3, 64 * 1024);
+  }
+
+  @Test
+  public void testScrubJavaReedSolomonCodec() {
+    ErasureCodec codec = new Builder(Algorithm.Java_Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(8)
+        .build();
+    runScrubTest(codec, 6, 3, 40000);
+  }
+
   @Test
   public void testWithZeroLines() {
     ErasureCodec codec = new Builder(Algorithm.Reed_Solomon)
@@ -176,4 +631,258 @@ public class TestErasureCodec {
     Assert.assertArrayEquals(copiedData, data);
     Assert.assertArrayEquals(copiedCoding, coding);
   }
+
+  private void runByteBufferTest(CodecInterface codec, int k, int m, int size,
+      boolean direct) {
+    Random random = new Random();
+    byte[][] expectedData = new byte[k][size];
+    for (int r = 0; r < k; ++r) {
+      random.nextBytes(expectedData[r]);
+    }
+    byte[][] expectedCoding = codec.encode(expectedData);
+
+    ByteBuffer[] data = new ByteBuffer[k];
+    ByteBuffer[] coding = new ByteBuffer[m];
+    for (int r = 0; r < k; ++r) {
+      data[r] = allocate(size, direct);
+      data[r].put(expectedData[r]).flip();
+    }
+    for (int r = 0; r < m; ++r) {
+      coding[r] = allocate(size, direct);
+    }
+    codec.encode(data, coding);
+    for (int r = 0; r < m; ++r) {
+      Assert.assertArrayEquals(expectedCoding[r], toArray(coding[r]));
+    }
+
+    // Erasure one data block and one coding block
+    int[] erasures = {random.nextInt(k), k + random.nextInt(m)};
+    clear(data[erasures[0]]);
+    clear(coding[erasures[1] - k]);
+    codec.decode(erasures, data, coding);
+    for (int r = 0; r < k; ++r) {
+      Assert.assertArrayEquals(expectedData[r], toArray(data[r]));
+    }
+    for (int r = 0; r < m; ++r) {
+      Assert.assertArrayEquals(expectedCoding[r], toArray(coding[r]));
+    }
+  }
+
+  private void runBatchTest(CodecInterface codec, int k, int[] sizes) {
+    Random random = new Random();
+    List<byte[][]> stripes = new ArrayList<byte[][]>();
+    for (int size : sizes) {
+      byte[][] data = new byte[k][size];
+      for (int r = 0; r < k; ++r) {
+        random.nextBytes(data[r]);
+      }
+      stripes.add(data);
+    }
+    List<byte[][]> codings = codec.encodeBatch(stripes);
+    Assert.assertEquals(stripes.size(), codings.size());
+    for (int s = 0; s < stripes.size(); ++s) {
+      Assert.assertArrayEquals(codec.encode(stripes.get(s)), codings.get(s));
+    }
+  }
+
+  private void runUpdateParityTest(ErasureCodec codec, int k, int size,
+      int offset, int length) {
+    Random random = new Random();
+    byte[][] data = new byte[k][size];
+    for (int r = 0; r < k; ++r) {
+      random.nextBytes(data[r]);
+    }
+    byte[][] coding = codec.encode(data);
+
+    // Overwrite a whole block
+    byte[] newBlock = new byte[size];
+    random.nextBytes(newBlock);
+    codec.updateParity(2, data[2], newBlock, coding);
+    data[2] = newBlock;
+    Assert.assertArrayEquals(codec.encode(data), coding);
+
+    // Overwrite a range, with the coding blocks off heap
+    byte[] oldRange = Arrays.copyOfRange(data[0], offset, offset + length);
+    byte[] newRange = new byte[length];
+    random.nextBytes(newRange);
+    ByteBuffer[] codingBuffers = new ByteBuffer[coding.length];
+    for (int r = 0; r < coding.length; ++r) {
+      codingBuffers[r] = allocate(size, true);
+      codingBuffers[r].put(coding[r]).flip();
+    }
+    codec.updateParity(0, offset, ByteBuffer.wrap(oldRange),
+        ByteBuffer.wrap(newRange), codingBuffers);
+    System.arraycopy(newRange, 0, data[0], offset, length);
+    byte[][] expectedCoding = codec.encode(data);
+    for (int r = 0; r < coding.length; ++r) {
+      Assert.assertArrayEquals(expectedCoding[r], toArray(codingBuffers[r]));
+    }
+  }
+
+  private void runPartialTest(ErasureCodec codec, int k, int size) {
+    Random random = new Random();
+    byte[][] data = new byte[k][size];
+    for (int r = 0; r < k; ++r) {
+      random.nextBytes(data[r]);
+    }
+    byte[][] expectedCoding = codec.encode(data);
+
+    // Two nodes each holding half of the stripe
+    byte[][] parity = codec.encodePartial(new int[]{0, 3, 5},
+        new byte[][]{data[0], data[3], data[5]});
+    byte[][] partial = codec.encodePartial(new int[]{4, 2, 1},
+        new byte[][]{data[4], data[2], data[1]});
+    ErasureCodec.combineParity(parity, partial);
+    Assert.assertArrayEquals(expectedCoding, parity);
+
+    // Off heap parity built as the blocks arrive
+    ByteBuffer[] codingBuffers = new ByteBuffer[expectedCoding.length];
+    for (int r = 0; r < codingBuffers.length; ++r) {
+      codingBuffers[r] = allocate(size, true);
+    }
+    for (int r = k - 1; r >= 0; --r) {
+      codec.encodePartial(new int[]{r},
+          new ByteBuffer[]{ByteBuffer.wrap(data[r])}, codingBuffers);
+    }
+    for (int r = 0; r < codingBuffers.length; ++r) {
+      Assert.assertArrayEquals(expectedCoding[r], toArray(codingBuffers[r]));
+    }
+  }
+
+  private void runPlanDecodeTest(ErasureCodec codec, int k, int m, int size) {
+    Random random = new Random();
+    byte[][] data = new byte[k][size];
+    for (int r = 0; r < k; ++r) {
+      random.nextBytes(data[r]);
+    }
+    byte[][] coding = codec.encode(data);
+    byte[][] blocks = new byte[k + m][];
+    System.arraycopy(data, 0, blocks, 0, k);
+    System.arraycopy(coding, 0, blocks, k, m);
+
+    // Data block 1 and coding block 0 are lost, data block 2 is remote
+    int[] available = new int[]{0, 2, 3, 4, 5, k + 1, k + 2};
+    double[] costs = new double[k + m];
+    Arrays.fill(costs, 1);
+    costs[2] = 10;
+    DecodePlan plan = codec.planDecode(available, costs, new int[]{1, k});
+    Assert.assertArrayEquals(new int[]{0, 3, 4, 5, k + 1, k + 2},
+        plan.getSurvivors());
+    Assert.assertEquals(k, plan.getCost(), 0);
+
+    byte[][] survivorBlocks = new byte[k][];
+    for (int r = 0; r < k; ++r) {
+      survivorBlocks[r] = blocks[plan.getSurvivors()[r]];
+    }
+    byte[][] decoded = codec.decode(plan, survivorBlocks);
+    Assert.assertArrayEquals(data[1], decoded[0]);
+    Assert.assertArrayEquals(coding[0], decoded[1]);
+
+    // Only coding blocks are lost, all data blocks are read
+    plan = codec.planDecode(new int[]{5, 4, 3, 2, 1, 0}, new int[]{k + 2});
+    ByteBuffer[] survivorBuffers = new ByteBuffer[k];
+    for (int r = 0; r < k; ++r) {
+      survivorBuffers[r] = allocate(size, true);
+      survivorBuffers[r].put(blocks[plan.getSurvivors()[r]]).flip();
+    }
+    ByteBuffer[] targetBuffers = new ByteBuffer[]{allocate(size, true)};
+    codec.decode(plan, survivorBuffers, targetBuffers);
+    Assert.assertArrayEquals(coding[2], toArray(targetBuffers[0]));
+  }
+
+  private void runChecksumTest(ErasureCodec codec, int k, int m, int size,
+      int chunkSize) {
+    Random random = new Random();
+    byte[][] data = new byte[k][size];
+    for (int r = 0; r < k; ++r) {
+      random.nextBytes(data[r]);
+    }
+    StripeChecksums checksums = new StripeChecksums(k + m, size, chunkSize);
+    byte[][] coding = codec.encode(data, checksums);
+    Assert.assertArrayEquals(codec.encode(data), coding);
+    for (int r = 0; r < k + m; ++r) {
+      byte[] block = r < k ? data[r] : coding[r - k];
+      Crc32c crc = new Crc32c();
+      crc.update(block, 0, size);
+      Assert.assertEquals((int) crc.getValue(), checksums.getBlockChecksum(r));
+      for (int c = 0; c < checksums.getChunkNum(); ++c) {
+        crc.reset();
+        crc.update(block, c * chunkSize, Math.min(chunkSize,
+            size - c * chunkSize));
+        Assert.assertEquals((int) crc.getValue(),
+            checksums.getChunkChecksum(r, c));
+      }
+    }
+
+    // Decode verifies the survivors
+    byte[][] brokenData = new byte[k][];
+    for (int r = 0; r < k; ++r) {
+      brokenData[r] = data[r].clone();
+    }
+    Arrays.fill(brokenData[1], (byte)0);
+    codec.decode(new int[]{1}, brokenData, coding, checksums);
+    Assert.assertArrayEquals(data[1], brokenData[1]);
+
+    // A flipped bit of a survivor is caught
+    brokenData[2][size - 1] ^= 1;
+    try {
+      codec.decode(new int[]{1}, brokenData, coding, checksums);
+      Assert.fail("corruption not detected");
+    } catch (ChecksumException e) {
+      Assert.assertEquals(2, e.getBlockIndex());
+      Assert.assertEquals(chunkSize == 0 ? -1 : (size - 1) / chunkSize,
+          e.getChunkIndex());
+    }
+  }
+
+  private void runScrubTest(ErasureCodec codec, int k, int m, int size) {
+    Random random = new Random();
+    byte[][] data = new byte[k][size];
+    for (int r = 0; r < k; ++r) {
+      random.nextBytes(data[r]);
+    }
+    byte[][] coding = codec.encode(data);
+    Assert.assertTrue(codec.verify(data, coding));
+    Assert.assertEquals(-1, codec.locateCorruption(data, coding));
+
+    // Every block in turn, corrupt over a range spanning two slices
+    for (int r = 0; r < k + m; ++r) {
+      byte[] block = r < k ? data[r] : coding[r - k];
+      byte[] saved = block.clone();
+      int offset = ErasureCodec.CHECKSUM_SLICE_SIZE - 100;
+      for (int i = offset; i < offset + 200; ++i) {
+        block[i] ^= (byte) (random.nextInt(255) + 1);
+      }
+      Assert.assertFalse(codec.verify(data, coding));
+      Assert.assertEquals(r, codec.locateCorruption(CodecUtils.wrap(data),
+          CodecUtils.wrap(coding)));
+      System.arraycopy(saved, 0, block, 0, size);
+    }
+
+    // Two corrupt blocks in different slices are not blamed on one
+    data[0][10] ^= 1;
+    data[1][size - 10] ^= 1;
+    try {
+      codec.locateCorruption(data, coding);
+      Assert.fail("two corrupt blocks located to one");
+    } catch (CorruptStripeException e) {
+      // expected
+    }
+  }
+
+  private static ByteBuffer allocate(int size, boolean direct) {
+    return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+  }
+
+  private static void clear(ByteBuffer buffer) {
+    for (int i = buffer.position(); i < buffer.limit(); ++i) {
+      buffer.put(i, (byte)0);
+    }
+  }
+
+  private static byte[] toArray(ByteBuffer buffer) {
+    byte[] array = new byte[buffer.remaining()];
+    buffer.duplicate().get(array);
+    return array;
+  }
 }
@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.xiaomi.infra.ec.ErasureCodec.Algorithm;
+import com.xiaomi.infra.ec.ErasureCodec.Builder;
+
+public class TestJerasureBackends {
+
+  @Test
+  public void testSelect() {
+    JerasureBackend initial = JerasureBackends.get();
+    try {
+      Assert.assertEquals(JerasureBackends.isFfmAvailable()
+          ? JerasureBackends.FFM : JerasureBackends.JNA, initial.getName());
+      JerasureBackends.select(JerasureBackends.JNA);
+      Assert.assertEquals(JerasureBackends.JNA,
+          JerasureBackends.get().getName());
+      if (JerasureBackends.isFfmAvailable()) {
+        JerasureBackends.select(JerasureBackends.FFM);
+        Assert.assertEquals(JerasureBackends.FFM,
+            JerasureBackends.get().getName());
+      } else {
+        try {
+          JerasureBackends.select(JerasureBackends.FFM);
+          Assert.fail("FFM backend should not be available");
+        } catch (IllegalArgumentException e) {
+          // Expected
+        }
+      }
+      try {
+        JerasureBackends.select("jni");
+        Assert.fail("Unknown backend should be rejected");
+      } catch (IllegalArgumentException e) {
+        // Expected
+      }
+    } finally {
+      JerasureBackends.select(initial.getName());
+    }
+  }
+
+  @Test
+  public void testFfmMatchesJna() {
+    Assume.assumeTrue(JerasureBackends.isFfmAvailable());
+    JerasureBackend initial = JerasureBackends.get();
+    try {
+      runParityTest(new Builder(Algorithm.Reed_Solomon)
+          .dataBlockNum(6)
+          .codingBlockNum(3)
+          .wordSize(8)
+          .build(), 6, 3, 1024);
+      runParityTest(new Builder(Algorithm.Cauchy_Reed_Solomon)
+          .dataBlockNum(6)
+          .codingBlockNum(3)
+          .wordSize(4)
+          .packetSize(8)
+          .build(), 6, 3, 1024);
+    } finally {
+      JerasureBackends.select(initial.getName());
+    }
+  }
+
+  private void runParityTest(ErasureCodec codec, int k, int m, int size) {
+    Random random = new Random(1);
+    byte[][] data = new byte[k][size];
+    for (byte[] block : data) {
+      random.nextBytes(block);
+    }
+
+    JerasureBackends.select(JerasureBackends.JNA);
+    byte[][] jnaCoding = codec.encode(data);
+    JerasureBackends.select(JerasureBackends.FFM);
+    // Encode twice so the second call reuses the bound matrix and tables
+    codec.encode(data);
+    byte[][] ffmCoding = codec.encode(data);
+    for (int i = 0; i < m; ++i) {
+      Assert.assertArrayEquals(jnaCoding[i], ffmCoding[i]);
+    }
+
+    int[] erasures = {1, 4, k + 2};
+    for (String backend : new String[] {
+        JerasureBackends.JNA, JerasureBackends.FFM}) {
+      JerasureBackends.select(backend);
+      byte[][] decodedData = new byte[k][];
+      byte[][] decodedCoding = new byte[m][];
+      for (int i = 0; i < k; ++i) {
+        decodedData[i] = data[i].clone();
+      }
+      for (int i = 0; i < m; ++i) {
+        decodedCoding[i] = jnaCoding[i].clone();
+      }
+      for (int erasure : erasures) {
+        if (erasure < k) {
+          decodedData[erasure] = new byte[size];
+        } else {
+          decodedCoding[erasure - k] = new byte[size];
+        }
+      }
+      codec.decode(erasures, decodedData, decodedCoding);
+      for (int i = 0; i < k; ++i) {
+        Assert.assertArrayEquals(data[i], decodedData[i]);
+      }
+      for (int i = 0; i < m; ++i) {
+        Assert.assertArrayEquals(jnaCoding[i], decodedCoding[i]);
+      }
+    }
+  }
+}
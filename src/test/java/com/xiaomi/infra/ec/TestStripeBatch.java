@@ -0,0 +1,52 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestStripeBatch {
+
+  @Test
+  public void testSplitBatches() {
+    int stripeNum = 10;
+    ByteBuffer[][] data = new ByteBuffer[stripeNum][];
+    ByteBuffer[][] coding = new ByteBuffer[stripeNum][];
+    for (int s = 0; s < stripeNum; ++s) {
+      int size = s < 7 ? 64 : 128;
+      data[s] = new ByteBuffer[] {ByteBuffer.allocate(size),
+          ByteBuffer.allocate(size)};
+      coding[s] = new ByteBuffer[] {ByteBuffer.allocate(size)};
+      data[s][0].put(0, (byte) s);
+    }
+
+    // 3 stripes of 64 bytes or 1 of 128 bytes fit in 200 bytes
+    List<StripeBatch> batches = StripeBatch.create(data, coding, 2, 1, 8,
+        200);
+    Assert.assertEquals(6, batches.size());
+    int[] sizes = {192, 192, 64, 128, 128, 128};
+    for (int i = 0; i < sizes.length; ++i) {
+      Assert.assertEquals(sizes[i], batches.get(i).getSize());
+    }
+    // Stripe 3 leads the second batch
+    Assert.assertEquals(3, batches.get(1).getDataPtrs()[0].getByte(0));
+  }
+}
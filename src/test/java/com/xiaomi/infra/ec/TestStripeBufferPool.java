@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestStripeBufferPool {
+
+  @Test
+  public void testBorrowAndRelease() {
+    StripeBufferPool pool = new StripeBufferPool(1 << 20);
+    StripeBufferPool.Block block = pool.borrow(5000);
+    Assert.assertEquals(8192, block.capacity());
+    Assert.assertEquals(5000, block.buffer().remaining());
+    Assert.assertTrue(block.buffer().isDirect());
+    Assert.assertEquals(8192, pool.getAllocatedBytes());
+    Assert.assertEquals(0, pool.getPooledBytes());
+
+    pool.release(block);
+    Assert.assertEquals(8192, pool.getPooledBytes());
+
+    // Same size class must reuse the idle memory
+    StripeBufferPool.Block reused = pool.borrow(8192);
+    Assert.assertEquals(block.pointer(), reused.pointer());
+    Assert.assertEquals(8192, reused.buffer().remaining());
+    Assert.assertEquals(0, pool.getPooledBytes());
+    Assert.assertEquals(8192, pool.getAllocatedBytes());
+  }
+
+  @Test
+  public void testMaxPooledBytes() {
+    StripeBufferPool pool = new StripeBufferPool(4096);
+    StripeBufferPool.Block b1 = pool.borrow(100);
+    StripeBufferPool.Block b2 = pool.borrow(100);
+    Assert.assertEquals(4096, b1.capacity());
+    pool.release(b1);
+    pool.release(b2);
+    Assert.assertEquals(4096, pool.getPooledBytes());
+    Assert.assertEquals(4096, pool.getAllocatedBytes());
+  }
+
+  @Test
+  public void testDoubleRelease() {
+    StripeBufferPool pool = new StripeBufferPool(1 << 20);
+    StripeBufferPool.Block block = pool.borrow(100);
+    pool.release(block);
+    try {
+      pool.release(block);
+      Assert.fail("A block must not be released twice");
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+    Assert.assertEquals(4096, pool.getPooledBytes());
+  }
+
+  @Test
+  public void testStaleRelease() {
+    StripeBufferPool pool = new StripeBufferPool(1 << 20);
+    StripeBufferPool.Block stale = pool.borrow(100);
+    pool.release(stale);
+    // The memory is lent again, through a new handle
+    StripeBufferPool.Block live = pool.borrow(100);
+    Assert.assertEquals(stale.pointer(), live.pointer());
+    Assert.assertNull(stale.buffer());
+    try {
+      pool.release(stale);
+      Assert.fail("A stale handle must not release the lent memory");
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+    Assert.assertEquals(0, pool.getPooledBytes());
+    Assert.assertNotEquals(live.pointer(), pool.borrow(100).pointer());
+    pool.release(live);
+    Assert.assertEquals(4096, pool.getPooledBytes());
+  }
+
+  @Test
+  public void testClose() {
+    StripeBufferPool pool = new StripeBufferPool(1 << 20);
+    StripeBufferPool.Block idle = pool.borrow(100);
+    StripeBufferPool.Block borrowed = pool.borrow(100);
+    pool.release(idle);
+    pool.close();
+    Assert.assertEquals(0, pool.getPooledBytes());
+    Assert.assertEquals(4096, pool.getAllocatedBytes());
+
+    // Blocks released after close are freed instead of pooled
+    pool.release(borrowed);
+    Assert.assertEquals(0, pool.getPooledBytes());
+    Assert.assertEquals(0, pool.getAllocatedBytes());
+    try {
+      pool.borrow(100);
+      Assert.fail("A closed pool must not lend blocks");
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testBlockIsWritable() {
+    StripeBufferPool pool = new StripeBufferPool(1 << 20);
+    StripeBufferPool.Block block = pool.borrow(16);
+    block.buffer().put(15, (byte)7);
+    Assert.assertEquals(7, block.pointer().getByte(15));
+    pool.release(block);
+  }
+}
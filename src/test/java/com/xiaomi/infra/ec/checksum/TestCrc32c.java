@@ -0,0 +1,67 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.checksum;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.Checksum;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestCrc32c {
+
+  @Test
+  public void testKnownValue() {
+    byte[] bytes = "123456789".getBytes();
+    Crc32c crc = new Crc32c();
+    crc.update(bytes, 0, bytes.length);
+    Assert.assertEquals(0xe3069283L, crc.getValue());
+
+    Checksum checksum = Crc32c.newChecksum();
+    Crc32c.update(checksum, ByteBuffer.wrap(bytes));
+    Assert.assertEquals(0xe3069283L, checksum.getValue());
+  }
+
+  @Test
+  public void testIncrementalUpdate() {
+    Random random = new Random();
+    byte[] bytes = new byte[1000];
+    random.nextBytes(bytes);
+    Crc32c whole = new Crc32c();
+    whole.update(bytes, 0, bytes.length);
+
+    // Unaligned pieces from a direct buffer
+    ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+    direct.put(bytes).flip();
+    Crc32c pieces = new Crc32c();
+    for (int off = 0; off < bytes.length; off += 37) {
+      ByteBuffer piece = direct.duplicate();
+      piece.position(off);
+      piece.limit(Math.min(off + 37, bytes.length));
+      pieces.update(piece);
+      Assert.assertEquals(piece.limit(), piece.position());
+    }
+    Assert.assertEquals(whole.getValue(), pieces.getValue());
+
+    Checksum checksum = Crc32c.newChecksum();
+    Crc32c.update(checksum, direct);
+    Assert.assertEquals(whole.getValue(), checksum.getValue());
+    Assert.assertEquals(0, direct.position());
+  }
+}
@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.engine;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.xiaomi.infra.ec.CodecInterface;
+import com.xiaomi.infra.ec.ErasureCodec.Algorithm;
+import com.xiaomi.infra.ec.gf.GaloisKernels;
+import com.xiaomi.infra.ec.gf.GaloisMatrix;
+import com.xiaomi.infra.ec.rs.JavaReedSolomonCodec;
+
+/**
+ * A third party engine registered by the test resources. Its SIMD profile
+ * is a Reed-Solomon code whose coding rows are swapped, so that it decodes
+ * fine but its parity is not compatible with the Vandermonde one.
+ */
+public class DelegatingEngine implements CodecEngine {
+
+  static final String NAME = "delegating";
+
+  static final CodecProfile COMPATIBLE = new CodecProfile(NAME,
+      Algorithm.Java_Reed_Solomon, 8, 0, false, false);
+
+  static final CodecProfile INCOMPATIBLE = new CodecProfile(NAME,
+      Algorithm.Java_Reed_Solomon, 8, 0, false, true);
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public boolean isAvailable() {
+    return true;
+  }
+
+  @Override
+  public List<CodecProfile> getCandidates(int dataBlockNum,
+      int codingBlockNum) {
+    return Arrays.asList(COMPATIBLE, INCOMPATIBLE);
+  }
+
+  @Override
+  public CodecInterface create(CodecProfile profile, int dataBlockNum,
+      int codingBlockNum) {
+    if (!profile.isSimd()) {
+      return new JavaReedSolomonCodec(dataBlockNum, codingBlockNum, 8);
+    }
+    int[] matrix = GaloisMatrix.createVandermondeMatrix(dataBlockNum,
+        codingBlockNum);
+    int[] swapped = new int[matrix.length];
+    for (int i = 0; i < codingBlockNum; ++i) {
+      System.arraycopy(matrix, i * dataBlockNum, swapped,
+          (codingBlockNum - 1 - i) * dataBlockNum, dataBlockNum);
+    }
+    return new SwappedCodec(dataBlockNum, codingBlockNum, swapped);
+  }
+
+  private static class SwappedCodec extends JavaReedSolomonCodec {
+    SwappedCodec(int dataBlockNum, int codingBlockNum, int[] matrix) {
+      super(dataBlockNum, codingBlockNum, matrix, GaloisKernels.scalar(), 0);
+    }
+  }
+}
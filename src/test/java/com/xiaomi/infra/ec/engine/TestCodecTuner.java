@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.engine;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xiaomi.infra.ec.ErasureCodec;
+import com.xiaomi.infra.ec.ErasureCodec.Algorithm;
+import com.xiaomi.infra.ec.ErasureCodec.Builder;
+
+public class TestCodecTuner {
+
+  @Test
+  public void testEngines() {
+    Assert.assertTrue(CodecEngines.get(JavaEngine.NAME).isAvailable());
+    Assert.assertNotNull(CodecEngines.get(JerasureEngine.NAME));
+    Assert.assertNotNull(CodecEngines.get(DelegatingEngine.NAME));
+    Assert.assertTrue(CodecEngines.isBuiltIn(JerasureEngine.NAME));
+    Assert.assertFalse(CodecEngines.isBuiltIn(DelegatingEngine.NAME));
+  }
+
+  @Test
+  public void testCompatibleCandidates() {
+    CodecTuner tuner = new CodecTuner(6, 3, 4096, 5,
+        CodecEngines.available());
+    List<CodecTuner.Result> results = tuner.benchmark(CodecProfile.DEFAULT);
+    boolean hasDefault = false;
+    for (CodecTuner.Result result : results) {
+      Assert.assertNotEquals(DelegatingEngine.INCOMPATIBLE,
+          result.getProfile());
+      Assert.assertTrue(result.getThroughput() > 0);
+      hasDefault |= result.getProfile().equals(CodecProfile.DEFAULT);
+    }
+    Assert.assertTrue(hasDefault);
+    for (int i = 1; i < results.size(); ++i) {
+      Assert.assertTrue(results.get(i - 1).getThroughput()
+          >= results.get(i).getThroughput());
+    }
+
+    // Without stored stripes, any candidate which decodes is fine
+    boolean hasIncompatible = false;
+    for (CodecTuner.Result result : tuner.benchmark(null)) {
+      hasIncompatible |= result.getProfile().equals(
+          DelegatingEngine.INCOMPATIBLE);
+    }
+    Assert.assertTrue(hasIncompatible);
+  }
+
+  @Test
+  public void testTuneAndSave() throws Exception {
+    Path dir = Files.createTempDirectory("profiles");
+    CodecProfile.DEFAULT.save(dir, 6, 3);
+    CodecTuner tuner = new CodecTuner(6, 3, 4096, 5,
+        CodecEngines.available());
+    CodecProfile profile = tuner.tuneAndSave(dir);
+    Assert.assertEquals(profile, CodecProfile.load(dir, 6, 3));
+    Assert.assertNotEquals(DelegatingEngine.INCOMPATIBLE, profile);
+
+    ErasureCodec tuned = new Builder()
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .profileDir(dir)
+        .build();
+    Assert.assertEquals(profile.getAlgorithm(), tuned.getAlgorithm());
+    ErasureCodec codec = new Builder(Algorithm.Java_Reed_Solomon)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .wordSize(8)
+        .build();
+    byte[][] data = new byte[6][4096];
+    Random random = new Random();
+    for (byte[] block : data) {
+      random.nextBytes(block);
+    }
+    Assert.assertArrayEquals(codec.encode(data), tuned.encode(data));
+  }
+
+  @Test
+  public void testFirstTuneKeepsDefaultParity() throws Exception {
+    // Stripes coded before tuning use the default profile
+    Path dir = Files.createTempDirectory("profiles");
+    ErasureCodec untuned = new Builder()
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .profileDir(dir)
+        .build();
+    byte[][] data = new byte[6][4096];
+    Random random = new Random();
+    for (byte[] block : data) {
+      random.nextBytes(block);
+    }
+    byte[][] coding = untuned.encode(data);
+
+    CodecProfile profile = new CodecTuner(6, 3, 4096, 5,
+        CodecEngines.available()).tuneAndSave(dir);
+    Assert.assertNotEquals(DelegatingEngine.INCOMPATIBLE, profile);
+    ErasureCodec tuned = new Builder()
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .profileDir(dir)
+        .build();
+    Assert.assertArrayEquals(coding, tuned.encode(data));
+  }
+
+  @Test
+  public void testBuilderProfile() throws Exception {
+    // Without a saved profile, the default one is used
+    ErasureCodec codec = new Builder()
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .profileDir(Files.createTempDirectory("profiles"))
+        .build();
+    Assert.assertEquals(Algorithm.Java_Reed_Solomon, codec.getAlgorithm());
+
+    ErasureCodec delegated = new Builder()
+        .profile(DelegatingEngine.COMPATIBLE)
+        .dataBlockNum(6)
+        .codingBlockNum(3)
+        .build();
+    byte[][] data = new byte[6][1024];
+    new Random().nextBytes(data[0]);
+    byte[][] coding = delegated.encode(data);
+    Assert.assertArrayEquals(codec.encode(data), coding);
+    byte[] erased = data[0];
+    data[0] = new byte[1024];
+    delegated.decode(new int[] {0}, data, coding);
+    Assert.assertArrayEquals(erased, data[0]);
+  }
+}
@@ -0,0 +1,51 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.gf;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestGaloisKernels {
+
+  @Test
+  public void testVectorizedMatchesScalar() {
+    GaloisKernel scalar = GaloisKernels.scalar();
+    GaloisKernel vector = GaloisKernels.vectorized();
+    // Without the Vector API the scalar kernel is the fallback
+    Assert.assertEquals(!GaloisKernels.isVectorAvailable(), vector == scalar);
+    Random random = new Random();
+    byte[] src = new byte[1000];
+    random.nextBytes(src);
+
+    int[] multipliers = {0, 1, 2, 29, 142, 255};
+    for (int multiplier : multipliers) {
+      for (boolean add : new boolean[]{false, true}) {
+        byte[] expected = new byte[src.length];
+        byte[] actual = new byte[src.length];
+        random.nextBytes(expected);
+        System.arraycopy(expected, 0, actual, 0, expected.length);
+
+        scalar.multiplyRegion(multiplier, src, 3, expected, 5, 977, add);
+        vector.multiplyRegion(multiplier, src, 3, actual, 5, 977, add);
+        Assert.assertArrayEquals(expected, actual);
+      }
+    }
+  }
+}
@@ -0,0 +1,83 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.gf;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestGaloisMatrix {
+
+  @Test
+  public void testVandermondeMatrix() {
+    // The coding matrix printed by Jerasure for k = 8, m = 3 and w = 8
+    int[] expected = {
+        1, 1, 1, 1, 1, 1, 1, 1,
+        1, 55, 39, 73, 84, 181, 225, 217,
+        1, 172, 70, 235, 143, 34, 200, 101,
+    };
+    Assert.assertArrayEquals(expected,
+        GaloisMatrix.createVandermondeMatrix(8, 3));
+  }
+
+  @Test
+  public void testInvert() {
+    int k = 6;
+    int m = 3;
+    int[] coding = GaloisMatrix.createVandermondeMatrix(k, m);
+    int[] survivors = {0, 2, 4, 6, 7, 8};
+    int[] matrix = new int[k * k];
+    for (int i = 0; i < k; ++i) {
+      if (survivors[i] < k) {
+        matrix[i * k + survivors[i]] = 1;
+      } else {
+        System.arraycopy(coding, (survivors[i] - k) * k, matrix, i * k, k);
+      }
+    }
+    int[] inverse = GaloisMatrix.createDecodingMatrix(k, coding, survivors);
+    for (int i = 0; i < k; ++i) {
+      for (int j = 0; j < k; ++j) {
+        int sum = 0;
+        for (int x = 0; x < k; ++x) {
+          sum ^= GaloisField.multiply(inverse[i * k + x], matrix[x * k + j]);
+        }
+        Assert.assertEquals(i == j ? 1 : 0, sum);
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvertSingular() {
+    GaloisMatrix.invert(new int[]{1, 2, 1, 2}, 2);
+  }
+
+  @Test
+  public void testMultiplyRegion() {
+    byte[] src = new byte[19];
+    for (int i = 0; i < src.length; ++i) {
+      src[i] = (byte)(i * 37);
+    }
+    byte[] dst = new byte[19];
+    GaloisField.multiplyRegion(29, src, 0, dst, 0, src.length, false);
+    for (int i = 0; i < src.length; ++i) {
+      Assert.assertEquals(GaloisField.multiply(29, src[i] & 0xff),
+          dst[i] & 0xff);
+    }
+    GaloisField.multiplyRegion(29, src, 0, dst, 0, src.length, true);
+    Assert.assertArrayEquals(new byte[19], dst);
+  }
+}
@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.io;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xiaomi.infra.ec.ErasureCodec;
+import com.xiaomi.infra.ec.ErasureCodec.Algorithm;
+import com.xiaomi.infra.ec.ErasureCodec.Builder;
+
+public class TestMappedFileCodec {
+
+  @Test
+  public void testEncodeDecode() throws Exception {
+    ErasureCodec codec = new Builder(Algorithm.Java_Reed_Solomon)
+        .dataBlockNum(4)
+        .codingBlockNum(2)
+        .wordSize(8)
+        .build();
+    runTest(codec, 4, 2, 1000);
+  }
+
+  @Test
+  public void testReedSolomonCodec() throws Exception {
+    ErasureCodec codec = new Builder(Algorithm.Reed_Solomon)
+        .dataBlockNum(4)
+        .codingBlockNum(2)
+        .wordSize(8)
+        .build();
+    runTest(codec, 4, 2, 1024);
+  }
+
+  @Test
+  public void testCauchyReedSolomonCodec() throws Exception {
+    // Cells must be a multiple of wordSize * packetSize
+    ErasureCodec codec = new Builder(Algorithm.Cauchy_Reed_Solomon)
+        .dataBlockNum(4)
+        .codingBlockNum(2)
+        .wordSize(4)
+        .packetSize(8)
+        .build();
+    runTest(codec, 4, 2, 1024);
+  }
+
+  private void runTest(ErasureCodec codec, int k, int m, int cellSize)
+      throws Exception {
+    File dir = Files.createTempDirectory("mapped").toFile();
+    Path source = new File(dir, "source").toPath();
+    Path[] codingFiles = new Path[m];
+    for (int j = 0; j < m; ++j) {
+      codingFiles[j] = new File(dir, "coding" + j).toPath();
+    }
+    byte[] input = new byte[5 * k * cellSize + 1234];
+    new Random().nextBytes(input);
+    Files.write(source, input);
+
+    // Two stripes per mapped region, so that the file takes three regions
+    MappedFileCodec fileCodec = new MappedFileCodec(codec, cellSize,
+        2 * k * cellSize);
+    StripeLayout layout = fileCodec.encode(source, codingFiles);
+    Assert.assertEquals(6, layout.getStripeNum());
+    byte[][] coding = new byte[m][];
+    for (int j = 0; j < m; ++j) {
+      coding[j] = Files.readAllBytes(codingFiles[j]);
+      Assert.assertEquals(layout.getBlockLength(), coding[j].length);
+    }
+    for (int s = 0; s < layout.getStripeNum(); ++s) {
+      byte[][] data = new byte[k][cellSize];
+      for (int i = 0; i < k; ++i) {
+        for (int x = 0; x < cellSize; ++x) {
+          long pos = s * layout.getStripeSize() + i * cellSize + x;
+          data[i][x] = pos < input.length ? input[(int) pos] : 0;
+        }
+      }
+      byte[][] expected = codec.encode(data);
+      for (int j = 0; j < m; ++j) {
+        Assert.assertArrayEquals(expected[j], Arrays.copyOfRange(coding[j],
+            s * cellSize, (s + 1) * cellSize));
+      }
+    }
+
+    // Lose block 1, which has a cell in the last stripe, and coding file 0
+    byte[] damaged = input.clone();
+    for (int s = 0; s < layout.getStripeNum(); ++s) {
+      long offset = s * layout.getStripeSize() + cellSize;
+      for (int x = 0; x < cellSize && offset + x < damaged.length; ++x) {
+        damaged[(int) (offset + x)] = 0;
+      }
+    }
+    Files.write(source, damaged);
+    Files.delete(codingFiles[0]);
+
+    fileCodec.decode(layout, source, codingFiles, new int[] {1, k});
+    Assert.assertArrayEquals(input, Files.readAllBytes(source));
+    for (int j = 0; j < m; ++j) {
+      Assert.assertArrayEquals(coding[j], Files.readAllBytes(codingFiles[j]));
+    }
+
+    for (File file : dir.listFiles()) {
+      file.delete();
+    }
+    dir.delete();
+  }
+}
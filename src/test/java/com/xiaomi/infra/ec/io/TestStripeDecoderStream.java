@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xiaomi.infra.ec.ErasureCodec;
+import com.xiaomi.infra.ec.ErasureCodec.Algorithm;
+import com.xiaomi.infra.ec.ErasureCodec.Builder;
+
+public class TestStripeDecoderStream {
+
+  private static final int K = 4;
+  private static final int M = 2;
+  private static final int CELL_SIZE = 1000;
+
+  @Test
+  public void testDegradedRead() throws Exception {
+    runDecodeTest(new int[]{0, 2}, new int[]{0, 2}, new int[0]);
+  }
+
+  @Test
+  public void testReadsOnlyNeededCodingBlocks() throws Exception {
+    // One erased data block is decoded from the first coding block alone
+    runDecodeTest(new int[]{1}, new int[]{1}, new int[]{5});
+  }
+
+  @Test
+  public void testCodingErased() throws Exception {
+    runDecodeTest(new int[]{5}, new int[]{4, 5}, new int[0]);
+  }
+
+  private void runDecodeTest(int[] erasures, int[] missing, int[] unread)
+      throws Exception {
+    ErasureCodec codec = new Builder(Algorithm.Java_Reed_Solomon)
+        .dataBlockNum(K)
+        .codingBlockNum(M)
+        .wordSize(8)
+        .build();
+
+    byte[] input = new byte[5 * K * CELL_SIZE + 777];
+    new Random().nextBytes(input);
+    ByteArrayOutputStream[] blocks = new ByteArrayOutputStream[K + M];
+    WritableByteChannel[] outputs = new WritableByteChannel[K + M];
+    for (int i = 0; i < K + M; ++i) {
+      blocks[i] = new ByteArrayOutputStream();
+      outputs[i] = Channels.newChannel(blocks[i]);
+    }
+    StripeLayout layout = new StripeEncoderStream(codec, CELL_SIZE, outputs)
+        .encode(new ByteArrayInputStream(input));
+
+    ReadableByteChannel[] inputs = new ReadableByteChannel[K + M];
+    for (int i = 0; i < K + M; ++i) {
+      inputs[i] = Channels.newChannel(
+          new ByteArrayInputStream(blocks[i].toByteArray()));
+    }
+    for (int i : missing) {
+      inputs[i] = null;
+    }
+    for (int i : unread) {
+      inputs[i] = new UnreadableChannel();
+    }
+
+    StripeDecoderStream decoder = new StripeDecoderStream(codec, layout,
+        inputs, erasures, 2);
+    InputStream in = decoder.getInputStream();
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    // Odd sized reads cross cell and stripe boundaries
+    byte[] buffer = new byte[333];
+    int n;
+    while ((n = in.read(buffer)) >= 0) {
+      result.write(buffer, 0, n);
+    }
+    Assert.assertEquals(-1, in.read());
+    in.close();
+    Assert.assertFalse(decoder.isOpen());
+    Assert.assertArrayEquals(input, result.toByteArray());
+  }
+
+  /**
+   * A channel which fails the test when read.
+   */
+  private static class UnreadableChannel implements ReadableByteChannel {
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+      throw new IOException("Unneeded block is read");
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xiaomi.infra.ec.ErasureCodec;
+import com.xiaomi.infra.ec.ErasureCodec.Algorithm;
+import com.xiaomi.infra.ec.ErasureCodec.Builder;
+
+public class TestStripeEncoderStream {
+
+  @Test
+  public void testEncode() throws Exception {
+    int k = 4;
+    int m = 2;
+    int cellSize = 1000;
+    ErasureCodec codec = new Builder(Algorithm.Java_Reed_Solomon)
+        .dataBlockNum(k)
+        .codingBlockNum(m)
+        .wordSize(8)
+        .build();
+
+    byte[] input = new byte[3 * k * cellSize + 1234];
+    new Random().nextBytes(input);
+    ByteArrayOutputStream[] blocks = new ByteArrayOutputStream[k + m];
+    WritableByteChannel[] outputs = new WritableByteChannel[k + m];
+    for (int i = 0; i < k + m; ++i) {
+      blocks[i] = new ByteArrayOutputStream();
+      outputs[i] = Channels.newChannel(blocks[i]);
+    }
+
+    StripeLayout layout = new StripeEncoderStream(codec, cellSize, outputs, 2)
+        .encode(new ByteArrayInputStream(input));
+    Assert.assertEquals(input.length, layout.getLength());
+    Assert.assertEquals(4, layout.getStripeNum());
+    Assert.assertEquals(1234, layout.getTailLength());
+
+    for (int s = 0; s < layout.getStripeNum(); ++s) {
+      byte[][] data = new byte[k][cellSize];
+      for (int i = 0; i < k; ++i) {
+        byte[] block = blocks[i].toByteArray();
+        Assert.assertEquals(layout.getBlockLength(), block.length);
+        System.arraycopy(block, s * cellSize, data[i], 0, cellSize);
+        for (int x = 0; x < cellSize; ++x) {
+          long pos = s * layout.getStripeSize() + i * cellSize + x;
+          byte expected = pos < input.length ? input[(int) pos] : 0;
+          Assert.assertEquals(expected, data[i][x]);
+        }
+      }
+      byte[][] coding = codec.encode(data);
+      for (int i = 0; i < m; ++i) {
+        byte[] block = blocks[k + i].toByteArray();
+        byte[] cell = new byte[cellSize];
+        System.arraycopy(block, s * cellSize, cell, 0, cellSize);
+        Assert.assertArrayEquals(coding[i], cell);
+      }
+    }
+  }
+
+  @Test
+  public void testEncodeEmpty() throws Exception {
+    ErasureCodec codec = new Builder(Algorithm.Java_Reed_Solomon)
+        .dataBlockNum(2)
+        .codingBlockNum(1)
+        .wordSize(8)
+        .build();
+    ByteArrayOutputStream block = new ByteArrayOutputStream();
+    WritableByteChannel[] outputs = new WritableByteChannel[3];
+    for (int i = 0; i < outputs.length; ++i) {
+      outputs[i] = Channels.newChannel(block);
+    }
+    StripeLayout layout = new StripeEncoderStream(codec, 64, outputs)
+        .encode(new ByteArrayInputStream(new byte[0]));
+    Assert.assertEquals(0, layout.getStripeNum());
+    Assert.assertEquals(0, block.size());
+  }
+}
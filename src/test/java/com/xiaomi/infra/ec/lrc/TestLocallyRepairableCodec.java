@@ -0,0 +1,170 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.lrc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xiaomi.infra.ec.DecodePlan;
+import com.xiaomi.infra.ec.ErasureCodec;
+import com.xiaomi.infra.ec.ErasureCodec.Algorithm;
+import com.xiaomi.infra.ec.ErasureCodec.Builder;
+
+public class TestLocallyRepairableCodec {
+
+  @Test
+  public void testLocalGroups() {
+    LocallyRepairableCodec codec = new LocallyRepairableCodec(5, 2, 2);
+    int[] groups = {0, 0, 1, 1, 1};
+    for (int i = 0; i < groups.length; ++i) {
+      Assert.assertEquals(groups[i], codec.getLocalGroup(i));
+    }
+  }
+
+  @Test
+  public void testLocalRepair() {
+    LocallyRepairableCodec codec = new LocallyRepairableCodec(12, 2, 2);
+    // Data block 3 is in group 0, repaired from the rest of the group and
+    // local parity 0
+    Assert.assertArrayEquals(new int[]{0, 1, 2, 4, 5, 12},
+        codec.getRepairBlocks(new int[]{3}));
+    // Local parity 1 is the XOR of group 1
+    Assert.assertArrayEquals(new int[]{6, 7, 8, 9, 10, 11},
+        codec.getRepairBlocks(new int[]{13}));
+    // Two failures in a group need a global parity
+    Assert.assertEquals(12, codec.getRepairBlocks(new int[]{0, 1}).length);
+  }
+
+  @Test
+  public void testAllRecoverablePatterns() {
+    runPatternTest(6, 2, 2);
+    runPatternTest(12, 2, 2);
+    runPatternTest(7, 3, 1);
+  }
+
+  @Test
+  public void testPlanDecode() {
+    ErasureCodec codec = new Builder(Algorithm.LRC)
+        .dataBlockNum(6)
+        .codingBlockNum(4)
+        .localParityNum(2)
+        .wordSize(8)
+        .build();
+    Random random = new Random();
+    byte[][] data = new byte[6][100];
+    for (byte[] block : data) {
+      random.nextBytes(block);
+    }
+    byte[][] coding = codec.encode(data);
+
+    // Data blocks 0 and 1 are lost, so the local parity 6 of their group is
+    // chosen. The other group's local parity 7 is dependent once its data
+    // blocks 3, 4 and 5 are chosen, so the global parity 8 is read
+    DecodePlan plan = codec.planDecode(new int[]{2, 3, 4, 5, 6, 7, 8, 9},
+        new int[]{0, 1});
+    Assert.assertArrayEquals(new int[]{2, 3, 4, 5, 6, 8}, plan.getSurvivors());
+    byte[][] survivorBlocks = new byte[][]{data[2], data[3], data[4],
+        data[5], coding[0], coding[2]};
+    byte[][] decoded = codec.decode(plan, survivorBlocks);
+    Assert.assertArrayEquals(data[0], decoded[0]);
+    Assert.assertArrayEquals(data[1], decoded[1]);
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void testUnrecoverable() {
+    ErasureCodec codec = new Builder(Algorithm.LRC)
+        .dataBlockNum(6)
+        .codingBlockNum(4)
+        .localParityNum(2)
+        .wordSize(8)
+        .build();
+    byte[][] data = new byte[6][16];
+    byte[][] coding = codec.encode(data);
+    // A group and its local parity lose more than the globals can recover
+    codec.decode(new int[]{0, 1, 2, 6}, data, coding);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidGeometry() {
+    new Builder(Algorithm.LRC)
+        .dataBlockNum(6)
+        .codingBlockNum(2)
+        .localParityNum(2)
+        .wordSize(8)
+        .build();
+  }
+
+  /**
+   * Checks that every pattern of up to r + 1 failures is decoded.
+   */
+  private void runPatternTest(int k, int l, int r) {
+    ErasureCodec codec = new Builder(Algorithm.LRC)
+        .dataBlockNum(k)
+        .codingBlockNum(l + r)
+        .localParityNum(l)
+        .wordSize(8)
+        .build();
+    Random random = new Random();
+    byte[][] data = new byte[k][64];
+    for (byte[] block : data) {
+      random.nextBytes(block);
+    }
+    byte[][] coding = codec.encode(data);
+
+    List<int[]> patterns = new ArrayList<int[]>();
+    collectPatterns(k + l + r, r + 1, 0, new int[0], patterns);
+    for (int[] erasures : patterns) {
+      byte[][] brokenData = new byte[k][];
+      byte[][] brokenCoding = new byte[l + r][];
+      for (int i = 0; i < k; ++i) {
+        brokenData[i] = data[i].clone();
+      }
+      for (int i = 0; i < l + r; ++i) {
+        brokenCoding[i] = coding[i].clone();
+      }
+      for (int erasure : erasures) {
+        byte[] block = erasure < k ? brokenData[erasure]
+            : brokenCoding[erasure - k];
+        random.nextBytes(block);
+      }
+      codec.decode(erasures, brokenData, brokenCoding);
+      Assert.assertArrayEquals(data, brokenData);
+      Assert.assertArrayEquals(coding, brokenCoding);
+    }
+  }
+
+  private void collectPatterns(int n, int maxSize, int from, int[] prefix,
+      List<int[]> patterns) {
+    if (prefix.length > 0) {
+      patterns.add(prefix);
+    }
+    if (prefix.length == maxSize) {
+      return;
+    }
+    for (int i = from; i < n; ++i) {
+      int[] next = new int[prefix.length + 1];
+      System.arraycopy(prefix, 0, next, 0, prefix.length);
+      next[prefix.length] = i;
+      collectPatterns(n, maxSize, i + 1, next, patterns);
+    }
+  }
+}
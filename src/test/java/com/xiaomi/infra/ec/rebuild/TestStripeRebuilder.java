@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.xiaomi.infra.ec.rebuild;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xiaomi.infra.ec.ErasureCodec;
+import com.xiaomi.infra.ec.ErasureCodec.Algorithm;
+import com.xiaomi.infra.ec.ErasureCodec.Builder;
+
+public class TestStripeRebuilder {
+
+  @Test
+  public void testRebuild() throws Exception {
+    int k = 6, m = 3, size = 4096, stripeNum = 40;
+    ErasureCodec codec = new Builder(Algorithm.Java_Reed_Solomon)
+        .dataBlockNum(k)
+        .codingBlockNum(m)
+        .wordSize(8)
+        .build();
+    LocalBlockStore store = new LocalBlockStore(
+        Files.createTempDirectory("blocks"));
+    Random random = new Random();
+    byte[][][] stripes = new byte[stripeNum][][];
+    for (int s = 0; s < stripeNum; ++s) {
+      byte[][] data = new byte[k][size];
+      for (byte[] block : data) {
+        random.nextBytes(block);
+      }
+      byte[][] coding = codec.encode(data);
+      stripes[s] = new byte[k + m][];
+      for (int i = 0; i < k + m; ++i) {
+        stripes[s][i] = i < k ? data[i] : coding[i - k];
+        store.writeBlock(s, i, stripes[s][i]);
+      }
+    }
+
+    // A dead device held block s % (k + m) of every stripe, and a second
+    // one block 0 of the even stripes
+    List<LostStripe> lost = new ArrayList<LostStripe>();
+    for (int s = 0; s < stripeNum; ++s) {
+      int id = s % (k + m);
+      store.deleteBlock(s, id);
+      if (s % 2 == 0 && id != 0) {
+        store.deleteBlock(s, 0);
+        lost.add(new LostStripe(s, id, 0));
+      } else {
+        lost.add(new LostStripe(s, id));
+      }
+    }
+    // Unrecoverable with m + 1 lost blocks
+    lost.add(new LostStripe(stripeNum, 0, 1, 2, 3));
+
+    StripeRebuilder rebuilder = new StripeRebuilder(codec, store, store, 4,
+        0);
+    RebuildProgress progress = rebuilder.rebuild(lost);
+    Assert.assertSame(progress, rebuilder.getProgress());
+    Assert.assertTrue(progress.isDone());
+    Assert.assertEquals(stripeNum + 1, progress.getTotalStripeNum());
+    Assert.assertEquals(stripeNum, progress.getRebuiltStripeNum());
+    Assert.assertEquals(Arrays.asList((long) stripeNum),
+        progress.getFailedStripes());
+    Assert.assertTrue(progress.getFailureCause(stripeNum)
+        instanceof RuntimeException);
+    Assert.assertNull(progress.getFailureCause(0));
+    Assert.assertEquals((long) stripeNum * k * size, progress.getBytesRead());
+    Assert.assertTrue(progress.getThroughput() > 0);
+    Assert.assertEquals(0, progress.getEstimatedRemainingNanos());
+    for (int s = 0; s < stripeNum; ++s) {
+      for (int i = 0; i < k + m; ++i) {
+        Assert.assertArrayEquals(stripes[s][i], store.readBlock(s, i));
+      }
+    }
+  }
+
+  @Test
+  public void testThrottle() throws Exception {
+    ErasureCodec codec = new Builder(Algorithm.Java_Reed_Solomon)
+        .dataBlockNum(4)
+        .codingBlockNum(2)
+        .wordSize(8)
+        .build();
+    LocalBlockStore store = new LocalBlockStore(
+        Files.createTempDirectory("blocks"));
+    byte[][] data = new byte[4][1024];
+    byte[][] coding = codec.encode(data);
+    List<LostStripe> lost = new ArrayList<LostStripe>();
+    for (int s = 0; s < 5; ++s) {
+      for (int i = 0; i < 4; ++i) {
+        store.writeBlock(s, i, data[i]);
+      }
+      store.writeBlock(s, 4, coding[0]);
+      lost.add(new LostStripe(s, 5));
+    }
+
+    // 5 stripes of 4 KB read at 8 KB/s take at least 2 seconds
+    StripeRebuilder rebuilder = new StripeRebuilder(codec, store, store, 2,
+        8 << 10);
+    RebuildProgress progress = rebuilder.rebuild(lost);
+    Assert.assertEquals(5, progress.getRebuiltStripeNum());
+    Assert.assertTrue(progress.getElapsedNanos() > 1500000000L);
+    Assert.assertArrayEquals(coding[1], store.readBlock(3, 5));
+  }
+}